@@ -0,0 +1,136 @@
+package jnet.algorithm;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import jnet.net.Vector;
+
+/**
+ * Base class for optimizers which update every parameter independently.
+ * The state kept for a parameter vector is allocated the first time it
+ * is updated, in the same precision and place as the parameters
+ * @author nigelgray
+ *
+ */
+public abstract class AbstractOptimizer implements Optimizer {
+
+	private final Map<Vector, State> states = new IdentityHashMap<>();
+
+	private double learningRate;
+
+	protected AbstractOptimizer(double learningRate)
+	{
+		this.learningRate = learningRate;
+	}
+
+	@Override
+	public void update(Vector parameters, Vector sumOfGradients, int batchSize)
+	{
+		update(parameters, sumOfGradients, batchSize, getState(parameters));
+	}
+
+	@Override
+	public double getLearningRate()
+	{
+		return learningRate;
+	}
+
+	@Override
+	public void setLearningRate(double learningRate)
+	{
+		this.learningRate = learningRate;
+	}
+
+	/**
+	 * Writes whether there is state for the parameters, and if so the
+	 * step count and each moment vector
+	 */
+	@Override
+	public void saveState(Vector parameters, DataOutput out) throws IOException
+	{
+		State state = states.get(parameters);
+		out.writeBoolean(state != null);
+		if (state != null) {
+			out.writeLong(state.step);
+			out.writeInt(state.moments.length);
+			for (Vector moment : state.moments) {
+				Checkpoint.writeVector(out, moment);
+			}
+		}
+	}
+
+	@Override
+	public void loadState(Vector parameters, DataInput in) throws IOException
+	{
+		if (!in.readBoolean()) {
+			states.remove(parameters);
+			return;
+		}
+		long step = in.readLong();
+		int numMoments = in.readInt();
+		if (numMoments != getNumMoments()) {
+			throw new IOException(String.format("expected %d moments, found %d", getNumMoments(), numMoments));
+		}
+		State state = new State(numMoments, parameters);
+		for (Vector moment : state.moments) {
+			Checkpoint.readVector(in, moment);
+		}
+		state.step = step;
+		states.put(parameters, state);
+	}
+
+	/**
+	 * Get the number of vectors of state, each the size of the parameters,
+	 * the optimizer keeps for every parameter vector
+	 * @return
+	 */
+	protected abstract int getNumMoments();
+
+	/**
+	 * Update the parameters in place
+	 * @param parameters
+	 * @param sumOfGradients
+	 * @param batchSize
+	 * @param state the optimizer's state for these parameters; its step
+	 * count has already been incremented for this update
+	 */
+	protected abstract void update(Vector parameters, Vector sumOfGradients, int batchSize, State state);
+
+	private State getState(Vector parameters)
+	{
+		State state = states.get(parameters);
+		if (state == null) {
+			state = new State(getNumMoments(), parameters);
+			states.put(parameters, state);
+		}
+		++state.step;
+		return state;
+	}
+
+	/**
+	 * The state kept for one parameter vector
+	 */
+	protected static class State {
+
+		/**
+		 * Per-parameter moment estimates, initially zero
+		 */
+		protected final Vector[] moments;
+
+		/**
+		 * Number of updates made, including the current one
+		 */
+		protected long step;
+
+		State(int numMoments, Vector parameters)
+		{
+			moments = new Vector[numMoments];
+			for (int i = 0; i < numMoments; ++i) {
+				moments[i] = Vector.zerosLike(parameters);
+			}
+		}
+	}
+}
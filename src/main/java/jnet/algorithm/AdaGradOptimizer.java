@@ -0,0 +1,41 @@
+package jnet.algorithm;
+
+import jnet.net.Vector;
+
+/**
+ * AdaGrad: divides the learning rate of each parameter by the root of the
+ * sum of its squared gradients so far, so rarely updated parameters - such
+ * as the weights of mostly-zero inputs - take larger steps
+ * @author nigelgray
+ *
+ */
+public class AdaGradOptimizer extends AbstractOptimizer {
+
+	public final static double DEFAULT_EPSILON = 1e-8;
+
+	private final double epsilon;
+
+	public AdaGradOptimizer(double learningRate)
+	{
+		this(learningRate, DEFAULT_EPSILON);
+	}
+
+	public AdaGradOptimizer(double learningRate, double epsilon)
+	{
+		super(learningRate);
+		this.epsilon = epsilon;
+	}
+
+	@Override
+	protected int getNumMoments()
+	{
+		return 1;
+	}
+
+	@Override
+	protected void update(Vector parameters, Vector sumOfGradients, int batchSize, State state)
+	{
+		// sumOfSquares = sumOfSquares + g * g
+		Vector.rootMeanSquareStep(getLearningRate(), epsilon, 1.0, 1.0, sumOfGradients, batchSize, state.moments[0], parameters);
+	}
+}
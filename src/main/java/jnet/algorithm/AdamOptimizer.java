@@ -0,0 +1,52 @@
+package jnet.algorithm;
+
+import jnet.net.Vector;
+
+/**
+ * Adam: scales each parameter's step by bias-corrected decaying averages
+ * of its gradient and of its squared gradient
+ * @author nigelgray
+ *
+ */
+public class AdamOptimizer extends AbstractOptimizer {
+
+	public final static double DEFAULT_BETA1 = 0.9;
+
+	public final static double DEFAULT_BETA2 = 0.999;
+
+	public final static double DEFAULT_EPSILON = 1e-8;
+
+	private final double beta1;
+
+	private final double beta2;
+
+	private final double epsilon;
+
+	public AdamOptimizer(double learningRate)
+	{
+		this(learningRate, DEFAULT_BETA1, DEFAULT_BETA2, DEFAULT_EPSILON);
+	}
+
+	public AdamOptimizer(double learningRate, double beta1, double beta2, double epsilon)
+	{
+		super(learningRate);
+		this.beta1 = beta1;
+		this.beta2 = beta2;
+		this.epsilon = epsilon;
+	}
+
+	@Override
+	protected int getNumMoments()
+	{
+		return 2;
+	}
+
+	@Override
+	protected void update(Vector parameters, Vector sumOfGradients, int batchSize, State state)
+	{
+		// fold the bias corrections of both moments into the step size
+		double stepSize = getLearningRate() * Math.sqrt(1.0 - Math.pow(beta2, state.step)) / (1.0 - Math.pow(beta1, state.step));
+		double correctedEpsilon = epsilon * Math.sqrt(1.0 - Math.pow(beta2, state.step));
+		Vector.adamStep(stepSize, correctedEpsilon, beta1, beta2, sumOfGradients, batchSize, state.moments[0], state.moments[1], parameters);
+	}
+}
@@ -0,0 +1,143 @@
+package jnet.algorithm;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jnet.data.InstanceSource;
+import jnet.data.Statistics;
+import jnet.net.CostFunction;
+import jnet.net.Network;
+import jnet.net.NetworkException;
+
+/**
+ * Validates snapshots of a network on a background thread while training
+ * carries on. Each epoch's weights and biases are copied into a snapshot
+ * network - one flat copy - and validated on a single thread, so results
+ * are delivered in epoch order. A fixed number of snapshots is allocated
+ * up front; if validation falls that many epochs behind, training waits
+ * for a snapshot to come free
+ * @author nigelgray
+ *
+ */
+class AsyncValidator {
+
+	/**
+	 * Called on the validation thread with the statistics of each epoch
+	 * and the snapshot they were measured on
+	 */
+	interface Callback {
+		void validated(int epoch, Network snapshot, Statistics stats) throws NetworkException;
+	}
+
+	private final InstanceSource validationSet;
+
+	private final CostFunction costFunction;
+
+	private final Callback callback;
+
+	private final BlockingQueue<Network> freeSnapshots;
+
+	private final Deque<Future<Void>> pending = new ArrayDeque<>();
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "jnet-validation");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * @param network the network being trained
+	 * @param validationSet
+	 * @param costFunction
+	 * @param maxPending the number of epochs validation may fall behind training
+	 * @param callback
+	 */
+	AsyncValidator(Network network, InstanceSource validationSet, CostFunction costFunction, int maxPending, Callback callback)
+	{
+		assert (maxPending > 0);
+		this.validationSet = validationSet;
+		this.costFunction = costFunction;
+		this.callback = callback;
+		freeSnapshots = new ArrayBlockingQueue<>(maxPending);
+		for (int i = 0; i < maxPending; ++i) {
+			freeSnapshots.add(network.createSnapshot());
+		}
+	}
+
+	/**
+	 * Copy the network's current weights and biases and queue their validation
+	 * @param network
+	 * @param epoch
+	 * @throws NetworkException if an earlier validation failed
+	 */
+	void submit(Network network, int epoch) throws NetworkException
+	{
+		checkCompleted();
+		Network snapshot;
+		try {
+			snapshot = freeSnapshots.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NetworkException("Training interrupted");
+		}
+		snapshot.getParameters().copyFrom(network.getParameters());
+		pending.add(executor.submit(() -> {
+			try {
+				callback.validated(epoch, snapshot, snapshot.validateOrTest(validationSet, costFunction));
+			} finally {
+				freeSnapshots.add(snapshot);
+			}
+			return null;
+		}));
+	}
+
+	/**
+	 * Wait for every queued validation to finish
+	 * @throws NetworkException if any of them failed
+	 */
+	void await() throws NetworkException
+	{
+		while (!pending.isEmpty()) {
+			get(pending.poll());
+		}
+	}
+
+	/**
+	 * Stop the validation thread, abandoning any validations still queued
+	 */
+	void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Rethrow the failure of any validation which has already finished
+	 */
+	private void checkCompleted() throws NetworkException
+	{
+		while (!pending.isEmpty() && pending.peek().isDone()) {
+			get(pending.poll());
+		}
+	}
+
+	private static void get(Future<Void> result) throws NetworkException
+	{
+		try {
+			result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NetworkException("Training interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof NetworkException) {
+				throw (NetworkException)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
@@ -1,12 +1,14 @@
 package jnet.algorithm;
 
 import jnet.data.DataInstance;
+import jnet.data.DataSet;
+import jnet.data.MiniBatch;
 import jnet.net.CostFunction;
 import jnet.net.Layer;
+import jnet.net.LinearAlgebraBackend;
 import jnet.net.Matrix;
 import jnet.net.Network;
 import jnet.net.NetworkException;
-import jnet.net.Vector;
 
 /**
  * This class implements the back-propagation
@@ -42,6 +44,54 @@ public class BackPropagation {
 		backPropagate(network, instance, costFunction);
 	}
 	
+	/**
+	 * Executes the back-propagation algorithm for a whole mini-batch at once.
+	 * Activations and errors are held as (batch x neurons) matrices by the
+	 * layers, one data instance per row, and are back-propagated with one
+	 * matrix product per layer. The summed gradients can then be obtained
+	 * with Layer.addWeightGradientBatch and Layer.addBiasGradientBatch
+	 * @param batch
+	 * @param network
+	 * @param costFunction
+	 * @throws NetworkException
+	 */
+	public void executeBatch(DataSet batch, Network network, CostFunction costFunction) throws NetworkException
+	{
+		// packed straight into the layers' batch matrices
+		Matrix inputs = network.getInputLayer().getInputsBatch(batch.getNumInstances());
+		Matrix expectedOutputs = network.getOutputLayer().getExpectedOutputsBatch(batch.getNumInstances());
+		batch.copyInstances(inputs, expectedOutputs);
+		executeBatch(inputs, expectedOutputs, network, costFunction);
+	}
+	
+	/**
+	 * Executes the back-propagation algorithm for a mini-batch already packed
+	 * into matrices - see executeBatch(DataSet, Network, CostFunction)
+	 * @param batch
+	 * @param network
+	 * @param costFunction
+	 * @throws NetworkException
+	 */
+	public void executeBatch(MiniBatch batch, Network network, CostFunction costFunction) throws NetworkException
+	{
+		executeBatch(batch.getInputs(), batch.getExpectedOutputs(), network, costFunction);
+	}
+	
+	/**
+	 * Executes the back-propagation algorithm for a mini-batch whose inputs
+	 * and expected outputs are packed one data instance per row
+	 * @param inputs
+	 * @param expectedOutputs
+	 * @param network
+	 * @param costFunction
+	 * @throws NetworkException
+	 */
+	public void executeBatch(Matrix inputs, Matrix expectedOutputs, Network network, CostFunction costFunction) throws NetworkException
+	{
+		network.evaluateBatch(inputs);
+		backPropagateBatch(network, expectedOutputs, costFunction);
+	}
+	
 	private void feedForward(Network network, DataInstance instance) throws NetworkException
 	{
 		network.evaluate(instance);
@@ -49,17 +99,38 @@ public class BackPropagation {
 	
 	private void backPropagate(Network network, DataInstance instance, CostFunction costFunction)
 	{
+		LinearAlgebraBackend backend = network.getBackend();
+		Layer outputLayer = network.getOutputLayer();
+		
+		// output layer error
+		costFunction.costPrimeInto(outputLayer.getActivation(), instance.getExpectedOutputs(), outputLayer.getError())
+				.schurInPlace(outputLayer.getActivationDerivative());
+		
+		Layer next = outputLayer;
+		Layer prev = outputLayer.getPrevious();
+		while (prev != null && prev.getActivationFunction() != null) {
+			backend.gemvTransposed(1.0, next.getWeights(), next.getError(), 0.0, prev.getError())
+					.schurInPlace(prev.getActivationDerivative());
+			
+			next = prev;
+			prev = next.getPrevious();
+		}
+	}
+	
+	private void backPropagateBatch(Network network, Matrix expectedOutputs, CostFunction costFunction)
+	{
+		LinearAlgebraBackend backend = network.getBackend();
 		Layer outputLayer = network.getOutputLayer();
 		
 		// output layer error
-		outputLayer.setError(Vector.schurProduct(costFunction.costPrime(outputLayer.getActivation(), instance.getExpectedOutputs()),
-				outputLayer.getActivationFunction().firstDerivative(outputLayer.getWeightedInput())));
+		costFunction.costPrimeInto(outputLayer.getActivationBatch(), expectedOutputs, outputLayer.getErrorBatch())
+				.schurInPlace(outputLayer.getActivationDerivativeBatch());
 		
 		Layer next = outputLayer;
 		Layer prev = outputLayer.getPrevious();
 		while (prev != null && prev.getActivationFunction() != null) {
-			prev.setError(Vector.schurProduct(Matrix.multiply(Matrix.transpose(next.getWeights()), next.getError()),
-					prev.getActivationFunction().firstDerivative(prev.getWeightedInput())));
+			backend.gemm(1.0, next.getErrorBatch(), false, next.getWeights(), false, 0.0, prev.getErrorBatch())
+					.schurInPlace(prev.getActivationDerivativeBatch());
 			
 			next = prev;
 			prev = next.getPrevious();
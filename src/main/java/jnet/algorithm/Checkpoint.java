@@ -0,0 +1,269 @@
+package jnet.algorithm;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import jnet.net.Network;
+import jnet.net.NetworkException;
+import jnet.net.Precision;
+import jnet.net.Vector;
+
+/**
+ * The binary checkpoint format of a training run: the number of epochs
+ * completed, the shape of the network, the seed the training set is
+ * shuffled with, the network's flat parameters, the state of early
+ * stopping and the optimizer's state. Vectors are written in the precision
+ * they are stored with, so a single precision network checkpoints at four
+ * bytes a parameter. All values are big-endian:
+ * <pre>
+ * int     magic "JNCP"
+ * int     format version
+ * int     epochs completed
+ * int     number of layers
+ * int[]   the number of neurons in each layer
+ * UTF[]   the activation function class name of each layer after the input layer
+ * long    shuffle seed
+ * vector  parameters
+ * byte    1 if the state of early stopping follows, otherwise 0
+ *   double  best error
+ *   int     best epoch
+ *   int     epochs without improvement
+ *   byte    1 if the best epoch's parameters follow, otherwise 0
+ *   vector  the best epoch's parameters
+ * UTF     optimizer class name
+ * ...     optimizer state - see Optimizer.saveState
+ * </pre>
+ * where a vector is its int size, a byte for its precision - 0 for double,
+ * 1 for float - then its elements
+ * @author nigelgray
+ *
+ */
+public final class Checkpoint {
+
+	private final static int MAGIC = 0x4A4E4350;
+
+	private final static int VERSION = 2;
+
+	// bounds the layer count read from a damaged file
+	private final static int MAX_LAYERS = 1 << 16;
+
+	private final int epoch;
+
+	private final long shuffleSeed;
+
+	private Checkpoint(int epoch, long shuffleSeed)
+	{
+		this.epoch = epoch;
+		this.shuffleSeed = shuffleSeed;
+	}
+
+	/**
+	 * Get the number of epochs completed when the checkpoint was taken
+	 * @return
+	 */
+	public int getEpoch()
+	{
+		return epoch;
+	}
+
+	/**
+	 * Get the seed the training run shuffled its training set with
+	 * @return
+	 */
+	public long getShuffleSeed()
+	{
+		return shuffleSeed;
+	}
+
+	/**
+	 * Encode a checkpoint of a training run after the given number of epochs
+	 * @param network
+	 * @param optimizer
+	 * @param earlyStopping the run's early stopping, or null
+	 * @param shuffleSeed
+	 * @param epoch
+	 * @return
+	 */
+	static byte[] encode(Network network, Optimizer optimizer, EarlyStopping earlyStopping, long shuffleSeed, int epoch)
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(epoch);
+			out.writeInt(network.getNumLayers());
+			for (int i = 0; i < network.getNumLayers(); ++i) {
+				out.writeInt(network.getLayer(i).getNumNeurons());
+			}
+			for (int i = 1; i < network.getNumLayers(); ++i) {
+				out.writeUTF(network.getLayer(i).getActivationFunction().getClass().getName());
+			}
+			out.writeLong(shuffleSeed);
+			writeVector(out, network.getParameters());
+			out.writeByte(earlyStopping != null ? 1 : 0);
+			if (earlyStopping != null) {
+				out.writeDouble(earlyStopping.getBestError());
+				out.writeInt(earlyStopping.getBestEpoch());
+				out.writeInt(earlyStopping.getEpochsWithoutImprovement());
+				Vector bestParameters = earlyStopping.getBestParameters();
+				out.writeByte(bestParameters != null ? 1 : 0);
+				if (bestParameters != null) {
+					writeVector(out, bestParameters);
+				}
+			}
+			out.writeUTF(optimizer.getClass().getName());
+			optimizer.saveState(network.getParameters(), out);
+		} catch (IOException e) {
+			// not thrown writing to memory
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Restore the network's parameters, the state of early stopping and the
+	 * optimizer's state from a checkpoint file. The network must have the
+	 * layers and activation functions, the optimizer the class, of those
+	 * checkpointed, and earlyStopping must be given if and only if the run
+	 * checkpointed used it. If the checkpoint does not match, or cannot be
+	 * read in full, none of them is changed
+	 * @param file
+	 * @param network
+	 * @param optimizer
+	 * @param earlyStopping the early stopping of the run to resume, or null
+	 * @return the checkpoint's epoch and shuffle seed
+	 * @throws NetworkException if the file cannot be read or does not match
+	 */
+	public static Checkpoint restore(Path file, Network network, Optimizer optimizer, EarlyStopping earlyStopping) throws NetworkException
+	{
+		try (InputStream stream = new BufferedInputStream(Files.newInputStream(file))) {
+			DataInputStream in = new DataInputStream(stream);
+			if (in.readInt() != MAGIC) {
+				throw new NetworkException(String.format("%s is not a checkpoint", file));
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new NetworkException(String.format("Unsupported checkpoint version %d in %s", version, file));
+			}
+			int epoch = in.readInt();
+			checkShape(in, network, file);
+			long shuffleSeed = in.readLong();
+			// nothing is changed until the whole checkpoint has been read
+			Vector parameters = Vector.zerosLike(network.getParameters());
+			readVector(in, parameters);
+			boolean hasEarlyStopping = in.readByte() != 0;
+			if (hasEarlyStopping != (earlyStopping != null)) {
+				throw new NetworkException(String.format("Checkpoint was taken %s early stopping", hasEarlyStopping ? "with" : "without"));
+			}
+			double bestError = 0;
+			int bestEpoch = 0;
+			int epochsWithoutImprovement = 0;
+			Vector bestParameters = null;
+			if (hasEarlyStopping) {
+				bestError = in.readDouble();
+				bestEpoch = in.readInt();
+				epochsWithoutImprovement = in.readInt();
+				if (in.readByte() != 0) {
+					bestParameters = Vector.zerosLike(network.getParameters());
+					readVector(in, bestParameters);
+				}
+				if (earlyStopping.isRestoringBestWeights() && bestEpoch >= 0 && bestParameters == null) {
+					throw new NetworkException("Checkpoint has no best weights for early stopping to restore");
+				}
+			}
+			String optimizerClass = in.readUTF();
+			if (!optimizerClass.equals(optimizer.getClass().getName())) {
+				throw new NetworkException(String.format("Checkpoint was taken with %s, not %s", optimizerClass, optimizer.getClass().getName()));
+			}
+			optimizer.loadState(network.getParameters(), in);
+			network.getParameters().copyFrom(parameters);
+			if (earlyStopping != null) {
+				earlyStopping.restore(bestError, bestEpoch, epochsWithoutImprovement, bestParameters);
+			}
+			return new Checkpoint(epoch, shuffleSeed);
+		} catch (IOException e) {
+			throw new NetworkException(String.format("Cannot read checkpoint %s: %s", file, e.getMessage()));
+		}
+	}
+
+	/**
+	 * Read the layers checkpointed and check that the network has them
+	 * @throws NetworkException if it does not
+	 */
+	private static void checkShape(DataInput in, Network network, Path file) throws IOException, NetworkException
+	{
+		int numLayers = in.readInt();
+		if (numLayers < 0 || numLayers > MAX_LAYERS) {
+			throw new IOException("invalid number of layers " + numLayers);
+		}
+		int[] layerSizes = new int[numLayers];
+		for (int i = 0; i < numLayers; ++i) {
+			layerSizes[i] = in.readInt();
+		}
+		boolean matches = numLayers == network.getNumLayers();
+		for (int i = 0; matches && i < numLayers; ++i) {
+			matches = layerSizes[i] == network.getLayer(i).getNumNeurons();
+		}
+		if (!matches) {
+			throw new NetworkException(String.format("Checkpoint %s is of a network with layers %s", file, Arrays.toString(layerSizes)));
+		}
+		for (int i = 1; i < numLayers; ++i) {
+			String activationClass = in.readUTF();
+			String expected = network.getLayer(i).getActivationFunction().getClass().getName();
+			if (!activationClass.equals(expected)) {
+				throw new NetworkException(String.format("Layer %d of the checkpointed network uses %s, not %s", i, activationClass, expected));
+			}
+		}
+	}
+
+	/**
+	 * Write a vector in its own precision
+	 * @param out
+	 * @param vector
+	 * @throws IOException
+	 */
+	static void writeVector(DataOutput out, Vector vector) throws IOException
+	{
+		out.writeInt(vector.getSize());
+		out.writeByte(vector.getPrecision().ordinal());
+		for (int i = 0; i < vector.getSize(); ++i) {
+			if (vector.getPrecision() == Precision.FLOAT) {
+				out.writeFloat((float)vector.getElement(i));
+			} else {
+				out.writeDouble(vector.getElement(i));
+			}
+		}
+	}
+
+	/**
+	 * Read a vector written by writeVector into target, converting
+	 * it to target's precision
+	 * @param in
+	 * @param target
+	 * @throws IOException if the vector is not the size of target
+	 */
+	static void readVector(DataInput in, Vector target) throws IOException
+	{
+		int size = in.readInt();
+		if (size != target.getSize()) {
+			throw new IOException(String.format("expected %d values, found %d", target.getSize(), size));
+		}
+		int precision = in.readByte();
+		if (precision < 0 || precision >= Precision.values().length) {
+			throw new IOException("unknown precision " + precision);
+		}
+		boolean isFloat = Precision.values()[precision] == Precision.FLOAT;
+		for (int i = 0; i < size; ++i) {
+			target.setElement(i, isFloat ? in.readFloat() : in.readDouble());
+		}
+	}
+}
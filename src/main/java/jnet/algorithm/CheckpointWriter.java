@@ -0,0 +1,96 @@
+package jnet.algorithm;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jnet.net.Network;
+import jnet.net.NetworkException;
+
+/**
+ * Writes checkpoints on a background thread. The checkpoint is encoded in
+ * memory on the calling thread - a copy of the parameters and optimizer
+ * state, so training can carry on changing them - and written to a
+ * temporary file which then replaces the checkpoint file, so a run which
+ * dies mid-write leaves the previous checkpoint intact. At most one write
+ * is in flight; a checkpoint requested while one is still being written
+ * waits for it
+ * @author nigelgray
+ *
+ */
+class CheckpointWriter {
+
+	private final Path file;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "jnet-checkpoint");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private Future<Void> pending;
+
+	CheckpointWriter(Path file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Checkpoint a training run after the given number of epochs
+	 * @param network
+	 * @param optimizer
+	 * @param earlyStopping the run's early stopping, or null
+	 * @param shuffleSeed
+	 * @param epoch
+	 * @throws NetworkException if the previous checkpoint could not be written
+	 */
+	void submit(Network network, Optimizer optimizer, EarlyStopping earlyStopping, long shuffleSeed, int epoch) throws NetworkException
+	{
+		await();
+		byte[] checkpoint = Checkpoint.encode(network, optimizer, earlyStopping, shuffleSeed, epoch);
+		pending = executor.submit(() -> { write(checkpoint); return null; });
+	}
+
+	/**
+	 * Wait for the checkpoint being written, if any
+	 * @throws NetworkException if it could not be written
+	 */
+	void await() throws NetworkException
+	{
+		if (pending == null) {
+			return;
+		}
+		try {
+			pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NetworkException("Interrupted writing checkpoint");
+		} catch (ExecutionException e) {
+			throw new NetworkException(String.format("Cannot write checkpoint %s: %s", file, e.getCause().getMessage()));
+		} finally {
+			pending = null;
+		}
+	}
+
+	void shutdown()
+	{
+		executor.shutdown();
+	}
+
+	private void write(byte[] checkpoint) throws IOException
+	{
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.write(temporary, checkpoint);
+		try {
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
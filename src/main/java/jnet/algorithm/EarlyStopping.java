@@ -0,0 +1,150 @@
+package jnet.algorithm;
+
+import jnet.data.Statistics;
+import jnet.net.Network;
+import jnet.net.Vector;
+
+/**
+ * Stops training once the mean validation error has not improved for a
+ * number of epochs, and optionally puts back the weights and biases of
+ * the epoch with the lowest error. An instance tracks one training run
+ * at a time
+ * @author nigelgray
+ *
+ */
+public class EarlyStopping {
+
+	private final int patience;
+	private final double minDelta;
+	private final boolean restoreBestWeights;
+
+	private double bestError;
+	private int bestEpoch;
+	private int epochsWithoutImprovement;
+
+	// copy of the network's parameters, allocated once and
+	// overwritten at each improvement
+	private Vector bestParameters;
+
+	/**
+	 * @param patience number of epochs without improvement after which training stops
+	 * @param minDelta the amount by which the error must fall to count as an improvement
+	 * @param restoreBestWeights if true the weights and biases of the best epoch are
+	 * restored when training stops
+	 */
+	public EarlyStopping(int patience, double minDelta, boolean restoreBestWeights)
+	{
+		assert (patience > 0);
+		this.patience = patience;
+		this.minDelta = minDelta;
+		this.restoreBestWeights = restoreBestWeights;
+		reset();
+	}
+
+	/**
+	 * Forget the errors seen so far, ready for a new training run
+	 */
+	public void reset()
+	{
+		bestError = Double.POSITIVE_INFINITY;
+		bestEpoch = -1;
+		epochsWithoutImprovement = 0;
+		bestParameters = null;
+	}
+
+	/**
+	 * Record the validation statistics of an epoch
+	 * @param network
+	 * @param epoch
+	 * @param stats
+	 * @return true if training should stop
+	 */
+	public boolean update(Network network, int epoch, Statistics stats)
+	{
+		double error = stats.getMeanError();
+		if (error < bestError - minDelta) {
+			bestError = error;
+			bestEpoch = epoch;
+			epochsWithoutImprovement = 0;
+			if (restoreBestWeights) {
+				saveWeights(network);
+			}
+			return false;
+		}
+		return ++epochsWithoutImprovement >= patience;
+	}
+
+	/**
+	 * Copy the weights and biases of the best epoch back into the network,
+	 * if restoring them was asked for. The network's own matrices and
+	 * vectors are overwritten, so anything sharing them sees the restored values
+	 * @param network
+	 */
+	public void restoreBestWeights(Network network)
+	{
+		if (!restoreBestWeights || bestEpoch < 0) {
+			return;
+		}
+		network.getParameters().copyFrom(bestParameters);
+	}
+
+	/**
+	 * Get the lowest mean validation error seen
+	 * @return
+	 */
+	public double getBestError()
+	{
+		return bestError;
+	}
+
+	/**
+	 * Get the epoch with the lowest mean validation error, or -1 if none has been recorded
+	 * @return
+	 */
+	public int getBestEpoch()
+	{
+		return bestEpoch;
+	}
+
+	boolean isRestoringBestWeights()
+	{
+		return restoreBestWeights;
+	}
+
+	int getEpochsWithoutImprovement()
+	{
+		return epochsWithoutImprovement;
+	}
+
+	/**
+	 * Get the copy of the best epoch's parameters, or null if none has been taken
+	 * @return
+	 */
+	Vector getBestParameters()
+	{
+		return bestParameters;
+	}
+
+	/**
+	 * Put back the state of a training run, as checkpointed
+	 * @param bestError
+	 * @param bestEpoch
+	 * @param epochsWithoutImprovement
+	 * @param bestParameters the best epoch's parameters, or null
+	 */
+	void restore(double bestError, int bestEpoch, int epochsWithoutImprovement, Vector bestParameters)
+	{
+		this.bestError = bestError;
+		this.bestEpoch = bestEpoch;
+		this.epochsWithoutImprovement = epochsWithoutImprovement;
+		this.bestParameters = bestParameters;
+	}
+
+	private void saveWeights(Network network)
+	{
+		if (bestParameters == null) {
+			bestParameters = Vector.zerosLike(network.getParameters());
+		}
+		bestParameters.copyFrom(network.getParameters());
+	}
+}
@@ -0,0 +1,74 @@
+package jnet.algorithm;
+
+import jnet.data.MiniBatch;
+import jnet.net.CostFunction;
+import jnet.net.Layer;
+import jnet.net.LinearAlgebraBackend;
+import jnet.net.Network;
+import jnet.net.NetworkException;
+import jnet.net.Vector;
+
+/**
+ * One thread's share of data-parallel training: a replica of the network
+ * with its own activation and error buffers, and its own gradient buffer,
+ * laid out as that of the network being trained so that the sums of the
+ * workers can be added in one pass
+ * @author nigelgray
+ *
+ */
+class GradientWorker {
+
+	private final Network replica;
+
+	private final BackPropagation backPropagation = new BackPropagation();
+
+	GradientWorker(Network network)
+	{
+		replica = network.createReplica();
+	}
+
+	/**
+	 * Back-propagate a packed batch through the replica and add its
+	 * gradients to this worker's sums
+	 * @param batch
+	 * @param costFunction
+	 * @throws NetworkException
+	 */
+	void calculateAndCaptureGradient(MiniBatch batch, CostFunction costFunction) throws NetworkException
+	{
+		backPropagation.executeBatch(batch, replica, costFunction);
+		captureGradient();
+	}
+
+	private void captureGradient()
+	{
+		for (Layer layer = replica.getOutputLayer(); layer.getPrevious() != null; layer = layer.getPrevious()) {
+			layer.addWeightGradientBatch(layer.getWeightGradientSum());
+			layer.addBiasGradientBatch(layer.getBiasGradientSum());
+		}
+	}
+
+	/**
+	 * Add the sums of other to the sums of this worker
+	 * @param other
+	 * @param backend
+	 */
+	void add(GradientWorker other, LinearAlgebraBackend backend)
+	{
+		backend.axpy(1.0, other.getGradients(), getGradients());
+	}
+
+	void clearGradients()
+	{
+		getGradients().fill(0.0);
+	}
+
+	/**
+	 * Get this worker's sums of the weight and bias gradients - see Network.getGradients
+	 * @return
+	 */
+	Vector getGradients()
+	{
+		return replica.getGradients();
+	}
+}
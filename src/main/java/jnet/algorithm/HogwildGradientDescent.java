@@ -0,0 +1,129 @@
+package jnet.algorithm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jnet.data.DataInstance;
+import jnet.data.DataSet;
+import jnet.data.Statistics;
+import jnet.net.CostFunction;
+import jnet.net.Layer;
+import jnet.net.LinearAlgebraBackend;
+import jnet.net.Network;
+import jnet.net.NetworkException;
+
+/**
+ * Asynchronous, lock-free stochastic gradient descent (Hogwild).
+ * Worker threads take data instances in turn from a shuffled index shared
+ * by all of them, back-propagate each on their own replica of the network
+ * and apply the update straight to the shared weights and biases, without
+ * locks and without waiting for each other. Updates from different threads
+ * may overwrite one another; when each instance's gradient touches few
+ * weights, as with sparse inputs, such collisions are rare and cost little
+ * accuracy, and throughput scales with the number of threads.
+ * The network is validated after each epoch, once all workers have finished
+ * @author nigelgray
+ *
+ */
+public class HogwildGradientDescent implements LearningAlgorithm {
+
+	private static Logger logger = Logger.getGlobal();
+
+	private int numEpochs;
+	private double learningRate;
+	private int numThreads;
+
+	public HogwildGradientDescent(int numEpochs, double learningRate, int numThreads)
+	{
+		assert (numThreads > 0);
+		this.numEpochs = numEpochs;
+		this.learningRate = learningRate;
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public void execute(Network network, DataSet trainingSet, DataSet validationSet, CostFunction costFunction) throws NetworkException
+	{
+		assert (network != null);
+		assert (trainingSet != null);
+		assert (validationSet != null);
+		assert (costFunction != null);
+
+		logger.log(Level.INFO, String.format("Training with Hogwild gradient descent on %d threads", numThreads));
+		List<DataInstance> instances = trainingSet.getDataInstances();
+		List<Integer> order = new ArrayList<>(instances.size());
+		for (int i = 0; i < instances.size(); ++i) {
+			order.add(i);
+		}
+		List<Network> replicas = new ArrayList<>();
+		for (int i = 0; i < numThreads; ++i) {
+			replicas.add(network.createReplica());
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			for (int epoch = 0; epoch < numEpochs; ++epoch) {
+				logger.log(Level.INFO, String.format("%s %d", "Starting epoch ", epoch));
+				Collections.shuffle(order);
+				AtomicInteger next = new AtomicInteger();
+				List<Callable<Void>> tasks = new ArrayList<>();
+				for (Network replica : replicas) {
+					tasks.add(() -> { train(replica, instances, order, next, costFunction); return null; });
+				}
+
+				long start = System.nanoTime();
+				invokeAll(pool, tasks);
+				double seconds = (System.nanoTime() - start) / 1e9;
+				logger.log(Level.INFO, String.format("Epoch %d trained %.0f instances/s", epoch, instances.size() / seconds));
+
+				logger.log(Level.INFO, "Evaluating current epoch");
+				Statistics stats = network.validateOrTest(validationSet, costFunction);
+				stats.print(false);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Take instances from the shared index until it is exhausted, applying
+	 * the gradient of each to the shared weights as soon as it is known
+	 */
+	private void train(Network replica, List<DataInstance> instances, List<Integer> order, AtomicInteger next, CostFunction costFunction) throws NetworkException
+	{
+		BackPropagation backPropagation = new BackPropagation();
+		LinearAlgebraBackend backend = replica.getBackend();
+		for (int i = next.getAndIncrement(); i < order.size(); i = next.getAndIncrement()) {
+			backPropagation.execute(instances.get(order.get(i)), replica, costFunction);
+			for (Layer layer = replica.getOutputLayer(); layer.getPrevious() != null; layer = layer.getPrevious()) {
+				backend.ger(-learningRate, layer.getError(), layer.getPrevious().getActivation(), layer.getWeights());
+				backend.axpy(-learningRate, layer.getBiasGradient(), layer.getBiases());
+			}
+		}
+	}
+
+	private void invokeAll(ForkJoinPool pool, List<Callable<Void>> tasks) throws NetworkException
+	{
+		try {
+			for (Future<Void> result : pool.invokeAll(tasks)) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NetworkException("Training interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof NetworkException) {
+				throw (NetworkException)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package jnet.algorithm;
+
+/**
+ * Rule for varying the learning rate from epoch to epoch.
+ * The static factory methods create the common schedules
+ * @author nigelgray
+ *
+ */
+public interface LearningRateSchedule {
+
+	/**
+	 * Get the learning rate for the given epoch
+	 * @param baseLearningRate the learning rate training started with
+	 * @param epoch counting from 0
+	 * @return
+	 */
+	public double getLearningRate(double baseLearningRate, int epoch);
+
+	/**
+	 * The base learning rate for every epoch
+	 * @return
+	 */
+	public static LearningRateSchedule constant()
+	{
+		return (baseLearningRate, epoch) -> baseLearningRate;
+	}
+
+	/**
+	 * Multiply the learning rate by gamma every stepSize epochs
+	 * @param stepSize
+	 * @param gamma
+	 * @return
+	 */
+	public static LearningRateSchedule step(int stepSize, double gamma)
+	{
+		assert (stepSize > 0);
+		return (baseLearningRate, epoch) -> baseLearningRate * Math.pow(gamma, epoch / stepSize);
+	}
+
+	/**
+	 * Multiply the learning rate by gamma every epoch
+	 * @param gamma
+	 * @return
+	 */
+	public static LearningRateSchedule exponential(double gamma)
+	{
+		return (baseLearningRate, epoch) -> baseLearningRate * Math.pow(gamma, epoch);
+	}
+
+	/**
+	 * Anneal the learning rate from the base rate to minLearningRate over
+	 * numEpochs along half a cosine, and hold it at minLearningRate after that
+	 * @param numEpochs
+	 * @param minLearningRate
+	 * @return
+	 */
+	public static LearningRateSchedule cosine(int numEpochs, double minLearningRate)
+	{
+		assert (numEpochs > 0);
+		return (baseLearningRate, epoch) -> {
+			double progress = Math.min(epoch, numEpochs) / (double)numEpochs;
+			return minLearningRate + 0.5 * (baseLearningRate - minLearningRate) * (1.0 + Math.cos(Math.PI * progress));
+		};
+	}
+
+	/**
+	 * Increase the learning rate linearly to the base rate over the first
+	 * warmupEpochs epochs, then follow schedule, counting its epochs
+	 * from the end of the warmup
+	 * @param warmupEpochs
+	 * @param schedule
+	 * @return
+	 */
+	public static LearningRateSchedule warmup(int warmupEpochs, LearningRateSchedule schedule)
+	{
+		return (baseLearningRate, epoch) -> epoch < warmupEpochs
+				? baseLearningRate * (epoch + 1) / (warmupEpochs + 1)
+				: schedule.getLearningRate(baseLearningRate, epoch - warmupEpochs);
+	}
+}
@@ -0,0 +1,37 @@
+package jnet.algorithm;
+
+import jnet.net.Vector;
+
+/**
+ * Gradient descent with classical momentum: each update is the previous
+ * update scaled by the momentum, less the learning rate times the mean gradient.
+ * With zero momentum this is plain stochastic gradient descent
+ * @author nigelgray
+ *
+ */
+public class MomentumOptimizer extends AbstractOptimizer {
+
+	private final double momentum;
+
+	public MomentumOptimizer(double learningRate, double momentum)
+	{
+		super(learningRate);
+		this.momentum = momentum;
+	}
+
+	@Override
+	protected int getNumMoments()
+	{
+		return 1;
+	}
+
+	@Override
+	protected void update(Vector parameters, Vector sumOfGradients, int batchSize, State state)
+	{
+		// delta = momentum * previousDelta - learningRate * meanGradient
+		Vector delta = state.moments[0];
+		delta.scaleInPlace(momentum);
+		Vector.axpy(-getLearningRate()/batchSize, sumOfGradients, delta);
+		Vector.axpy(1.0, delta, parameters);
+	}
+}
@@ -0,0 +1,35 @@
+package jnet.algorithm;
+
+import jnet.net.Vector;
+
+/**
+ * Gradient descent with Nesterov momentum, which applies the gradient at
+ * the point the momentum is about to carry the parameters to rather than
+ * at the current point. Usually converges faster than classical momentum
+ * @author nigelgray
+ *
+ */
+public class NesterovOptimizer extends AbstractOptimizer {
+
+	private final double momentum;
+
+	public NesterovOptimizer(double learningRate, double momentum)
+	{
+		super(learningRate);
+		this.momentum = momentum;
+	}
+
+	@Override
+	protected int getNumMoments()
+	{
+		return 1;
+	}
+
+	@Override
+	protected void update(Vector parameters, Vector sumOfGradients, int batchSize, State state)
+	{
+		// velocity = momentum * velocity - learningRate * g
+		// parameters += momentum * velocity - learningRate * g
+		Vector.nesterovStep(momentum, getLearningRate(), sumOfGradients, batchSize, state.moments[0], parameters);
+	}
+}
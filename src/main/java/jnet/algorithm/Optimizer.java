@@ -0,0 +1,64 @@
+package jnet.algorithm;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import jnet.net.Vector;
+
+/**
+ * Interface for the rules which turn a mini-batch's summed gradient into
+ * an update of a network's weights and biases. The trainer passes the
+ * network's flat parameter vector, which holds every layer's weights and
+ * biases, together with the matching flat gradient. Optimizers which keep
+ * state between batches, such as momentum or moment estimates, allocate it
+ * once for the parameter vector they are given and update it in place,
+ * so an optimizer instance belongs to the training of a single network
+ * @author nigelgray
+ *
+ */
+public interface Optimizer {
+
+	/**
+	 * Update the parameters in place
+	 * @param parameters
+	 * @param sumOfGradients the gradient summed over the batch
+	 * @param batchSize number of instances the gradient was summed over
+	 */
+	public void update(Vector parameters, Vector sumOfGradients, int batchSize);
+
+	/**
+	 * Get the current learning rate
+	 * @return
+	 */
+	public double getLearningRate();
+
+	/**
+	 * Set the learning rate used by the following updates
+	 * @param learningRate
+	 */
+	public void setLearningRate(double learningRate);
+
+	/**
+	 * Write the state kept for the given parameters, for a checkpoint.
+	 * Optimizers without state write nothing
+	 * @param parameters
+	 * @param out
+	 * @throws IOException
+	 */
+	public default void saveState(Vector parameters, DataOutput out) throws IOException
+	{
+	}
+
+	/**
+	 * Replace the state kept for the given parameters with that written
+	 * by saveState. If reading the state fails, the state kept so far
+	 * must be left unchanged
+	 * @param parameters
+	 * @param in
+	 * @throws IOException
+	 */
+	public default void loadState(Vector parameters, DataInput in) throws IOException
+	{
+	}
+}
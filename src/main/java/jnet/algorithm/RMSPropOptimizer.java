@@ -0,0 +1,45 @@
+package jnet.algorithm;
+
+import jnet.net.Vector;
+
+/**
+ * RMSProp: divides the learning rate of each parameter by the root of a
+ * decaying average of its squared gradients
+ * @author nigelgray
+ *
+ */
+public class RMSPropOptimizer extends AbstractOptimizer {
+
+	public final static double DEFAULT_DECAY = 0.9;
+
+	public final static double DEFAULT_EPSILON = 1e-8;
+
+	private final double decay;
+
+	private final double epsilon;
+
+	public RMSPropOptimizer(double learningRate)
+	{
+		this(learningRate, DEFAULT_DECAY, DEFAULT_EPSILON);
+	}
+
+	public RMSPropOptimizer(double learningRate, double decay, double epsilon)
+	{
+		super(learningRate);
+		this.decay = decay;
+		this.epsilon = epsilon;
+	}
+
+	@Override
+	protected int getNumMoments()
+	{
+		return 1;
+	}
+
+	@Override
+	protected void update(Vector parameters, Vector sumOfGradients, int batchSize, State state)
+	{
+		// meanSquare = decay * meanSquare + (1 - decay) * g * g
+		Vector.rootMeanSquareStep(getLearningRate(), epsilon, decay, 1.0 - decay, sumOfGradients, batchSize, state.moments[0], parameters);
+	}
+}
@@ -1,20 +1,28 @@
 package jnet.algorithm;
 
-import java.util.HashMap;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import jnet.data.BatchPipeline;
+import jnet.data.DataException;
 import jnet.data.DataInstance;
 import jnet.data.DataSet;
+import jnet.data.InstanceSource;
+import jnet.data.MiniBatch;
 import jnet.data.Statistics;
 import jnet.net.CostFunction;
 import jnet.net.Layer;
-import jnet.net.Matrix;
+import jnet.net.LinearAlgebraBackend;
 import jnet.net.Network;
 import jnet.net.NetworkException;
-import jnet.net.Vector;
 
 public class StochasticGradientDescent implements LearningAlgorithm {
 
@@ -22,35 +30,251 @@ public class StochasticGradientDescent implements LearningAlgorithm {
 	
 	private int numEpochs;
 	private int batchSize;
-	private double learningRate;
-	private double momentum;
+	private Optimizer optimizer;
 	
 	private int epoch;
 	
-	// use these to keep track of deltas for momentum calculation
-	private Map<Layer, Matrix> prevWeightDelta;
-	
-	// optimize keeping track of weight gradients by summing as we go
-	private Map<Layer, Matrix> sumOfWeightGradients;
-	private Map<Layer, Vector> sumOfBiasGradients;
-
 	private int batchNo;
 	
+	// the order an in-memory training set is read in, shuffled every epoch
+	// without reordering the set itself
+	private int[] order = new int[0];
+	private Random random = new Random();
+	// each epoch's order is shuffled with a seed derived from this one, so
+	// that a resumed run repeats the order of the run it carries on
+	private long shuffleSeed;
+	
+	private BackPropagation backPropagation = new BackPropagation();
+	
+	// data-parallel training: each mini-batch is split across the workers,
+	// which run on their own pool
+	private int numThreads;
+	private ForkJoinPool workerPool;
+	private List<GradientWorker> workers;
+	
+	// both optional
+	private LearningRateSchedule learningRateSchedule;
+	private EarlyStopping earlyStopping;
+	private ValidationListener validationListener;
+	
+	// background validation: each epoch is validated on a snapshot of
+	// the weights while the next one trains
+	private boolean asyncValidation;
+	private AsyncValidator validator;
+	private volatile boolean stopRequested;
+	
+	// background batch preparation, off if the depth is 0
+	private int prefetchDepth;
+	private BatchPipeline pipeline;
+	
+	// periodic checkpoints, written in the background, and the epoch
+	// to start from when resuming from one
+	private Path checkpointFile;
+	private int checkpointInterval;
+	private CheckpointWriter checkpointWriter;
+	private int startEpoch;
+	private boolean resumed;
+	
 	public StochasticGradientDescent(int numEpochs, int batchSize, double learningRate, double momentum)
 	{
+		this(numEpochs, batchSize, new MomentumOptimizer(learningRate, momentum));
+	}
+	
+	/**
+	 * Construct a data-parallel trainer which splits every mini-batch
+	 * across numThreads worker threads. Each worker back-propagates its part
+	 * of the batch on its own replica of the network, and the workers' gradient
+	 * sums are added pairwise in a tree before the weights are adjusted
+	 * @param numEpochs
+	 * @param batchSize
+	 * @param learningRate
+	 * @param momentum
+	 * @param numThreads
+	 */
+	public StochasticGradientDescent(int numEpochs, int batchSize, double learningRate, double momentum, int numThreads)
+	{
+		this(numEpochs, batchSize, new MomentumOptimizer(learningRate, momentum), numThreads);
+	}
+	
+	/**
+	 * Construct a trainer which adjusts the weights and biases after each
+	 * mini-batch with the given optimizer
+	 * @param numEpochs
+	 * @param batchSize
+	 * @param optimizer
+	 */
+	public StochasticGradientDescent(int numEpochs, int batchSize, Optimizer optimizer)
+	{
+		this(numEpochs, batchSize, optimizer, 1);
+	}
+	
+	/**
+	 * Construct a data-parallel trainer with the given optimizer - see
+	 * StochasticGradientDescent(int, int, double, double, int)
+	 * @param numEpochs
+	 * @param batchSize
+	 * @param optimizer
+	 * @param numThreads
+	 */
+	public StochasticGradientDescent(int numEpochs, int batchSize, Optimizer optimizer, int numThreads)
+	{
+		assert (optimizer != null);
+		assert (numThreads > 0);
 		this.numEpochs = numEpochs;
 		this.batchSize = batchSize;
-		this.learningRate = learningRate;
-		this.momentum = momentum;
-		
-		prevWeightDelta = new HashMap<>();
-		
-		sumOfWeightGradients = new HashMap<>();
-		sumOfBiasGradients = new HashMap<>();
+		this.optimizer = optimizer;
+		this.numThreads = numThreads;
+	}
+	
+	/**
+	 * Get the optimizer which adjusts the weights and biases
+	 * @return
+	 */
+	public Optimizer getOptimizer()
+	{
+		return optimizer;
+	}
+	
+	/**
+	 * Vary the optimizer's learning rate from epoch to epoch, starting from
+	 * the rate it has when training starts. The rate is put back afterwards
+	 * @param learningRateSchedule the schedule, or null for a fixed learning rate
+	 */
+	public void setLearningRateSchedule(LearningRateSchedule learningRateSchedule)
+	{
+		this.learningRateSchedule = learningRateSchedule;
+	}
+	
+	/**
+	 * Stop training before numEpochs once the validation error stops improving
+	 * @param earlyStopping the stopping rule, or null to always train for numEpochs
+	 */
+	public void setEarlyStopping(EarlyStopping earlyStopping)
+	{
+		this.earlyStopping = earlyStopping;
+	}
+	
+	/**
+	 * Receive the validation statistics of every epoch
+	 * @param validationListener the listener, or null
+	 */
+	public void setValidationListener(ValidationListener validationListener)
+	{
+		this.validationListener = validationListener;
+	}
+	
+	/**
+	 * Validate each epoch in the background while the next one trains,
+	 * instead of waiting for validation at the end of every epoch. The
+	 * weights and biases at the end of the epoch are copied into a snapshot
+	 * network and validated on another thread; statistics, and the
+	 * validation listener, arrive in epoch order on that thread. The decision
+	 * to stop early lags behind by the epochs still being validated, so
+	 * training may run on for an epoch or so past the point it would stop
+	 * synchronously, but the best weights are still those restored
+	 * @param asyncValidation
+	 */
+	public void setAsyncValidation(boolean asyncValidation)
+	{
+		this.asyncValidation = asyncValidation;
+	}
+	
+	/**
+	 * Shuffle the training set and pack its mini-batches into matrices on a
+	 * background thread, keeping up to depth batches ready ahead of training.
+	 * The training set itself is then left in its original order. A source
+	 * of instances which is not a DataSet, such as a StreamingDataSet, is
+	 * always trained on through a pipeline, at least one batch deep
+	 * @param prefetchDepth the number of batches to prepare ahead, or 0 to
+	 * prepare each epoch's batches on the training thread
+	 */
+	public void setPrefetchDepth(int prefetchDepth)
+	{
+		assert (prefetchDepth >= 0);
+		this.prefetchDepth = prefetchDepth;
+	}
+	
+	/**
+	 * Checkpoint the network's weights and biases, the optimizer's state, the
+	 * state of early stopping, the seed the training set is shuffled with and
+	 * the number of epochs completed every checkpointInterval epochs. The
+	 * checkpoint is copied in memory at the end of the epoch and written to
+	 * file in the background while training carries on
+	 * @param checkpointFile the file to write, replaced by each checkpoint,
+	 * or null for no checkpoints
+	 * @param checkpointInterval
+	 */
+	public void setCheckpointing(Path checkpointFile, int checkpointInterval)
+	{
+		assert (checkpointInterval > 0);
+		this.checkpointFile = checkpointFile;
+		this.checkpointInterval = checkpointInterval;
+	}
+	
+	/**
+	 * Restore the network's weights and biases, the optimizer's state, the
+	 * state of early stopping and the shuffle seed from a checkpoint, so
+	 * that the next training run carries on from the epoch after it. This
+	 * trainer must be configured as the one which wrote the checkpoint, with
+	 * the same optimizer, base learning rate and early stopping. Single
+	 * threaded training on the same training set then repeats the run that
+	 * wrote the checkpoint exactly
+	 * @param network
+	 * @param checkpointFile
+	 * @throws NetworkException if the checkpoint cannot be read or does not
+	 * match the network, optimizer and early stopping
+	 */
+	public void resume(Network network, Path checkpointFile) throws NetworkException
+	{
+		Checkpoint checkpoint = Checkpoint.restore(checkpointFile, network, optimizer, earlyStopping);
+		startEpoch = checkpoint.getEpoch();
+		shuffleSeed = checkpoint.getShuffleSeed();
+		resumed = true;
+		logger.log(Level.INFO, String.format("Resuming from %s after epoch %d", checkpointFile, startEpoch - 1));
+	}
+	
+	/**
+	 * Get the number of epochs the last training run took, which is less
+	 * than numEpochs if it was stopped early
+	 * @return
+	 */
+	public int getNumEpochsTrained()
+	{
+		return epoch;
 	}
 	
 	@Override
 	public void execute(Network network, DataSet trainingSet, DataSet validationSet, CostFunction costFunction) throws NetworkException
+	{
+		execute(network, trainingSet, trainingSet, validationSet, costFunction);
+	}
+	
+	/**
+	 * Train on sources of instances which can only be read in passes, such
+	 * as StreamingDataSets. The training set is read through a BatchPipeline
+	 * at least one batch deep, whatever the prefetch depth
+	 * @param network
+	 * @param trainingSet
+	 * @param validationSet
+	 * @param costFunction
+	 * @throws NetworkException if either set is empty, or cannot be read
+	 */
+	public void execute(Network network, InstanceSource trainingSet, InstanceSource validationSet, CostFunction costFunction) throws NetworkException
+	{
+		if (trainingSet.getNumInstances() == 0) {
+			throw new NetworkException("Training set empty");
+		}
+		if (validationSet.getNumInstances() == 0) {
+			throw new NetworkException("Validation set empty");
+		}
+		execute(network, trainingSet, null, validationSet, costFunction);
+	}
+	
+	/**
+	 * Train on trainingSet, which is also given as inMemory if it is a
+	 * DataSet, or as null if it can only be read through a pipeline
+	 */
+	private void execute(Network network, InstanceSource trainingSet, DataSet inMemory, InstanceSource validationSet, CostFunction costFunction) throws NetworkException
 	{
 		assert (network != null);
 		assert (trainingSet != null);
@@ -58,36 +282,171 @@ public class StochasticGradientDescent implements LearningAlgorithm {
 		assert (costFunction != null);
 		
 		logger.log(Level.INFO, "Training with stochastic gradient descent");
-		for (epoch = 0; epoch < numEpochs; ++epoch) {	
+		if (numThreads > 1) {
+			startWorkers(network);
+		}
+		if (asyncValidation) {
+			validator = new AsyncValidator(network, validationSet, costFunction, 2,
+					(validatedEpoch, snapshot, stats) -> stopRequested |= epochValidated(validatedEpoch, snapshot, stats));
+		}
+		if (!resumed) {
+			shuffleSeed = random.nextLong();
+		}
+		if (prefetchDepth > 0 || inMemory == null) {
+			pipeline = new BatchPipeline(trainingSet, batchSize, Math.max(prefetchDepth, 1), network.getInputLayer().getPrecision(),
+					shuffleSeed, startEpoch);
+		}
+		if (checkpointFile != null) {
+			checkpointWriter = new CheckpointWriter(checkpointFile);
+		}
+		double baseLearningRate = optimizer.getLearningRate();
+		try {
+			train(network, inMemory, validationSet, costFunction, baseLearningRate);
+			if (checkpointWriter != null) {
+				checkpointWriter.await();
+			}
+		} finally {
+			startEpoch = 0;
+			resumed = false;
+			optimizer.setLearningRate(baseLearningRate);
+			stopWorkers();
+			if (validator != null) {
+				validator.shutdown();
+				validator = null;
+			}
+			if (pipeline != null) {
+				pipeline.close();
+				pipeline = null;
+			}
+			if (checkpointWriter != null) {
+				checkpointWriter.shutdown();
+				checkpointWriter = null;
+			}
+		}
+	}
+	
+	private void train(Network network, DataSet trainingSet, InstanceSource validationSet, CostFunction costFunction, double baseLearningRate) throws NetworkException
+	{
+		if (earlyStopping != null && !resumed) {
+			earlyStopping.reset();
+		}
+		stopRequested = false;
+		for (epoch = startEpoch; epoch < numEpochs; ++epoch) {	
 			logger.log(Level.INFO, String.format("%s %d", "Starting epoch ", epoch));
-			trainingSet.shuffle();			
-			List<DataSet> batches = trainingSet.getMiniBatches(batchSize);
+			if (learningRateSchedule != null) {
+				optimizer.setLearningRate(learningRateSchedule.getLearningRate(baseLearningRate, epoch));
+				logger.log(Level.FINE, String.format("Learning rate %f", optimizer.getLearningRate()));
+			}
 			batchNo = 0;
-			// replaced the earlier for loop and moved the gradient calculation to a lambda
-			// referencing a method of the class - this will ease separating the back-prop
-			// aspect of the algorithm from the stochastic gradient descent
-			batches.forEach(
-					batch -> { 
-							logger.log(Level.FINE, String.format("Training minibatch...%d", batchNo));
-							batch.getDataInstances().forEach(
-								(instance) -> { calculateAndCaptureGradient(network, instance, costFunction); }
-											);
-						
-							
-							adjustWeightsAndBiases(network);
-							clearGradients();
-							++batchNo;
-						}
-					);
-			
-			// TODO - early stopping on successful validation
-			logger.log(Level.INFO, "Evaluating current epoch");
-			Statistics stats = network.validateOrTest(validationSet, costFunction);
-			stats.print(false);
+			if (pipeline != null) {
+				trainPrefetchedEpoch(network, costFunction);
+			} else {
+				trainEpoch(network, trainingSet, costFunction);
+			}
 			
-		}	
+			if (validator != null) {
+				validator.submit(network, epoch);
+			} else {
+				logger.log(Level.INFO, "Evaluating current epoch");
+				stopRequested = epochValidated(epoch, network, network.validateOrTest(validationSet, costFunction));
+			}
+			if (checkpointWriter != null && (epoch + 1) % checkpointInterval == 0) {
+				if (validator != null) {
+					// early stopping must have seen this epoch's validation
+					validator.await();
+				}
+				checkpointWriter.submit(network, optimizer, earlyStopping, shuffleSeed, epoch + 1);
+			}
+			if (stopRequested) {
+				++epoch;
+				break;
+			}
+		}
+		if (validator != null) {
+			validator.await();
+		}
+		if (earlyStopping != null) {
+			earlyStopping.restoreBestWeights(network);
+		}
 	}
 	
+	/**
+	 * Train on the whole mini-batches of a shuffled order of the set, as
+	 * DataSet.getMiniBatches divides it. Each batch is packed straight into
+	 * the input layer's batch matrix and the output layer's expected outputs,
+	 * so no instance is created
+	 */
+	private void trainEpoch(Network network, DataSet trainingSet, CostFunction costFunction)
+	{
+		random.setSeed(BatchPipeline.getEpochSeed(shuffleSeed, epoch));
+		shuffleOrder(trainingSet.getNumInstances());
+		MiniBatch batch = new MiniBatch(network.getInputLayer().getInputsBatch(batchSize), network.getOutputLayer().getExpectedOutputsBatch(batchSize));
+		for (int start = 0; start < order.length - batchSize; start += batchSize) {
+			trainingSet.copyInstances(order, start, batch.getInputs(), batch.getExpectedOutputs());
+			trainBatch(network, batch, costFunction);
+		}
+	}
+	
+	/**
+	 * Train on the batches the pipeline prepares for one epoch
+	 */
+	private void trainPrefetchedEpoch(Network network, CostFunction costFunction) throws NetworkException
+	{
+		try {
+			for (MiniBatch batch = pipeline.next(); batch != null; batch = pipeline.next()) {
+				trainBatch(network, batch, costFunction);
+			}
+		} catch (DataException e) {
+			throw new NetworkException(e.getMessage(), e);
+		}
+	}
+	
+	private void trainBatch(Network network, MiniBatch batch, CostFunction costFunction)
+	{
+		logger.log(Level.FINE, String.format("Training minibatch...%d", batchNo));
+		if (workers != null) {
+			calculateAndCaptureBatchGradientInParallel(network, batch, costFunction);
+		} else {
+			calculateAndCaptureBatchGradient(network, batch, costFunction);
+		}
+		adjustWeightsAndBiases(network);
+		clearGradients(network);
+		++batchNo;
+	}
+	
+	private void shuffleOrder(int numInstances)
+	{
+		if (order.length != numInstances) {
+			order = new int[numInstances];
+		}
+		for (int i = 0; i < numInstances; ++i) {
+			order[i] = i;
+		}
+		for (int i = numInstances - 1; i > 0; --i) {
+			int j = random.nextInt(i + 1);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+	}
+	
+	/**
+	 * Report the statistics of an epoch, measured on validated - the network
+	 * itself or a snapshot of it
+	 * @return true if training should stop
+	 */
+	private boolean epochValidated(int validatedEpoch, Network validated, Statistics stats)
+	{
+		stats.print(false);
+		if (validationListener != null) {
+			validationListener.epochValidated(validatedEpoch, stats);
+		}
+		if (earlyStopping != null && earlyStopping.update(validated, validatedEpoch, stats)) {
+			logger.log(Level.INFO, String.format("Stopping early after epoch %d, best epoch %d", validatedEpoch, earlyStopping.getBestEpoch()));
+			return true;
+		}
+		return false;
+	}
 
 	private void feedForward(Network network, DataInstance instance) throws NetworkException
 	{
@@ -96,17 +455,18 @@ public class StochasticGradientDescent implements LearningAlgorithm {
 	
 	private void backPropagate(Network network, DataInstance instance, CostFunction costFunction)
 	{
+		LinearAlgebraBackend backend = network.getBackend();
 		Layer outputLayer = network.getOutputLayer();
 		
 		// output layer error
-		outputLayer.setError(Vector.schurProduct(costFunction.costPrime(outputLayer.getActivation(), instance.getExpectedOutputs()),
-				outputLayer.getActivationFunction().firstDerivative(outputLayer.getWeightedInput())));
+		costFunction.costPrimeInto(outputLayer.getActivation(), instance.getExpectedOutputs(), outputLayer.getError())
+				.schurInPlace(outputLayer.getActivationDerivative());
 		
 		Layer next = outputLayer;
 		Layer prev = outputLayer.getPrevious();
 		while (prev != null && prev.getActivationFunction() != null) {
-			prev.setError(Vector.schurProduct(Matrix.multiply(Matrix.transpose(next.getWeights()), next.getError()),
-					prev.getActivationFunction().firstDerivative(prev.getWeightedInput())));
+			backend.gemvTransposed(1.0, next.getWeights(), next.getError(), 0.0, prev.getError())
+					.schurInPlace(prev.getActivationDerivative());
 			
 			next = prev;
 			prev = next.getPrevious();
@@ -115,102 +475,125 @@ public class StochasticGradientDescent implements LearningAlgorithm {
 	
 	private void captureGradient(Network network)
 	{
+		LinearAlgebraBackend backend = network.getBackend();
 		Layer layer = network.getOutputLayer();
 		
 		while (layer != null && layer.getPrevious() != null) {
-			
-			if (sumOfWeightGradients.containsKey(layer)) {
-				sumOfWeightGradients.get(layer).add(layer.getWeightGradient());
-			} else {
-				sumOfWeightGradients.put(layer, layer.getWeightGradient());		
-			}
-			
-			if (sumOfBiasGradients.containsKey(layer)) {
-				sumOfBiasGradients.get(layer).add(layer.getBiasGradient());
-			} else {
-				sumOfBiasGradients.put(layer, layer.getBiasGradient());
-			}
-			
+			backend.ger(1.0, layer.getError(), layer.getPrevious().getActivation(), layer.getWeightGradientSum());
+			backend.axpy(1.0, layer.getBiasGradient(), layer.getBiasGradientSum());
 			layer = layer.getPrevious();
 		}
 	}
 	
-	private void adjustWeightsAndBiases(Network network) 
+	private void captureBatchGradient(Network network)
 	{
-		try {
-			Layer layer = network.getOutputLayer();
-			while (layer != null && layer.getPrevious() != null) {
-				
-					adjustWeights(layer, learningRate, getMeanWeightGradient(layer));
-				
-				adjustBiases(layer, learningRate, getMeanBiasGradient(layer));
-				layer = layer.getPrevious();
-			}
-		} catch (NetworkException e) {
-			logger.log(Level.SEVERE, e.getMessage());
-			throw new RuntimeException(e);
+		Layer layer = network.getOutputLayer();
+		
+		while (layer != null && layer.getPrevious() != null) {
+			layer.addWeightGradientBatch(layer.getWeightGradientSum());
+			layer.addBiasGradientBatch(layer.getBiasGradientSum());
+			layer = layer.getPrevious();
 		}
 	}
 	
-	private void clearGradients() 
+	private void startWorkers(Network network)
 	{
-		sumOfWeightGradients.clear();
-		sumOfBiasGradients.clear();
-		//weightGradients.clear();
-		//biasGradients.clear();
+		stopWorkers();
+		logger.log(Level.INFO, String.format("Splitting mini-batches across %d threads", numThreads));
+		workerPool = new ForkJoinPool(numThreads);
+		workers = new ArrayList<>();
+		for (int i = 0; i < numThreads; ++i) {
+			workers.add(new GradientWorker(network));
+		}
 	}
 	
-	private Matrix getMeanWeightGradient(Layer layer)
+	private void stopWorkers()
 	{
-		/*
-		Matrix sum = null;
-		for (Matrix weightGradient : weightGradients.get(layer)) {
-			if (sum == null) {
-				sum = weightGradient;
-			} else {
-				sum = Matrix.add(sum, weightGradient);
-			}
-		}*/
-		return Matrix.multiply(1.0/batchSize, sumOfWeightGradients.get(layer));
+		if (workerPool != null) {
+			workerPool.shutdown();
+		}
+		workerPool = null;
+		workers = null;
 	}
 	
-	private Vector getMeanBiasGradient(Layer layer)
+	/**
+	 * Data-parallel version of calculateAndCaptureBatchGradient, which splits
+	 * the batch across this trainer's threads and captures the sum of their
+	 * gradients. Outside a training run the workers are started for the
+	 * network, and left running until the end of the next run
+	 * @param network
+	 * @param batch
+	 * @param costFunction
+	 */
+	public void calculateAndCaptureBatchGradientInParallel(Network network, MiniBatch batch, CostFunction costFunction)
 	{
-		/*
-		Vector sum = null;
-		for (Vector biasGradient : biasGradients.get(layer)) {
-			if (sum == null) {
-				sum = biasGradient;
-			} else {
-				sum = Vector.add(sum, biasGradient);
-			}
-		}*/
-		return Vector.multiply(1.0/batchSize, sumOfBiasGradients.get(layer));
-	}
-	
-	private void adjustWeights(Layer layer, double learningRate, Matrix meanWeightGradient) throws NetworkException {
-		if (layer.getWeights() != null) {
-			if (prevWeightDelta.containsKey(layer)) {
-				Matrix weightDelta = Matrix.add(
-						Matrix.multiply(-learningRate, meanWeightGradient),
-						Matrix.multiply(momentum, prevWeightDelta.get(layer))
-						);
-				layer.setWeights(Matrix.add(layer.getWeights(), weightDelta));
-				prevWeightDelta.put(layer, weightDelta);
-						
-			} else {
-		       layer.setWeights(Matrix.add(layer.getWeights(), Matrix.multiply(-learningRate, meanWeightGradient)));
-		       prevWeightDelta.put(layer, Matrix.multiply(-learningRate, meanWeightGradient));
+		assert (numThreads > 1);
+		if (workers == null) {
+			startWorkers(network);
+		}
+		List<MiniBatch> parts = batch.split(workers.size());
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int i = 0; i < parts.size(); ++i) {
+			GradientWorker worker = workers.get(i);
+			MiniBatch part = parts.get(i);
+			tasks.add(() -> { worker.calculateAndCaptureGradient(part, costFunction); return null; });
+		}
+		captureInParallel(network, tasks);
+	}
+	
+	/**
+	 * Run one task per worker, then add the sums of the workers which ran pairwise -
+	 * 0+1, 2+3, ... then 0+2, ... - so that the reduction takes log2(numThreads)
+	 * parallel rounds, and capture the total held by the first worker
+	 */
+	private void captureInParallel(Network network, List<Callable<Void>> tasks)
+	{
+		LinearAlgebraBackend backend = network.getBackend();
+		int numParts = tasks.size();
+		invokeAll(tasks);
+		
+		for (int stride = 1; stride < numParts; stride *= 2) {
+			tasks = new ArrayList<>();
+			for (int i = 0; i + stride < numParts; i += 2 * stride) {
+				GradientWorker left = workers.get(i);
+				GradientWorker right = workers.get(i + stride);
+				tasks.add(() -> { left.add(right, backend); return null; });
 			}
+			invokeAll(tasks);
 		}
+		
+		backend.axpy(1.0, workers.get(0).getGradients(), network.getGradients());
+		workers.forEach((worker) -> worker.clearGradients());
 	}
-
-	private void adjustBiases(Layer layer, double learningRate, Vector meanBiasGradient) throws NetworkException {
-		if (layer.getBiases() != null) {
-			layer.setBiases(Vector.add(layer.getBiases(), Vector.multiply(-learningRate, meanBiasGradient)));
+	
+	private void invokeAll(List<Callable<Void>> tasks)
+	{
+		try {
+			for (Future<Void> result : workerPool.invokeAll(tasks)) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			logger.log(Level.SEVERE, e.getCause().getMessage());
+			throw new RuntimeException(e.getCause());
 		}
 	}
 	
+	/**
+	 * Take one optimizer step over every weight and bias of the network at once
+	 */
+	private void adjustWeightsAndBiases(Network network) 
+	{
+		optimizer.update(network.getParameters(), network.getGradients(), batchSize);
+	}
+	
+	private void clearGradients(Network network) 
+	{
+		network.getGradients().fill(0.0);
+	}
+	
 	public void calculateAndCaptureGradient(Network network, DataInstance instance, CostFunction costFunction)
 	{
 		try {
@@ -224,4 +607,40 @@ public class StochasticGradientDescent implements LearningAlgorithm {
 		}
 	}
 	
+	/**
+	 * Version of calculateAndCaptureBatchGradient for a batch already packed
+	 * into matrices, as by a BatchPipeline
+	 * @param network
+	 * @param batch
+	 * @param costFunction
+	 */
+	public void calculateAndCaptureBatchGradient(Network network, MiniBatch batch, CostFunction costFunction)
+	{
+		try {
+			backPropagation.executeBatch(batch, network, costFunction);
+			captureBatchGradient(network);
+		} catch (NetworkException e) {
+			logger.log(Level.SEVERE, e.getMessage());
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Batched version of calculateAndCaptureGradient, which feeds forward and
+	 * back-propagates the whole mini-batch with one matrix product per layer
+	 * @param network
+	 * @param batch
+	 * @param costFunction
+	 */
+	public void calculateAndCaptureBatchGradient(Network network, DataSet batch, CostFunction costFunction)
+	{
+		try {
+			backPropagation.executeBatch(batch, network, costFunction);
+			captureBatchGradient(network);
+		} catch (NetworkException e) {
+			logger.log(Level.SEVERE, e.getMessage());
+			throw new RuntimeException(e);
+		}
+	}
+	
 }
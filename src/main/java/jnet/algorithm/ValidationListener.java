@@ -0,0 +1,20 @@
+package jnet.algorithm;
+
+import jnet.data.Statistics;
+
+/**
+ * Receives the validation statistics of each epoch of training
+ * @author nigelgray
+ *
+ */
+public interface ValidationListener {
+
+	/**
+	 * Called once for every epoch validated, in epoch order. When validation
+	 * runs in the background this is called on the validation thread, possibly
+	 * while later epochs train
+	 * @param epoch
+	 * @param stats
+	 */
+	public void epochValidated(int epoch, Statistics stats);
+}
@@ -0,0 +1,223 @@
+package jnet.data;
+
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import jnet.net.Matrix;
+import jnet.net.Precision;
+
+/**
+ * Prepares mini-batches on a background thread ahead of the trainer.
+ * Every epoch the producer starts a shuffled pass over the source - a
+ * DataSet shuffles an index, without reordering itself, and a
+ * StreamingDataSet shuffles approximately as its class comment describes -
+ * and packs the instances into MiniBatch matrices, which it hands over
+ * through a bounded queue of the given depth. The packed matrices are
+ * recycled, so once the pipeline is running it allocates nothing but the
+ * passes. Only whole batches are produced; the instances left over at the
+ * end of an epoch's pass are skipped, and change from epoch to epoch. The
+ * pipeline runs until it is closed
+ * @author nigelgray
+ *
+ */
+public class BatchPipeline implements AutoCloseable {
+
+	private static final MiniBatch END_OF_EPOCH = new MiniBatch(new Matrix(1, 1), new Matrix(1, 1));
+
+	private static final MiniBatch FAILED = new MiniBatch(new Matrix(1, 1), new Matrix(1, 1));
+
+	private final InstanceSource source;
+
+	private final int batchSize;
+
+	private final Random random;
+
+	// if seeded, each epoch's shuffle is reseeded from seed, so that a run
+	// resumed at an epoch repeats the order it would have had
+	private final boolean seeded;
+
+	private final long seed;
+
+	private int epoch;
+
+	private final BlockingQueue<MiniBatch> ready;
+
+	private final BlockingQueue<MiniBatch> free;
+
+	private final Thread producer;
+
+	private volatile Throwable failure;
+
+	private volatile boolean closed;
+
+	// the batch last returned by next, recycled by the following call
+	private MiniBatch current;
+
+	/**
+	 * Start preparing batches of source
+	 * @param source
+	 * @param batchSize
+	 * @param depth the number of batches prepared ahead of the trainer
+	 * @param precision the precision of the packed matrices, normally that of the network
+	 */
+	public BatchPipeline(InstanceSource source, int batchSize, int depth, Precision precision)
+	{
+		this(source, batchSize, depth, precision, new Random());
+	}
+
+	/**
+	 * Start preparing batches of source, shuffled with the given random
+	 * number generator
+	 * @param source
+	 * @param batchSize
+	 * @param depth
+	 * @param precision
+	 * @param random
+	 */
+	public BatchPipeline(InstanceSource source, int batchSize, int depth, Precision precision, Random random)
+	{
+		this(source, batchSize, depth, precision, random, false, 0, 0);
+	}
+
+	/**
+	 * Start preparing batches of source from the given epoch, each epoch
+	 * shuffled with getEpochSeed(seed, epoch)
+	 * @param source
+	 * @param batchSize
+	 * @param depth
+	 * @param precision
+	 * @param seed
+	 * @param firstEpoch
+	 */
+	public BatchPipeline(InstanceSource source, int batchSize, int depth, Precision precision, long seed, int firstEpoch)
+	{
+		this(source, batchSize, depth, precision, new Random(), true, seed, firstEpoch);
+	}
+
+	private BatchPipeline(InstanceSource source, int batchSize, int depth, Precision precision, Random random, boolean seeded, long seed, int firstEpoch)
+	{
+		assert (batchSize > 0);
+		assert (depth > 0);
+		assert (source.getNumInstances() > 0);
+		this.source = source;
+		this.batchSize = batchSize;
+		this.random = random;
+		this.seeded = seeded;
+		this.seed = seed;
+		this.epoch = firstEpoch;
+		ready = new ArrayBlockingQueue<>(depth + 1);
+		// depth batches queued, one being packed and one with the trainer
+		free = new ArrayBlockingQueue<>(depth + 2);
+		for (int i = 0; i < depth + 2; ++i) {
+			free.add(new MiniBatch(new Matrix(batchSize, source.getNumInputs(), precision), new Matrix(batchSize, source.getNumExpectedOutputs(), precision)));
+		}
+		producer = new Thread(this::produce, "jnet-prefetch");
+		producer.setDaemon(true);
+		producer.start();
+	}
+
+	/**
+	 * Get the seed an epoch of a run is shuffled with, derived from the
+	 * run's seed so that any epoch's order can be repeated on its own
+	 * @param seed
+	 * @param epoch
+	 * @return
+	 */
+	public static long getEpochSeed(long seed, int epoch)
+	{
+		return seed + epoch * 0x9E3779B97F4A7C15L;
+	}
+
+	/**
+	 * Take the next batch of the current epoch, waiting for it if it has
+	 * not been prepared yet. The batch's matrices are reused once next is
+	 * called again
+	 * @return the batch, or null at the end of each epoch, after which the
+	 * following call returns the first batch of the next epoch
+	 * @throws DataException if preparing the batch failed
+	 */
+	public MiniBatch next() throws DataException
+	{
+		if (closed) {
+			throw new DataException("BatchPipeline is closed");
+		}
+		if (current != null) {
+			free.add(current);
+			current = null;
+		}
+		MiniBatch batch;
+		try {
+			batch = ready.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DataException("Interrupted waiting for a mini-batch");
+		}
+		if (batch == FAILED) {
+			throw new DataException("Failed to prepare mini-batch: " + failure.getMessage(), failure);
+		}
+		if (batch == END_OF_EPOCH) {
+			return null;
+		}
+		current = batch;
+		return batch;
+	}
+
+	/**
+	 * Stop the background thread
+	 */
+	@Override
+	public void close()
+	{
+		closed = true;
+		producer.interrupt();
+	}
+
+	private void produce()
+	{
+		try {
+			while (!closed) {
+				produceEpoch();
+				ready.put(END_OF_EPOCH);
+			}
+		} catch (InterruptedException e) {
+			// closed
+		} catch (DataException | RuntimeException | Error e) {
+			failure = e;
+			// the trainer drains the queue, so there is room once it reaches the failure
+			try {
+				ready.put(FAILED);
+			} catch (InterruptedException closed) {
+				// nobody left to tell
+			}
+		}
+	}
+
+	/**
+	 * Produce an epoch's batches from a shuffled pass over the source
+	 */
+	private void produceEpoch() throws DataException, InterruptedException
+	{
+		if (seeded) {
+			random.setSeed(getEpochSeed(seed, epoch++));
+		}
+		InstanceSource.Pass pass = source.startPass(random);
+		MiniBatch batch = null;
+		int row = 0;
+		while (pass.next()) {
+			if (batch == null) {
+				batch = free.take();
+			}
+			pass.copy(batch.getInputs(), batch.getExpectedOutputs(), row++);
+			if (row == batchSize) {
+				ready.put(batch);
+				batch = null;
+				row = 0;
+			}
+		}
+		if (batch != null) {
+			// the part-filled last batch is skipped
+			free.put(batch);
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package jnet.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import jnet.net.Precision;
+import jnet.net.SparseVector;
+import jnet.net.Vector;
+
+/**
+ * Parses CSV lines of numbers straight from bytes into DataSet rows,
+ * without creating a String or a boxed Double per field. Numbers written
+ * as plain integers or decimals of up to 15 significant digits - pixel
+ * values, most feature columns - are converted directly, giving exactly
+ * the double Double.parseDouble would; anything else, such as exponents,
+ * falls back to Double.parseDouble.
+ * A line is laid out either by a line format string, with an 'I' for each
+ * input field and an 'E' for each expected output, or as a class label
+ * followed by the inputs, the label being the index of the one expected
+ * output set to 1.0. Empty lines are skipped
+ * @author nigelgray
+ *
+ */
+final class CsvParser {
+
+	private final static int MAX_FAST_DIGITS = 15;
+
+	private final static double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	// 'I' or 'E' for each field, or null for a class label followed by inputs
+	private final char[] format;
+
+	private final int numExpectedOutputs;
+
+	private final Precision precision;
+
+	private final boolean sparseInputs;
+
+	// the values of the line being parsed
+	private double[] inputs;
+	private int numInputs;
+	private double[] expectedOutputs;
+	private int numOutputs;
+
+	// reused for every dense row - the data set copies their values
+	private Vector rowInputs;
+	private Vector rowExpectedOutputs;
+
+	// the end of the field parseNumber last read
+	private int fieldEnd;
+
+	private long lineNumber;
+
+	/**
+	 * A parser for lines laid out by a line format string
+	 * @param lineFormat
+	 * @param precision
+	 * @param sparseInputs
+	 * @throws DataException if the format has characters other than 'I' and 'E'
+	 */
+	CsvParser(String lineFormat, Precision precision, boolean sparseInputs) throws DataException
+	{
+		this.format = lineFormat.toCharArray();
+		int numInputFields = 0;
+		for (char field : format) {
+			if (field == 'I') {
+				++numInputFields;
+			} else if (field != 'E') {
+				throw new DataException("Illegal character" + field + " in line format string");
+			}
+		}
+		this.numExpectedOutputs = format.length - numInputFields;
+		this.precision = precision;
+		this.sparseInputs = sparseInputs;
+		inputs = new double[numInputFields];
+		expectedOutputs = new double[numExpectedOutputs];
+	}
+
+	/**
+	 * A parser for lines of a class label followed by the inputs
+	 * @param numExpectedOutputs
+	 * @param precision
+	 * @param sparseInputs
+	 */
+	CsvParser(int numExpectedOutputs, Precision precision, boolean sparseInputs)
+	{
+		this.format = null;
+		this.numExpectedOutputs = numExpectedOutputs;
+		this.precision = precision;
+		this.sparseInputs = sparseInputs;
+		inputs = new double[16];
+		expectedOutputs = new double[numExpectedOutputs];
+	}
+
+	/**
+	 * A parser with the same layout as template
+	 * @param template
+	 */
+	CsvParser(CsvParser template)
+	{
+		this.format = template.format;
+		this.numExpectedOutputs = template.numExpectedOutputs;
+		this.precision = template.precision;
+		this.sparseInputs = template.sparseInputs;
+		inputs = new double[template.inputs.length];
+		expectedOutputs = new double[numExpectedOutputs];
+	}
+
+	/**
+	 * Parse the lines of bytes from start to end, adding a row to dataSet for
+	 * each. Unless endOfInput is set a last line without a newline is left
+	 * unparsed, to be parsed again once the rest of it has been read
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @param endOfInput
+	 * @param dataSet
+	 * @return the index of the first byte not parsed
+	 * @throws DataException if a line does not match the layout or a field is not a number
+	 */
+	int parse(byte[] bytes, int start, int end, boolean endOfInput, DataSet dataSet) throws DataException
+	{
+		int lineStart = start;
+		while (lineStart < end) {
+			int lineEnd = lineStart;
+			while (lineEnd < end && bytes[lineEnd] != '\n') {
+				++lineEnd;
+			}
+			if (lineEnd == end && !endOfInput) {
+				// the rest of the line has not been read yet
+				return lineStart;
+			}
+			++lineNumber;
+			if (lineEnd > lineStart && !(lineEnd == lineStart + 1 && bytes[lineStart] == '\r')) {
+				parseLine(bytes, lineStart, lineEnd, dataSet);
+			}
+			lineStart = lineEnd + 1;
+		}
+		return end;
+	}
+
+	/**
+	 * Return the number of lines read so far, including empty ones
+	 * @return
+	 */
+	long getLineNumber()
+	{
+		return lineNumber;
+	}
+
+	/**
+	 * Parse the fields of a line, which ends at end, and add its row
+	 */
+	private void parseLine(byte[] bytes, int pos, int end, DataSet dataSet) throws DataException
+	{
+		numInputs = 0;
+		numOutputs = 0;
+		if (format == null) {
+			Arrays.fill(expectedOutputs, 0.0);
+		}
+		int field = 0;
+		while (true) {
+			addField(field++, parseNumber(bytes, pos, end));
+			if (fieldEnd == end) {
+				break;
+			}
+			pos = fieldEnd + 1;
+		}
+		endLine(field, dataSet);
+	}
+
+	private void addField(int field, double value) throws DataException
+	{
+		if (format == null) {
+			if (field == 0) {
+				int label = (int)value;
+				if (label < 0 || label >= numExpectedOutputs) {
+					throw error("Class label " + label + " out of range");
+				}
+				expectedOutputs[label] = 1.0;
+				numOutputs = numExpectedOutputs;
+				return;
+			}
+			if (numInputs == inputs.length) {
+				inputs = Arrays.copyOf(inputs, 2 * inputs.length);
+			}
+			inputs[numInputs++] = value;
+			return;
+		}
+		if (field >= format.length) {
+			throw error("Supplied line format string is inconsistent with file contents");
+		}
+		if (format[field] == 'I') {
+			inputs[numInputs++] = value;
+		} else {
+			expectedOutputs[numOutputs++] = value;
+		}
+	}
+
+	private void endLine(int numFields, DataSet dataSet) throws DataException
+	{
+		if (format != null && numFields != format.length) {
+			throw error("Supplied line format string is inconsistent with file contents");
+		}
+		if (rowExpectedOutputs == null) {
+			rowExpectedOutputs = new Vector(numExpectedOutputs, precision);
+		}
+		for (int i = 0; i < numOutputs; ++i) {
+			rowExpectedOutputs.setElement(i, expectedOutputs[i]);
+		}
+		if (sparseInputs) {
+			dataSet.addRow(SparseVector.fromDense(Arrays.copyOf(inputs, numInputs), precision), rowExpectedOutputs);
+			return;
+		}
+		if (rowInputs == null || rowInputs.getSize() != numInputs) {
+			rowInputs = new Vector(numInputs, precision);
+		}
+		for (int i = 0; i < numInputs; ++i) {
+			rowInputs.setElement(i, inputs[i]);
+		}
+		dataSet.addRow(rowInputs, rowExpectedOutputs);
+	}
+
+	/**
+	 * Parse the number in the field starting at pos, leaving fieldEnd at the
+	 * comma or line end which ends the field
+	 */
+	private double parseNumber(byte[] bytes, int pos, int end) throws DataException
+	{
+		int start = pos;
+		pos = skipBlanks(bytes, pos, end);
+		boolean negative = false;
+		if (pos < end && (bytes[pos] == '-' || bytes[pos] == '+')) {
+			negative = bytes[pos] == '-';
+			++pos;
+		}
+		long mantissa = 0;
+		int numDigits = 0;
+		int scale = 0;
+		boolean anyDigits = false;
+		boolean fraction = false;
+		for (; pos < end; ++pos) {
+			byte b = bytes[pos];
+			if (b >= '0' && b <= '9') {
+				anyDigits = true;
+				if (mantissa != 0 || b != '0') {
+					++numDigits;
+				}
+				if (numDigits <= MAX_FAST_DIGITS) {
+					mantissa = 10 * mantissa + (b - '0');
+					if (fraction) {
+						++scale;
+					}
+				}
+			} else if (b == '.' && !fraction) {
+				fraction = true;
+			} else {
+				break;
+			}
+		}
+		pos = skipBlanks(bytes, pos, end);
+		if (anyDigits && numDigits <= MAX_FAST_DIGITS && scale < POWERS_OF_TEN.length && isFieldEnd(bytes, pos, end)) {
+			fieldEnd = pos;
+			// both operands are exact, so the quotient is correctly rounded
+			double value = scale == 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+			return negative ? -value : value;
+		}
+		while (!isFieldEnd(bytes, pos, end)) {
+			++pos;
+		}
+		fieldEnd = pos;
+		String field = new String(bytes, start, pos - start, StandardCharsets.ISO_8859_1);
+		try {
+			return Double.parseDouble(field);
+		} catch (NumberFormatException e) {
+			throw error("Cannot parse \"" + field.trim() + "\" as a number");
+		}
+	}
+
+	private static int skipBlanks(byte[] bytes, int pos, int end)
+	{
+		// Double.parseDouble ignores the same leading and trailing characters
+		while (pos < end && bytes[pos] <= ' ' && bytes[pos] >= 0) {
+			++pos;
+		}
+		return pos;
+	}
+
+	private static boolean isFieldEnd(byte[] bytes, int pos, int end)
+	{
+		return pos == end || bytes[pos] == ',';
+	}
+
+	private DataException error(String message)
+	{
+		return new DataException(String.format("Line %d: %s", lineNumber, message));
+	}
+}
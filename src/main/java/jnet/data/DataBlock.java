@@ -0,0 +1,336 @@
+package jnet.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jnet.net.Matrix;
+import jnet.net.SparseVector;
+import jnet.net.Vector;
+
+/**
+ * The rows of a DataSet, shared with its subsets. While every row is
+ * dense, with as many inputs and expected outputs as the first and in the
+ * same precision, the rows are packed into two row-major blocks - one of
+ * inputs and one of expected outputs - and the DataInstances handed out
+ * are views of them. A row which cannot be packed, such as one with sparse
+ * inputs, unpacks the block, which from then on holds the instances as
+ * they were added.
+ * The order the sets present the rows in is a permutation of row indices,
+ * so shuffling and taking subsets never moves the data itself
+ * @author nigelgray
+ *
+ */
+final class DataBlock {
+
+	private final static int INITIAL_CAPACITY = 16;
+
+	// the order of the rows; every set is a range of it
+	private int[] order = new int[INITIAL_CAPACITY];
+
+	private int numRows;
+
+	// the packed rows, while instances is null
+	private int capacity;
+	private int reservedRows;
+	private int numInputs;
+	private int numOutputs;
+	private Vector inputs;
+	private Vector expectedOutputs;
+
+	// the rows as they were added, once unpacked
+	private List<DataInstance> instances;
+
+	/**
+	 * An empty block
+	 */
+	DataBlock()
+	{
+	}
+
+	/**
+	 * A packed block of numRows rows, in order, over the given row-major
+	 * blocks of inputs and expected outputs
+	 * @param inputs
+	 * @param expectedOutputs
+	 * @param numRows
+	 */
+	DataBlock(Vector inputs, Vector expectedOutputs, int numRows)
+	{
+		assert (numRows > 0 && inputs.getSize() % numRows == 0 && expectedOutputs.getSize() % numRows == 0);
+		this.inputs = inputs;
+		this.expectedOutputs = expectedOutputs;
+		this.numRows = numRows;
+		this.capacity = numRows;
+		this.numInputs = inputs.getSize() / numRows;
+		this.numOutputs = expectedOutputs.getSize() / numRows;
+		this.order = new int[numRows];
+		for (int row = 0; row < numRows; ++row) {
+			order[row] = row;
+		}
+	}
+
+	int getNumRows()
+	{
+		return numRows;
+	}
+
+	boolean isPacked()
+	{
+		return instances == null;
+	}
+
+	/**
+	 * Return the index of the row at position in the order
+	 * @param position
+	 * @return
+	 */
+	int getRow(int position)
+	{
+		return order[position];
+	}
+
+	/**
+	 * Swap the rows at two positions in the order
+	 * @param i
+	 * @param j
+	 */
+	void swap(int i, int j)
+	{
+		int row = order[i];
+		order[i] = order[j];
+		order[j] = row;
+	}
+
+	/**
+	 * Add a row holding the values of instance at position in the order,
+	 * moving the rows from there on up one place
+	 * @param position
+	 * @param instance
+	 */
+	void insert(int position, DataInstance instance)
+	{
+		insert(position, instance, false);
+	}
+	
+	/**
+	 * As insert, but if copy is set an unpacked block keeps a copy of the
+	 * instance's dense vectors, so the caller may reuse them. Sparse
+	 * vectors are always kept as they are
+	 * @param position
+	 * @param instance
+	 * @param copy
+	 */
+	void insert(int position, DataInstance instance, boolean copy)
+	{
+		assert (position >= 0 && position <= numRows);
+		if (isPacked() && !canPack(instance)) {
+			unpack();
+		}
+		if (isPacked()) {
+			if (numRows == capacity) {
+				resize(Math.max(Math.max(INITIAL_CAPACITY, reservedRows), 2 * capacity));
+			}
+			inputs.view(numRows * numInputs, numInputs).copyFrom(instance.getInputs());
+			expectedOutputs.view(numRows * numOutputs, numOutputs).copyFrom(instance.getExpectedOutputs());
+		} else if (copy) {
+			instances.add(new DataInstance(copyIfDense(instance.getInputs()), copyIfDense(instance.getExpectedOutputs())));
+		} else {
+			instances.add(instance);
+		}
+		if (numRows == order.length) {
+			order = Arrays.copyOf(order, 2 * order.length);
+		}
+		System.arraycopy(order, position, order, position + 1, numRows - position);
+		order[position] = numRows;
+		++numRows;
+	}
+
+	/**
+	 * Add every row of other, in its order, after the rows of this block.
+	 * Packed rows of the same shape are copied in bulk
+	 * @param other
+	 */
+	void append(DataBlock other)
+	{
+		if (other.numRows == 0) {
+			return;
+		}
+		if (!isPacked() || !other.isPacked() || !canPack(other.get(other.order[0]))) {
+			for (int p = 0; p < other.numRows; ++p) {
+				insert(numRows, other.get(other.order[p]), true);
+			}
+			return;
+		}
+		int newNumRows = numRows + other.numRows;
+		if (newNumRows > capacity) {
+			resize(Math.max(newNumRows, 2 * capacity));
+		}
+		if (newNumRows > order.length) {
+			order = Arrays.copyOf(order, Math.max(newNumRows, 2 * order.length));
+		}
+		inputs.view(numRows * numInputs, other.numRows * numInputs).copyFrom(other.inputs.view(0, other.numRows * numInputs));
+		expectedOutputs.view(numRows * numOutputs, other.numRows * numOutputs).copyFrom(other.expectedOutputs.view(0, other.numRows * numOutputs));
+		for (int p = 0; p < other.numRows; ++p) {
+			order[numRows + p] = numRows + other.order[p];
+		}
+		numRows = newNumRows;
+	}
+
+	/**
+	 * Make room for numRows rows in all, once the shape of the rows is
+	 * known, so that adding them does not grow the blocks step by step
+	 * @param numRows
+	 */
+	void reserve(int numRows)
+	{
+		reservedRows = numRows;
+	}
+
+	/**
+	 * Remove every row, keeping the capacity allocated for them
+	 */
+	void clear()
+	{
+		if (!isPacked()) {
+			instances.clear();
+		}
+		numRows = 0;
+	}
+
+	/**
+	 * Return the given row - a view of the packed blocks, or the instance
+	 * added if the block has been unpacked. Adding rows may move the packed
+	 * blocks, after which a view taken before no longer sees the row's values
+	 * @param row
+	 * @return
+	 */
+	DataInstance get(int row)
+	{
+		if (!isPacked()) {
+			return instances.get(row);
+		}
+		return new DataInstance(inputs.view(row * numInputs, numInputs), expectedOutputs.view(row * numOutputs, numOutputs));
+	}
+
+	/**
+	 * Copy the given row into targetRow of a batch's input and expected
+	 * output matrices
+	 * @param row
+	 * @param batchInputs
+	 * @param batchExpectedOutputs null to copy only the inputs
+	 * @param targetRow
+	 */
+	void copyRow(int row, Matrix batchInputs, Matrix batchExpectedOutputs, int targetRow)
+	{
+		if (!isPacked()) {
+			batchInputs.copyRowFrom(targetRow, instances.get(row).getInputs());
+			if (batchExpectedOutputs != null) {
+				batchExpectedOutputs.copyRowFrom(targetRow, instances.get(row).getExpectedOutputs());
+			}
+			return;
+		}
+		batchInputs.copyRowFrom(targetRow, inputs, row * numInputs);
+		if (batchExpectedOutputs != null) {
+			batchExpectedOutputs.copyRowFrom(targetRow, expectedOutputs, row * numOutputs);
+		}
+	}
+
+	/**
+	 * Scale the inputs of the rows at positions from to to - 1 in the order
+	 * as DataInstance.normalize does, into [0, 1] between the given bounds
+	 * @param from
+	 * @param to
+	 * @param minValues
+	 * @param maxValues
+	 */
+	void normalize(int from, int to, double[] minValues, double[] maxValues)
+	{
+		assert (isPacked());
+		for (int p = from; p < to; ++p) {
+			int start = order[p] * numInputs;
+			for (int i = 0; i < numInputs; ++i) {
+				if (maxValues[i] - minValues[i] != 0) {
+					inputs.setElement(start + i, (inputs.getElement(start + i) - minValues[i])/(maxValues[i] - minValues[i]));
+				} else {
+					inputs.setElement(start + i, 0.0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return the packed inputs of every row, row after row
+	 * @return
+	 */
+	Vector getInputs()
+	{
+		assert (isPacked());
+		return inputs;
+	}
+
+	int getNumInputs()
+	{
+		return numInputs;
+	}
+
+	/**
+	 * Release the capacity allocated for rows not yet added
+	 */
+	void trimToSize()
+	{
+		if (isPacked() && capacity > numRows) {
+			resize(numRows);
+		}
+		order = Arrays.copyOf(order, Math.max(numRows, 1));
+	}
+
+	private boolean canPack(DataInstance instance)
+	{
+		Vector rowInputs = instance.getInputs();
+		Vector rowExpectedOutputs = instance.getExpectedOutputs();
+		if (rowInputs instanceof SparseVector || rowExpectedOutputs instanceof SparseVector) {
+			return false;
+		}
+		if (inputs == null) {
+			// the first row decides the shape and precision of the blocks
+			numInputs = rowInputs.getSize();
+			numOutputs = rowExpectedOutputs.getSize();
+			inputs = new Vector(0, rowInputs.getPrecision());
+			expectedOutputs = new Vector(0, rowExpectedOutputs.getPrecision());
+			return true;
+		}
+		return rowInputs.getSize() == numInputs && rowExpectedOutputs.getSize() == numOutputs
+				&& rowInputs.getPrecision() == inputs.getPrecision()
+				&& rowExpectedOutputs.getPrecision() == expectedOutputs.getPrecision();
+	}
+
+	private static Vector copyIfDense(Vector vector)
+	{
+		return vector instanceof SparseVector ? vector : new Vector(vector);
+	}
+
+	private void resize(int newCapacity)
+	{
+		Vector newInputs = new Vector(newCapacity * numInputs, inputs.getPrecision());
+		Vector newExpectedOutputs = new Vector(newCapacity * numOutputs, expectedOutputs.getPrecision());
+		newInputs.view(0, numRows * numInputs).copyFrom(inputs.view(0, numRows * numInputs));
+		newExpectedOutputs.view(0, numRows * numOutputs).copyFrom(expectedOutputs.view(0, numRows * numOutputs));
+		inputs = newInputs;
+		expectedOutputs = newExpectedOutputs;
+		capacity = newCapacity;
+	}
+
+	private void unpack()
+	{
+		List<DataInstance> unpacked = new ArrayList<>(Math.max(numRows, INITIAL_CAPACITY));
+		for (int row = 0; row < numRows; ++row) {
+			DataInstance view = get(row);
+			unpacked.add(new DataInstance(new Vector(view.getInputs()), new Vector(view.getExpectedOutputs())));
+		}
+		instances = unpacked;
+		inputs = null;
+		expectedOutputs = null;
+		capacity = 0;
+	}
+}
@@ -17,4 +17,8 @@ public class DataException extends Exception {
 		super(e);
 	}
 
+	public DataException(String string, Throwable cause) {
+		super(string, cause);
+	}
+
 }
@@ -2,8 +2,16 @@ package jnet.data;
 
 import java.util.List;
 
+import jnet.net.SparseVector;
 import jnet.net.Vector;
 
+/**
+ * The inputs and expected outputs of one instance. The instances a DataSet
+ * hands out are views of its packed rows, so writing to their vectors
+ * writes to the set; normalize replaces the inputs of the view only
+ * @author nigelgray
+ *
+ */
 public class DataInstance {
 	
 	private Vector inputs;
@@ -36,6 +44,10 @@ public class DataInstance {
 				normalizedInputs[i] = 0.0;
 			}
 		}
-		inputs = new Vector(normalizedInputs);
+		if (inputs instanceof SparseVector) {
+			inputs = SparseVector.fromDense(normalizedInputs, inputs.getPrecision());
+		} else {
+			inputs = new Vector(normalizedInputs, inputs.getPrecision());
+		}
 	}
 }
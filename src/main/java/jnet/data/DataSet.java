@@ -1,16 +1,35 @@
 package jnet.data;
 
 
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 
+import jnet.net.Matrix;
 import jnet.net.Vector;
 
-public class DataSet {
+/**
+ * A set of data instances, stored column by column: the inputs of every
+ * instance in one contiguous row-major block and the expected outputs in
+ * another - see DataBlock. The DataInstances of a set are lightweight views
+ * of its rows, and shuffling, subsets, splits and mini-batches only reorder
+ * or divide up a permutation of the rows, sharing the data. Adding an
+ * instance copies its values into the blocks. As an InstanceSource, a
+ * pass reads the set in its current order or in a shuffled order of its own
+ */
+public class DataSet implements InstanceSource {
 
-	private List<DataInstance> dataInstances;
+	private static final Random random = new Random();
+	
+	// the rows, shared with the subsets of this set
+	private DataBlock block;
+	
+	// this set is numInstances positions of the block's order from offset on,
+	// or every row from offset on if numInstances is negative
+	private int offset;
+	private int numInstances;
 	
 	private double trainingSetFraction;
 	private double validationSetFraction;
@@ -44,6 +63,10 @@ public class DataSet {
 	
 	public void normalize() 
 	{
+		if (block.isPacked()) {
+			normalizePacked();
+			return;
+		}
     	Iterator<DataInstance> iter = getIterator();
     	double[] maxValues = null;
     	double[] minValues = null;
@@ -72,7 +95,9 @@ public class DataSet {
 	 */
 	public void shuffle() 
 	{
-		Collections.shuffle(dataInstances);
+		for (int i = getNumInstances() - 1; i > 0; --i) {
+			block.swap(offset + i, offset + random.nextInt(i + 1));
+		}
 	}
 	
 	/**
@@ -82,10 +107,10 @@ public class DataSet {
 	 */
 	public DataSet getTrainingSubset() 
 	{
-		if (dataInstances.isEmpty())
+		if (isEmpty())
 			return this;
 		
-		return new DataSet(dataInstances.subList(0, getNumTrainingInstances()));	
+		return new DataSet(block, offset, getNumTrainingInstances());	
 	}
 	
 	/**
@@ -95,11 +120,11 @@ public class DataSet {
 	 */
 	public DataSet getValidationSubset()
 	{
-		if (dataInstances.isEmpty())
+		if (isEmpty())
 			return this;
 		
 		int startingIndex = getNumTrainingInstances();
-		return new DataSet(dataInstances.subList(startingIndex, startingIndex + getNumValidationInstances()));
+		return new DataSet(block, offset + startingIndex, getNumValidationInstances());
 	}
 	
 	/**
@@ -109,11 +134,11 @@ public class DataSet {
 	 */
 	public DataSet getTestSubset()
 	{
-		if (dataInstances.isEmpty())
+		if (isEmpty())
 			return this;
 		
 		int startingIndex = getNumTrainingInstances() + getNumValidationInstances();
-		return new DataSet(dataInstances.subList(startingIndex, startingIndex + getNumTestInstances()));
+		return new DataSet(block, offset + startingIndex, getNumTestInstances());
 	}
 	
 	
@@ -122,36 +147,273 @@ public class DataSet {
 	{
 		ArrayList<DataSet> miniBatches = new ArrayList<DataSet>();
 				
-		for (int i = 0; i < dataInstances.size() - miniBatchSize; i= i + miniBatchSize) {
-			DataSet newMiniBatch = new DataSet(dataInstances.subList(i, i + miniBatchSize));
+		for (int i = 0; i < getNumInstances() - miniBatchSize; i= i + miniBatchSize) {
+			DataSet newMiniBatch = new DataSet(block, offset + i, miniBatchSize);
 			miniBatches.add(newMiniBatch);
 		}
 		return miniBatches;
 	}
 	
+	/**
+	 * Divide the set into at most numParts contiguous parts whose sizes
+	 * differ by at most one, covering every instance. The parts are views
+	 * of this set
+	 * @param numParts
+	 * @return the non-empty parts, in order
+	 */
+	public List<DataSet> split(int numParts)
+	{
+		assert (numParts > 0);
+		ArrayList<DataSet> parts = new ArrayList<DataSet>();
+		int size = getNumInstances();
+		int start = 0;
+		for (int p = 0; p < numParts && start < size; ++p) {
+			int end = start + (size - start + (numParts - p) - 1) / (numParts - p);
+			parts.add(new DataSet(block, offset + start, end - start));
+			start = end;
+		}
+		return parts;
+	}
+	
+	/**
+	 * Add a copy of instance's values to the end of the set. Adding to a
+	 * subset inserts the instance into its parent after the subset's last
+	 * instance, and other subsets of the parent should not be used after it
+	 * @param instance
+	 */
 	public void addInstance(DataInstance instance) 
 	{		
-		dataInstances.add(instance);
+		block.insert(offset + getNumInstances(), instance);
+		if (numInstances >= 0) {
+			++numInstances;
+		}
+	}
+	
+	/**
+	 * Add a row with the values of the given vectors to the end of the set,
+	 * as addInstance. The values are always copied, so a loader can reuse
+	 * the vectors for the next row
+	 * @param inputs
+	 * @param expectedOutputs
+	 */
+	void addRow(Vector inputs, Vector expectedOutputs)
+	{
+		block.insert(offset + getNumInstances(), new DataInstance(inputs, expectedOutputs), true);
+		if (numInstances >= 0) {
+			++numInstances;
+		}
+	}
+	
+	/**
+	 * Add copies of every instance of other, in its order, to the end of this
+	 * set, which must not be a subset. Packed rows are copied in bulk
+	 * @param other a whole set, not a subset
+	 */
+	void addAll(DataSet other)
+	{
+		assert (numInstances < 0 && other.numInstances < 0 && other.offset == 0);
+		block.append(other.block);
 	}
 	
     public Iterator<DataInstance> getIterator() 
     {
-		return dataInstances.iterator();
+		return getDataInstances().iterator();
 	}
     
+    /**
+     * Return a read-only list of the instances of the set, in its current
+     * order. Each element is created on demand as a view of its row. Adding
+     * instances may move the rows, leaving a view taken before detached from
+     * the set, so take the instances again after adding to the set
+     * @return
+     */
     public List<DataInstance> getDataInstances()
     {
-    	return dataInstances;
+    	return new AbstractList<DataInstance>() {
+    		@Override
+    		public DataInstance get(int index)
+    		{
+    			if (index < 0 || index >= getNumInstances()) {
+    				throw new IndexOutOfBoundsException("Index " + index + " of DataSet with " + getNumInstances() + " instances");
+    			}
+    			return block.get(block.getRow(offset + index));
+    		}
+    		
+    		@Override
+    		public int size()
+    		{
+    			return getNumInstances();
+    		}
+    	};
     }
     
 	public int getNumInstances() 
 	{
-		return dataInstances.size();
+		return numInstances < 0 ? block.getNumRows() - offset : numInstances;
 	}
 	
 	public boolean isEmpty() 
 	{
-		return dataInstances.isEmpty();
+		return getNumInstances() == 0;
+	}
+	
+	@Override
+	public int getNumInputs()
+	{
+		return isEmpty() ? 0 : getDataInstances().get(0).getInputs().getSize();
+	}
+	
+	@Override
+	public int getNumExpectedOutputs()
+	{
+		return isEmpty() ? 0 : getDataInstances().get(0).getExpectedOutputs().getSize();
+	}
+	
+	/**
+	 * Start a pass over the instances in the set's current order, or in an
+	 * order of the pass's own shuffled with random. The set itself is not
+	 * reordered, and its instances are never read from a file, so a pass
+	 * does not throw DataException
+	 */
+	@Override
+	public InstanceSource.Pass startPass(Random random)
+	{
+		int[] order = new int[getNumInstances()];
+		for (int i = 0; i < order.length; ++i) {
+			order[i] = i;
+		}
+		if (random != null) {
+			for (int i = order.length - 1; i > 0; --i) {
+				int j = random.nextInt(i + 1);
+				int swap = order[i];
+				order[i] = order[j];
+				order[j] = swap;
+			}
+		}
+		return new InstanceSource.Pass() {
+			private int position = -1;
+			
+			@Override
+			public boolean next()
+			{
+				if (position < order.length) {
+					++position;
+				}
+				return position < order.length;
+			}
+			
+			@Override
+			public DataInstance get()
+			{
+				return getDataInstances().get(order[position]);
+			}
+			
+			@Override
+			public void copy(Matrix batchInputs, Matrix batchExpectedOutputs, int row)
+			{
+				copyInstance(order[position], batchInputs, batchExpectedOutputs, row);
+			}
+		};
+	}
+	
+	/**
+	 * Pack every instance of the set, in its current order, into the rows of
+	 * a batch's input and expected output matrices - a bulk copy of each row,
+	 * with no instance created
+	 * @param batchInputs (instances x inputs)
+	 * @param batchExpectedOutputs (instances x expected outputs), or null to
+	 * pack only the inputs
+	 */
+	public void copyInstances(Matrix batchInputs, Matrix batchExpectedOutputs)
+	{
+		assert (batchInputs.getNumRows() == getNumInstances());
+		for (int i = 0; i < getNumInstances(); ++i) {
+			copyInstance(i, batchInputs, batchExpectedOutputs, i);
+		}
+	}
+	
+	/**
+	 * Pack the instances at the given indices, from start on, into the rows
+	 * of a batch's input and expected output matrices, one per row
+	 * @param indices
+	 * @param start
+	 * @param batchInputs
+	 * @param batchExpectedOutputs
+	 */
+	public void copyInstances(int[] indices, int start, Matrix batchInputs, Matrix batchExpectedOutputs)
+	{
+		assert (start + batchInputs.getNumRows() <= indices.length);
+		for (int i = 0; i < batchInputs.getNumRows(); ++i) {
+			copyInstance(indices[start + i], batchInputs, batchExpectedOutputs, i);
+		}
+	}
+	
+	/**
+	 * Copy the instance at index into row of a batch's input and expected
+	 * output matrices - a bulk copy out of the packed blocks
+	 * @param index
+	 * @param batchInputs
+	 * @param batchExpectedOutputs
+	 * @param row
+	 */
+	void copyInstance(int index, Matrix batchInputs, Matrix batchExpectedOutputs, int row)
+	{
+		assert (index >= 0 && index < getNumInstances());
+		block.copyRow(block.getRow(offset + index), batchInputs, batchExpectedOutputs, row);
+	}
+	
+	/**
+	 * Make room for numInstances instances in all, so that loading them does
+	 * not grow the set step by step
+	 * @param numInstances
+	 */
+	void reserve(int numInstances)
+	{
+		block.reserve(numInstances);
+	}
+	
+	/**
+	 * Remove every instance of the set, which must not be a subset, keeping
+	 * the memory reserved for them to be reused
+	 */
+	void clear()
+	{
+		assert (numInstances < 0 && offset == 0);
+		block.clear();
+	}
+	
+	/**
+	 * Release the memory reserved for instances not yet added, once the
+	 * whole set has been loaded
+	 */
+	void trimToSize()
+	{
+		block.trimToSize();
+	}
+
+	double getTrainingSetFraction()
+	{
+		return trainingSetFraction;
+	}
+	
+	double getValidationSetFraction()
+	{
+		return validationSetFraction;
+	}
+	
+	double getTestSetFraction()
+	{
+		return testSetFraction;
+	}
+	
+	// a whole set of the rows of block, divided up by the given fractions
+	DataSet(DataBlock block, double trainingSetFraction, double validationSetFraction, double testSetFraction)
+	{
+		this.block = block;
+		this.numInstances = -1;
+		this.trainingSetFraction = trainingSetFraction;
+		this.validationSetFraction = validationSetFraction;
+		this.testSetFraction = testSetFraction;
 	}
 
 /* Private constructors */
@@ -159,7 +421,8 @@ public class DataSet {
 	// Create a new empty data set
 	// with default training, validation and test set fractions
 	private DataSet() {
-		dataInstances = new ArrayList<>();
+		block = new DataBlock();
+		numInstances = -1;
 		trainingSetFraction = 0.8;
 		validationSetFraction = 0.1;
 		testSetFraction = 0.1;
@@ -167,7 +430,8 @@ public class DataSet {
 	
 	private DataSet(double trainingSetFraction)
 	{
-		this.dataInstances = new ArrayList<>();
+		this.block = new DataBlock();
+		this.numInstances = -1;
 		this.trainingSetFraction = trainingSetFraction;
 		this.validationSetFraction = 0.5 * (1.0 - trainingSetFraction);
 		this.testSetFraction = validationSetFraction;
@@ -175,15 +439,19 @@ public class DataSet {
 	
 	private DataSet(double trainingSetFraction, double validationSetFraction)
 	{
-		this.dataInstances = new ArrayList<>();
+		this.block = new DataBlock();
+		this.numInstances = -1;
 		this.trainingSetFraction = trainingSetFraction;
 		this.validationSetFraction = validationSetFraction;
 		this.testSetFraction = 1.0 - trainingSetFraction - validationSetFraction;
 	}
 	
-	private DataSet(List<DataInstance> dataSet) 
+	// a subset of numInstances positions of block's order from offset on
+	private DataSet(DataBlock block, int offset, int numInstances) 
 	{
-		this.dataInstances = dataSet;
+		this.block = block;
+		this.offset = offset;
+		this.numInstances = numInstances;
 		this.trainingSetFraction = 1.0;
 		this.validationSetFraction = 0.0;
 		this.testSetFraction = 0.0;
@@ -191,18 +459,39 @@ public class DataSet {
 
 /* Private helper methods */
 	
+	// normalize as DataInstance.normalize does, in place in the packed inputs
+	private void normalizePacked()
+	{
+		if (isEmpty()) {
+			return;
+		}
+		Vector inputs = block.getInputs();
+		int numInputs = block.getNumInputs();
+		double[] maxValues = new double[numInputs];
+		double[] minValues = new double[numInputs];
+		for (int p = offset; p < offset + getNumInstances(); ++p) {
+			int start = block.getRow(p) * numInputs;
+			for (int i = 0; i < numInputs; ++i) {
+				double value = inputs.getElement(start + i);
+				minValues[i] = minValues[i] > value ? value : minValues[i];
+				maxValues[i] = maxValues[i] < value ? value : maxValues[i];
+			}
+		}
+		block.normalize(offset, offset + getNumInstances(), minValues, maxValues);
+	}
+	
 	private int getNumTrainingInstances()
 	{
-		return (int)(dataInstances.size() * trainingSetFraction);
+		return (int)(getNumInstances() * trainingSetFraction);
 	}
 	
 	private int getNumValidationInstances()
 	{
-		return (int)(dataInstances.size() * validationSetFraction);
+		return (int)(getNumInstances() * validationSetFraction);
 	}
 	
 	private int getNumTestInstances()
 	{
-		return (int)(dataInstances.size() * testSetFraction);
+		return (int)(getNumInstances() * testSetFraction);
 	}	
 }
@@ -0,0 +1,539 @@
+package jnet.data;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jnet.net.Precision;
+import jnet.net.SparseVector;
+import jnet.net.Vector;
+
+/**
+ * The binary cache format of a parsed DataSet, so that a set parsed once
+ * from CSV can be reopened by memory-mapping the cache instead of parsing
+ * the text again. A header is followed by the inputs of every instance as
+ * one packed row-major block, then the expected outputs as another. The
+ * values are stored as doubles, as floats, or quantised to a byte each:
+ * a byte encodes 256 evenly spaced levels from the least value of its
+ * column. A column of whole numbers spanning at most 255 - pixel
+ * intensities, one-hot labels - is stored exactly, one level per number.
+ * Any other column is lossy, its levels spread from its least to its
+ * greatest value. All values are little-endian:
+ * <pre>
+ * int      magic "JNDS"
+ * int      format version
+ * int      encoding - 0 for double, 1 for float, 2 for byte
+ * int      precision of the set - 0 for double, 1 for float
+ * int      flags - 1 if the inputs are sparse
+ * int      number of instances
+ * int      number of inputs
+ * int      number of expected outputs
+ * double[] training, validation and test set fractions
+ * long     size of the source file, or -1
+ * long     modification time of the source file in milliseconds, or -1
+ * for the byte encoding, for each input then each expected output
+ *   double   least value
+ *   double   step between levels
+ * ...      zero padding to a multiple of eight bytes
+ * the inputs, then zero padding to a multiple of eight bytes
+ * the expected outputs
+ * </pre>
+ * A cache records the size and modification time of the file it was
+ * parsed from, and is parsed again when they change. It does not record
+ * how the file was parsed, so each way of parsing a file needs a cache
+ * file of its own
+ * @author nigelgray
+ *
+ */
+public final class DataSetCache {
+
+	/**
+	 * How the values of a cached set are stored
+	 */
+	public static enum Encoding {
+		DOUBLE,
+		FLOAT,
+		BYTE
+	};
+
+	/**
+	 * Parses a DataSet from its source file, when its cache is out of date
+	 */
+	public interface Source {
+		DataSet load() throws DataException;
+	}
+
+	// "JNDS" in file order
+	private final static int MAGIC = 0x53444E4A;
+
+	private final static int VERSION = 2;
+
+	private final static int FLAG_SPARSE_INPUTS = 1;
+
+	private final static int BLOCK_SIZE = 1 << 16;
+
+	private final static int BYTE_LEVELS = 255;
+
+	private static Logger logger = Logger.getGlobal();
+
+	/**
+	 * The decoded header of a cache file
+	 */
+	private static final class Header {
+		Encoding encoding;
+		Precision precision;
+		boolean sparseInputs;
+		int numRows;
+		int numInputs;
+		int numOutputs;
+		double trainingSetFraction;
+		double validationSetFraction;
+		double testSetFraction;
+		long sourceSize = -1;
+		long sourceModified = -1;
+		// the least value and level step of each column for the byte
+		// encoding, inputs first
+		double[] minValues;
+		double[] steps;
+		int inputsOffset;
+		int outputsOffset;
+	}
+
+	private DataSetCache()
+	{
+	}
+
+	/**
+	 * Return the set cached in file if the cache is current - written from
+	 * source as it is now, with the given encoding - otherwise parse the
+	 * set from source with parser and cache it in file first. Either way
+	 * the set is read from the cache, so a lossy encoding gives the same
+	 * values on every run
+	 * @param file
+	 * @param source
+	 * @param encoding
+	 * @param parser
+	 * @return
+	 * @throws DataException if the set cannot be parsed, or the cache cannot be written or read
+	 */
+	public static DataSet load(Path file, Path source, Encoding encoding, Source parser) throws DataException
+	{
+		if (isCurrent(file, source, encoding)) {
+			return load(file);
+		}
+		long sourceSize;
+		long sourceModified;
+		try {
+			// taken before parsing, so a change made meanwhile makes the cache stale
+			sourceSize = Files.size(source);
+			sourceModified = Files.getLastModifiedTime(source).toMillis();
+		} catch (IOException e) {
+			throw new DataException(e);
+		}
+		save(parser.load(), file, encoding, sourceSize, sourceModified);
+		logger.log(Level.INFO, String.format("Cached %s in %s", source, file));
+		return load(file);
+	}
+
+	/**
+	 * Return true if file is a cache with the given encoding of source as
+	 * it is now
+	 * @param file
+	 * @param source
+	 * @param encoding
+	 * @return
+	 */
+	public static boolean isCurrent(Path file, Path source, Encoding encoding)
+	{
+		if (!Files.isRegularFile(file)) {
+			return false;
+		}
+		try {
+			Header header = readHeader(map(file), file);
+			return header.encoding == encoding
+					&& header.sourceSize == Files.size(source)
+					&& header.sourceModified == Files.getLastModifiedTime(source).toMillis();
+		} catch (DataException | IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Write the instances of dataSet, in its current order, to file,
+	 * replacing anything already there. Every instance must have as many
+	 * inputs and expected outputs as the first
+	 * @param dataSet
+	 * @param file
+	 * @param encoding
+	 * @throws DataException if the file cannot be written or the instances differ in size
+	 */
+	public static void save(DataSet dataSet, Path file, Encoding encoding) throws DataException
+	{
+		save(dataSet, file, encoding, -1, -1);
+	}
+
+	/**
+	 * Read a DataSet from a cache file. The file is mapped and its blocks
+	 * copied out in bulk, or for the byte encoding decoded, into the
+	 * packed rows of the set
+	 * @param file
+	 * @return
+	 * @throws DataException if the file cannot be read or is not a cache
+	 */
+	public static DataSet load(Path file) throws DataException
+	{
+		MappedByteBuffer buffer = map(file);
+		Header header = readHeader(buffer, file);
+		if (header.numRows == 0) {
+			return new DataSet(new DataBlock(), header.trainingSetFraction, header.validationSetFraction, header.testSetFraction);
+		}
+		Vector inputs = new Vector(header.numRows * header.numInputs, header.precision);
+		Vector expectedOutputs = new Vector(header.numRows * header.numOutputs, header.precision);
+		decode(slice(buffer, header.inputsOffset), inputs, header, 0, header.numInputs);
+		decode(slice(buffer, header.outputsOffset), expectedOutputs, header, header.numInputs, header.numOutputs);
+		DataBlock block = new DataBlock(inputs, expectedOutputs, header.numRows);
+		if (!header.sparseInputs) {
+			return new DataSet(block, header.trainingSetFraction, header.validationSetFraction, header.testSetFraction);
+		}
+		DataSet dataSet = new DataSet(new DataBlock(), header.trainingSetFraction, header.validationSetFraction, header.testSetFraction);
+		double[] row = new double[header.numInputs];
+		for (int i = 0; i < header.numRows; ++i) {
+			DataInstance instance = block.get(i);
+			for (int j = 0; j < row.length; ++j) {
+				row[j] = instance.getInputs().getElement(j);
+			}
+			dataSet.addRow(SparseVector.fromDense(row, header.precision), instance.getExpectedOutputs());
+		}
+		dataSet.trimToSize();
+		return dataSet;
+	}
+
+	private static void save(DataSet dataSet, Path file, Encoding encoding, long sourceSize, long sourceModified) throws DataException
+	{
+		List<DataInstance> instances = dataSet.getDataInstances();
+		Header header = new Header();
+		header.encoding = encoding;
+		header.precision = Precision.DOUBLE;
+		header.numRows = instances.size();
+		header.trainingSetFraction = dataSet.getTrainingSetFraction();
+		header.validationSetFraction = dataSet.getValidationSetFraction();
+		header.testSetFraction = dataSet.getTestSetFraction();
+		header.sourceSize = sourceSize;
+		header.sourceModified = sourceModified;
+		if (header.numRows > 0) {
+			DataInstance first = instances.get(0);
+			header.precision = first.getInputs().getPrecision();
+			header.sparseInputs = first.getInputs() instanceof SparseVector;
+			header.numInputs = first.getInputs().getSize();
+			header.numOutputs = first.getExpectedOutputs().getSize();
+		}
+		for (DataInstance instance : instances) {
+			if (instance.getInputs().getSize() != header.numInputs || instance.getExpectedOutputs().getSize() != header.numOutputs) {
+				throw new DataException("Cannot cache a DataSet whose instances differ in size");
+			}
+		}
+		if (encoding == Encoding.BYTE) {
+			findLevels(instances, header);
+		}
+		ByteBuffer headerBytes = writeHeader(header);
+		if (getSize(header, header.inputsOffset) > Integer.MAX_VALUE) {
+			throw new DataException("Cannot cache a DataSet this large in one file");
+		}
+
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				write(channel, headerBytes);
+				writeBlock(channel, instances, DataInstance::getInputs, header, 0);
+				channel.position(header.outputsOffset);
+				writeBlock(channel, instances, DataInstance::getExpectedOutputs, header, header.numInputs);
+			}
+			// a reader never sees a partly written cache
+			try {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			throw new DataException(e);
+		}
+	}
+
+	/**
+	 * Find the least value and level step of each column, for the byte
+	 * encoding: a step of one for whole numbers spanning at most
+	 * BYTE_LEVELS, which are then exact, otherwise the range over BYTE_LEVELS
+	 */
+	private static void findLevels(List<DataInstance> instances, Header header)
+	{
+		int numColumns = header.numInputs + header.numOutputs;
+		double[] maxValues = new double[numColumns];
+		boolean[] wholeNumbers = new boolean[numColumns];
+		header.minValues = new double[numColumns];
+		header.steps = new double[numColumns];
+		Arrays.fill(header.minValues, Double.POSITIVE_INFINITY);
+		Arrays.fill(maxValues, Double.NEGATIVE_INFINITY);
+		Arrays.fill(wholeNumbers, true);
+		for (DataInstance instance : instances) {
+			for (int i = 0; i < numColumns; ++i) {
+				double value = i < header.numInputs ? instance.getInputs().getElement(i) : instance.getExpectedOutputs().getElement(i - header.numInputs);
+				header.minValues[i] = Math.min(header.minValues[i], value);
+				maxValues[i] = Math.max(maxValues[i], value);
+				wholeNumbers[i] &= value == Math.rint(value);
+			}
+		}
+		for (int i = 0; i < numColumns; ++i) {
+			double range = maxValues[i] - header.minValues[i];
+			header.steps[i] = wholeNumbers[i] && range <= BYTE_LEVELS ? 1.0 : range / BYTE_LEVELS;
+		}
+	}
+
+	/**
+	 * Encode the header, setting the offsets of the blocks in it
+	 */
+	private static ByteBuffer writeHeader(Header header)
+	{
+		int numColumns = header.encoding == Encoding.BYTE ? header.numInputs + header.numOutputs : 0;
+		int headerSize = 8 * Integer.BYTES + 3 * Double.BYTES + 2 * Long.BYTES + 2 * numColumns * Double.BYTES;
+		header.inputsOffset = (int)align(headerSize);
+		header.outputsOffset = (int)Math.min(Integer.MAX_VALUE, getOutputsOffset(header, header.inputsOffset));
+		ByteBuffer bytes = ByteBuffer.allocate(header.inputsOffset).order(ByteOrder.LITTLE_ENDIAN);
+		bytes.putInt(MAGIC);
+		bytes.putInt(VERSION);
+		bytes.putInt(header.encoding.ordinal());
+		bytes.putInt(header.precision.ordinal());
+		bytes.putInt(header.sparseInputs ? FLAG_SPARSE_INPUTS : 0);
+		bytes.putInt(header.numRows);
+		bytes.putInt(header.numInputs);
+		bytes.putInt(header.numOutputs);
+		bytes.putDouble(header.trainingSetFraction);
+		bytes.putDouble(header.validationSetFraction);
+		bytes.putDouble(header.testSetFraction);
+		bytes.putLong(header.sourceSize);
+		bytes.putLong(header.sourceModified);
+		for (int i = 0; i < numColumns; ++i) {
+			bytes.putDouble(header.minValues[i]);
+			bytes.putDouble(header.steps[i]);
+		}
+		bytes.rewind();
+		return bytes;
+	}
+
+	/**
+	 * Write one vector of every instance - its inputs or its expected
+	 * outputs - as a packed block. firstColumn is the column of the
+	 * vector's first element, for the byte encoding's levels
+	 */
+	private static void writeBlock(FileChannel channel, List<DataInstance> instances, Function<DataInstance, Vector> vector,
+			Header header, int firstColumn) throws IOException
+	{
+		if (instances.isEmpty()) {
+			return;
+		}
+		int rowSize = vector.apply(instances.get(0)).getSize() * getElementSize(header.encoding);
+		ByteBuffer block = ByteBuffer.allocate(Math.max(BLOCK_SIZE, rowSize)).order(ByteOrder.LITTLE_ENDIAN);
+		for (DataInstance instance : instances) {
+			if (block.remaining() < rowSize) {
+				block.flip();
+				write(channel, block);
+				block.clear();
+			}
+			Vector row = vector.apply(instance);
+			switch (header.encoding) {
+			case DOUBLE:
+				row.copyTo(block.asDoubleBuffer());
+				break;
+			case FLOAT:
+				row.copyTo(block.asFloatBuffer());
+				break;
+			default:
+				for (int i = 0; i < row.getSize(); ++i) {
+					block.put(block.position() + i, quantise(row.getElement(i), header.minValues[firstColumn + i], header.steps[firstColumn + i]));
+				}
+				break;
+			}
+			block.position(block.position() + rowSize);
+		}
+		block.flip();
+		write(channel, block);
+	}
+
+	/**
+	 * Decode a block of the cache into target, whose elements are numColumns
+	 * to a row. firstColumn is the column of the block's first element, for
+	 * the byte encoding's levels
+	 */
+	private static void decode(ByteBuffer data, Vector target, Header header, int firstColumn, int numColumns)
+	{
+		switch (header.encoding) {
+		case DOUBLE:
+			target.copyFrom(data.asDoubleBuffer());
+			break;
+		case FLOAT:
+			target.copyFrom(data.asFloatBuffer());
+			break;
+		default:
+			// decoded a run of rows at a time, to be copied in bulk
+			int numRowsPerChunk = Math.max(1, BLOCK_SIZE / Math.max(1, numColumns));
+			double[] chunk = new double[numRowsPerChunk * numColumns];
+			for (int row = 0; row < header.numRows; row += numRowsPerChunk) {
+				int numChunkRows = Math.min(numRowsPerChunk, header.numRows - row);
+				int start = row * numColumns;
+				for (int i = 0; i < numChunkRows * numColumns; ++i) {
+					int column = firstColumn + i % numColumns;
+					chunk[i] = dequantise(data.get(start + i), header.minValues[column], header.steps[column]);
+				}
+				target.view(start, numChunkRows * numColumns).copyFrom(DoubleBuffer.wrap(chunk, 0, numChunkRows * numColumns));
+			}
+			break;
+		}
+	}
+
+	private static byte quantise(double value, double minValue, double step)
+	{
+		if (step == 0) {
+			return 0;
+		}
+		long level = Math.round((value - minValue) / step);
+		return (byte)Math.max(0, Math.min(BYTE_LEVELS, level));
+	}
+
+	private static double dequantise(byte level, double minValue, double step)
+	{
+		return minValue + (level & 0xFF) * step;
+	}
+
+	private static MappedByteBuffer map(Path file) throws DataException
+	{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new DataException(String.format("Data set cache %s is too large to map", file));
+			}
+			// the mapping stays valid once the channel is closed
+			return channel.map(MapMode.READ_ONLY, 0, size);
+		} catch (IOException e) {
+			throw new DataException(e);
+		}
+	}
+
+	private static Header readHeader(ByteBuffer buffer, Path file) throws DataException
+	{
+		ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		Header header = new Header();
+		try {
+			if (in.getInt() != MAGIC) {
+				throw new DataException(String.format("%s is not a data set cache", file));
+			}
+			int version = in.getInt();
+			if (version != VERSION) {
+				throw new DataException(String.format("Unsupported data set cache version %d in %s", version, file));
+			}
+			int encoding = in.getInt();
+			if (encoding < 0 || encoding >= Encoding.values().length) {
+				throw new DataException(String.format("Unknown encoding %d in %s", encoding, file));
+			}
+			header.encoding = Encoding.values()[encoding];
+			int precision = in.getInt();
+			if (precision < 0 || precision >= Precision.values().length) {
+				throw new DataException(String.format("Unknown precision %d in %s", precision, file));
+			}
+			header.precision = Precision.values()[precision];
+			header.sparseInputs = (in.getInt() & FLAG_SPARSE_INPUTS) != 0;
+			header.numRows = in.getInt();
+			header.numInputs = in.getInt();
+			header.numOutputs = in.getInt();
+			if (header.numRows < 0 || header.numInputs < 0 || header.numOutputs < 0) {
+				throw new DataException(String.format("Invalid data set size in %s", file));
+			}
+			header.trainingSetFraction = in.getDouble();
+			header.validationSetFraction = in.getDouble();
+			header.testSetFraction = in.getDouble();
+			header.sourceSize = in.getLong();
+			header.sourceModified = in.getLong();
+			if (header.encoding == Encoding.BYTE) {
+				int numColumns = header.numInputs + header.numOutputs;
+				if (numColumns > in.remaining() / (2 * Double.BYTES)) {
+					throw new DataException(String.format("Data set cache %s is truncated", file));
+				}
+				header.minValues = new double[numColumns];
+				header.steps = new double[numColumns];
+				for (int i = 0; i < numColumns; ++i) {
+					header.minValues[i] = in.getDouble();
+					header.steps[i] = in.getDouble();
+				}
+			}
+		} catch (BufferUnderflowException e) {
+			throw new DataException(String.format("Data set cache %s is truncated", file));
+		}
+		header.inputsOffset = (int)align(in.position());
+		long size = getSize(header, header.inputsOffset);
+		if (size != buffer.capacity()) {
+			throw new DataException(String.format("Data set cache %s has %d bytes, expected %d", file, buffer.capacity(), size));
+		}
+		header.outputsOffset = (int)getOutputsOffset(header, header.inputsOffset);
+		return header;
+	}
+
+	private static long getOutputsOffset(Header header, int inputsOffset)
+	{
+		return align(inputsOffset + (long)header.numRows * header.numInputs * getElementSize(header.encoding));
+	}
+
+	/**
+	 * Return the size of the cache file of a set with the given header
+	 */
+	private static long getSize(Header header, int inputsOffset)
+	{
+		return getOutputsOffset(header, inputsOffset) + (long)header.numRows * header.numOutputs * getElementSize(header.encoding);
+	}
+
+	/**
+	 * Return a little-endian buffer over the cache from offset on
+	 */
+	private static ByteBuffer slice(ByteBuffer buffer, int offset)
+	{
+		ByteBuffer data = buffer.duplicate();
+		data.position(offset);
+		return data.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int getElementSize(Encoding encoding)
+	{
+		switch (encoding) {
+		case DOUBLE:
+			return Double.BYTES;
+		case FLOAT:
+			return Float.BYTES;
+		default:
+			return Byte.BYTES;
+		}
+	}
+
+	private static long align(long offset)
+	{
+		return (offset + Double.BYTES - 1) / Double.BYTES * Double.BYTES;
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
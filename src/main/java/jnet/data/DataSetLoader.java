@@ -1,20 +1,38 @@
 package jnet.data;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import jnet.net.Vector;
+import jnet.net.Precision;
 
 public class DataSetLoader {
 	
+	private final static int BUFFER_SIZE = 1 << 20;
+	
+	// files smaller than this are loaded on one thread by default
+	private final static long MIN_PARALLEL_SIZE = 16L << 20;
+	
+	private final static int PARTS_PER_THREAD = 4;
+	
+	private final static int BOUNDARY_SCAN_SIZE = 1 << 12;
+	
+	private final static long STREAM_BLOCK_SIZE = 4L << 20;
+	
 	public static enum FileFormat {
 		CSV,
 		UNSUPPORTED
@@ -31,19 +49,66 @@ public class DataSetLoader {
 	 * @throws DataException 
 	 */
 	public static DataSet loadFromFile(String filename, String fileFormat, String lineFormat) throws DataException
+	{
+		return loadFromFile(filename, fileFormat, lineFormat, Precision.DOUBLE);
+	}
+	
+	/**
+	 * Call this method to load a DataSet object from a file, storing the
+	 * inputs and expected outputs of each instance with the given precision
+	 * @param filename
+	 * @param fileFormat
+	 * @param lineFormat
+	 * @param precision
+	 * @return the DataSet object
+	 * @throws DataException 
+	 */
+	public static DataSet loadFromFile(String filename, String fileFormat, String lineFormat, Precision precision) throws DataException
+	{
+		return loadFromFile(filename, fileFormat, lineFormat, precision, false);
+	}
+	
+	/**
+	 * Call this method to load a DataSet object from a file, storing the
+	 * inputs and expected outputs of each instance with the given precision.
+	 * If sparseInputs is set the inputs of each instance are stored as a
+	 * SparseVector holding only their non-zero values
+	 * @param filename
+	 * @param fileFormat
+	 * @param lineFormat
+	 * @param precision
+	 * @param sparseInputs
+	 * @return the DataSet object
+	 * @throws DataException 
+	 */
+	public static DataSet loadFromFile(String filename, String fileFormat, String lineFormat, Precision precision, boolean sparseInputs) throws DataException
+	{
+		return loadFromFile(filename, fileFormat, lineFormat, precision, sparseInputs, getDefaultNumThreads(filename), true);
+	}
+	
+	/**
+	 * Call this method to load a DataSet object from a file, parsing parts of
+	 * the file concurrently on numThreads threads. Unless ordered is set the
+	 * instances are added part by part as each is parsed, so their order
+	 * varies from load to load - which saves waiting on the slowest part
+	 * when the set will be shuffled anyway
+	 * @param filename
+	 * @param fileFormat
+	 * @param lineFormat
+	 * @param precision
+	 * @param sparseInputs
+	 * @param numThreads
+	 * @param ordered whether the instances keep the order of the file
+	 * @return the DataSet object
+	 * @throws DataException 
+	 */
+	public static DataSet loadFromFile(String filename, String fileFormat, String lineFormat, Precision precision, boolean sparseInputs, int numThreads, boolean ordered) throws DataException
 	{
 		if (checkFileFormat(fileFormat) == FileFormat.UNSUPPORTED) {
 			throw new DataException("File format" + fileFormat + " unsupported");
 		}
 		DataSet dataSet = DataSet.create();
-		try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-			String nextLine = null;
-			while ((nextLine = reader.readLine()) != null) {
-				dataSet.addInstance(parseCsvLine(nextLine, lineFormat));
-			}
-		} catch (IOException e) {
-			throw new DataException(e);
-		}
+		load(filename, new CsvParser(lineFormat, precision, sparseInputs), dataSet, numThreads, ordered);
 		return dataSet;
 	}
 	
@@ -63,24 +128,151 @@ public class DataSetLoader {
 	}
 	
 	public static DataSet loadFromFile(String filename, String fileFormat, int numExpectedOutputs, double trainingFraction, double validationFraction) throws DataException
+	{
+		return loadFromFile(filename, fileFormat, numExpectedOutputs, trainingFraction, validationFraction, Precision.DOUBLE);
+	}
+	
+	public static DataSet loadFromFile(String filename, String fileFormat, int numExpectedOutputs, double trainingFraction, double validationFraction, Precision precision) throws DataException
+	{
+		return loadFromFile(filename, fileFormat, numExpectedOutputs, trainingFraction, validationFraction, precision, false);
+	}
+	
+	public static DataSet loadFromFile(String filename, String fileFormat, int numExpectedOutputs, double trainingFraction, double validationFraction, Precision precision, boolean sparseInputs) throws DataException
+	{
+		return loadFromFile(filename, fileFormat, numExpectedOutputs, trainingFraction, validationFraction, precision, sparseInputs, getDefaultNumThreads(filename), true);
+	}
+	
+	/**
+	 * As loadFromFile with a line format string, for lines of a class label
+	 * followed by the inputs
+	 * @param filename
+	 * @param fileFormat
+	 * @param numExpectedOutputs
+	 * @param trainingFraction
+	 * @param validationFraction
+	 * @param precision
+	 * @param sparseInputs
+	 * @param numThreads
+	 * @param ordered whether the instances keep the order of the file
+	 * @return the DataSet object
+	 * @throws DataException
+	 */
+	public static DataSet loadFromFile(String filename, String fileFormat, int numExpectedOutputs, double trainingFraction, double validationFraction, Precision precision, boolean sparseInputs,
+			int numThreads, boolean ordered) throws DataException
 	{
 		if (checkFileFormat(fileFormat) == FileFormat.UNSUPPORTED) {
 			throw new DataException("File format" + fileFormat + " unsupported");
 		}
 		
 		DataSet dataSet = DataSet.create(trainingFraction, validationFraction);
-		try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-			String nextLine = null;
-			while ((nextLine = reader.readLine()) != null) {
-				dataSet.addInstance(parseCsvLine(nextLine, numExpectedOutputs));
-			}
-		} catch (IOException e) {
-			throw new DataException(e);
-		}
+		load(filename, new CsvParser(numExpectedOutputs, precision, sparseInputs), dataSet, numThreads, ordered);
 		return dataSet;
 	}
 	
+	/**
+	 * As loadFromFile, through a binary cache of the parsed set - see
+	 * DataSetCache. The file is parsed only if cacheFilename does not hold
+	 * a cache of it as it is now, with the given encoding; otherwise the
+	 * set is read from the cache
+	 * @param filename
+	 * @param fileFormat
+	 * @param numExpectedOutputs
+	 * @param trainingFraction
+	 * @param validationFraction
+	 * @param precision
+	 * @param cacheFilename
+	 * @param encoding
+	 * @return the DataSet object
+	 * @throws DataException
+	 */
+	public static DataSet loadFromFile(String filename, String fileFormat, int numExpectedOutputs, double trainingFraction, double validationFraction, Precision precision,
+			String cacheFilename, DataSetCache.Encoding encoding) throws DataException
+	{
+		return DataSetCache.load(Paths.get(cacheFilename), Paths.get(filename), encoding,
+				() -> loadFromFile(filename, fileFormat, numExpectedOutputs, trainingFraction, validationFraction, precision, false));
+	}
+	
+	/**
+	 * Open a file as a StreamingDataSet, which reads the file a block at a
+	 * time as it is used instead of loading it into memory - see
+	 * StreamingDataSet. The file is parsed once to count its instances. The
+	 * set is read in passes, so train on it with
+	 * StochasticGradientDescent.execute(Network, InstanceSource, InstanceSource, CostFunction)
+	 * @param filename
+	 * @param fileFormat
+	 * @param numExpectedOutputs
+	 * @param trainingFraction
+	 * @param validationFraction
+	 * @param precision
+	 * @param shuffleBufferSize the number of instances a shuffled pass draws from
+	 * @return the StreamingDataSet object
+	 * @throws DataException
+	 */
+	public static StreamingDataSet streamFromFile(String filename, String fileFormat, int numExpectedOutputs, double trainingFraction, double validationFraction, Precision precision,
+			int shuffleBufferSize) throws DataException
+	{
+		return streamFromFile(filename, fileFormat, numExpectedOutputs, trainingFraction, validationFraction, precision, shuffleBufferSize, STREAM_BLOCK_SIZE);
+	}
+	
+	/**
+	 * As streamFromFile, reading the file in blocks of about blockSize bytes.
+	 * Smaller blocks take less memory and shuffle better, larger ones are
+	 * read with fewer seeks
+	 * @param filename
+	 * @param fileFormat
+	 * @param numExpectedOutputs
+	 * @param trainingFraction
+	 * @param validationFraction
+	 * @param precision
+	 * @param shuffleBufferSize
+	 * @param blockSize
+	 * @return the StreamingDataSet object
+	 * @throws DataException
+	 */
+	public static StreamingDataSet streamFromFile(String filename, String fileFormat, int numExpectedOutputs, double trainingFraction, double validationFraction, Precision precision,
+			int shuffleBufferSize, long blockSize) throws DataException
+	{
+		if (checkFileFormat(fileFormat) == FileFormat.UNSUPPORTED) {
+			throw new DataException("File format" + fileFormat + " unsupported");
+		}
+		if (trainingFraction + validationFraction > 1.0) {
+			throw new DataException("DataSet training subset cannot be larger than the parent dataset (choose Training Set Fraction + Validation Set Fraction <= 1.0)");
+		}
+		return StreamingDataSet.open(filename, new CsvParser(numExpectedOutputs, precision, false), trainingFraction, validationFraction,
+				1.0 - trainingFraction - validationFraction, shuffleBufferSize, blockSize);
+	}
+	
+	/**
+	 * As streamFromFile, for lines laid out by a line format string, with
+	 * the default training, validation and test set fractions
+	 * @param filename
+	 * @param fileFormat
+	 * @param lineFormat
+	 * @param precision
+	 * @param shuffleBufferSize
+	 * @param blockSize
+	 * @return the StreamingDataSet object
+	 * @throws DataException
+	 */
+	public static StreamingDataSet streamFromFile(String filename, String fileFormat, String lineFormat, Precision precision, int shuffleBufferSize, long blockSize) throws DataException
+	{
+		if (checkFileFormat(fileFormat) == FileFormat.UNSUPPORTED) {
+			throw new DataException("File format" + fileFormat + " unsupported");
+		}
+		return StreamingDataSet.open(filename, new CsvParser(lineFormat, precision, false), 0.8, 0.1, 0.1, shuffleBufferSize, blockSize);
+	}
+	
 	public static DataSet loadFromInputStream(InputStream stream, String fileFormat, int numExpectedOutputs, double trainingFraction, double validationFraction) throws DataException
+	{
+		return loadFromInputStream(stream, fileFormat, numExpectedOutputs, trainingFraction, validationFraction, Precision.DOUBLE);
+	}
+	
+	public static DataSet loadFromInputStream(InputStream stream, String fileFormat, int numExpectedOutputs, double trainingFraction, double validationFraction, Precision precision) throws DataException
+	{
+		return loadFromInputStream(stream, fileFormat, numExpectedOutputs, trainingFraction, validationFraction, precision, false);
+	}
+	
+	public static DataSet loadFromInputStream(InputStream stream, String fileFormat, int numExpectedOutputs, double trainingFraction, double validationFraction, Precision precision, boolean sparseInputs) throws DataException
 	{
 		if (stream == null) {
 			throw new DataException("Attempt to load DataSet from null InputStream");
@@ -91,14 +283,13 @@ public class DataSetLoader {
 		}
 		
 		DataSet dataSet = DataSet.create(trainingFraction, validationFraction);
-		try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream))) {
-			String nextLine = null;
-			while ((nextLine = reader.readLine()) != null) {
-				dataSet.addInstance(parseCsvLine(nextLine, numExpectedOutputs));
-			}
+		CsvParser parser = new CsvParser(numExpectedOutputs, precision, sparseInputs);
+		try (InputStream input = stream) {
+			parse(input::read, parser, dataSet);
 		} catch (IOException e) {
 			throw new DataException(e);
 		}
+		dataSet.trimToSize();
 		return dataSet;
 	}
 
@@ -116,60 +307,204 @@ public class DataSetLoader {
 	}
 	
 	/**
-	 * Called by loadFromFile to parse a line of csv to a DataInstance object
-	 * Throws if the lineFormat string doesn't match the comma-separated line
-	 * @param line
-	 * @param lineFormat
-	 * @return DataInstance object
-	 * @throws DataException
+	 * Load a file serially, or in parallel parts if numThreads is more than one
 	 */
-	private static DataInstance parseCsvLine(String line, String lineFormat) throws DataException 
+	private static void load(String filename, CsvParser parser, DataSet dataSet, int numThreads, boolean ordered) throws DataException
 	{
-		String[] tokens = line.split(",");
-		char[] format = lineFormat.toCharArray();
-		if (format.length != tokens.length) {
-			throw new DataException("Supplied line format string is inconsistent with file contents");
+		assert (numThreads > 0);
+		if (numThreads == 1) {
+			try (InputStream stream = new FileInputStream(filename)) {
+				parse(stream::read, parser, dataSet);
+			} catch (IOException e) {
+				throw new DataException(e);
+			}
+		} else {
+			loadInParts(filename, parser, dataSet, numThreads, ordered);
 		}
-		
-		List<Double> inputList = new ArrayList<>();
-		List<Double> outputList = new ArrayList<>();
-		for (int i = 0; i < tokens.length; ++i) {
-			Double value = Double.parseDouble(tokens[i]);
-			switch (format[i]) {
-			case 'I':
-				inputList.add(value);
-				break;
-			case 'E':
-				outputList.add(value);
-				break;
-			default:
-				throw new DataException("Illegal character" + format[i] + " in line format string");
+		dataSet.trimToSize();
+	}
+	
+	/**
+	 * Split the file into byte ranges which start and end on line boundaries,
+	 * parse each into a data set of its own on a thread pool, and add them
+	 * to dataSet - in file order if ordered, otherwise as they finish
+	 */
+	private static void loadInParts(String filename, CsvParser template, DataSet dataSet, int numThreads, boolean ordered) throws DataException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads, (runnable) -> {
+			Thread thread = new Thread(runnable, "jnet-csv");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			// more parts than threads, so that one slow part does not hold up the rest
+			long[] boundaries = findLineBoundaries(channel, numThreads * PARTS_PER_THREAD);
+			CompletionService<DataSet> completion = new ExecutorCompletionService<>(executor);
+			List<Future<DataSet>> parts = new ArrayList<>();
+			for (int i = 0; i + 1 < boundaries.length; ++i) {
+				long start = boundaries[i];
+				long end = boundaries[i + 1];
+				parts.add(completion.submit(() -> {
+					DataSet part = DataSet.create();
+					parse(channel, start, end, new CsvParser(template), part, filename);
+					return part;
+				}));
 			}
+			for (int i = 0; i < parts.size(); ++i) {
+				dataSet.addAll(getPart(ordered ? parts.get(i) : completion.take()));
+			}
+		} catch (IOException e) {
+			throw new DataException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DataException("Interrupted loading " + filename);
+		} finally {
+			executor.shutdownNow();
 		}
-		
-		Vector outputs = new Vector(outputList);
-		Vector inputs = new Vector(inputList);
-		return new DataInstance(inputs, outputs);
-		
 	}
 	
-	private static DataInstance parseCsvLine(String line, int numExpectedOutputValues)
+	private static DataSet getPart(Future<DataSet> part) throws DataException, InterruptedException
 	{
-		Double[] array = new Double[numExpectedOutputValues];
-		List<Double> outputList = new ArrayList<>(Arrays.asList(array));
-		Collections.fill(outputList, 0.0);
-		
-		String[] values = line.split(",");
-		outputList.set((int)Double.parseDouble(values[0]), 1.0);
+		try {
+			return part.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof DataException) {
+				throw (DataException)e.getCause();
+			}
+			if (e.getCause() instanceof IOException) {
+				throw new DataException((IOException)e.getCause());
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
 	
-		// Note - will this preserve the order? Quite important!
-		List<String> inputStrings = new ArrayList<String>(Arrays.asList(values).subList(1, values.length));
-		List<Double> inputList= inputStrings.stream().map(Double::parseDouble).collect(Collectors.toList());
-		
-		Vector outputs = new Vector(outputList);
-		Vector inputs = new Vector(inputList);
-		return new DataInstance(inputs, outputs);		
+	/**
+	 * Parse the lines of a byte range of a file, which starts and ends on
+	 * line boundaries, into dataSet
+	 * @param channel
+	 * @param start
+	 * @param end
+	 * @param parser
+	 * @param dataSet
+	 * @param filename the file's name, for errors
+	 * @throws IOException
+	 * @throws DataException naming the offset of the range
+	 */
+	static void parse(FileChannel channel, long start, long end, CsvParser parser, DataSet dataSet, String filename) throws IOException, DataException
+	{
+		try {
+			parse(new FileRange(channel, start, end), parser, dataSet);
+		} catch (DataException e) {
+			throw new DataException(String.format("%s, in the part of %s from byte %d", e.getMessage(), filename, start));
+		}
+	}
+	
+	/**
+	 * Return numParts + 1 offsets dividing the file into parts of about the
+	 * same size, each moved forward to the start of a line. Parts which
+	 * would be empty are dropped
+	 * @param channel
+	 * @param numParts
+	 * @return
+	 * @throws IOException
+	 */
+	static long[] findLineBoundaries(FileChannel channel, int numParts) throws IOException
+	{
+		long size = channel.size();
+		long[] boundaries = new long[numParts + 1];
+		int numBoundaries = 1;
+		ByteBuffer buffer = ByteBuffer.allocate(BOUNDARY_SCAN_SIZE);
+		for (int i = 1; i < numParts; ++i) {
+			long boundary = Math.max(size / numParts * i, boundaries[numBoundaries - 1]);
+			// the part ends after the first newline from the nominal boundary on
+			boolean found = false;
+			while (!found && boundary < size) {
+				buffer.clear();
+				int read = channel.read(buffer, boundary);
+				for (int j = 0; j < read && !found; ++j) {
+					found = buffer.get(j) == '\n';
+					++boundary;
+				}
+			}
+			if (boundary > boundaries[numBoundaries - 1] && boundary < size) {
+				boundaries[numBoundaries++] = boundary;
+			}
+		}
+		boundaries[numBoundaries++] = size;
+		return Arrays.copyOf(boundaries, numBoundaries);
+	}
+	
+	/**
+	 * The default number of threads to load a file with - all the processors
+	 * for a large file, otherwise one
+	 */
+	private static int getDefaultNumThreads(String filename)
+	{
+		return new File(filename).length() >= MIN_PARALLEL_SIZE ? Runtime.getRuntime().availableProcessors() : 1;
 	}
 	
+	/**
+	 * A source of bytes, read as InputStream.read does
+	 */
+	private interface ByteSource {
+		int read(byte[] buffer, int offset, int length) throws IOException;
+	}
 	
+	/**
+	 * Reads a byte range of a file with positional reads, so that many
+	 * ranges of one channel can be read at once
+	 */
+	private static final class FileRange implements ByteSource {
+		
+		private final FileChannel channel;
+		private long position;
+		private final long end;
+		
+		FileRange(FileChannel channel, long start, long end)
+		{
+			this.channel = channel;
+			this.position = start;
+			this.end = end;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException
+		{
+			if (position >= end) {
+				return -1;
+			}
+			int read = channel.read(ByteBuffer.wrap(buffer, offset, (int)Math.min(length, end - position)), position);
+			if (read > 0) {
+				position += read;
+			}
+			return read;
+		}
+	}
+	
+	/**
+	 * Read the source in large blocks and parse them as they arrive, carrying
+	 * a line split between blocks over to the next
+	 * @param source
+	 * @param parser
+	 * @param dataSet
+	 * @throws IOException
+	 * @throws DataException
+	 */
+	private static void parse(ByteSource source, CsvParser parser, DataSet dataSet) throws IOException, DataException
+	{
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int length = 0;
+		int read;
+		while ((read = source.read(buffer, length, buffer.length - length)) != -1) {
+			length += read;
+			int parsed = parser.parse(buffer, 0, length, false, dataSet);
+			System.arraycopy(buffer, parsed, buffer, 0, length - parsed);
+			length -= parsed;
+			if (length == buffer.length) {
+				// a line longer than the buffer
+				buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+			}
+		}
+		parser.parse(buffer, 0, length, true, dataSet);
+	}
 }
@@ -0,0 +1,74 @@
+package jnet.data;
+
+import java.util.Random;
+
+import jnet.net.Matrix;
+
+/**
+ * A source of data instances which is read in passes from front to back,
+ * rather than by index. A DataSet is one, held in memory; a
+ * StreamingDataSet, which reads its file as it goes, is another.
+ * BatchPipeline, StochasticGradientDescent and Network.validateOrTest
+ * read their instances through this interface
+ * @author nigelgray
+ *
+ */
+public interface InstanceSource {
+
+	/**
+	 * Get the number of instances a pass reads
+	 * @return
+	 */
+	public int getNumInstances();
+
+	/**
+	 * Get the size of every instance's inputs, or 0 if there are no instances
+	 * @return
+	 */
+	public int getNumInputs();
+
+	/**
+	 * Get the size of every instance's expected outputs, or 0 if there are
+	 * no instances
+	 * @return
+	 */
+	public int getNumExpectedOutputs();
+
+	/**
+	 * Start a pass over every instance
+	 * @param random null to read the instances in the source's own order,
+	 * otherwise the random number generator the pass is shuffled with
+	 * @return
+	 * @throws DataException if the instances cannot be read
+	 */
+	public Pass startPass(Random random) throws DataException;
+
+	/**
+	 * One pass over the instances of a source
+	 */
+	public interface Pass {
+
+		/**
+		 * Move on to the next instance of the pass
+		 * @return false at the end of the pass
+		 * @throws DataException if the instance cannot be read
+		 */
+		public boolean next() throws DataException;
+
+		/**
+		 * Get the current instance, which the caller may keep after the
+		 * pass moves on
+		 * @return
+		 */
+		public DataInstance get();
+
+		/**
+		 * Copy the current instance into row of a batch's input and expected
+		 * output matrices
+		 * @param batchInputs
+		 * @param batchExpectedOutputs
+		 * @param row
+		 */
+		public void copy(Matrix batchInputs, Matrix batchExpectedOutputs, int row);
+	}
+}
@@ -0,0 +1,104 @@
+package jnet.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jnet.net.Matrix;
+import jnet.net.Precision;
+
+/**
+ * A mini-batch packed for the batched kernels: the inputs and expected
+ * outputs of its data instances as (batch x inputs) and (batch x outputs)
+ * matrices, one data instance per row
+ * @author nigelgray
+ *
+ */
+public class MiniBatch {
+
+	private final Matrix inputs;
+
+	private final Matrix expectedOutputs;
+
+	/**
+	 * @param inputs
+	 * @param expectedOutputs with a row for each row of inputs
+	 */
+	public MiniBatch(Matrix inputs, Matrix expectedOutputs)
+	{
+		assert (inputs.getNumRows() == expectedOutputs.getNumRows());
+		this.inputs = inputs;
+		this.expectedOutputs = expectedOutputs;
+	}
+
+	/**
+	 * Pack the given data instances, which must all have the same number
+	 * of inputs and of expected outputs
+	 * @param instances
+	 * @param precision
+	 * @return
+	 */
+	public static MiniBatch pack(List<DataInstance> instances, Precision precision)
+	{
+		assert (!instances.isEmpty());
+		DataInstance first = instances.get(0);
+		MiniBatch batch = new MiniBatch(new Matrix(instances.size(), first.getInputs().getSize(), precision),
+				new Matrix(instances.size(), first.getExpectedOutputs().getSize(), precision));
+		batch.fill(instances);
+		return batch;
+	}
+
+	/**
+	 * Overwrite the rows of this batch with the given data instances,
+	 * one per row
+	 * @param instances
+	 */
+	void fill(List<DataInstance> instances)
+	{
+		assert (instances.size() == getNumInstances());
+		for (int i = 0; i < instances.size(); ++i) {
+			inputs.copyRowFrom(i, instances.get(i).getInputs());
+			expectedOutputs.copyRowFrom(i, instances.get(i).getExpectedOutputs());
+		}
+	}
+
+	/**
+	 * Divide the batch into at most numParts contiguous parts whose sizes
+	 * differ by at most one, as DataSet.split. The parts' matrices are views
+	 * of this batch's rows
+	 * @param numParts
+	 * @return the non-empty parts, in order
+	 */
+	public List<MiniBatch> split(int numParts)
+	{
+		assert (numParts > 0);
+		List<MiniBatch> parts = new ArrayList<>();
+		int size = getNumInstances();
+		int start = 0;
+		for (int p = 0; p < numParts && start < size; ++p) {
+			int end = start + (size - start + (numParts - p) - 1) / (numParts - p);
+			parts.add(new MiniBatch(rows(inputs, start, end), rows(expectedOutputs, start, end)));
+			start = end;
+		}
+		return parts;
+	}
+
+	public Matrix getInputs()
+	{
+		return inputs;
+	}
+
+	public Matrix getExpectedOutputs()
+	{
+		return expectedOutputs;
+	}
+
+	public int getNumInstances()
+	{
+		return inputs.getNumRows();
+	}
+
+	private static Matrix rows(Matrix matrix, int start, int end)
+	{
+		return matrix.asVector().viewAsMatrix(start * matrix.getNumCols(), end - start, matrix.getNumCols());
+	}
+}
@@ -0,0 +1,415 @@
+package jnet.data;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import jnet.net.Matrix;
+import jnet.net.Precision;
+import jnet.net.Vector;
+
+/**
+ * A source of data instances which is read from its file as it is used
+ * instead of being held in memory, for sets larger than the heap. The file
+ * is divided into blocks of whole lines, and a pass over the set - for
+ * validation, or an epoch of a BatchPipeline - parses one block at a time,
+ * holding only that block and a buffer of instances. Opening the set parses
+ * the file once, to count the instances in each block.
+ * Shuffling is approximate: a shuffled pass reads the blocks in a random
+ * order and feeds the instances through a shuffle buffer, from which each
+ * instance is drawn at random and replaced by the next one read. The
+ * larger the buffer, the closer the order is to a uniform shuffle.
+ * The training, validation and test subsets are fixed ranges of the file's
+ * instances, so shuffling never moves an instance from one to another.
+ * A set and its subsets share one list of normalizations, so normalizing
+ * any of them normalizes them all, over the ranges of the whole file.
+ * Unlike a DataSet, the instances can only be read in passes -
+ * StochasticGradientDescent trains on a streaming set through a BatchPipeline
+ * @author nigelgray
+ *
+ */
+public class StreamingDataSet implements InstanceSource {
+
+	// the file and its blocks, shared with the subsets: block b is the
+	// bytes from boundaries[b] to boundaries[b + 1], and holds the
+	// instances from firstRows[b] to firstRows[b + 1] - 1
+	private final String filename;
+	private final CsvParser template;
+	private final long[] boundaries;
+	private final long[] firstRows;
+
+	private final int numInputs;
+	private final int numOutputs;
+	private final Precision precision;
+
+	private final int shuffleBufferSize;
+
+	private final double trainingSetFraction;
+	private final double validationSetFraction;
+	private final double testSetFraction;
+
+	// this set is the instances from firstRow to endRow - 1 of the file
+	private final long firstRow;
+	private final long endRow;
+
+	// the set opened from the file, of which this is the whole or a subset
+	private final StreamingDataSet root;
+
+	// the minimum and maximum values of each normalization, applied to the
+	// inputs in turn as they are read, shared with the root and its subsets
+	private final List<double[][]> normalizations;
+
+	/**
+	 * A pass over the instances of the set, in file order or shuffled.
+	 * Each instance is read into a slot of the shuffle buffer, which is
+	 * valid until next is called again
+	 */
+	private final class Pass implements InstanceSource.Pass {
+
+		// null for file order
+		private final Random random;
+
+		private final int[] blockOrder;
+		private int nextBlock;
+
+		// the block being read, reused for each block, and the instances of
+		// this set in it
+		private final DataSet block = DataSet.create();
+		private boolean blockRead;
+		private int blockPosition;
+		private int blockEnd;
+
+		private final Vector bufferInputs;
+		private final Vector bufferExpectedOutputs;
+		private final int capacity;
+		private int count;
+
+		// the slot handed out by the last call to next, to be refilled
+		private int pending = -1;
+
+		Pass(Random random)
+		{
+			this.random = random;
+			List<Integer> blocks = new ArrayList<>();
+			for (int b = 0; b + 1 < firstRows.length; ++b) {
+				if (firstRows[b] < endRow && firstRows[b + 1] > firstRow) {
+					blocks.add(b);
+				}
+			}
+			blockOrder = new int[blocks.size()];
+			for (int i = 0; i < blockOrder.length; ++i) {
+				blockOrder[i] = blocks.get(i);
+			}
+			capacity = random == null ? 1 : (int)Math.max(1, Math.min(shuffleBufferSize, endRow - firstRow));
+			if (random != null) {
+				for (int i = blockOrder.length - 1; i > 0; --i) {
+					int j = random.nextInt(i + 1);
+					int swap = blockOrder[i];
+					blockOrder[i] = blockOrder[j];
+					blockOrder[j] = swap;
+				}
+			}
+			long maxBlockRows = 0;
+			for (int b : blockOrder) {
+				maxBlockRows = Math.max(maxBlockRows, firstRows[b + 1] - firstRows[b]);
+			}
+			block.reserve((int)maxBlockRows);
+			bufferInputs = new Vector(capacity * numInputs, precision);
+			bufferExpectedOutputs = new Vector(capacity * numOutputs, precision);
+		}
+
+		/**
+		 * Move on to the next instance of the pass, reading it into a slot
+		 * of the buffer
+		 * @return false at the end of the pass
+		 * @throws DataException if the file cannot be read, or has changed
+		 */
+		@Override
+		public boolean next() throws DataException
+		{
+			if (pending >= 0) {
+				if (!read(pending)) {
+					// nothing left to read, so the buffer shrinks
+					--count;
+					if (pending != count) {
+						bufferInputs.view(pending * numInputs, numInputs).copyFrom(bufferInputs.view(count * numInputs, numInputs));
+						bufferExpectedOutputs.view(pending * numOutputs, numOutputs).copyFrom(bufferExpectedOutputs.view(count * numOutputs, numOutputs));
+					}
+				}
+				pending = -1;
+			}
+			while (count < capacity && read(count)) {
+				++count;
+			}
+			if (count == 0) {
+				return false;
+			}
+			pending = random == null ? 0 : random.nextInt(count);
+			return true;
+		}
+
+		@Override
+		public void copy(Matrix batchInputs, Matrix batchExpectedOutputs, int row)
+		{
+			batchInputs.copyRowFrom(row, bufferInputs, pending * numInputs);
+			batchExpectedOutputs.copyRowFrom(row, bufferExpectedOutputs, pending * numOutputs);
+		}
+
+		/**
+		 * Return a copy of the current instance, as its slot of the buffer
+		 * is refilled by the next call to next
+		 * @return
+		 */
+		@Override
+		public DataInstance get()
+		{
+			return new DataInstance(new Vector(bufferInputs.view(pending * numInputs, numInputs)),
+					new Vector(bufferExpectedOutputs.view(pending * numOutputs, numOutputs)));
+		}
+
+		/**
+		 * Read the next instance from the file into slot
+		 * @return false if there are none left
+		 */
+		private boolean read(int slot) throws DataException
+		{
+			while (!blockRead || blockPosition == blockEnd) {
+				if (nextBlock == blockOrder.length) {
+					return false;
+				}
+				readBlock(blockOrder[nextBlock++]);
+			}
+			DataInstance instance = block.getDataInstances().get(blockPosition++);
+			Vector inputs = bufferInputs.view(slot * numInputs, numInputs).copyFrom(instance.getInputs());
+			bufferExpectedOutputs.view(slot * numOutputs, numOutputs).copyFrom(instance.getExpectedOutputs());
+			for (double[][] normalization : normalizations) {
+				normalize(inputs, normalization[0], normalization[1]);
+			}
+			return true;
+		}
+
+		private void readBlock(int b) throws DataException
+		{
+			parseBlock(filename, template, boundaries, b, block);
+			blockRead = true;
+			if (block.getNumInstances() != firstRows[b + 1] - firstRows[b]) {
+				throw new DataException(filename + " has changed since it was opened");
+			}
+			blockPosition = (int)Math.max(0, firstRow - firstRows[b]);
+			blockEnd = (int)Math.min(block.getNumInstances(), endRow - firstRows[b]);
+		}
+	}
+
+	/**
+	 * Open a file as a streaming data set, parsing it once to divide it
+	 * into blocks of about blockSize bytes
+	 * @param filename
+	 * @param template a parser for the file's lines
+	 * @param trainingSetFraction
+	 * @param validationSetFraction
+	 * @param testSetFraction
+	 * @param shuffleBufferSize the number of instances a shuffled pass draws from
+	 * @param blockSize
+	 * @return
+	 * @throws DataException if the file cannot be read, or its instances differ in size
+	 */
+	static StreamingDataSet open(String filename, CsvParser template, double trainingSetFraction, double validationSetFraction, double testSetFraction,
+			int shuffleBufferSize, long blockSize) throws DataException
+	{
+		assert (shuffleBufferSize > 0 && blockSize > 0);
+		long[] boundaries;
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			boundaries = DataSetLoader.findLineBoundaries(channel, (int)Math.max(1, Math.min(Integer.MAX_VALUE - 1, (channel.size() + blockSize - 1) / blockSize)));
+		} catch (IOException e) {
+			throw new DataException(e);
+		}
+		long[] firstRows = new long[boundaries.length];
+		int numInputs = -1;
+		int numOutputs = -1;
+		Precision precision = Precision.DOUBLE;
+		DataSet block = DataSet.create();
+		for (int b = 0; b + 1 < boundaries.length; ++b) {
+			parseBlock(filename, template, boundaries, b, block);
+			for (DataInstance instance : block.getDataInstances()) {
+				if (numInputs < 0) {
+					numInputs = instance.getInputs().getSize();
+					numOutputs = instance.getExpectedOutputs().getSize();
+					precision = instance.getInputs().getPrecision();
+				} else if (instance.getInputs().getSize() != numInputs || instance.getExpectedOutputs().getSize() != numOutputs) {
+					throw new DataException("Cannot stream " + filename + ": its instances differ in size");
+				}
+			}
+			firstRows[b + 1] = firstRows[b] + block.getNumInstances();
+		}
+		if (firstRows[firstRows.length - 1] > Integer.MAX_VALUE) {
+			throw new DataException("Cannot stream " + filename + ": too many instances");
+		}
+		return new StreamingDataSet(filename, template, boundaries, firstRows, Math.max(numInputs, 0), Math.max(numOutputs, 0), precision,
+				shuffleBufferSize, trainingSetFraction, validationSetFraction, testSetFraction);
+	}
+
+	/**
+	 * Compute the range of each input over the whole file and from then on
+	 * normalize the inputs as they are read, as DataInstance.normalize does.
+	 * The normalization applies to this set, the set it was taken from and
+	 * all their subsets, whichever of them it is called on and whether the
+	 * subsets were taken before or after. Call it before passes are started
+	 * @throws DataException if the file cannot be read, or has changed
+	 */
+	public void normalize() throws DataException
+	{
+		double[] minValues = new double[numInputs];
+		double[] maxValues = new double[numInputs];
+		Pass pass = root.new Pass(null);
+		while (pass.next()) {
+			for (int i = 0; i < numInputs; ++i) {
+				double value = pass.bufferInputs.getElement(pass.pending * numInputs + i);
+				minValues[i] = minValues[i] > value ? value : minValues[i];
+				maxValues[i] = maxValues[i] < value ? value : maxValues[i];
+			}
+		}
+		normalizations.add(new double[][] {minValues, maxValues});
+	}
+
+	/**
+	 * Get the training instances, which share the file and normalization
+	 * @return
+	 */
+	public StreamingDataSet getTrainingSubset()
+	{
+		return new StreamingDataSet(this, firstRow, firstRow + getNumTrainingInstances());
+	}
+
+	/**
+	 * Get the validation instances, which share the file and normalization
+	 * @return
+	 */
+	public StreamingDataSet getValidationSubset()
+	{
+		long start = firstRow + getNumTrainingInstances();
+		return new StreamingDataSet(this, start, start + getNumValidationInstances());
+	}
+
+	/**
+	 * Get the test instances, which share the file and normalization
+	 * @return
+	 */
+	public StreamingDataSet getTestSubset()
+	{
+		long start = firstRow + getNumTrainingInstances() + getNumValidationInstances();
+		return new StreamingDataSet(this, start, start + (int)(getNumInstances() * testSetFraction));
+	}
+
+	@Override
+	public int getNumInstances()
+	{
+		return (int)(endRow - firstRow);
+	}
+
+	public boolean isEmpty()
+	{
+		return getNumInstances() == 0;
+	}
+
+	@Override
+	public int getNumInputs()
+	{
+		return numInputs;
+	}
+
+	@Override
+	public int getNumExpectedOutputs()
+	{
+		return numOutputs;
+	}
+
+	/**
+	 * Start a pass over the set, in file order or shuffled with random -
+	 * see the class comment. Reading the file is left to the pass, so
+	 * starting one does not throw
+	 */
+	@Override
+	public InstanceSource.Pass startPass(Random random)
+	{
+		return new Pass(random);
+	}
+
+	private StreamingDataSet(String filename, CsvParser template, long[] boundaries, long[] firstRows, int numInputs, int numOutputs, Precision precision,
+			int shuffleBufferSize, double trainingSetFraction, double validationSetFraction, double testSetFraction)
+	{
+		this.filename = filename;
+		this.template = template;
+		this.boundaries = boundaries;
+		this.firstRows = firstRows;
+		this.numInputs = numInputs;
+		this.numOutputs = numOutputs;
+		this.precision = precision;
+		this.shuffleBufferSize = shuffleBufferSize;
+		this.trainingSetFraction = trainingSetFraction;
+		this.validationSetFraction = validationSetFraction;
+		this.testSetFraction = testSetFraction;
+		this.firstRow = 0;
+		this.endRow = firstRows[firstRows.length - 1];
+		this.root = this;
+		this.normalizations = new ArrayList<>();
+	}
+
+	// the instances of parent from firstRow to endRow - 1 of the file
+	private StreamingDataSet(StreamingDataSet parent, long firstRow, long endRow)
+	{
+		this.filename = parent.filename;
+		this.template = parent.template;
+		this.boundaries = parent.boundaries;
+		this.firstRows = parent.firstRows;
+		this.numInputs = parent.numInputs;
+		this.numOutputs = parent.numOutputs;
+		this.precision = parent.precision;
+		this.shuffleBufferSize = parent.shuffleBufferSize;
+		this.trainingSetFraction = 1.0;
+		this.validationSetFraction = 0.0;
+		this.testSetFraction = 0.0;
+		this.firstRow = firstRow;
+		this.endRow = endRow;
+		this.root = parent.root;
+		this.normalizations = parent.normalizations;
+	}
+
+	private int getNumTrainingInstances()
+	{
+		return (int)(getNumInstances() * trainingSetFraction);
+	}
+
+	private int getNumValidationInstances()
+	{
+		return (int)(getNumInstances() * validationSetFraction);
+	}
+
+	/**
+	 * Parse block b of the file into dataSet, replacing its instances
+	 */
+	private static void parseBlock(String filename, CsvParser template, long[] boundaries, int b, DataSet dataSet) throws DataException
+	{
+		dataSet.clear();
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			DataSetLoader.parse(channel, boundaries[b], boundaries[b + 1], new CsvParser(template), dataSet, filename);
+		} catch (IOException e) {
+			throw new DataException(e);
+		}
+	}
+
+	// as DataInstance.normalize, in place
+	private static void normalize(Vector inputs, double[] minValues, double[] maxValues)
+	{
+		for (int i = 0; i < inputs.getSize(); ++i) {
+			if (maxValues[i] - minValues[i] != 0) {
+				inputs.setElement(i, (inputs.getElement(i) - minValues[i])/(maxValues[i] - minValues[i]));
+			} else {
+				inputs.setElement(i, 0.0);
+			}
+		}
+	}
+}
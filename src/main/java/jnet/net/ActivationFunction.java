@@ -72,4 +72,74 @@ public interface ActivationFunction {
 	 * @return
 	 */
 	public Vector firstDerivative(Vector weightedInputs);
+	
+	/**
+	 * In-place version of evaluate(Vector) which writes the result
+	 * into the supplied vector instead of allocating one
+	 * @param weightedInputs
+	 * @param result
+	 * @return result
+	 */
+	public default Vector evaluateInto(Vector weightedInputs, Vector result)
+	{
+		assert (weightedInputs.getSize() == result.getSize());
+		for (int i = 0; i < weightedInputs.getSize(); ++i) {
+			result.setElement(i, evaluate(weightedInputs.getElement(i)));
+		}
+		return result;
+	}
+	
+	/**
+	 * In-place version of firstDerivative(Vector) which writes the result
+	 * into the supplied vector instead of allocating one
+	 * @param weightedInputs
+	 * @param result
+	 * @return result
+	 */
+	public default Vector firstDerivativeInto(Vector weightedInputs, Vector result)
+	{
+		assert (weightedInputs.getSize() == result.getSize());
+		for (int i = 0; i < weightedInputs.getSize(); ++i) {
+			result.setElement(i, firstDerivative(weightedInputs.getElement(i)));
+		}
+		return result;
+	}
+	
+	/**
+	 * Batched version of evaluateInto, applied to every element of a
+	 * (batch x neurons) matrix of weighted inputs
+	 * @param weightedInputs
+	 * @param result
+	 * @return result
+	 */
+	public default Matrix evaluateInto(Matrix weightedInputs, Matrix result)
+	{
+		assert (weightedInputs.getNumRows() == result.getNumRows());
+		assert (weightedInputs.getNumCols() == result.getNumCols());
+		for (int i = 0; i < weightedInputs.getNumRows(); ++i) {
+			for (int j = 0; j < weightedInputs.getNumCols(); ++j) {
+				result.setElement(i, j, evaluate(weightedInputs.getElement(i, j)));
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Batched version of firstDerivativeInto, applied to every element of a
+	 * (batch x neurons) matrix of weighted inputs
+	 * @param weightedInputs
+	 * @param result
+	 * @return result
+	 */
+	public default Matrix firstDerivativeInto(Matrix weightedInputs, Matrix result)
+	{
+		assert (weightedInputs.getNumRows() == result.getNumRows());
+		assert (weightedInputs.getNumCols() == result.getNumCols());
+		for (int i = 0; i < weightedInputs.getNumRows(); ++i) {
+			for (int j = 0; j < weightedInputs.getNumCols(); ++j) {
+				result.setElement(i, j, firstDerivative(weightedInputs.getElement(i, j)));
+			}
+		}
+		return result;
+	}
 }
@@ -0,0 +1,59 @@
+package jnet.net;
+
+/**
+ * The default backend - cache-blocked matrix products and
+ * auto-vectorisable inner loops, as implemented by the static
+ * methods of Matrix and Vector
+ * @author nigelgray
+ *
+ */
+public class BlockedBackend implements LinearAlgebraBackend {
+
+	@Override
+	public String getName()
+	{
+		return "Blocked";
+	}
+
+	@Override
+	public double dot(Vector x, Vector y)
+	{
+		return Vector.dotProduct(x, y);
+	}
+
+	@Override
+	public Vector axpy(double alpha, Vector x, Vector y)
+	{
+		return Vector.axpy(alpha, x, y);
+	}
+
+	@Override
+	public Matrix axpy(double alpha, Matrix X, Matrix Y)
+	{
+		return Matrix.axpy(alpha, X, Y);
+	}
+
+	@Override
+	public Vector gemv(double alpha, Matrix M, Vector x, double beta, Vector y)
+	{
+		return Matrix.gemv(alpha, M, x, beta, y);
+	}
+
+	@Override
+	public Vector gemvTransposed(double alpha, Matrix M, Vector x, double beta, Vector y)
+	{
+		return Matrix.gemvTransposed(alpha, M, x, beta, y);
+	}
+
+	@Override
+	public Matrix ger(double alpha, Vector x, Vector y, Matrix A)
+	{
+		return Matrix.ger(alpha, x, y, A);
+	}
+
+	@Override
+	public Matrix gemm(double alpha, Matrix A, boolean transposeA, Matrix B, boolean transposeB, double beta, Matrix C)
+	{
+		return Matrix.gemm(alpha, A, transposeA, B, transposeB, beta, C);
+	}
+}
@@ -0,0 +1,248 @@
+package jnet.net;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * The inner loops of Kernels over off-heap DoubleBuffers.
+ * Each loop is a line-for-line copy of its array counterpart, so the
+ * floating point operations happen in the same order and off-heap
+ * matrices give bit-for-bit the same results as heap ones. The copies are
+ * kept, as the float kernels are, because reading both through one
+ * accessor would stop the array loops vectorising; a change to a loop in
+ * Kernels must be made here too, and TestMatrix.testOffHeap and
+ * TestWine.testWineOffHeapMatchesHeap fail if the two drift apart
+ * @author nigelgray
+ *
+ */
+final class BufferKernels {
+
+	private BufferKernels()
+	{
+	}
+
+	/**
+	 * Off-heap version of Kernels.dot
+	 */
+	static double dot(DoubleBuffer x, int xOffset, DoubleBuffer y, int yOffset, int n)
+	{
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			s0 += x.get(xOffset + i) * y.get(yOffset + i);
+			s1 += x.get(xOffset + i + 1) * y.get(yOffset + i + 1);
+			s2 += x.get(xOffset + i + 2) * y.get(yOffset + i + 2);
+			s3 += x.get(xOffset + i + 3) * y.get(yOffset + i + 3);
+		}
+		for (; i < n; ++i) {
+			s0 += x.get(xOffset + i) * y.get(yOffset + i);
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * Off-heap version of Kernels.axpy
+	 */
+	static void axpy(double alpha, DoubleBuffer x, int xOffset, DoubleBuffer y, int yOffset, int n)
+	{
+		for (int i = 0; i < n; ++i) {
+			y.put(yOffset + i, y.get(yOffset + i) + alpha * x.get(xOffset + i));
+		}
+	}
+
+	/**
+	 * Off-heap version of Kernels.gemv
+	 */
+	static void gemv(double alpha, DoubleBuffer m, int mOffset, int rowStart, int rowEnd, int numCols, DoubleBuffer x, double beta, DoubleBuffer y)
+	{
+		int i = rowStart;
+		for (; i + 3 < rowEnd; i += 4) {
+			int r0 = mOffset + i * numCols;
+			int r1 = r0 + numCols;
+			int r2 = r1 + numCols;
+			int r3 = r2 + numCols;
+			double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+			for (int j = 0; j < numCols; ++j) {
+				double xj = x.get(j);
+				s0 += m.get(r0 + j) * xj;
+				s1 += m.get(r1 + j) * xj;
+				s2 += m.get(r2 + j) * xj;
+				s3 += m.get(r3 + j) * xj;
+			}
+			y.put(i, Kernels.scaleAndAdd(alpha, s0, beta, y.get(i)));
+			y.put(i + 1, Kernels.scaleAndAdd(alpha, s1, beta, y.get(i + 1)));
+			y.put(i + 2, Kernels.scaleAndAdd(alpha, s2, beta, y.get(i + 2)));
+			y.put(i + 3, Kernels.scaleAndAdd(alpha, s3, beta, y.get(i + 3)));
+		}
+		for (; i < rowEnd; ++i) {
+			y.put(i, Kernels.scaleAndAdd(alpha, dot(m, mOffset + i * numCols, x, 0, numCols), beta, y.get(i)));
+		}
+	}
+
+	/**
+	 * Off-heap version of Kernels.gemvTransposed
+	 */
+	static void gemvTransposed(double alpha, DoubleBuffer m, int mOffset, int numRows, int numCols, DoubleBuffer x, DoubleBuffer y, int colStart, int colEnd)
+	{
+		for (int i = 0; i < numRows; ++i) {
+			axpy(alpha * x.get(i), m, mOffset + i * numCols + colStart, y, colStart, colEnd - colStart);
+		}
+	}
+
+	/**
+	 * Off-heap version of Kernels.ger
+	 */
+	static void ger(double alpha, DoubleBuffer x, DoubleBuffer y, DoubleBuffer a, int aOffset, int rowStart, int rowEnd)
+	{
+		int numCols = y.capacity();
+		for (int i = rowStart; i < rowEnd; ++i) {
+			axpy(alpha * x.get(i), y, 0, a, aOffset + i * numCols, numCols);
+		}
+	}
+
+	/**
+	 * Off-heap version of Kernels.multiply
+	 */
+	static void multiply(double alpha, DoubleBuffer a, DoubleBuffer b, DoubleBuffer c, int m, int n, int k, int rowStart, int rowEnd)
+	{
+		for (int ii = rowStart; ii < rowEnd; ii += Kernels.BLOCK_SIZE) {
+			int iMax = Math.min(ii + Kernels.BLOCK_SIZE, rowEnd);
+			for (int pp = 0; pp < k; pp += Kernels.BLOCK_SIZE) {
+				int pMax = Math.min(pp + Kernels.BLOCK_SIZE, k);
+				for (int jj = 0; jj < n; jj += Kernels.BLOCK_SIZE) {
+					int jMax = Math.min(jj + Kernels.BLOCK_SIZE, n);
+					for (int i = ii; i < iMax; ++i) {
+						int aRow = i * k;
+						int cRow = i * n;
+						int p = pp;
+						for (; p + 3 < pMax; p += 4) {
+							double a0 = alpha * a.get(aRow + p);
+							double a1 = alpha * a.get(aRow + p + 1);
+							double a2 = alpha * a.get(aRow + p + 2);
+							double a3 = alpha * a.get(aRow + p + 3);
+							int b0 = p * n;
+							int b1 = b0 + n;
+							int b2 = b1 + n;
+							int b3 = b2 + n;
+							for (int j = jj; j < jMax; ++j) {
+								c.put(cRow + j, c.get(cRow + j) + (a0 * b.get(b0 + j) + a1 * b.get(b1 + j) + a2 * b.get(b2 + j) + a3 * b.get(b3 + j)));
+							}
+						}
+						for (; p < pMax; ++p) {
+							double a0 = alpha * a.get(aRow + p);
+							int b0 = p * n;
+							for (int j = jj; j < jMax; ++j) {
+								c.put(cRow + j, c.get(cRow + j) + a0 * b.get(b0 + j));
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Off-heap version of Kernels.multiplyTransposedLeft
+	 */
+	static void multiplyTransposedLeft(double alpha, DoubleBuffer a, DoubleBuffer b, DoubleBuffer c, int m, int n, int k, int rowStart, int rowEnd)
+	{
+		for (int pp = 0; pp < k; pp += Kernels.BLOCK_SIZE) {
+			int pMax = Math.min(pp + Kernels.BLOCK_SIZE, k);
+			for (int ii = rowStart; ii < rowEnd; ii += Kernels.BLOCK_SIZE) {
+				int iMax = Math.min(ii + Kernels.BLOCK_SIZE, rowEnd);
+				for (int jj = 0; jj < n; jj += Kernels.BLOCK_SIZE) {
+					int jMax = Math.min(jj + Kernels.BLOCK_SIZE, n);
+					int p = pp;
+					for (; p + 3 < pMax; p += 4) {
+						int b0 = p * n;
+						int b1 = b0 + n;
+						int b2 = b1 + n;
+						int b3 = b2 + n;
+						for (int i = ii; i < iMax; ++i) {
+							double a0 = alpha * a.get(p * m + i);
+							double a1 = alpha * a.get((p + 1) * m + i);
+							double a2 = alpha * a.get((p + 2) * m + i);
+							double a3 = alpha * a.get((p + 3) * m + i);
+							int cRow = i * n;
+							for (int j = jj; j < jMax; ++j) {
+								c.put(cRow + j, c.get(cRow + j) + (a0 * b.get(b0 + j) + a1 * b.get(b1 + j) + a2 * b.get(b2 + j) + a3 * b.get(b3 + j)));
+							}
+						}
+					}
+					for (; p < pMax; ++p) {
+						int b0 = p * n;
+						for (int i = ii; i < iMax; ++i) {
+							double a0 = alpha * a.get(p * m + i);
+							int cRow = i * n;
+							for (int j = jj; j < jMax; ++j) {
+								c.put(cRow + j, c.get(cRow + j) + a0 * b.get(b0 + j));
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Off-heap version of Kernels.multiplyTransposedRight
+	 */
+	static void multiplyTransposedRight(double alpha, DoubleBuffer a, DoubleBuffer b, DoubleBuffer c, int m, int n, int k, int rowStart, int rowEnd)
+	{
+		for (int ii = rowStart; ii < rowEnd; ii += Kernels.BLOCK_SIZE) {
+			int iMax = Math.min(ii + Kernels.BLOCK_SIZE, rowEnd);
+			for (int jj = 0; jj < n; jj += Kernels.BLOCK_SIZE) {
+				int jMax = Math.min(jj + Kernels.BLOCK_SIZE, n);
+				for (int pp = 0; pp < k; pp += Kernels.BLOCK_SIZE) {
+					int pMax = Math.min(pp + Kernels.BLOCK_SIZE, k);
+					int i = ii;
+					for (; i + 1 < iMax; i += 2) {
+						int a0 = i * k;
+						int a1 = a0 + k;
+						int j = jj;
+						for (; j + 1 < jMax; j += 2) {
+							int b0 = j * k;
+							int b1 = b0 + k;
+							double c00 = 0.0, c01 = 0.0, c10 = 0.0, c11 = 0.0;
+							for (int p = pp; p < pMax; ++p) {
+								double x0 = a.get(a0 + p);
+								double x1 = a.get(a1 + p);
+								double y0 = b.get(b0 + p);
+								double y1 = b.get(b1 + p);
+								c00 += x0 * y0;
+								c01 += x0 * y1;
+								c10 += x1 * y0;
+								c11 += x1 * y1;
+							}
+							c.put(i * n + j, c.get(i * n + j) + alpha * c00);
+							c.put(i * n + j + 1, c.get(i * n + j + 1) + alpha * c01);
+							c.put((i + 1) * n + j, c.get((i + 1) * n + j) + alpha * c10);
+							c.put((i + 1) * n + j + 1, c.get((i + 1) * n + j + 1) + alpha * c11);
+						}
+						for (; j < jMax; ++j) {
+							int b0 = j * k;
+							double c00 = 0.0, c10 = 0.0;
+							for (int p = pp; p < pMax; ++p) {
+								c00 += a.get(a0 + p) * b.get(b0 + p);
+								c10 += a.get(a1 + p) * b.get(b0 + p);
+							}
+							c.put(i * n + j, c.get(i * n + j) + alpha * c00);
+							c.put((i + 1) * n + j, c.get((i + 1) * n + j) + alpha * c10);
+						}
+					}
+					for (; i < iMax; ++i) {
+						int a0 = i * k;
+						for (int j = jj; j < jMax; ++j) {
+							int b0 = j * k;
+							double c00 = 0.0;
+							for (int p = pp; p < pMax; ++p) {
+								c00 += a.get(a0 + p) * b.get(b0 + p);
+							}
+							c.put(i * n + j, c.get(i * n + j) + alpha * c00);
+						}
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -56,4 +56,41 @@ public interface CostFunction {
 	 */
 	public Vector costPrime(Vector output, Vector expectedOutput);
 	
+	/**
+	 * In-place version of costPrime which writes the derivative
+	 * into result instead of allocating a new vector
+	 * @param output
+	 * @param expectedOutput
+	 * @param result
+	 * @return result
+	 */
+	public default Vector costPrimeInto(Vector output, Vector expectedOutput, Vector result)
+	{
+		return result.copyFrom(costPrime(output, expectedOutput));
+	}
+	
+	/**
+	 * Batched version of costPrimeInto for (batch x outputs) matrices,
+	 * one data instance per row
+	 * @param outputs
+	 * @param expectedOutputs
+	 * @param result
+	 * @return result
+	 */
+	public default Matrix costPrimeInto(Matrix outputs, Matrix expectedOutputs, Matrix result)
+	{
+		int numCols = outputs.getNumCols();
+		Vector output = new Vector(numCols);
+		Vector expectedOutput = new Vector(numCols);
+		Vector rowResult = new Vector(numCols);
+		for (int i = 0; i < outputs.getNumRows(); ++i) {
+			for (int j = 0; j < numCols; ++j) {
+				output.setElement(j, outputs.getElement(i, j));
+				expectedOutput.setElement(j, expectedOutputs.getElement(i, j));
+			}
+			result.copyRowFrom(i, costPrimeInto(output, expectedOutput, rowResult));
+		}
+		return result;
+	}
+	
 }
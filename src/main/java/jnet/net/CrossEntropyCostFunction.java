@@ -26,6 +26,33 @@ public class CrossEntropyCostFunction implements CostFunction {
 		return Vector.multiply(-1.0, Vector.add(exp1, Vector.multiply(-1.0, exp2)));
 	}
 	
+	@Override
+	public Vector costPrimeInto(Vector output, Vector expectedOutput, Vector result) {
+		// same as costPrime, element by element: -(y/a - (1-y)/(1-a))
+		for (int i = 0; i < output.getSize(); ++i) {
+			double a = output.getElement(i);
+			double y = expectedOutput.getElement(i);
+			double exp1 = y * reciprocal(a);
+			double exp2 = (1.0 - y) * reciprocal(1.0 - a);
+			result.setElement(i, -(exp1 - exp2));
+		}
+		return result;
+	}
+	
+	@Override
+	public Matrix costPrimeInto(Matrix outputs, Matrix expectedOutputs, Matrix result) {
+		for (int i = 0; i < outputs.getNumRows(); ++i) {
+			for (int j = 0; j < outputs.getNumCols(); ++j) {
+				double a = outputs.getElement(i, j);
+				double y = expectedOutputs.getElement(i, j);
+				double exp1 = y * reciprocal(a);
+				double exp2 = (1.0 - y) * reciprocal(1.0 - a);
+				result.setElement(i, j, -(exp1 - exp2));
+			}
+		}
+		return result;
+	}
+	
 	private Vector ln(Vector v) 
 	{
 		Vector r = new Vector(v.getSize());
@@ -35,6 +62,10 @@ public class CrossEntropyCostFunction implements CostFunction {
 		return r;
 	}
 	
+	private double reciprocal(double value) {
+		return value != 0 ? 1.0/value : value;
+	}
+	
 	private Vector reciprocal(Vector v) {
 		Vector r = new Vector(v.getSize());
 		for (int i = 0; i < v.getSize(); ++i) {
@@ -0,0 +1,91 @@
+package jnet.net;
+
+import java.util.Arrays;
+
+/**
+ * Storage backed by a double[], or by a contiguous range of one
+ * shared with other storage
+ * @author nigelgray
+ *
+ */
+final class DoubleStorage extends Storage {
+
+	final double[] data;
+
+	/**
+	 * Index of the first element in data
+	 */
+	final int offset;
+
+	private final int size;
+
+	DoubleStorage(int size)
+	{
+		this(new double[size], 0, size);
+	}
+
+	private DoubleStorage(double[] data, int offset, int size)
+	{
+		assert (offset + size <= data.length);
+		this.data = data;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	@Override
+	Precision getPrecision()
+	{
+		return Precision.DOUBLE;
+	}
+
+	@Override
+	int size()
+	{
+		return size;
+	}
+
+	@Override
+	double get(int i)
+	{
+		return data[offset + i];
+	}
+
+	@Override
+	void set(int i, double value)
+	{
+		data[offset + i] = value;
+	}
+
+	@Override
+	Storage view(int start, int size)
+	{
+		assert (start + size <= this.size);
+		return new DoubleStorage(data, offset + start, size);
+	}
+
+	@Override
+	void fill(double value)
+	{
+		Arrays.fill(data, offset, offset + size, value);
+	}
+
+	@Override
+	void scale(double value)
+	{
+		for (int i = offset; i < offset + size; ++i) {
+			data[i] *= value;
+		}
+	}
+
+	@Override
+	void copyFrom(Storage source)
+	{
+		if (source instanceof DoubleStorage) {
+			DoubleStorage from = (DoubleStorage)source;
+			assert (from.size == size);
+			System.arraycopy(from.data, from.offset, data, offset, size);
+		} else {
+			super.copyFrom(source);
+		}
+	}
+}
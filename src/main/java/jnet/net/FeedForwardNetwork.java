@@ -1,31 +1,178 @@
 package jnet.net;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import jnet.algorithm.LearningAlgorithm;
 import jnet.data.DataInstance;
+import jnet.data.DataException;
 import jnet.data.DataSet;
+import jnet.data.InstanceSource;
 import jnet.data.Statistics; 
 
 
 public class FeedForwardNetwork implements Network {
 	
 	private List<Layer> layers;
+	private LinearAlgebraBackend backend;
+	private Precision precision;
+	
+	// every layer's weights and biases, and their gradient sums, are views
+	// of these two buffers, in layer order
+	private Vector parameters;
+	private Vector gradients;
+	
 	private static Logger logger = Logger.getGlobal();
 	
 	public FeedForwardNetwork(int[] layerSizes, ActivationFunction activationFunction) 
+	{
+		this(layerSizes, activationFunction, LinearAlgebraBackend.getDefault());
+	}
+	
+	public FeedForwardNetwork(int[] layerSizes, ActivationFunction activationFunction, LinearAlgebraBackend backend) 
+	{
+		this(layerSizes, activationFunction, backend, Precision.DOUBLE);
+	}
+	
+	public FeedForwardNetwork(int[] layerSizes, ActivationFunction activationFunction, Precision precision) 
+	{
+		this(layerSizes, activationFunction, LinearAlgebraBackend.getDefault(), precision);
+	}
+	
+	/**
+	 * Construct a network whose weights, biases, activations and errors are
+	 * all stored with the given precision. With Precision.FLOAT the network
+	 * trains and evaluates entirely in single precision; inputs of the other
+	 * precision are converted as they enter the input layer
+	 * @param layerSizes
+	 * @param activationFunction
+	 * @param backend
+	 * @param precision
+	 */
+	public FeedForwardNetwork(int[] layerSizes, ActivationFunction activationFunction, LinearAlgebraBackend backend, Precision precision) 
+	{
+		assert (layerSizes.length > 0);
+		assert (backend != null);
+		logger.log(Level.INFO, String.format("Creating %s precision neural network with %s backend\n", precision, backend.getName()));
+		this.backend = backend;
+		this.precision = precision;
+		createLayers(layerSizes, activationFunction, null);
+	}
+	
+	/**
+	 * Construct a network whose weights, biases, activations and errors are
+	 * all stored outside the Java heap, in memory owned by arena. Gradient
+	 * buffers allocated with Matrix.zerosLike from the weights live in the
+	 * same arena. Results are identical to a double precision heap network.
+	 * The network must not be used once the arena has been closed
+	 * @param layerSizes
+	 * @param activationFunction
+	 * @param backend
+	 * @param arena
+	 */
+	public FeedForwardNetwork(int[] layerSizes, ActivationFunction activationFunction, LinearAlgebraBackend backend, OffHeapArena arena) 
+	{
+		assert (layerSizes.length > 0);
+		assert (backend != null);
+		logger.log(Level.INFO, String.format("Creating off-heap neural network with %s backend\n", backend.getName()));
+		this.backend = backend;
+		this.precision = Precision.DOUBLE;
+		createLayers(layerSizes, activationFunction, arena);
+	}
+	
+	/**
+	 * Construct a network over parameters which already hold its weights and
+	 * biases, in layer order - see ModelFormat. The parameters are used as
+	 * they are, not copied or written to. They must be off-heap storage from
+	 * arena if arena is not null, otherwise of the given precision
+	 * @param layerSizes
+	 * @param activationFunction
+	 * @param backend
+	 * @param precision
+	 * @param arena
+	 * @param parameters
+	 */
+	FeedForwardNetwork(int[] layerSizes, ActivationFunction activationFunction, LinearAlgebraBackend backend, Precision precision, OffHeapArena arena, Vector parameters)
 	{
 		assert (layerSizes.length > 0);
-		logger.log(Level.INFO, "Creating neural network\n");
+		assert (backend != null);
+		this.backend = backend;
+		this.precision = precision;
+		createLayers(layerSizes, activationFunction, arena, parameters);
+	}
+	
+	/**
+	 * Construct a network with the layers of source over the given
+	 * parameters and a gradient buffer of its own - see createReplica
+	 * and createSnapshot
+	 * @param source
+	 * @param parameters
+	 */
+	private FeedForwardNetwork(FeedForwardNetwork source, Vector parameters)
+	{
+		this.backend = source.backend;
+		this.precision = source.precision;
+		this.parameters = parameters;
+		gradients = Vector.zerosLike(source.gradients);
+		layers = new ArrayList<Layer>();
+		Layer previous = null;
+		int start = 0;
+		for (Layer layer : source.layers) {
+			previous = new Layer(layer, previous, parameters, gradients, start);
+			layers.add(previous);
+			if (layer.getPrevious() != null) {
+				start += Layer.getNumParameters(layer.getNumNeurons(), layer.getPrevious().getNumNeurons());
+			}
+		}
+	}
+	
+	/**
+	 * Allocate the parameter and gradient buffers for the whole network
+	 * and create the layers over them
+	 */
+	private void createLayers(int[] layerSizes, ActivationFunction activationFunction, OffHeapArena arena)
+	{
+		createLayers(layerSizes, activationFunction, arena, null);
+	}
+	
+	/**
+	 * Create the layers over the given parameters, or over newly allocated
+	 * and randomly initialized ones if parameters is null
+	 */
+	private void createLayers(int[] layerSizes, ActivationFunction activationFunction, OffHeapArena arena, Vector parameters)
+	{
+		int numParameters = getNumParameters(layerSizes);
+		boolean initialize = parameters == null;
+		if (initialize) {
+			parameters = arena == null ? new Vector(numParameters, precision) : arena.allocateVector(numParameters);
+		}
+		assert (parameters.getSize() == numParameters);
+		this.parameters = parameters;
+		gradients = Vector.zerosLike(parameters);
+		
 		layers = new ArrayList<Layer>();
-		layers.add(0, new Layer(layerSizes[0], null, null));
+		layers.add(0, new Layer(layerSizes[0], null, null, backend, precision, arena, null, null, 0));
+		int start = 0;
+		for (int i = 1; i < layerSizes.length; ++i) {
+			layers.add(i, new Layer(layerSizes[i], layers.get(i-1), activationFunction, backend, precision, arena, parameters, gradients, start, initialize));
+			start += Layer.getNumParameters(layerSizes[i], layerSizes[i-1]);
+		}
+	}
+	
+	/**
+	 * Return the number of weights and biases of a network with the given layer sizes
+	 * @param layerSizes
+	 * @return
+	 */
+	static int getNumParameters(int[] layerSizes)
+	{
+		int numParameters = 0;
 		for (int i = 1; i < layerSizes.length; ++i) {
-			layers.add(i, new Layer(layerSizes[i], layers.get(i-1), activationFunction));
+			numParameters += Layer.getNumParameters(layerSizes[i], layerSizes[i-1]);
 		}
+		return numParameters;
 	}
 	
 	@Override
@@ -49,23 +196,28 @@ public class FeedForwardNetwork implements Network {
 			throw new NetworkException("Validation DataSet empty");
 		}
 		
-		// make sure the data set is shuffled
-		trainingSet.shuffle();
+		// the algorithms shuffle their own order each epoch, leaving the set as it is
 		algorithm.execute(this, trainingSet, validationSet, costFunction);
 	}
 
 	@Override
-	public Statistics validateOrTest(DataSet dataSet, CostFunction costFunction) throws NetworkException 
+	public Statistics validateOrTest(InstanceSource dataSet, CostFunction costFunction) throws NetworkException 
 	{
 		assert (dataSet != null);
 		Statistics stats = new Statistics();
+		InferenceContext context = createInferenceContext();
 		
-		for(Iterator<DataInstance> instanceIter = dataSet.getIterator(); instanceIter.hasNext(); ) {
-			DataInstance instance = instanceIter.next();
-			if (instance == null) {
-				throw new NetworkException("Cannot evualate null data instance");
+		try {
+			for (InstanceSource.Pass pass = dataSet.startPass(null); pass.next(); ) {
+				DataInstance instance = pass.get();
+				if (instance == null) {
+					throw new NetworkException("Cannot evualate null data instance");
+				}
+				// evaluate returns the context's buffer, so keep a copy
+				stats.addStatistics(instance, new Vector(evaluate(instance, context)), costFunction);
 			}
-			stats.addStatistics(instance, evaluate(instance), costFunction);
+		} catch (DataException e) {
+			throw new NetworkException("Cannot read the instances to validate: " + e.getMessage(), e);
 		}
 		return stats;
 	}
@@ -78,16 +230,91 @@ public class FeedForwardNetwork implements Network {
 				throw new NetworkException("Null pointer to network Layer detected - stopping evaluation");
 			}
 			if (layer.getPrevious() == null || layer.getActivationFunction() == null) {
-				layer.setActivation(instance.getInputs());
+				layer.setInputs(instance.getInputs());
 			}
 			else {
 				layer.setWeightedInput(layer.getPrevious().getActivation());
-				layer.setActivation(layer.getActivationFunction().evaluate(layer.getWeightedInput()));
+				layer.activate();
 			}
 		}	
 		return getOutput();
 	}
+	
+	/**
+	 * Evaluate a whole mini-batch with one matrix product per layer.
+	 * The returned matrix is owned by the output layer and is overwritten
+	 * by the next batch
+	 */
+	@Override
+	public Matrix evaluateBatch(DataSet batch) throws NetworkException
+	{
+		if (batch.getNumInputs() != getInputLayer().getNumNeurons()) {
+			throw new NetworkException(String.format("Network expects %d inputs, got %d", getInputLayer().getNumNeurons(), batch.getNumInputs()));
+		}
+		batch.copyInstances(getInputLayer().getInputsBatch(batch.getNumInstances()), null);
+		return feedForwardBatch();
+	}
+	
+	/**
+	 * Evaluate a mini-batch already packed into a (batch x inputs) matrix.
+	 * The returned matrix is owned by the output layer and is overwritten
+	 * by the next batch
+	 */
+	@Override
+	public Matrix evaluateBatch(Matrix inputs) throws NetworkException
+	{
+		if (inputs.getNumCols() != getInputLayer().getNumNeurons()) {
+			throw new NetworkException(String.format("Network expects %d inputs, got %d", getInputLayer().getNumNeurons(), inputs.getNumCols()));
+		}
+		getInputLayer().setInputsBatch(inputs);
+		return feedForwardBatch();
+	}
+	
+	/**
+	 * Feed the input layer's batch activation forward through the other layers
+	 */
+	private Matrix feedForwardBatch() throws NetworkException
+	{
+		for (Layer layer : layers.subList(1, layers.size())) {
+			if (layer == null) {
+				throw new NetworkException("Null pointer to network Layer detected - stopping evaluation");
+			}
+			layer.setWeightedInputBatch(layer.getPrevious().getActivationBatch());
+			layer.activateBatch();
+		}
+		return getOutputLayer().getActivationBatch();
+	}
+		
+	@Override
+	public InferenceContext createInferenceContext()
+	{
+		return new InferenceContext(layers);
+	}
+	
+	@Override
+	public Vector evaluate(DataInstance instance, InferenceContext context) throws NetworkException
+	{
+		if (instance == null) {
+			throw new NetworkException("Cannot evualate null data instance");
+		}
+		if (context == null || !context.isFor(layers)) {
+			throw new NetworkException("InferenceContext was not created by this network");
+		}
+		return context.evaluate(instance.getInputs());
+	}
 		
+	@Override
+	public Network createReplica()
+	{
+		return new FeedForwardNetwork(this, parameters);
+	}
+	
+	@Override
+	public Network createSnapshot()
+	{
+		return new FeedForwardNetwork(this, Vector.zerosLike(parameters).copyFrom(parameters));
+	}
+	
 	@Override
 	public Layer getInputLayer()
 	{
@@ -103,6 +330,45 @@ public class FeedForwardNetwork implements Network {
 	}
 	
 	
+	@Override
+	public Layer getLayer(int index)
+	{
+		return layers.get(index);
+	}
+	
+	@Override
+	public int getNumLayers()
+	{
+		return layers.size();
+	}
+	
+	@Override
+	public Vector getParameters()
+	{
+		return parameters;
+	}
+	
+	@Override
+	public Vector getGradients()
+	{
+		return gradients;
+	}
+	
+	@Override
+	public LinearAlgebraBackend getBackend()
+	{
+		return backend;
+	}
+	
+	/**
+	 * Return the precision the network's parameters are stored with
+	 * @return
+	 */
+	public Precision getPrecision()
+	{
+		return precision;
+	}
+	
 	private Vector getOutput() {
 		return getOutputLayer().getActivation();
 	}
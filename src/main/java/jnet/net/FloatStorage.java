@@ -0,0 +1,92 @@
+package jnet.net;
+
+import java.util.Arrays;
+
+/**
+ * Storage backed by a float[], or by a contiguous range of one
+ * shared with other storage
+ * @author nigelgray
+ *
+ */
+final class FloatStorage extends Storage {
+
+	final float[] data;
+
+	/**
+	 * Index of the first element in data
+	 */
+	final int offset;
+
+	private final int size;
+
+	FloatStorage(int size)
+	{
+		this(new float[size], 0, size);
+	}
+
+	private FloatStorage(float[] data, int offset, int size)
+	{
+		assert (offset + size <= data.length);
+		this.data = data;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	@Override
+	Precision getPrecision()
+	{
+		return Precision.FLOAT;
+	}
+
+	@Override
+	int size()
+	{
+		return size;
+	}
+
+	@Override
+	double get(int i)
+	{
+		return data[offset + i];
+	}
+
+	@Override
+	void set(int i, double value)
+	{
+		data[offset + i] = (float)value;
+	}
+
+	@Override
+	Storage view(int start, int size)
+	{
+		assert (start + size <= this.size);
+		return new FloatStorage(data, offset + start, size);
+	}
+
+	@Override
+	void fill(double value)
+	{
+		Arrays.fill(data, offset, offset + size, (float)value);
+	}
+
+	@Override
+	void scale(double value)
+	{
+		float scalar = (float)value;
+		for (int i = offset; i < offset + size; ++i) {
+			data[i] *= scalar;
+		}
+	}
+
+	@Override
+	void copyFrom(Storage source)
+	{
+		if (source instanceof FloatStorage) {
+			FloatStorage from = (FloatStorage)source;
+			assert (from.size == size);
+			System.arraycopy(from.data, from.offset, data, offset, size);
+		} else {
+			super.copyFrom(source);
+		}
+	}
+}
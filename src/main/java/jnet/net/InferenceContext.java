@@ -0,0 +1,92 @@
+package jnet.net;
+
+import java.util.List;
+
+/**
+ * Scratch buffers for evaluating a network on one thread.
+ * FeedForwardNetwork.evaluate(DataInstance) writes its intermediate results
+ * into the layers themselves, so a network evaluated that way serves one
+ * caller at a time. Evaluating with a context instead only reads the
+ * layers' weights and biases, so any number of threads may share one
+ * network as long as each has its own context and nothing trains the
+ * network meanwhile. A context is not itself thread-safe, and its buffers
+ * are reused by every evaluation made with it
+ * @author nigelgray
+ *
+ */
+public class InferenceContext {
+
+	private final List<Layer> layers;
+
+	private final Vector[] weightedInputs;
+
+	private final Vector[] activations;
+
+	private final Vector inputBuffer;
+
+	/**
+	 * Allocate the buffers for evaluating the given layers, in the same
+	 * precision and place (heap or off-heap) as the layers' own storage
+	 * @param layers
+	 */
+	InferenceContext(List<Layer> layers)
+	{
+		this.layers = layers;
+		weightedInputs = new Vector[layers.size()];
+		activations = new Vector[layers.size()];
+		for (int i = 0; i < layers.size(); ++i) {
+			Layer layer = layers.get(i);
+			if (layer.getBiases() != null) {
+				weightedInputs[i] = Vector.zerosLike(layer.getBiases());
+				activations[i] = Vector.zerosLike(layer.getBiases());
+			}
+		}
+		Layer inputLayer = layers.get(0);
+		inputBuffer = inputLayer.getArena() == null ? new Vector(inputLayer.getNumNeurons(), inputLayer.getPrecision())
+				: inputLayer.getArena().allocateVector(inputLayer.getNumNeurons());
+	}
+
+	/**
+	 * Return true if this context was created for the given layers
+	 * @param layers
+	 * @return
+	 */
+	boolean isFor(List<Layer> layers)
+	{
+		return this.layers == layers;
+	}
+
+	/**
+	 * Feed inputs forward through the layers, writing only into this
+	 * context's buffers
+	 * @param inputs
+	 * @return the output layer's activation, owned by this context
+	 * @throws NetworkException
+	 */
+	Vector evaluate(Vector inputs) throws NetworkException
+	{
+		if (inputs.getSize() != inputBuffer.getSize()) {
+			throw new NetworkException(String.format("Network expects %d inputs, got %d", inputBuffer.getSize(), inputs.getSize()));
+		}
+		Vector activation = toInputs(inputs);
+		for (int i = 1; i < layers.size(); ++i) {
+			Layer layer = layers.get(i);
+			Vector weightedInput = weightedInputs[i].copyFrom(layer.getBiases());
+			layer.getBackend().gemv(1.0, layer.getWeights(), activation, 1.0, weightedInput);
+			activation = layer.getActivationFunction().evaluateInto(weightedInput, activations[i]);
+		}
+		return activation;
+	}
+
+	/**
+	 * The inputs as the input layer would store them - see Layer.setInputs
+	 */
+	private Vector toInputs(Vector inputs)
+	{
+		Layer inputLayer = layers.get(0);
+		if (inputs.getPrecision() == inputLayer.getPrecision() && inputs.isOffHeap() == (inputLayer.getArena() != null)) {
+			return inputs;
+		}
+		return inputBuffer.copyFrom(inputs);
+	}
+}
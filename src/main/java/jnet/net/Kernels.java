@@ -0,0 +1,791 @@
+package jnet.net;
+
+/**
+ * Inner loops shared by Matrix and Vector
+ * The loops work directly on the backing arrays with no accessor calls,
+ * and are written so that HotSpot's superword pass can compile them to
+ * packed SIMD instructions (SSE/AVX2/AVX-512, whatever the CPU offers).
+ * Reductions are split over four independent accumulators because the JIT
+ * will not reorder a floating point sum by itself.
+ * Every kernel has a single precision overload with the same loop structure;
+ * float arithmetic doubles the number of SIMD lanes
+ * @author nigelgray
+ *
+ */
+final class Kernels {
+
+	/**
+	 * Edge length of the square tiles used by the blocked
+	 * matrix-matrix products. 64x64 doubles is 32KB, so a tile
+	 * of each operand stays resident in L1/L2 while it is reused
+	 */
+	static final int BLOCK_SIZE = 64;
+
+	private Kernels()
+	{
+	}
+
+	/**
+	 * Return the dot product of n elements of x and y
+	 * @param x
+	 * @param xOffset
+	 * @param y
+	 * @param yOffset
+	 * @param n
+	 * @return
+	 */
+	static double dot(double[] x, int xOffset, double[] y, int yOffset, int n)
+	{
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			s0 += x[xOffset + i] * y[yOffset + i];
+			s1 += x[xOffset + i + 1] * y[yOffset + i + 1];
+			s2 += x[xOffset + i + 2] * y[yOffset + i + 2];
+			s3 += x[xOffset + i + 3] * y[yOffset + i + 3];
+		}
+		for (; i < n; ++i) {
+			s0 += x[xOffset + i] * y[yOffset + i];
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * y = alpha * x + y over n elements
+	 * @param alpha
+	 * @param x
+	 * @param xOffset
+	 * @param y
+	 * @param yOffset
+	 * @param n
+	 */
+	static void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int n)
+	{
+		for (int i = 0; i < n; ++i) {
+			y[yOffset + i] += alpha * x[xOffset + i];
+		}
+	}
+
+	/**
+	 * result = x + y over n elements. result may be x or y
+	 * @param x
+	 * @param xOffset
+	 * @param y
+	 * @param yOffset
+	 * @param result
+	 * @param resultOffset
+	 * @param n
+	 */
+	static void add(double[] x, int xOffset, double[] y, int yOffset, double[] result, int resultOffset, int n)
+	{
+		for (int i = 0; i < n; ++i) {
+			result[resultOffset + i] = x[xOffset + i] + y[yOffset + i];
+		}
+	}
+
+	/**
+	 * y = alpha * M.x + beta * y over rows [rowStart, rowEnd) of y, where M
+	 * is a row-major block of numCols columns starting at mOffset. Four rows
+	 * are reduced together so each element of x is loaded once per four rows
+	 * @param alpha
+	 * @param m
+	 * @param mOffset
+	 * @param rowStart
+	 * @param rowEnd
+	 * @param numCols
+	 * @param x
+	 * @param xOffset
+	 * @param beta
+	 * @param y
+	 * @param yOffset
+	 */
+	static void gemv(double alpha, double[] m, int mOffset, int rowStart, int rowEnd, int numCols, double[] x, int xOffset, double beta, double[] y, int yOffset)
+	{
+		int i = rowStart;
+		for (; i + 3 < rowEnd; i += 4) {
+			int r0 = mOffset + i * numCols;
+			int r1 = r0 + numCols;
+			int r2 = r1 + numCols;
+			int r3 = r2 + numCols;
+			double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+			for (int j = 0; j < numCols; ++j) {
+				double xj = x[xOffset + j];
+				s0 += m[r0 + j] * xj;
+				s1 += m[r1 + j] * xj;
+				s2 += m[r2 + j] * xj;
+				s3 += m[r3 + j] * xj;
+			}
+			y[yOffset + i] = scaleAndAdd(alpha, s0, beta, y[yOffset + i]);
+			y[yOffset + i + 1] = scaleAndAdd(alpha, s1, beta, y[yOffset + i + 1]);
+			y[yOffset + i + 2] = scaleAndAdd(alpha, s2, beta, y[yOffset + i + 2]);
+			y[yOffset + i + 3] = scaleAndAdd(alpha, s3, beta, y[yOffset + i + 3]);
+		}
+		for (; i < rowEnd; ++i) {
+			y[yOffset + i] = scaleAndAdd(alpha, dot(m, mOffset + i * numCols, x, xOffset, numCols), beta, y[yOffset + i]);
+		}
+	}
+
+	/**
+	 * y = alpha * transpose(M).x + y over columns [colStart, colEnd) of y,
+	 * where M is a row-major numRows x numCols block starting at mOffset.
+	 * Each row of M is accumulated into y in turn
+	 * @param alpha
+	 * @param m
+	 * @param mOffset
+	 * @param numRows
+	 * @param numCols
+	 * @param x
+	 * @param xOffset
+	 * @param y
+	 * @param yOffset
+	 * @param colStart
+	 * @param colEnd
+	 */
+	static void gemvTransposed(double alpha, double[] m, int mOffset, int numRows, int numCols, double[] x, int xOffset, double[] y, int yOffset, int colStart, int colEnd)
+	{
+		for (int i = 0; i < numRows; ++i) {
+			axpy(alpha * x[xOffset + i], m, mOffset + i * numCols + colStart, y, yOffset + colStart, colEnd - colStart);
+		}
+	}
+
+	/**
+	 * A = A + alpha * x.transpose(y) over rows [rowStart, rowEnd) of A, where A
+	 * is a row-major block of numCols columns starting at aOffset
+	 * @param alpha
+	 * @param x
+	 * @param xOffset
+	 * @param y
+	 * @param yOffset
+	 * @param numCols
+	 * @param a
+	 * @param aOffset
+	 * @param rowStart
+	 * @param rowEnd
+	 */
+	static void ger(double alpha, double[] x, int xOffset, double[] y, int yOffset, int numCols, double[] a, int aOffset, int rowStart, int rowEnd)
+	{
+		for (int i = rowStart; i < rowEnd; ++i) {
+			axpy(alpha * x[xOffset + i], y, yOffset, a, aOffset + i * numCols, numCols);
+		}
+	}
+
+	/**
+	 * y = alpha * M.x + beta * y over rows [rowStart, rowEnd) of y, where M is
+	 * a row-major block of numCols columns and x is sparse, with its non-zero
+	 * values at the given column indices. Only those columns of M are read
+	 * @param alpha
+	 * @param m
+	 * @param mOffset
+	 * @param numCols
+	 * @param indices
+	 * @param values
+	 * @param beta
+	 * @param y
+	 * @param yOffset
+	 * @param rowStart
+	 * @param rowEnd
+	 */
+	static void gemvSparse(double alpha, double[] m, int mOffset, int numCols, int[] indices, double[] values, double beta, double[] y, int yOffset, int rowStart, int rowEnd)
+	{
+		int numNonZeros = indices.length;
+		for (int i = rowStart; i < rowEnd; ++i) {
+			int row = mOffset + i * numCols;
+			double sum = 0.0;
+			for (int p = 0; p < numNonZeros; ++p) {
+				sum += m[row + indices[p]] * values[p];
+			}
+			y[yOffset + i] = scaleAndAdd(alpha, sum, beta, y[yOffset + i]);
+		}
+	}
+
+	/**
+	 * A = A + alpha * x.transpose(y) over rows [rowStart, rowEnd) of A, where
+	 * A is a row-major block of numCols columns and y is sparse, with its
+	 * non-zero values at the given column indices. Only those columns of A
+	 * are written
+	 * @param alpha
+	 * @param x
+	 * @param xOffset
+	 * @param indices
+	 * @param values
+	 * @param a
+	 * @param aOffset
+	 * @param numCols
+	 * @param rowStart
+	 * @param rowEnd
+	 */
+	static void gerSparse(double alpha, double[] x, int xOffset, int[] indices, double[] values, double[] a, int aOffset, int numCols, int rowStart, int rowEnd)
+	{
+		int numNonZeros = indices.length;
+		for (int i = rowStart; i < rowEnd; ++i) {
+			int row = aOffset + i * numCols;
+			double scale = alpha * x[xOffset + i];
+			for (int p = 0; p < numNonZeros; ++p) {
+				a[row + indices[p]] += scale * values[p];
+			}
+		}
+	}
+
+	/**
+	 * C += alpha * A.B where A is m x k, B is k x n and C is m x n, all row-major
+	 * and starting at aOffset, bOffset and cOffset of their arrays.
+	 * The k dimension is unrolled by four so each pass over a row of C
+	 * accumulates four rank-1 contributions while they are in registers.
+	 * Like the other products only rows [rowStart, rowEnd) of C are written,
+	 * so disjoint row ranges can be computed concurrently
+	 */
+	static void multiply(double alpha, double[] a, int aOffset, double[] b, int bOffset, double[] c, int cOffset, int m, int n, int k, int rowStart, int rowEnd)
+	{
+		for (int ii = rowStart; ii < rowEnd; ii += BLOCK_SIZE) {
+			int iMax = Math.min(ii + BLOCK_SIZE, rowEnd);
+			for (int pp = 0; pp < k; pp += BLOCK_SIZE) {
+				int pMax = Math.min(pp + BLOCK_SIZE, k);
+				for (int jj = 0; jj < n; jj += BLOCK_SIZE) {
+					int jMax = Math.min(jj + BLOCK_SIZE, n);
+					for (int i = ii; i < iMax; ++i) {
+						int aRow = aOffset + i * k;
+						int cRow = cOffset + i * n;
+						int p = pp;
+						for (; p + 3 < pMax; p += 4) {
+							double a0 = alpha * a[aRow + p];
+							double a1 = alpha * a[aRow + p + 1];
+							double a2 = alpha * a[aRow + p + 2];
+							double a3 = alpha * a[aRow + p + 3];
+							int b0 = bOffset + p * n;
+							int b1 = b0 + n;
+							int b2 = b1 + n;
+							int b3 = b2 + n;
+							for (int j = jj; j < jMax; ++j) {
+								c[cRow + j] += a0 * b[b0 + j] + a1 * b[b1 + j] + a2 * b[b2 + j] + a3 * b[b3 + j];
+							}
+						}
+						for (; p < pMax; ++p) {
+							double a0 = alpha * a[aRow + p];
+							int b0 = bOffset + p * n;
+							for (int j = jj; j < jMax; ++j) {
+								c[cRow + j] += a0 * b[b0 + j];
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * C += alpha * transpose(A).B where A is k x m, B is k x n and C is m x n.
+	 * Walks A and B row by row so every inner loop is unit-stride
+	 */
+	static void multiplyTransposedLeft(double alpha, double[] a, int aOffset, double[] b, int bOffset, double[] c, int cOffset, int m, int n, int k, int rowStart, int rowEnd)
+	{
+		for (int pp = 0; pp < k; pp += BLOCK_SIZE) {
+			int pMax = Math.min(pp + BLOCK_SIZE, k);
+			for (int ii = rowStart; ii < rowEnd; ii += BLOCK_SIZE) {
+				int iMax = Math.min(ii + BLOCK_SIZE, rowEnd);
+				for (int jj = 0; jj < n; jj += BLOCK_SIZE) {
+					int jMax = Math.min(jj + BLOCK_SIZE, n);
+					int p = pp;
+					for (; p + 3 < pMax; p += 4) {
+						int b0 = bOffset + p * n;
+						int b1 = b0 + n;
+						int b2 = b1 + n;
+						int b3 = b2 + n;
+						for (int i = ii; i < iMax; ++i) {
+							double a0 = alpha * a[aOffset + p * m + i];
+							double a1 = alpha * a[aOffset + (p + 1) * m + i];
+							double a2 = alpha * a[aOffset + (p + 2) * m + i];
+							double a3 = alpha * a[aOffset + (p + 3) * m + i];
+							int cRow = cOffset + i * n;
+							for (int j = jj; j < jMax; ++j) {
+								c[cRow + j] += a0 * b[b0 + j] + a1 * b[b1 + j] + a2 * b[b2 + j] + a3 * b[b3 + j];
+							}
+						}
+					}
+					for (; p < pMax; ++p) {
+						int b0 = bOffset + p * n;
+						for (int i = ii; i < iMax; ++i) {
+							double a0 = alpha * a[aOffset + p * m + i];
+							int cRow = cOffset + i * n;
+							for (int j = jj; j < jMax; ++j) {
+								c[cRow + j] += a0 * b[b0 + j];
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * C += alpha * A.transpose(B) where A is m x k, B is n x k and C is m x n.
+	 * Each element of C is a dot product of two contiguous rows; a 2x2
+	 * register tile computes four of them per pass so each loaded element
+	 * of A and B is used twice
+	 */
+	static void multiplyTransposedRight(double alpha, double[] a, int aOffset, double[] b, int bOffset, double[] c, int cOffset, int m, int n, int k, int rowStart, int rowEnd)
+	{
+		for (int ii = rowStart; ii < rowEnd; ii += BLOCK_SIZE) {
+			int iMax = Math.min(ii + BLOCK_SIZE, rowEnd);
+			for (int jj = 0; jj < n; jj += BLOCK_SIZE) {
+				int jMax = Math.min(jj + BLOCK_SIZE, n);
+				for (int pp = 0; pp < k; pp += BLOCK_SIZE) {
+					int pMax = Math.min(pp + BLOCK_SIZE, k);
+					int i = ii;
+					for (; i + 1 < iMax; i += 2) {
+						int a0 = aOffset + i * k;
+						int a1 = a0 + k;
+						int j = jj;
+						for (; j + 1 < jMax; j += 2) {
+							int b0 = bOffset + j * k;
+							int b1 = b0 + k;
+							double c00 = 0.0, c01 = 0.0, c10 = 0.0, c11 = 0.0;
+							for (int p = pp; p < pMax; ++p) {
+								double x0 = a[a0 + p];
+								double x1 = a[a1 + p];
+								double y0 = b[b0 + p];
+								double y1 = b[b1 + p];
+								c00 += x0 * y0;
+								c01 += x0 * y1;
+								c10 += x1 * y0;
+								c11 += x1 * y1;
+							}
+							c[cOffset + i * n + j] += alpha * c00;
+							c[cOffset + i * n + j + 1] += alpha * c01;
+							c[cOffset + (i + 1) * n + j] += alpha * c10;
+							c[cOffset + (i + 1) * n + j + 1] += alpha * c11;
+						}
+						for (; j < jMax; ++j) {
+							int b0 = bOffset + j * k;
+							double c00 = 0.0, c10 = 0.0;
+							for (int p = pp; p < pMax; ++p) {
+								c00 += a[a0 + p] * b[b0 + p];
+								c10 += a[a1 + p] * b[b0 + p];
+							}
+							c[cOffset + i * n + j] += alpha * c00;
+							c[cOffset + (i + 1) * n + j] += alpha * c10;
+						}
+					}
+					for (; i < iMax; ++i) {
+						int a0 = aOffset + i * k;
+						for (int j = jj; j < jMax; ++j) {
+							int b0 = bOffset + j * k;
+							double c00 = 0.0;
+							for (int p = pp; p < pMax; ++p) {
+								c00 += a[a0 + p] * b[b0 + p];
+							}
+							c[cOffset + i * n + j] += alpha * c00;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * One Nesterov momentum step over n elements, with g the summed
+	 * gradient: v = momentum * v - rate * g / batchSize, then
+	 * p += momentum * v - rate * g / batchSize
+	 * @param momentum
+	 * @param rate
+	 * @param batchSize
+	 * @param g
+	 * @param gOffset
+	 * @param v
+	 * @param vOffset
+	 * @param p
+	 * @param pOffset
+	 * @param n
+	 */
+	static void nesterov(double momentum, double rate, double batchSize, double[] g, int gOffset, double[] v, int vOffset, double[] p, int pOffset, int n)
+	{
+		for (int i = 0; i < n; ++i) {
+			double step = rate * g[gOffset + i] / batchSize;
+			double vi = momentum * v[vOffset + i] - step;
+			v[vOffset + i] = vi;
+			p[pOffset + i] = p[pOffset + i] + momentum * vi - step;
+		}
+	}
+
+	/**
+	 * One step scaled by the root of a running sum of squared gradients
+	 * over n elements, with g the summed gradient: for the mean gradient m,
+	 * s = decay * s + weight * m * m, then p -= rate * m / (sqrt(s) + epsilon)
+	 * @param rate
+	 * @param epsilon
+	 * @param decay
+	 * @param weight
+	 * @param batchSize
+	 * @param g
+	 * @param gOffset
+	 * @param s
+	 * @param sOffset
+	 * @param p
+	 * @param pOffset
+	 * @param n
+	 */
+	static void rootMeanSquare(double rate, double epsilon, double decay, double weight, double batchSize, double[] g, int gOffset, double[] s, int sOffset, double[] p, int pOffset, int n)
+	{
+		for (int i = 0; i < n; ++i) {
+			double m = g[gOffset + i] / batchSize;
+			double si = decay * s[sOffset + i] + weight * m * m;
+			s[sOffset + i] = si;
+			p[pOffset + i] -= rate * m / (Math.sqrt(si) + epsilon);
+		}
+	}
+
+	/**
+	 * One Adam step over n elements, with g the summed gradient: for the
+	 * mean gradient m, u = beta1 * u + (1 - beta1) * m and
+	 * v = beta2 * v + (1 - beta2) * m * m, then p -= rate * u / (sqrt(v) + epsilon)
+	 * @param rate
+	 * @param epsilon
+	 * @param beta1
+	 * @param beta2
+	 * @param batchSize
+	 * @param g
+	 * @param gOffset
+	 * @param u
+	 * @param uOffset
+	 * @param v
+	 * @param vOffset
+	 * @param p
+	 * @param pOffset
+	 * @param n
+	 */
+	static void adam(double rate, double epsilon, double beta1, double beta2, double batchSize, double[] g, int gOffset, double[] u, int uOffset, double[] v, int vOffset, double[] p, int pOffset, int n)
+	{
+		for (int i = 0; i < n; ++i) {
+			double m = g[gOffset + i] / batchSize;
+			double ui = beta1 * u[uOffset + i] + (1.0 - beta1) * m;
+			double vi = beta2 * v[vOffset + i] + (1.0 - beta2) * m * m;
+			u[uOffset + i] = ui;
+			v[vOffset + i] = vi;
+			p[pOffset + i] -= rate * ui / (Math.sqrt(vi) + epsilon);
+		}
+	}
+
+	/**
+	 * Single precision version of dot
+	 */
+	static float dot(float[] x, int xOffset, float[] y, int yOffset, int n)
+	{
+		float s0 = 0.0f, s1 = 0.0f, s2 = 0.0f, s3 = 0.0f;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			s0 += x[xOffset + i] * y[yOffset + i];
+			s1 += x[xOffset + i + 1] * y[yOffset + i + 1];
+			s2 += x[xOffset + i + 2] * y[yOffset + i + 2];
+			s3 += x[xOffset + i + 3] * y[yOffset + i + 3];
+		}
+		for (; i < n; ++i) {
+			s0 += x[xOffset + i] * y[yOffset + i];
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * Single precision version of axpy
+	 */
+	static void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int n)
+	{
+		for (int i = 0; i < n; ++i) {
+			y[yOffset + i] += alpha * x[xOffset + i];
+		}
+	}
+
+	/**
+	 * Single precision version of add
+	 */
+	static void add(float[] x, int xOffset, float[] y, int yOffset, float[] result, int resultOffset, int n)
+	{
+		for (int i = 0; i < n; ++i) {
+			result[resultOffset + i] = x[xOffset + i] + y[yOffset + i];
+		}
+	}
+
+	/**
+	 * Single precision version of gemv
+	 */
+	static void gemv(float alpha, float[] m, int mOffset, int rowStart, int rowEnd, int numCols, float[] x, int xOffset, float beta, float[] y, int yOffset)
+	{
+		int i = rowStart;
+		for (; i + 3 < rowEnd; i += 4) {
+			int r0 = mOffset + i * numCols;
+			int r1 = r0 + numCols;
+			int r2 = r1 + numCols;
+			int r3 = r2 + numCols;
+			float s0 = 0.0f, s1 = 0.0f, s2 = 0.0f, s3 = 0.0f;
+			for (int j = 0; j < numCols; ++j) {
+				float xj = x[xOffset + j];
+				s0 += m[r0 + j] * xj;
+				s1 += m[r1 + j] * xj;
+				s2 += m[r2 + j] * xj;
+				s3 += m[r3 + j] * xj;
+			}
+			y[yOffset + i] = scaleAndAdd(alpha, s0, beta, y[yOffset + i]);
+			y[yOffset + i + 1] = scaleAndAdd(alpha, s1, beta, y[yOffset + i + 1]);
+			y[yOffset + i + 2] = scaleAndAdd(alpha, s2, beta, y[yOffset + i + 2]);
+			y[yOffset + i + 3] = scaleAndAdd(alpha, s3, beta, y[yOffset + i + 3]);
+		}
+		for (; i < rowEnd; ++i) {
+			y[yOffset + i] = scaleAndAdd(alpha, dot(m, mOffset + i * numCols, x, xOffset, numCols), beta, y[yOffset + i]);
+		}
+	}
+
+	/**
+	 * Single precision version of gemvTransposed
+	 */
+	static void gemvTransposed(float alpha, float[] m, int mOffset, int numRows, int numCols, float[] x, int xOffset, float[] y, int yOffset, int colStart, int colEnd)
+	{
+		for (int i = 0; i < numRows; ++i) {
+			axpy(alpha * x[xOffset + i], m, mOffset + i * numCols + colStart, y, yOffset + colStart, colEnd - colStart);
+		}
+	}
+
+	/**
+	 * Single precision version of ger
+	 */
+	static void ger(float alpha, float[] x, int xOffset, float[] y, int yOffset, int numCols, float[] a, int aOffset, int rowStart, int rowEnd)
+	{
+		for (int i = rowStart; i < rowEnd; ++i) {
+			axpy(alpha * x[xOffset + i], y, yOffset, a, aOffset + i * numCols, numCols);
+		}
+	}
+
+	/**
+	 * Single precision version of gemvSparse
+	 */
+	static void gemvSparse(float alpha, float[] m, int mOffset, int numCols, int[] indices, float[] values, float beta, float[] y, int yOffset, int rowStart, int rowEnd)
+	{
+		int numNonZeros = indices.length;
+		for (int i = rowStart; i < rowEnd; ++i) {
+			int row = mOffset + i * numCols;
+			float sum = 0.0f;
+			for (int p = 0; p < numNonZeros; ++p) {
+				sum += m[row + indices[p]] * values[p];
+			}
+			y[yOffset + i] = scaleAndAdd(alpha, sum, beta, y[yOffset + i]);
+		}
+	}
+
+	/**
+	 * Single precision version of gerSparse
+	 */
+	static void gerSparse(float alpha, float[] x, int xOffset, int[] indices, float[] values, float[] a, int aOffset, int numCols, int rowStart, int rowEnd)
+	{
+		int numNonZeros = indices.length;
+		for (int i = rowStart; i < rowEnd; ++i) {
+			int row = aOffset + i * numCols;
+			float scale = alpha * x[xOffset + i];
+			for (int p = 0; p < numNonZeros; ++p) {
+				a[row + indices[p]] += scale * values[p];
+			}
+		}
+	}
+
+	/**
+	 * Single precision version of multiply
+	 */
+	static void multiply(float alpha, float[] a, int aOffset, float[] b, int bOffset, float[] c, int cOffset, int m, int n, int k, int rowStart, int rowEnd)
+	{
+		for (int ii = rowStart; ii < rowEnd; ii += BLOCK_SIZE) {
+			int iMax = Math.min(ii + BLOCK_SIZE, rowEnd);
+			for (int pp = 0; pp < k; pp += BLOCK_SIZE) {
+				int pMax = Math.min(pp + BLOCK_SIZE, k);
+				for (int jj = 0; jj < n; jj += BLOCK_SIZE) {
+					int jMax = Math.min(jj + BLOCK_SIZE, n);
+					for (int i = ii; i < iMax; ++i) {
+						int aRow = aOffset + i * k;
+						int cRow = cOffset + i * n;
+						int p = pp;
+						for (; p + 3 < pMax; p += 4) {
+							float a0 = alpha * a[aRow + p];
+							float a1 = alpha * a[aRow + p + 1];
+							float a2 = alpha * a[aRow + p + 2];
+							float a3 = alpha * a[aRow + p + 3];
+							int b0 = bOffset + p * n;
+							int b1 = b0 + n;
+							int b2 = b1 + n;
+							int b3 = b2 + n;
+							for (int j = jj; j < jMax; ++j) {
+								c[cRow + j] += a0 * b[b0 + j] + a1 * b[b1 + j] + a2 * b[b2 + j] + a3 * b[b3 + j];
+							}
+						}
+						for (; p < pMax; ++p) {
+							float a0 = alpha * a[aRow + p];
+							int b0 = bOffset + p * n;
+							for (int j = jj; j < jMax; ++j) {
+								c[cRow + j] += a0 * b[b0 + j];
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Single precision version of multiplyTransposedLeft
+	 */
+	static void multiplyTransposedLeft(float alpha, float[] a, int aOffset, float[] b, int bOffset, float[] c, int cOffset, int m, int n, int k, int rowStart, int rowEnd)
+	{
+		for (int pp = 0; pp < k; pp += BLOCK_SIZE) {
+			int pMax = Math.min(pp + BLOCK_SIZE, k);
+			for (int ii = rowStart; ii < rowEnd; ii += BLOCK_SIZE) {
+				int iMax = Math.min(ii + BLOCK_SIZE, rowEnd);
+				for (int jj = 0; jj < n; jj += BLOCK_SIZE) {
+					int jMax = Math.min(jj + BLOCK_SIZE, n);
+					int p = pp;
+					for (; p + 3 < pMax; p += 4) {
+						int b0 = bOffset + p * n;
+						int b1 = b0 + n;
+						int b2 = b1 + n;
+						int b3 = b2 + n;
+						for (int i = ii; i < iMax; ++i) {
+							float a0 = alpha * a[aOffset + p * m + i];
+							float a1 = alpha * a[aOffset + (p + 1) * m + i];
+							float a2 = alpha * a[aOffset + (p + 2) * m + i];
+							float a3 = alpha * a[aOffset + (p + 3) * m + i];
+							int cRow = cOffset + i * n;
+							for (int j = jj; j < jMax; ++j) {
+								c[cRow + j] += a0 * b[b0 + j] + a1 * b[b1 + j] + a2 * b[b2 + j] + a3 * b[b3 + j];
+							}
+						}
+					}
+					for (; p < pMax; ++p) {
+						int b0 = bOffset + p * n;
+						for (int i = ii; i < iMax; ++i) {
+							float a0 = alpha * a[aOffset + p * m + i];
+							int cRow = cOffset + i * n;
+							for (int j = jj; j < jMax; ++j) {
+								c[cRow + j] += a0 * b[b0 + j];
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Single precision version of multiplyTransposedRight
+	 */
+	static void multiplyTransposedRight(float alpha, float[] a, int aOffset, float[] b, int bOffset, float[] c, int cOffset, int m, int n, int k, int rowStart, int rowEnd)
+	{
+		for (int ii = rowStart; ii < rowEnd; ii += BLOCK_SIZE) {
+			int iMax = Math.min(ii + BLOCK_SIZE, rowEnd);
+			for (int jj = 0; jj < n; jj += BLOCK_SIZE) {
+				int jMax = Math.min(jj + BLOCK_SIZE, n);
+				for (int pp = 0; pp < k; pp += BLOCK_SIZE) {
+					int pMax = Math.min(pp + BLOCK_SIZE, k);
+					int i = ii;
+					for (; i + 1 < iMax; i += 2) {
+						int a0 = aOffset + i * k;
+						int a1 = a0 + k;
+						int j = jj;
+						for (; j + 1 < jMax; j += 2) {
+							int b0 = bOffset + j * k;
+							int b1 = b0 + k;
+							float c00 = 0.0f, c01 = 0.0f, c10 = 0.0f, c11 = 0.0f;
+							for (int p = pp; p < pMax; ++p) {
+								float x0 = a[a0 + p];
+								float x1 = a[a1 + p];
+								float y0 = b[b0 + p];
+								float y1 = b[b1 + p];
+								c00 += x0 * y0;
+								c01 += x0 * y1;
+								c10 += x1 * y0;
+								c11 += x1 * y1;
+							}
+							c[cOffset + i * n + j] += alpha * c00;
+							c[cOffset + i * n + j + 1] += alpha * c01;
+							c[cOffset + (i + 1) * n + j] += alpha * c10;
+							c[cOffset + (i + 1) * n + j + 1] += alpha * c11;
+						}
+						for (; j < jMax; ++j) {
+							int b0 = bOffset + j * k;
+							float c00 = 0.0f, c10 = 0.0f;
+							for (int p = pp; p < pMax; ++p) {
+								c00 += a[a0 + p] * b[b0 + p];
+								c10 += a[a1 + p] * b[b0 + p];
+							}
+							c[cOffset + i * n + j] += alpha * c00;
+							c[cOffset + (i + 1) * n + j] += alpha * c10;
+						}
+					}
+					for (; i < iMax; ++i) {
+						int a0 = aOffset + i * k;
+						for (int j = jj; j < jMax; ++j) {
+							int b0 = bOffset + j * k;
+							float c00 = 0.0f;
+							for (int p = pp; p < pMax; ++p) {
+								c00 += a[a0 + p] * b[b0 + p];
+							}
+							c[cOffset + i * n + j] += alpha * c00;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Single precision version of nesterov. The step is computed in double
+	 * precision and rounded once when stored
+	 */
+	static void nesterov(double momentum, double rate, double batchSize, float[] g, int gOffset, float[] v, int vOffset, float[] p, int pOffset, int n)
+	{
+		for (int i = 0; i < n; ++i) {
+			double step = rate * g[gOffset + i] / batchSize;
+			double vi = momentum * v[vOffset + i] - step;
+			v[vOffset + i] = (float)vi;
+			p[pOffset + i] = (float)(p[pOffset + i] + momentum * vi - step);
+		}
+	}
+
+	/**
+	 * Single precision version of rootMeanSquare, computed in double
+	 * precision like nesterov
+	 */
+	static void rootMeanSquare(double rate, double epsilon, double decay, double weight, double batchSize, float[] g, int gOffset, float[] s, int sOffset, float[] p, int pOffset, int n)
+	{
+		for (int i = 0; i < n; ++i) {
+			double m = g[gOffset + i] / batchSize;
+			double si = decay * s[sOffset + i] + weight * m * m;
+			s[sOffset + i] = (float)si;
+			p[pOffset + i] = (float)(p[pOffset + i] - rate * m / (Math.sqrt(si) + epsilon));
+		}
+	}
+
+	/**
+	 * Single precision version of adam, computed in double precision
+	 * like nesterov
+	 */
+	static void adam(double rate, double epsilon, double beta1, double beta2, double batchSize, float[] g, int gOffset, float[] u, int uOffset, float[] v, int vOffset, float[] p, int pOffset, int n)
+	{
+		for (int i = 0; i < n; ++i) {
+			double m = g[gOffset + i] / batchSize;
+			double ui = beta1 * u[uOffset + i] + (1.0 - beta1) * m;
+			double vi = beta2 * v[vOffset + i] + (1.0 - beta2) * m * m;
+			u[uOffset + i] = (float)ui;
+			v[vOffset + i] = (float)vi;
+			p[pOffset + i] = (float)(p[pOffset + i] - rate * ui / (Math.sqrt(vi) + epsilon));
+		}
+	}
+
+	/**
+	 * Single precision version of scaleAndAdd
+	 */
+	private static float scaleAndAdd(float alpha, float sum, float beta, float y)
+	{
+		return beta == 0.0f ? alpha * sum : alpha * sum + beta * y;
+	}
+
+	/**
+	 * beta == 0 overwrites y without reading it, so stale NaNs do not leak through
+	 */
+	static double scaleAndAdd(double alpha, double sum, double beta, double y)
+	{
+		return beta == 0.0 ? alpha * sum : alpha * sum + beta * y;
+	}
+}
@@ -1,5 +1,8 @@
 package jnet.net;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 public class Layer 
@@ -12,8 +15,27 @@ public class Layer
 	private Vector weightedInput;
 	private Vector activation;
 	private ActivationFunction activationFunction;
+	private LinearAlgebraBackend backend;
+	private Precision precision;
+	private OffHeapArena arena;
 
 	private Vector error;
+	
+	// sums of the gradients over a mini-batch, views of the gradient
+	// buffer of the network the layer belongs to
+	private Matrix weightGradientSum;
+	private Vector biasGradientSum;
+	
+	// buffers owned by the layer and overwritten on every evaluation
+	// so that the forward and backward passes do not allocate
+	private Vector activationBuffer;
+	private Vector activationDerivative;
+
+	// (batch x neurons) buffers for evaluating a whole mini-batch at once,
+	// one set per batch size seen - in practice the mini-batch size and
+	// the size of the final, partial batch of an epoch
+	private Map<Integer, Batch> batches = new HashMap<>();
+	private Batch batch;
 
 	// keep track of gradients over a mini-batch of test data
 	// use the mean of these x learning rate to adjust weights
@@ -27,22 +49,182 @@ public class Layer
 	// If the layer is an input later, we don't need weights or biases
 	public Layer(int numNeurons, Layer previous, ActivationFunction activationFunction) 
 	{
+		this(numNeurons, previous, activationFunction, LinearAlgebraBackend.getDefault());
+	}
+	
+	public Layer(int numNeurons, Layer previous, ActivationFunction activationFunction, LinearAlgebraBackend backend) 
+	{
+		this(numNeurons, previous, activationFunction, backend, Precision.DOUBLE);
+	}
+	
+	public Layer(int numNeurons, Layer previous, ActivationFunction activationFunction, LinearAlgebraBackend backend, Precision precision) 
+	{
+		this(numNeurons, previous, activationFunction, backend, precision, null, null, null, 0);
+	}
+	
+	/**
+	 * Construct a layer whose weights, biases and buffers are allocated
+	 * outside the Java heap from the given arena. Off-heap storage
+	 * holds doubles
+	 * @param numNeurons
+	 * @param previous
+	 * @param activationFunction
+	 * @param backend
+	 * @param arena
+	 */
+	public Layer(int numNeurons, Layer previous, ActivationFunction activationFunction, LinearAlgebraBackend backend, OffHeapArena arena) 
+	{
+		this(numNeurons, previous, activationFunction, backend, Precision.DOUBLE, arena, null, null, 0);
+	}
+	
+	/**
+	 * Construct a layer whose weights, biases and gradient sums are views of
+	 * the network's flat parameter and gradient buffers, starting at start.
+	 * The weights come first, row by row, then the biases. With null buffers
+	 * the layer allocates its own, sized for just this layer
+	 * @param numNeurons
+	 * @param previous
+	 * @param activationFunction
+	 * @param backend
+	 * @param precision
+	 * @param arena
+	 * @param parameters
+	 * @param gradients
+	 * @param start
+	 */
+	Layer(int numNeurons, Layer previous, ActivationFunction activationFunction, LinearAlgebraBackend backend, Precision precision, OffHeapArena arena,
+			Vector parameters, Vector gradients, int start) 
+	{
+		this(numNeurons, previous, activationFunction, backend, precision, arena, parameters, gradients, start, true);
+	}
+	
+	/**
+	 * As above, but only drawing random weights and biases if initialize is
+	 * true - otherwise the layer takes the values already in parameters,
+	 * without writing to them
+	 */
+	Layer(int numNeurons, Layer previous, ActivationFunction activationFunction, LinearAlgebraBackend backend, Precision precision, OffHeapArena arena,
+			Vector parameters, Vector gradients, int start, boolean initialize) 
+	{
+		this.backend = backend;
+		this.precision = precision;
+		this.arena = arena;
 		this.activationFunction = activationFunction;
 		this.numNeurons = numNeurons;
 		this.previous = previous;
 		if (previous != null) {
-			weights = new Matrix(numNeurons, previous.getNumNeurons(), new Random());
-			biases = new Vector(numNeurons, new Random());
+			if (parameters == null) {
+				parameters = allocateVector(getNumParameters(numNeurons, previous.getNumNeurons()));
+				gradients = Vector.zerosLike(parameters);
+				start = 0;
+			}
+			weights = parameters.viewAsMatrix(start, numNeurons, previous.getNumNeurons());
+			biases = parameters.view(start + numNeurons * previous.getNumNeurons(), numNeurons);
+			if (initialize) {
+				Random random = new Random();
+				for (int i = 0; i < numNeurons; ++i) {
+					for (int j = 0; j < previous.getNumNeurons(); ++j) {
+						weights.setElement(i, j, random.nextGaussian());
+					}
+				}
+				for (int i = 0; i < numNeurons; ++i) {
+					biases.setElement(i, random.nextGaussian());
+				}
+			}
+			attachGradients(gradients, start);
+			weightedInput = Vector.zerosLike(biases);
+			activationBuffer = Vector.zerosLike(biases);
+			activationDerivative = Vector.zerosLike(biases);
+			error = Vector.zerosLike(biases);
 		} else {
 			weights = null;
 			biases = null;
 		}
 	}
 	
+	/**
+	 * Construct a layer with the shape and activation function of template
+	 * but its own buffers, so that it can be evaluated and back-propagated
+	 * on another thread. The weights, biases and gradient sums are views of
+	 * parameters and gradients, laid out as the template's are in its
+	 * network's buffers - passing the template network's own parameters
+	 * gives a layer which sees every update made to the template
+	 * @param template
+	 * @param previous
+	 * @param parameters
+	 * @param gradients
+	 * @param start
+	 */
+	Layer(Layer template, Layer previous, Vector parameters, Vector gradients, int start)
+	{
+		this.backend = template.backend;
+		this.precision = template.precision;
+		this.arena = template.arena;
+		this.activationFunction = template.activationFunction;
+		this.numNeurons = template.numNeurons;
+		this.previous = previous;
+		if (previous != null) {
+			weights = parameters.viewAsMatrix(start, numNeurons, previous.getNumNeurons());
+			biases = parameters.view(start + numNeurons * previous.getNumNeurons(), numNeurons);
+			attachGradients(gradients, start);
+			weightedInput = Vector.zerosLike(biases);
+			activationBuffer = Vector.zerosLike(biases);
+			activationDerivative = Vector.zerosLike(biases);
+			error = Vector.zerosLike(biases);
+		}
+	}
+	
+	/**
+	 * Return the number of weights and biases of a layer of numNeurons
+	 * neurons fed by a layer of numInputs neurons
+	 * @param numNeurons
+	 * @param numInputs
+	 * @return
+	 */
+	static int getNumParameters(int numNeurons, int numInputs)
+	{
+		return numNeurons * numInputs + numNeurons;
+	}
+	
+	private void attachGradients(Vector gradients, int start)
+	{
+		weightGradientSum = gradients.viewAsMatrix(start, numNeurons, previous.getNumNeurons());
+		biasGradientSum = gradients.view(start + numNeurons * previous.getNumNeurons(), numNeurons);
+	}
+	
+	private Vector allocateVector(int size)
+	{
+		return arena == null ? new Vector(size, precision) : arena.allocateVector(size);
+	}
+	
 	public int getNumNeurons() 
 	{
 		return numNeurons;
 	}
+	
+	public Precision getPrecision()
+	{
+		return precision;
+	}
+	
+	/**
+	 * Return the arena the layer's storage was allocated from,
+	 * or null if it is on the heap
+	 * @return
+	 */
+	public OffHeapArena getArena()
+	{
+		return arena;
+	}
+
+	/**
+	 * Return the backend the layer computes its products with
+	 * @return
+	 */
+	public LinearAlgebraBackend getBackend()
+	{
+		return backend;
+	}
 
 	public Vector getWeightedInput() 
 	{
@@ -54,7 +236,28 @@ public class Layer
 		if (weights.getNumCols() != input.getSize()) {
 			throw new NetworkException(String.format("Layer expects %d inputs, got %d", weights.getNumCols(), input.getSize()));
 		}
-		weightedInput = Vector.add(Matrix.multiply(weights, input), biases);
+		backend.gemv(1.0, weights, input, 1.0, weightedInput.copyFrom(biases));
+	}
+	
+	/**
+	 * Apply the activation function to the current weighted input.
+	 * The result is written into a buffer owned by this layer and
+	 * is overwritten by the next evaluation
+	 */
+	public void activate()
+	{
+		activation = activationFunction.evaluateInto(weightedInput, activationBuffer);
+	}
+	
+	/**
+	 * Return the first derivative of the activation function at the
+	 * current weighted input. The returned vector is owned by this layer
+	 * and is overwritten by the next call
+	 * @return
+	 */
+	public Vector getActivationDerivative()
+	{
+		return activationFunction.firstDerivativeInto(weightedInput, activationDerivative);
 	}
 
 	public Matrix getWeights() 
@@ -62,13 +265,26 @@ public class Layer
 		return weights;
 	}
 	
+	/**
+	 * Copy weights into the layer's weight matrix, which stays a view of
+	 * the network's parameter buffer
+	 * @param weights
+	 * @throws NetworkException
+	 */
 	public void setWeights(Matrix weights) throws NetworkException
 	{
+		if (previous == null) {
+			throw new NetworkException("An input layer has no weights");
+		}
 		if (weights.getNumRows() != getNumNeurons()) {
 			throw new NetworkException(String.format("Attempt to set Layer weight matrix with %d rows inconsistent with number of neurons %d in the layer",
 					weights.getNumRows(), getNumNeurons()));
 		}
-		this.weights = weights;
+		if (weights.getNumCols() != this.weights.getNumCols()) {
+			throw new NetworkException(String.format("Attempt to set Layer weight matrix with %d columns inconsistent with %d inputs to the layer",
+					weights.getNumCols(), this.weights.getNumCols()));
+		}
+		this.weights.copyFrom(weights);
 	}
 	
 	public Vector getBiases()
@@ -76,13 +292,42 @@ public class Layer
 		return biases;
 	}
 	
+	/**
+	 * Copy biases into the layer's bias vector, which stays a view of
+	 * the network's parameter buffer
+	 * @param biases
+	 * @throws NetworkException
+	 */
 	public void setBiases(Vector biases) throws NetworkException
 	{
+		if (previous == null) {
+			throw new NetworkException("An input layer has no biases");
+		}
 		if (biases.getSize() != getNumNeurons()) {
 			throw new NetworkException(String.format("Attempt to set Layer bias vector of size %d inconsistent with number of neurons %d in the layer",
 					weights.getNumRows(), getNumNeurons()));
 		}
-		this.biases = biases;
+		this.biases.copyFrom(biases);
+	}
+
+	/**
+	 * Return the sum of the weight gradients over the current mini-batch,
+	 * a view of the network's gradient buffer
+	 * @return
+	 */
+	public Matrix getWeightGradientSum()
+	{
+		return weightGradientSum;
+	}
+
+	/**
+	 * Return the sum of the bias gradients over the current mini-batch,
+	 * a view of the network's gradient buffer
+	 * @return
+	 */
+	public Vector getBiasGradientSum()
+	{
+		return biasGradientSum;
 	}
 
 	public Vector getBiasGradient() 
@@ -90,9 +335,16 @@ public class Layer
 		return error;
 	}
 
+	/**
+	 * Return the gradient of the cost with respect to the weights, the outer
+	 * product of the error and the previous layer's activation. When that
+	 * activation is a SparseVector only the matching columns are computed
+	 * @return
+	 */
 	public Matrix getWeightGradient() 
 	{
-		return Vector.dyadicProduct(error, previous.getActivation());
+		Matrix weightGradient = Matrix.zerosLike(weights);
+		return backend.ger(1.0, error, previous.getActivation(), weightGradient);
 	}
 
 	public Vector getActivation() 
@@ -104,6 +356,230 @@ public class Layer
 	{
 		this.activation = activation;
 	}
+	
+	/**
+	 * Set the activation of an input layer from a data instance's inputs.
+	 * Inputs stored with a different precision to the layer are converted
+	 * into a buffer owned by the layer, so that the kernels of the next
+	 * layer always see a single precision. Likewise inputs are copied
+	 * off-heap for a layer allocated from an OffHeapArena. Sparse inputs of the layer's
+	 * precision are used as they are, so that the next layer reads only
+	 * the weights matching their non-zero elements
+	 * @param inputs
+	 */
+	public void setInputs(Vector inputs)
+	{
+		if (inputs.getPrecision() == precision && inputs.isOffHeap() == (arena != null)) {
+			activation = inputs;
+			return;
+		}
+		if (activationBuffer == null || activationBuffer.getSize() != inputs.getSize()) {
+			activationBuffer = arena == null ? new Vector(inputs.getSize(), precision) : arena.allocateVector(inputs.getSize());
+		}
+		activation = activationBuffer.copyFrom(inputs);
+	}
+
+	/**
+	 * Set the activation of an input layer from the inputs of a mini-batch,
+	 * one data instance per row of a (batch x neurons) matrix owned by the
+	 * layer. Sparse inputs are expanded, as the batch matrix is dense
+	 * @param inputs
+	 */
+	public void setInputsBatch(List<Vector> inputs)
+	{
+		selectBatch(inputs.size());
+		batch.activation = batch.activationBuffer;
+		for (int i = 0; i < inputs.size(); ++i) {
+			batch.activation.copyRowFrom(i, inputs.get(i));
+		}
+	}
+	
+	/**
+	 * Set the activation of an input layer from the inputs of a mini-batch
+	 * already packed into a (batch x neurons) matrix. As with setInputs, a
+	 * matrix of the layer's precision and storage is used as it is, and
+	 * anything else is copied into a matrix owned by the layer
+	 * @param inputs
+	 */
+	public void setInputsBatch(Matrix inputs)
+	{
+		selectBatch(inputs.getNumRows());
+		if (inputs.getPrecision() == precision && inputs.isOffHeap() == (arena != null)) {
+			batch.activation = inputs;
+		} else {
+			batch.activation = batch.activationBuffer.copyFrom(inputs);
+		}
+	}
+	
+	/**
+	 * Batched version of setWeightedInput. Each row of inputs is the
+	 * previous layer's activation for one data instance, and the
+	 * weighted inputs of the whole batch are computed as one matrix product
+	 * @param inputs (batch x previous neurons) matrix
+	 * @throws NetworkException
+	 */
+	public void setWeightedInputBatch(Matrix inputs) throws NetworkException
+	{
+		if (weights.getNumCols() != inputs.getNumCols()) {
+			throw new NetworkException(String.format("Layer expects %d inputs, got %d", weights.getNumCols(), inputs.getNumCols()));
+		}
+		selectBatch(inputs.getNumRows());
+		for (int i = 0; i < inputs.getNumRows(); ++i) {
+			batch.weightedInput.copyRowFrom(i, biases);
+		}
+		backend.gemm(1.0, inputs, false, weights, true, 1.0, batch.weightedInput);
+	}
+	
+	/**
+	 * Batched version of activate
+	 */
+	public void activateBatch()
+	{
+		activationFunction.evaluateInto(batch.weightedInput, batch.activation);
+	}
+	
+	/**
+	 * Batched version of getActivationDerivative. The returned matrix is
+	 * owned by this layer and is overwritten by the next call
+	 * @return
+	 */
+	public Matrix getActivationDerivativeBatch()
+	{
+		return activationFunction.firstDerivativeInto(batch.weightedInput, batch.activationDerivative);
+	}
+	
+	/**
+	 * Return the (batch x neurons) weighted inputs of the last batch
+	 * @return
+	 */
+	public Matrix getWeightedInputBatch()
+	{
+		return batch.weightedInput;
+	}
+	
+	/**
+	 * Return the (batch x neurons) activations of the last batch. The
+	 * matrix is owned by this layer and is overwritten by the next batch
+	 * @return
+	 */
+	public Matrix getActivationBatch()
+	{
+		return batch.activation;
+	}
+	
+	/**
+	 * Return the (batch x neurons) errors of the last batch, to be
+	 * filled in by back-propagation
+	 * @return
+	 */
+	public Matrix getErrorBatch()
+	{
+		return batch.error;
+	}
+	
+	/**
+	 * Prepare an input layer for a batch of batchSize instances and return
+	 * its (batch x neurons) activation matrix, owned by the layer, for the
+	 * batch's inputs to be packed into in place
+	 * @param batchSize
+	 * @return
+	 */
+	public Matrix getInputsBatch(int batchSize)
+	{
+		selectBatch(batchSize);
+		batch.activation = batch.activationBuffer;
+		return batch.activation;
+	}
+	
+	/**
+	 * Return a (batch x neurons) matrix owned by an output layer into which
+	 * the expected outputs of a batch of batchSize instances are packed. It
+	 * is allocated on first use and overwritten by each batch of that size
+	 * @param batchSize
+	 * @return
+	 */
+	public Matrix getExpectedOutputsBatch(int batchSize)
+	{
+		selectBatch(batchSize);
+		if (batch.expectedOutputs == null) {
+			batch.expectedOutputs = allocateBatchMatrix(batch.size);
+		}
+		return batch.expectedOutputs;
+	}
+	
+	/**
+	 * Add the weight gradient summed over the last batch to sum, as the
+	 * single product of the transposed errors and the previous layer's
+	 * activations
+	 * @param sum
+	 * @return sum
+	 */
+	public Matrix addWeightGradientBatch(Matrix sum)
+	{
+		return backend.gemm(1.0, batch.error, true, previous.getActivationBatch(), false, 1.0, sum);
+	}
+	
+	/**
+	 * Add the bias gradient summed over the last batch to sum
+	 * @param sum
+	 * @return sum
+	 */
+	public Vector addBiasGradientBatch(Vector sum)
+	{
+		return backend.gemvTransposed(1.0, batch.error, batch.ones, 1.0, sum);
+	}
+	
+	private void selectBatch(int batchSize)
+	{
+		if (batch != null && batch.size == batchSize) {
+			return;
+		}
+		batch = batches.get(batchSize);
+		if (batch == null) {
+			batch = new Batch(batchSize);
+			batches.put(batchSize, batch);
+		}
+	}
+	
+	private Matrix allocateBatchMatrix(int batchSize)
+	{
+		return arena == null ? new Matrix(batchSize, numNeurons, precision) : arena.allocateMatrix(batchSize, numNeurons);
+	}
+	
+	/**
+	 * The buffers for one batch size. An input layer needs only the activations
+	 */
+	private class Batch {
+		
+		final int size;
+		final Matrix weightedInput;
+		final Matrix activationBuffer;
+		// the activation buffer, or for an input layer possibly inputs packed elsewhere
+		Matrix activation;
+		final Matrix activationDerivative;
+		final Matrix error;
+		final Vector ones;
+		// only for an output layer, allocated on first use
+		Matrix expectedOutputs;
+		
+		Batch(int size)
+		{
+			this.size = size;
+			activationBuffer = allocateBatchMatrix(size);
+			activation = activationBuffer;
+			if (previous != null) {
+				weightedInput = allocateBatchMatrix(size);
+				activationDerivative = allocateBatchMatrix(size);
+				error = allocateBatchMatrix(size);
+				ones = (arena == null ? new Vector(size, precision) : arena.allocateVector(size)).fill(1.0);
+			} else {
+				weightedInput = null;
+				activationDerivative = null;
+				error = null;
+				ones = null;
+			}
+		}
+	}
 
 	public Layer getPrevious() 
 	{
@@ -0,0 +1,172 @@
+package jnet.net;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Service interface for the linear algebra kernels used by the network
+ * The Naive, Blocked and Parallel backends are built in. Further
+ * implementations are discovered with ServiceLoader, so a backend can be
+ * added by listing it in META-INF/services/jnet.net.LinearAlgebraBackend
+ * on the classpath. The network picks its backend at construction time;
+ * the system property jnet.backend names the default
+ * @author nigelgray
+ *
+ */
+public interface LinearAlgebraBackend {
+	
+	final static Map<String, LinearAlgebraBackend> backends = new HashMap<>();
+	
+	/**
+	 * Name of the backend used when jnet.backend is not set
+	 */
+	final static String DEFAULT_BACKEND = "Parallel";
+	
+	/**
+	 * Factory method for linear algebra backends
+	 * @param backendType
+	 * @return
+	 * @throws NetworkException
+	 */
+	public static LinearAlgebraBackend create(String backendType) throws NetworkException
+	{
+		synchronized (backends) {
+			if (backends.isEmpty()) {
+				loadBackends();
+			}
+			if (!backends.containsKey(backendType)) {
+				throw new NetworkException("Unknown linear algebra backend " + backendType);
+			}
+			return backends.get(backendType);
+		}
+	}
+	
+	/**
+	 * Get a read-only view of the available backend names
+	 * @return
+	 */
+	public static Set<String> getBackendTypes()
+	{
+		synchronized (backends) {
+			if (backends.isEmpty()) {
+				loadBackends();
+			}
+			return Collections.unmodifiableSet(backends.keySet());
+		}
+	}
+	
+	/**
+	 * Return the backend named by the jnet.backend system property,
+	 * or the parallel backend if the property is unset or unknown.
+	 * Products below its threshold still run on the calling thread
+	 * @return
+	 */
+	public static LinearAlgebraBackend getDefault()
+	{
+		String backendType = System.getProperty("jnet.backend", DEFAULT_BACKEND);
+		try {
+			return create(backendType);
+		} catch (NetworkException e) {
+			Logger.getGlobal().log(Level.WARNING, e.getMessage() + ", using " + DEFAULT_BACKEND);
+			return backends.get(DEFAULT_BACKEND);
+		}
+	}
+	
+	/**
+	 * Register the built-in backends followed by any found by ServiceLoader.
+	 * A discovered backend cannot replace a built-in one of the same name.
+	 * Callers must hold the lock on backends
+	 */
+	static void loadBackends()
+	{
+		backends.put("Naive", new NaiveBackend());
+		backends.put("Blocked", new BlockedBackend());
+		backends.put("Parallel", new ParallelBackend());
+		for (LinearAlgebraBackend backend : ServiceLoader.load(LinearAlgebraBackend.class)) {
+			backends.putIfAbsent(backend.getName(), backend);
+		}
+	}
+	
+	/**
+	 * The name this backend is registered under
+	 * @return
+	 */
+	public String getName();
+	
+	/**
+	 * Return the dot product of x and y
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public double dot(Vector x, Vector y);
+	
+	/**
+	 * Compute y = alpha * x + y in place
+	 * @param alpha
+	 * @param x
+	 * @param y
+	 * @return y
+	 */
+	public Vector axpy(double alpha, Vector x, Vector y);
+	
+	/**
+	 * Compute Y = alpha * X + Y in place
+	 * @param alpha
+	 * @param X
+	 * @param Y
+	 * @return Y
+	 */
+	public Matrix axpy(double alpha, Matrix X, Matrix Y);
+	
+	/**
+	 * Compute y = alpha * M.x + beta * y in place
+	 * @param alpha
+	 * @param M
+	 * @param x
+	 * @param beta
+	 * @param y
+	 * @return y
+	 */
+	public Vector gemv(double alpha, Matrix M, Vector x, double beta, Vector y);
+	
+	/**
+	 * Compute y = alpha * transpose(M).x + beta * y in place
+	 * @param alpha
+	 * @param M
+	 * @param x
+	 * @param beta
+	 * @param y
+	 * @return y
+	 */
+	public Vector gemvTransposed(double alpha, Matrix M, Vector x, double beta, Vector y);
+	
+	/**
+	 * Rank-1 update A = A + alpha * x.transpose(y) in place
+	 * @param alpha
+	 * @param x
+	 * @param y
+	 * @param A
+	 * @return A
+	 */
+	public Matrix ger(double alpha, Vector x, Vector y, Matrix A);
+	
+	/**
+	 * Compute C = alpha * op(A).op(B) + beta * C in place, where op(X)
+	 * is X or transpose(X) according to the matching flag
+	 * @param alpha
+	 * @param A
+	 * @param transposeA
+	 * @param B
+	 * @param transposeB
+	 * @param beta
+	 * @param C
+	 * @return C
+	 */
+	public Matrix gemm(double alpha, Matrix A, boolean transposeA, Matrix B, boolean transposeB, double beta, Matrix C);
+}
@@ -1,5 +1,6 @@
 package jnet.net;
 
+import java.nio.DoubleBuffer;
 import java.util.Random;
 
 /**
@@ -15,7 +16,7 @@ public class Matrix {
 	 * The elements of the matrix
 	 * Rows are offset by numCols
 	 */
-	private final double[] elements;
+	private final Storage elements;
 	
 	/**
 	 * The number of rows in the matrix
@@ -27,6 +28,13 @@ public class Matrix {
 	 */
 	private final int numCols;
 	
+	/**
+	 * Operands of differing precision, or a mix of heap and off-heap
+	 * storage, fall back to the accessor loops
+	 * of the reference backend
+	 */
+	private static final LinearAlgebraBackend MIXED_PRECISION = new NaiveBackend();
+	
 	/**
 	 * Return a new Matrix element which is the sum of
 	 * the two matrix parameters lhs and rhs. The supplied
@@ -40,7 +48,7 @@ public class Matrix {
 	{
 		assert (lhs.getNumRows() == rhs.getNumRows());
 		assert (lhs.getNumCols() == rhs.getNumCols());
-		Matrix result = new Matrix(lhs.getNumRows(), lhs.getNumCols());
+		Matrix result = new Matrix(lhs.getNumRows(), lhs.getNumCols(), lhs.getPrecision());
 		for (int i = 0; i < lhs.getNumRows(); ++i) {
 			for (int j = 0; j < lhs.getNumCols(); ++j) {
 				result.setElement(i, j, lhs.getElement(i, j) + rhs.getElement(i, j));
@@ -57,7 +65,7 @@ public class Matrix {
 	 */
 	public static Matrix multiply(double scalar, Matrix M)
 	{
-		Matrix result = new Matrix(M.getNumRows(), M.getNumCols());
+		Matrix result = new Matrix(M.getNumRows(), M.getNumCols(), M.getPrecision());
 		for (int i = 0; i < M.getNumRows(); ++i) {
 			for (int j = 0; j < M.getNumCols(); ++j) {
 				result.setElement(i, j, M.getElement(i, j) * scalar);
@@ -68,7 +76,8 @@ public class Matrix {
 	
 	/**
 	 * Multiply the vector V by the Matrix M. M must have the
-	 * same number of cols as dimension of V.
+	 * same number of cols as dimension of V. If V is a SparseVector
+	 * only the columns of M matching its non-zero elements are read
 	 * @param M
 	 * @param v
 	 * @return Vector which is the product of M and V
@@ -77,16 +86,501 @@ public class Matrix {
 	{
 		assert (M.getNumCols() == v.getSize());
 		
-		Vector result = new Vector(M.getNumRows());
-		for (int i = 0; i < M.getNumRows(); ++i) {		
-			double sum = 0;
-			for (int j = 0; j < M.getNumCols(); ++j) {
-				sum = sum + M.getElement(i, j) * v.getElement(j);
-			}
-			result.setElement(i, sum);				
+		return multiplyInto(M, v, new Vector(M.getNumRows(), M.getPrecision()));
+	}
+	
+	/**
+	 * Multiply the vector v by the Matrix M, writing the product
+	 * into result rather than allocating a new Vector.
+	 * result must not be v
+	 * @param M
+	 * @param v
+	 * @param result
+	 * @return result
+	 */
+	public static Vector multiplyInto(Matrix M, Vector v, Vector result)
+	{
+		return gemv(1.0, M, v, 0.0, result);
+	}
+	
+	/**
+	 * Compute y = alpha * M.x + beta * y in place.
+	 * When beta is zero y is overwritten without being read.
+	 * x and y must be distinct vectors
+	 * @param alpha
+	 * @param M
+	 * @param x
+	 * @param beta
+	 * @param y
+	 * @return y
+	 */
+	public static Vector gemv(double alpha, Matrix M, Vector x, double beta, Vector y)
+	{
+		assert (M.getNumCols() == x.getSize());
+		assert (M.getNumRows() == y.getSize());
+		
+		if (!gemvRows(alpha, M, x, beta, y, 0, M.getNumRows())) {
+			return MIXED_PRECISION.gemv(alpha, M, x, beta, y);
+		}
+		return y;
+	}
+	
+	/**
+	 * Compute rows [rowStart, rowEnd) of y = alpha * M.x + beta * y with
+	 * the array kernels. Disjoint row ranges write disjoint elements of y,
+	 * so they may be computed concurrently
+	 * @param alpha
+	 * @param M
+	 * @param x
+	 * @param beta
+	 * @param y
+	 * @param rowStart
+	 * @param rowEnd
+	 * @return false, having written nothing, if the operands differ in precision
+	 * or are a mix of heap and off-heap storage
+	 */
+	static boolean gemvRows(double alpha, Matrix M, Vector x, double beta, Vector y, int rowStart, int rowEnd)
+	{
+		SparseStorage sparse = Storage.sparse(x.getStorage());
+		if (sparse != null) {
+			return gemvSparseRows(alpha, M, sparse, beta, y, rowStart, rowEnd);
+		}
+		int mOffset = Storage.offset(M.elements);
+		int xOffset = Storage.offset(x.getStorage());
+		int yOffset = Storage.offset(y.getStorage());
+		double[] m = Storage.doubles(M.elements);
+		double[] xs = Storage.doubles(x.getStorage());
+		double[] ys = Storage.doubles(y.getStorage());
+		if (m != null && xs != null && ys != null) {
+			Kernels.gemv(alpha, m, mOffset, rowStart, rowEnd, M.getNumCols(), xs, xOffset, beta, ys, yOffset);
+			return true;
+		}
+		float[] mf = Storage.floats(M.elements);
+		float[] xf = Storage.floats(x.getStorage());
+		float[] yf = Storage.floats(y.getStorage());
+		if (mf != null && xf != null && yf != null) {
+			Kernels.gemv((float)alpha, mf, mOffset, rowStart, rowEnd, M.getNumCols(), xf, xOffset, (float)beta, yf, yOffset);
+			return true;
+		}
+		DoubleBuffer mb = Storage.buffer(M.elements);
+		DoubleBuffer xb = Storage.buffer(x.getStorage());
+		DoubleBuffer yb = Storage.buffer(y.getStorage());
+		if (mb != null && xb != null && yb != null) {
+			BufferKernels.gemv(alpha, mb, 0, rowStart, rowEnd, M.getNumCols(), xb, beta, yb);
+			return true;
 		}
+		return false;
+	}
+	
+	/**
+	 * gemvRows for a sparse x, reading only the columns of M which
+	 * match a non-zero element of x
+	 */
+	private static boolean gemvSparseRows(double alpha, Matrix M, SparseStorage x, double beta, Vector y, int rowStart, int rowEnd)
+	{
+		int mOffset = Storage.offset(M.elements);
+		int yOffset = Storage.offset(y.getStorage());
+		double[] m = Storage.doubles(M.elements);
+		double[] xs = Storage.doubles(x.values);
+		double[] ys = Storage.doubles(y.getStorage());
+		if (m != null && xs != null && ys != null) {
+			Kernels.gemvSparse(alpha, m, mOffset, M.getNumCols(), x.indices, xs, beta, ys, yOffset, rowStart, rowEnd);
+			return true;
+		}
+		float[] mf = Storage.floats(M.elements);
+		float[] xf = Storage.floats(x.values);
+		float[] yf = Storage.floats(y.getStorage());
+		if (mf != null && xf != null && yf != null) {
+			Kernels.gemvSparse((float)alpha, mf, mOffset, M.getNumCols(), x.indices, xf, (float)beta, yf, yOffset, rowStart, rowEnd);
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Multiply the vector v by the transpose of M without materialising
+	 * the transpose. M must have the same number of rows as the dimension of v
+	 * @param M
+	 * @param v
+	 * @return Vector which is the product of transpose(M) and v
+	 */
+	public static Vector multiplyTransposed(Matrix M, Vector v)
+	{
+		assert (M.getNumRows() == v.getSize());
 		
-		return result;
+		return multiplyTransposedInto(M, v, new Vector(M.getNumCols(), M.getPrecision()));
+	}
+	
+	/**
+	 * Multiply the vector v by the transpose of M, writing the product
+	 * into result. result must not be v
+	 * @param M
+	 * @param v
+	 * @param result
+	 * @return result
+	 */
+	public static Vector multiplyTransposedInto(Matrix M, Vector v, Vector result)
+	{
+		return gemvTransposed(1.0, M, v, 0.0, result);
+	}
+	
+	/**
+	 * Compute y = alpha * transpose(M).x + beta * y in place.
+	 * M is walked row by row in storage order, each row scaled by the
+	 * matching element of x and accumulated into y, so no transposed
+	 * copy is needed. x and y must be distinct vectors
+	 * @param alpha
+	 * @param M
+	 * @param x
+	 * @param beta
+	 * @param y
+	 * @return y
+	 */
+	public static Vector gemvTransposed(double alpha, Matrix M, Vector x, double beta, Vector y)
+	{
+		assert (M.getNumRows() == x.getSize());
+		assert (M.getNumCols() == y.getSize());
+		
+		if (beta == 0.0) {
+			y.fill(0.0);
+		} else if (beta != 1.0) {
+			y.scaleInPlace(beta);
+		}
+		if (!gemvTransposedColumns(alpha, M, x, y, 0, M.getNumCols())) {
+			return MIXED_PRECISION.gemvTransposed(alpha, M, x, 1.0, y);
+		}
+		return y;
+	}
+	
+	/**
+	 * Accumulate columns [colStart, colEnd) of y += alpha * transpose(M).x
+	 * with the array kernels. Disjoint column ranges write disjoint elements
+	 * of y, so they may be computed concurrently
+	 * @param alpha
+	 * @param M
+	 * @param x
+	 * @param y
+	 * @param colStart
+	 * @param colEnd
+	 * @return false, having written nothing, if the operands differ in precision
+	 * or are a mix of heap and off-heap storage
+	 */
+	static boolean gemvTransposedColumns(double alpha, Matrix M, Vector x, Vector y, int colStart, int colEnd)
+	{
+		int mOffset = Storage.offset(M.elements);
+		int xOffset = Storage.offset(x.getStorage());
+		int yOffset = Storage.offset(y.getStorage());
+		double[] m = Storage.doubles(M.elements);
+		double[] xs = Storage.doubles(x.getStorage());
+		double[] ys = Storage.doubles(y.getStorage());
+		if (m != null && xs != null && ys != null) {
+			Kernels.gemvTransposed(alpha, m, mOffset, M.getNumRows(), M.getNumCols(), xs, xOffset, ys, yOffset, colStart, colEnd);
+			return true;
+		}
+		float[] mf = Storage.floats(M.elements);
+		float[] xf = Storage.floats(x.getStorage());
+		float[] yf = Storage.floats(y.getStorage());
+		if (mf != null && xf != null && yf != null) {
+			Kernels.gemvTransposed((float)alpha, mf, mOffset, M.getNumRows(), M.getNumCols(), xf, xOffset, yf, yOffset, colStart, colEnd);
+			return true;
+		}
+		DoubleBuffer mb = Storage.buffer(M.elements);
+		DoubleBuffer xb = Storage.buffer(x.getStorage());
+		DoubleBuffer yb = Storage.buffer(y.getStorage());
+		if (mb != null && xb != null && yb != null) {
+			BufferKernels.gemvTransposed(alpha, mb, 0, M.getNumRows(), M.getNumCols(), xb, yb, colStart, colEnd);
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Rank-1 update A = A + alpha * x.transpose(y) in place.
+	 * This accumulates a dyadic product without allocating it
+	 * @param alpha
+	 * @param x
+	 * @param y
+	 * @param A
+	 * @return A
+	 */
+	public static Matrix ger(double alpha, Vector x, Vector y, Matrix A)
+	{
+		assert (A.getNumRows() == x.getSize());
+		assert (A.getNumCols() == y.getSize());
+		
+		if (!gerRows(alpha, x, y, A, 0, A.getNumRows())) {
+			return MIXED_PRECISION.ger(alpha, x, y, A);
+		}
+		return A;
+	}
+	
+	/**
+	 * Apply rows [rowStart, rowEnd) of the rank-1 update
+	 * A = A + alpha * x.transpose(y) with the array kernels.
+	 * Disjoint row ranges may be computed concurrently
+	 * @param alpha
+	 * @param x
+	 * @param y
+	 * @param A
+	 * @param rowStart
+	 * @param rowEnd
+	 * @return false, having written nothing, if the operands differ in precision
+	 * or are a mix of heap and off-heap storage
+	 */
+	static boolean gerRows(double alpha, Vector x, Vector y, Matrix A, int rowStart, int rowEnd)
+	{
+		SparseStorage sparse = Storage.sparse(y.getStorage());
+		if (sparse != null) {
+			return gerSparseRows(alpha, x, sparse, A, rowStart, rowEnd);
+		}
+		int aOffset = Storage.offset(A.elements);
+		int xOffset = Storage.offset(x.getStorage());
+		int yOffset = Storage.offset(y.getStorage());
+		double[] a = Storage.doubles(A.elements);
+		double[] xs = Storage.doubles(x.getStorage());
+		double[] ys = Storage.doubles(y.getStorage());
+		if (a != null && xs != null && ys != null) {
+			Kernels.ger(alpha, xs, xOffset, ys, yOffset, A.getNumCols(), a, aOffset, rowStart, rowEnd);
+			return true;
+		}
+		float[] af = Storage.floats(A.elements);
+		float[] xf = Storage.floats(x.getStorage());
+		float[] yf = Storage.floats(y.getStorage());
+		if (af != null && xf != null && yf != null) {
+			Kernels.ger((float)alpha, xf, xOffset, yf, yOffset, A.getNumCols(), af, aOffset, rowStart, rowEnd);
+			return true;
+		}
+		DoubleBuffer ab = Storage.buffer(A.elements);
+		DoubleBuffer xb = Storage.buffer(x.getStorage());
+		DoubleBuffer yb = Storage.buffer(y.getStorage());
+		if (ab != null && xb != null && yb != null) {
+			BufferKernels.ger(alpha, xb, yb, ab, 0, rowStart, rowEnd);
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * gerRows for a sparse y, writing only the columns of A which
+	 * match a non-zero element of y
+	 */
+	private static boolean gerSparseRows(double alpha, Vector x, SparseStorage y, Matrix A, int rowStart, int rowEnd)
+	{
+		int aOffset = Storage.offset(A.elements);
+		int xOffset = Storage.offset(x.getStorage());
+		double[] a = Storage.doubles(A.elements);
+		double[] xs = Storage.doubles(x.getStorage());
+		double[] ys = Storage.doubles(y.values);
+		if (a != null && xs != null && ys != null) {
+			Kernels.gerSparse(alpha, xs, xOffset, y.indices, ys, a, aOffset, A.getNumCols(), rowStart, rowEnd);
+			return true;
+		}
+		float[] af = Storage.floats(A.elements);
+		float[] xf = Storage.floats(x.getStorage());
+		float[] yf = Storage.floats(y.values);
+		if (af != null && xf != null && yf != null) {
+			Kernels.gerSparse((float)alpha, xf, xOffset, y.indices, yf, af, aOffset, A.getNumCols(), rowStart, rowEnd);
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Compute Y = alpha * X + Y in place.
+	 * X and Y must be the same size
+	 * @param alpha
+	 * @param X
+	 * @param Y
+	 * @return Y
+	 */
+	public static Matrix axpy(double alpha, Matrix X, Matrix Y)
+	{
+		assert (X.getNumRows() == Y.getNumRows());
+		assert (X.getNumCols() == Y.getNumCols());
+		
+		double[] xs = Storage.doubles(X.elements);
+		double[] ys = Storage.doubles(Y.elements);
+		if (xs != null && ys != null) {
+			Kernels.axpy(alpha, xs, Storage.offset(X.elements), ys, Storage.offset(Y.elements), Y.numRows * Y.numCols);
+			return Y;
+		}
+		float[] xf = Storage.floats(X.elements);
+		float[] yf = Storage.floats(Y.elements);
+		if (xf != null && yf != null) {
+			Kernels.axpy((float)alpha, xf, Storage.offset(X.elements), yf, Storage.offset(Y.elements), Y.numRows * Y.numCols);
+			return Y;
+		}
+		DoubleBuffer xb = Storage.buffer(X.elements);
+		DoubleBuffer yb = Storage.buffer(Y.elements);
+		if (xb != null && yb != null) {
+			BufferKernels.axpy(alpha, xb, 0, yb, 0, yb.capacity());
+			return Y;
+		}
+		return MIXED_PRECISION.axpy(alpha, X, Y);
+	}
+
+	/**
+	 * Return a new Matrix which is the product lhs.rhs
+	 * lhs must have the same number of columns as rhs has rows.
+	 * The product is computed in cache-sized blocks over the
+	 * underlying element arrays, so it is suitable for pushing
+	 * a whole mini-batch through a layer at once
+	 * @param lhs
+	 * @param rhs
+	 * @return the (lhs rows x rhs cols) product
+	 */
+	public static Matrix multiply(Matrix lhs, Matrix rhs)
+	{
+		assert (lhs.getNumCols() == rhs.getNumRows());
+
+		return gemm(1.0, lhs, false, rhs, false, 0.0, new Matrix(lhs.getNumRows(), rhs.getNumCols(), lhs.getPrecision()));
+	}
+
+	/**
+	 * Return a new Matrix which is the product transpose(lhs).rhs
+	 * without materialising the transpose of lhs.
+	 * lhs and rhs must have the same number of rows
+	 * @param lhs
+	 * @param rhs
+	 * @return the (lhs cols x rhs cols) product
+	 */
+	public static Matrix multiplyTransposedLeft(Matrix lhs, Matrix rhs)
+	{
+		assert (lhs.getNumRows() == rhs.getNumRows());
+
+		return gemm(1.0, lhs, true, rhs, false, 0.0, new Matrix(lhs.getNumCols(), rhs.getNumCols(), lhs.getPrecision()));
+	}
+
+	/**
+	 * Return a new Matrix which is the product lhs.transpose(rhs)
+	 * without materialising the transpose of rhs.
+	 * lhs and rhs must have the same number of columns
+	 * @param lhs
+	 * @param rhs
+	 * @return the (lhs rows x rhs rows) product
+	 */
+	public static Matrix multiplyTransposedRight(Matrix lhs, Matrix rhs)
+	{
+		assert (lhs.getNumCols() == rhs.getNumCols());
+
+		return gemm(1.0, lhs, false, rhs, true, 0.0, new Matrix(lhs.getNumRows(), rhs.getNumRows(), lhs.getPrecision()));
+	}
+	
+	/**
+	 * Compute C = alpha * op(A).op(B) + beta * C in place, where op(X) is
+	 * X or transpose(X) according to the matching flag. The transposes are
+	 * never materialised except in the (unused by the network) case where
+	 * both operands are transposed. C must be distinct from A and B
+	 * @param alpha
+	 * @param A
+	 * @param transposeA
+	 * @param B
+	 * @param transposeB
+	 * @param beta
+	 * @param C
+	 * @return C
+	 */
+	public static Matrix gemm(double alpha, Matrix A, boolean transposeA, Matrix B, boolean transposeB, double beta, Matrix C)
+	{
+		int m = transposeA ? A.getNumCols() : A.getNumRows();
+		int k = transposeA ? A.getNumRows() : A.getNumCols();
+		int n = transposeB ? B.getNumRows() : B.getNumCols();
+		assert (k == (transposeB ? B.getNumCols() : B.getNumRows()));
+		assert (C.getNumRows() == m && C.getNumCols() == n);
+		
+		if (beta == 0.0) {
+			C.fill(0.0);
+		} else if (beta != 1.0) {
+			C.scaleInPlace(beta);
+		}
+		
+		if (transposeA && transposeB) {
+			return gemm(alpha, transpose(A), false, transpose(B), false, 1.0, C);
+		}
+		if (!gemmRows(alpha, A, transposeA, B, transposeB, C, 0, m)) {
+			return MIXED_PRECISION.gemm(alpha, A, transposeA, B, transposeB, 1.0, C);
+		}
+		return C;
+	}
+	
+	/**
+	 * Accumulate rows [rowStart, rowEnd) of C += alpha * op(A).op(B) with
+	 * the blocked kernels. At most one of A and B may be transposed.
+	 * Disjoint row ranges write disjoint rows of C, so they may be
+	 * computed concurrently
+	 * @param alpha
+	 * @param A
+	 * @param transposeA
+	 * @param B
+	 * @param transposeB
+	 * @param C
+	 * @param rowStart
+	 * @param rowEnd
+	 * @return false, having written nothing, if the operands differ in precision
+	 * or are a mix of heap and off-heap storage
+	 */
+	static boolean gemmRows(double alpha, Matrix A, boolean transposeA, Matrix B, boolean transposeB, Matrix C, int rowStart, int rowEnd)
+	{
+		assert (!(transposeA && transposeB));
+		
+		int m = C.getNumRows();
+		int n = C.getNumCols();
+		int k = transposeA ? A.getNumRows() : A.getNumCols();
+		int aOffset = Storage.offset(A.elements);
+		int bOffset = Storage.offset(B.elements);
+		int cOffset = Storage.offset(C.elements);
+		double[] a = Storage.doubles(A.elements);
+		double[] b = Storage.doubles(B.elements);
+		double[] c = Storage.doubles(C.elements);
+		if (a != null && b != null && c != null) {
+			if (transposeA) {
+				Kernels.multiplyTransposedLeft(alpha, a, aOffset, b, bOffset, c, cOffset, m, n, k, rowStart, rowEnd);
+			} else if (transposeB) {
+				Kernels.multiplyTransposedRight(alpha, a, aOffset, b, bOffset, c, cOffset, m, n, k, rowStart, rowEnd);
+			} else {
+				Kernels.multiply(alpha, a, aOffset, b, bOffset, c, cOffset, m, n, k, rowStart, rowEnd);
+			}
+			return true;
+		}
+		float[] af = Storage.floats(A.elements);
+		float[] bf = Storage.floats(B.elements);
+		float[] cf = Storage.floats(C.elements);
+		if (af != null && bf != null && cf != null) {
+			if (transposeA) {
+				Kernels.multiplyTransposedLeft((float)alpha, af, aOffset, bf, bOffset, cf, cOffset, m, n, k, rowStart, rowEnd);
+			} else if (transposeB) {
+				Kernels.multiplyTransposedRight((float)alpha, af, aOffset, bf, bOffset, cf, cOffset, m, n, k, rowStart, rowEnd);
+			} else {
+				Kernels.multiply((float)alpha, af, aOffset, bf, bOffset, cf, cOffset, m, n, k, rowStart, rowEnd);
+			}
+			return true;
+		}
+		DoubleBuffer ab = Storage.buffer(A.elements);
+		DoubleBuffer bb = Storage.buffer(B.elements);
+		DoubleBuffer cb = Storage.buffer(C.elements);
+		if (ab != null && bb != null && cb != null) {
+			if (transposeA) {
+				BufferKernels.multiplyTransposedLeft(alpha, ab, bb, cb, m, n, k, rowStart, rowEnd);
+			} else if (transposeB) {
+				BufferKernels.multiplyTransposedRight(alpha, ab, bb, cb, m, n, k, rowStart, rowEnd);
+			} else {
+				BufferKernels.multiply(alpha, ab, bb, cb, m, n, k, rowStart, rowEnd);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Return a new zero Matrix with the shape and precision of template,
+	 * stored in the same place - off-heap matrices are allocated from
+	 * the same arena
+	 * @param template
+	 * @return
+	 */
+	public static Matrix zerosLike(Matrix template)
+	{
+		return new Matrix(template.numRows, template.numCols, template.elements.allocateLike(template.numRows * template.numCols));
 	}
 	
 	/**
@@ -96,7 +590,7 @@ public class Matrix {
 	 */
 	public static Matrix transpose(Matrix M) 
 	{
-		Matrix result = new Matrix(M.getNumCols(), M.getNumRows());
+		Matrix result = new Matrix(M.getNumCols(), M.getNumRows(), M.getPrecision());
 		for (int i = 0; i < M.getNumCols(); ++i) {
 			for (int j = 0; j < M.getNumRows(); ++j) {
 				result.setElement(i, j, M.getElement(j, i));
@@ -113,14 +607,19 @@ public class Matrix {
 	 */
 	public Matrix(int numRows, int numCols)
 	{
-		elements = new double[numRows * numCols];
-		this.numRows = numRows;
-		this.numCols = numCols;
-		for (int i = 0; i < numRows; ++i) {
-			for (int j = 0; j < numCols; ++j) {
-				elements[i * numCols + j] = 0.0;
-			}
-		}
+		this(numRows, numCols, Precision.DOUBLE);
+	}
+	
+	/**
+	 * Construct a numRows x numCols matrix whose
+	 * elements are all zero, stored with the given precision
+	 * @param numRows
+	 * @param numCols
+	 * @param precision
+	 */
+	public Matrix(int numRows, int numCols, Precision precision)
+	{
+		this(numRows, numCols, Storage.allocate(numRows * numCols, precision));
 	}
 	
 	/**
@@ -132,13 +631,23 @@ public class Matrix {
 	 */
 	public Matrix(int numRows, int numCols, Random random)
 	{
-		elements = new double[numRows * numCols];
-		this.numRows = numRows;
-		this.numCols = numCols;
-		for (int i = 0; i < numRows; ++i) {
-			for (int j = 0; j < numCols; ++j) {
-				elements[i * numCols + j] = random.nextGaussian();
-			}
+		this(numRows, numCols, random, Precision.DOUBLE);
+	}
+	
+	/**
+	 * Construct a numRows x numCols matrix whose elements
+	 * are randomly initialized with a Guassian distribution
+	 * and stored with the given precision
+	 * @param numRows
+	 * @param numCols
+	 * @param random
+	 * @param precision
+	 */
+	public Matrix(int numRows, int numCols, Random random, Precision precision)
+	{
+		this(numRows, numCols, precision);
+		for (int i = 0; i < numRows * numCols; ++i) {
+			elements.set(i, random.nextGaussian());
 		}
 	}
 	
@@ -149,18 +658,30 @@ public class Matrix {
 	 */
 	public Matrix(double[][] values) 
 	{
+		this(values.length, values.length > 0 ? values[0].length : 0);
 		assert (values.length > 0);
 		assert (values[0].length > 0);
-		numRows = values.length;
-		numCols = values[0].length;
-		elements = new double[numRows * numCols];
 		for (int i = 0; i < numRows; ++i) {
 			for (int j = 0; j < numCols; ++j) {
-				elements[i * numCols + j] = values[i][j];
+				elements.set(i * numCols + j, values[i][j]);
 			}
 		}
 	}
 	
+	/**
+	 * Construct a matrix over existing storage
+	 * @param numRows
+	 * @param numCols
+	 * @param elements
+	 */
+	Matrix(int numRows, int numCols, Storage elements)
+	{
+		assert (elements.size() == numRows * numCols);
+		this.numRows = numRows;
+		this.numCols = numCols;
+		this.elements = elements;
+	}
+	
 	@Override
 	public boolean equals(Object right) 
 	{
@@ -182,6 +703,24 @@ public class Matrix {
 		return true;
 	}
 	
+	/**
+	 * Get the precision the elements are stored with
+	 * @return
+	 */
+	public Precision getPrecision()
+	{
+		return elements.getPrecision();
+	}
+	
+	/**
+	 * Return true if the elements are stored outside the Java heap
+	 * @return
+	 */
+	public boolean isOffHeap()
+	{
+		return elements instanceof OffHeapStorage;
+	}
+	
 	/**
 	 * Get the number of rows
 	 * @return
@@ -208,7 +747,7 @@ public class Matrix {
 	 */
 	public double getElement(int row, int col)
 	{
-		return elements[row * getNumCols() + col];
+		return elements.get(row * getNumCols() + col);
 	}
 	
 	/**
@@ -219,7 +758,43 @@ public class Matrix {
 	 */
 	public void setElement(int row, int col, double value)
 	{
-		elements[row * getNumCols() + col] = value;
+		elements.set(row * getNumCols() + col, value);
+	}
+	
+	/**
+	 * Multiply this Matrix by the scalar in place
+	 * @param scalar
+	 * @return this
+	 */
+	public Matrix scaleInPlace(double scalar)
+	{
+		elements.scale(scalar);
+		return this;
+	}
+	
+	/**
+	 * Copy the elements of source into this Matrix.
+	 * Matrices must be the same size
+	 * @param source
+	 * @return this
+	 */
+	public Matrix copyFrom(Matrix source)
+	{
+		assert (this.getNumRows() == source.getNumRows());
+		assert (this.getNumCols() == source.getNumCols());
+		elements.copyFrom(source.elements);
+		return this;
+	}
+	
+	/**
+	 * Set every element of this Matrix to value
+	 * @param value
+	 * @return this
+	 */
+	public Matrix fill(double value)
+	{
+		elements.fill(value);
+		return this;
 	}
 	
 	/**
@@ -241,4 +816,116 @@ public class Matrix {
 		}
 		return this;
 	}
+
+	/**
+	 * Multiply this Matrix element by element by right, in place
+	 * Matrices must be the same size
+	 * @param right
+	 * @return this
+	 */
+	public Matrix schurInPlace(Matrix right)
+	{
+		assert (this.getNumRows() == right.getNumRows());
+		assert (this.getNumCols() == right.getNumCols());
+		int size = numRows * numCols;
+		double[] ds = Storage.doubles(elements);
+		double[] rs = Storage.doubles(right.elements);
+		if (ds != null && rs != null) {
+			int dOffset = Storage.offset(elements);
+			int rOffset = Storage.offset(right.elements);
+			for (int i = 0; i < size; ++i) {
+				ds[dOffset + i] *= rs[rOffset + i];
+			}
+			return this;
+		}
+		float[] df = Storage.floats(elements);
+		float[] rf = Storage.floats(right.elements);
+		if (df != null && rf != null) {
+			int dOffset = Storage.offset(elements);
+			int rOffset = Storage.offset(right.elements);
+			for (int i = 0; i < size; ++i) {
+				df[dOffset + i] *= rf[rOffset + i];
+			}
+			return this;
+		}
+		for (int i = 0; i < size; ++i) {
+			elements.set(i, elements.get(i) * right.elements.get(i));
+		}
+		return this;
+	}
+
+	/**
+	 * Copy the elements of source into the given row of this Matrix.
+	 * source must have as many elements as the Matrix has columns;
+	 * a SparseVector writes zeros everywhere but its non-zero elements
+	 * @param row
+	 * @param source
+	 * @return this
+	 */
+	public Matrix copyRowFrom(int row, Vector source)
+	{
+		assert (source.getSize() == numCols);
+		int offset = row * numCols;
+		SparseStorage sparse = Storage.sparse(source.getStorage());
+		if (sparse != null) {
+			for (int j = 0; j < numCols; ++j) {
+				elements.set(offset + j, 0.0);
+			}
+			for (int p = 0; p < sparse.numNonZeros(); ++p) {
+				elements.set(offset + sparse.indices[p], sparse.values.get(p));
+			}
+			return this;
+		}
+		return copyRowFrom(row, source, 0);
+	}
+
+	/**
+	 * Copy numCols elements of source, starting at start, into the given
+	 * row of this Matrix - for instance one row of a row-major block
+	 * @param row
+	 * @param source
+	 * @param start
+	 * @return this
+	 */
+	public Matrix copyRowFrom(int row, Vector source, int start)
+	{
+		assert (start >= 0 && start + numCols <= source.getSize());
+		int offset = row * numCols;
+		double[] ds = Storage.doubles(elements);
+		double[] ss = Storage.doubles(source.getStorage());
+		if (ds != null && ss != null) {
+			System.arraycopy(ss, Storage.offset(source.getStorage()) + start, ds, Storage.offset(elements) + offset, numCols);
+			return this;
+		}
+		float[] df = Storage.floats(elements);
+		float[] sf = Storage.floats(source.getStorage());
+		if (df != null && sf != null) {
+			System.arraycopy(sf, Storage.offset(source.getStorage()) + start, df, Storage.offset(elements) + offset, numCols);
+			return this;
+		}
+		for (int j = 0; j < numCols; ++j) {
+			elements.set(offset + j, source.getElement(start + j));
+		}
+		return this;
+	}
+
+	/**
+	 * Return a Vector of the elements of this Matrix in row-major order.
+	 * The Vector shares the Matrix's storage, so changes to either
+	 * are seen by both
+	 * @return
+	 */
+	public Vector asVector()
+	{
+		return new Vector(elements);
+	}
+
+	/**
+	 * Direct access to the backing storage for the kernels in this package
+	 * @return
+	 */
+	Storage getStorage()
+	{
+		return elements;
+	}
 }
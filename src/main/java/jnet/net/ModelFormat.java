@@ -0,0 +1,318 @@
+package jnet.net;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The binary file format of a trained FeedForwardNetwork. A header
+ * describing the layers is followed by the network's weights and biases
+ * as one raw block, in the order of its flat parameter buffer: each
+ * layer's weights row by row, then its biases. All values are
+ * little-endian:
+ * <pre>
+ * int     magic "JNET"
+ * int     format version
+ * int     precision - 0 for double, 1 for float
+ * int     number of layers
+ * int[]   the number of neurons in each layer
+ * for each layer after the input layer, its activation function type -
+ *   see ActivationFunction.create - as
+ *   short   length in bytes
+ *   byte[]  UTF-8 name
+ * ...     zero padding to a multiple of eight bytes
+ * double[] or float[] the weights and biases
+ * </pre>
+ * Models are loaded by memory-mapping the file, so loading is a bulk copy
+ * out of the page cache, or with map no copy at all
+ * @author nigelgray
+ *
+ */
+public final class ModelFormat {
+
+	// "JNET" in file order
+	private final static int MAGIC = 0x54454E4A;
+
+	private final static int VERSION = 1;
+
+	private final static int BLOCK_SIZE = 1 << 16;
+
+	private static Logger logger = Logger.getGlobal();
+
+	/**
+	 * The decoded header of a model file
+	 */
+	private static final class Header {
+		int[] layerSizes;
+		Precision precision;
+		ActivationFunction activationFunction;
+		int dataOffset;
+		int numParameters;
+	}
+
+	private ModelFormat()
+	{
+	}
+
+	/**
+	 * Write the network to file, replacing anything already there. The
+	 * model is written to a temporary file beside it and moved into place,
+	 * so readers, including JVMs that have mapped the old model, never see
+	 * a partly written one
+	 * @param network
+	 * @param file
+	 * @throws NetworkException if the file cannot be written, or the network's
+	 * activation function is not one ActivationFunction.create knows
+	 */
+	public static void save(FeedForwardNetwork network, Path file) throws NetworkException
+	{
+		int numLayers = network.getNumLayers();
+		if (numLayers < 2) {
+			throw new NetworkException("Cannot save a network without weights");
+		}
+		byte[][] names = new byte[numLayers][];
+		int headerSize = 4 * Integer.BYTES + numLayers * Integer.BYTES;
+		for (int i = 1; i < numLayers; ++i) {
+			names[i] = getActivationType(network.getLayer(i).getActivationFunction()).getBytes(StandardCharsets.UTF_8);
+			headerSize += Short.BYTES + names[i].length;
+		}
+		int dataOffset = align(headerSize);
+		ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(network.getPrecision().ordinal());
+		header.putInt(numLayers);
+		for (int i = 0; i < numLayers; ++i) {
+			header.putInt(network.getLayer(i).getNumNeurons());
+		}
+		for (int i = 1; i < numLayers; ++i) {
+			header.putShort((short)names[i].length);
+			header.put(names[i]);
+		}
+		header.rewind();
+
+		boolean isFloat = network.getPrecision() == Precision.FLOAT;
+		int elementSize = isFloat ? Float.BYTES : Double.BYTES;
+		Vector parameters = network.getParameters();
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				write(channel, header);
+				ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				for (int start = 0; start < parameters.getSize(); start += BLOCK_SIZE / elementSize) {
+					Vector part = parameters.view(start, Math.min(BLOCK_SIZE / elementSize, parameters.getSize() - start));
+					if (isFloat) {
+						part.copyTo(block.asFloatBuffer());
+					} else {
+						part.copyTo(block.asDoubleBuffer());
+					}
+					block.limit(part.getSize() * elementSize);
+					write(channel, block);
+					block.clear();
+				}
+			}
+			// another JVM may have the old model mapped, so it is replaced rather than truncated
+			try {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			throw new NetworkException(String.format("Cannot write model %s: %s", file, e.getMessage()));
+		}
+	}
+
+	/**
+	 * Load a network from file with the default backend
+	 * @param file
+	 * @return
+	 * @throws NetworkException if the file cannot be read or is not a model
+	 */
+	public static FeedForwardNetwork load(Path file) throws NetworkException
+	{
+		return load(file, LinearAlgebraBackend.getDefault());
+	}
+
+	/**
+	 * Load a network from file into heap storage of the precision it was
+	 * saved with. The file is mapped and its weights and biases copied out
+	 * in one bulk transfer
+	 * @param file
+	 * @param backend
+	 * @return
+	 * @throws NetworkException if the file cannot be read or is not a model
+	 */
+	public static FeedForwardNetwork load(Path file, LinearAlgebraBackend backend) throws NetworkException
+	{
+		ByteBuffer buffer = map(file);
+		Header header = readHeader(buffer, file);
+		Vector parameters = new Vector(header.numParameters, header.precision);
+		ByteBuffer data = data(buffer, header);
+		if (header.precision == Precision.FLOAT) {
+			data.asFloatBuffer().get(Storage.floats(parameters.getStorage()));
+		} else {
+			data.asDoubleBuffer().get(Storage.doubles(parameters.getStorage()));
+		}
+		logger.log(Level.INFO, String.format("Loaded %s precision model %s", header.precision, file));
+		return new FeedForwardNetwork(header.layerSizes, header.activationFunction, backend, header.precision, null, parameters);
+	}
+
+	/**
+	 * Map a network from file without copying its weights and biases.
+	 * The network's parameters are read directly from the mapped file, so
+	 * every JVM on the host mapping the same model shares one copy of it
+	 * in the page cache. The mapping is read-only: the network can be
+	 * evaluated but not trained - writing its weights or biases throws
+	 * ReadOnlyBufferException. Like other off-heap networks it holds
+	 * doubles; a single precision model, or any model on a big-endian
+	 * host, is copied into memory allocated from arena instead.
+	 * The mapping is released when arena is closed
+	 * @param file
+	 * @param backend
+	 * @param arena
+	 * @return
+	 * @throws NetworkException if the file cannot be read or is not a model
+	 */
+	public static FeedForwardNetwork map(Path file, LinearAlgebraBackend backend, OffHeapArena arena) throws NetworkException
+	{
+		MappedByteBuffer buffer = map(file);
+		Header header = readHeader(buffer, file);
+		Vector parameters;
+		if (header.precision == Precision.DOUBLE && ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+			parameters = arena.wrap(buffer, header.dataOffset, header.numParameters);
+			logger.log(Level.INFO, String.format("Mapped model %s", file));
+		} else {
+			parameters = arena.allocateVector(header.numParameters);
+			DoubleBuffer target = Storage.buffer(parameters.getStorage()).duplicate();
+			if (header.precision == Precision.FLOAT) {
+				FloatBuffer source = data(buffer, header).asFloatBuffer();
+				for (int i = 0; i < header.numParameters; ++i) {
+					target.put(i, source.get(i));
+				}
+			} else {
+				target.put(data(buffer, header).asDoubleBuffer());
+			}
+			logger.log(Level.INFO, String.format("Loaded %s precision model %s off-heap", header.precision, file));
+		}
+		return new FeedForwardNetwork(header.layerSizes, header.activationFunction, backend, Precision.DOUBLE, arena, parameters);
+	}
+
+	private static MappedByteBuffer map(Path file) throws NetworkException
+	{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new NetworkException(String.format("Model %s is too large to map", file));
+			}
+			// the mapping stays valid once the channel is closed
+			return channel.map(MapMode.READ_ONLY, 0, size);
+		} catch (IOException e) {
+			throw new NetworkException(String.format("Cannot read model %s: %s", file, e.getMessage()));
+		}
+	}
+
+	private static Header readHeader(ByteBuffer buffer, Path file) throws NetworkException
+	{
+		ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		Header header = new Header();
+		try {
+			if (in.getInt() != MAGIC) {
+				throw new NetworkException(String.format("%s is not a model", file));
+			}
+			int version = in.getInt();
+			if (version != VERSION) {
+				throw new NetworkException(String.format("Unsupported model version %d in %s", version, file));
+			}
+			int precision = in.getInt();
+			if (precision < 0 || precision >= Precision.values().length) {
+				throw new NetworkException(String.format("Unknown precision %d in %s", precision, file));
+			}
+			header.precision = Precision.values()[precision];
+			int numLayers = in.getInt();
+			if (numLayers < 2 || numLayers > in.remaining() / Integer.BYTES) {
+				throw new NetworkException(String.format("Invalid number of layers %d in %s", numLayers, file));
+			}
+			header.layerSizes = new int[numLayers];
+			for (int i = 0; i < numLayers; ++i) {
+				header.layerSizes[i] = in.getInt();
+				if (header.layerSizes[i] <= 0) {
+					throw new NetworkException(String.format("Invalid size %d of layer %d in %s", header.layerSizes[i], i, file));
+				}
+			}
+			String activationType = null;
+			for (int i = 1; i < numLayers; ++i) {
+				byte[] name = new byte[in.getShort() & 0xFFFF];
+				in.get(name);
+				String type = new String(name, StandardCharsets.UTF_8);
+				if (activationType != null && !activationType.equals(type)) {
+					throw new NetworkException(String.format("Layers of %s have different activation functions", file));
+				}
+				activationType = type;
+			}
+			header.activationFunction = ActivationFunction.create(activationType);
+		} catch (BufferUnderflowException e) {
+			throw new NetworkException(String.format("Model %s is truncated", file));
+		}
+		header.dataOffset = align(in.position());
+		long numParameters = 0;
+		for (int i = 1; i < header.layerSizes.length; ++i) {
+			numParameters += (long)header.layerSizes[i] * header.layerSizes[i-1] + header.layerSizes[i];
+		}
+		int elementSize = header.precision == Precision.FLOAT ? Float.BYTES : Double.BYTES;
+		if (header.dataOffset + numParameters * elementSize != buffer.capacity()) {
+			throw new NetworkException(String.format("Model %s has %d bytes of weights and biases, expected %d",
+					file, buffer.capacity() - header.dataOffset, numParameters * elementSize));
+		}
+		header.numParameters = (int)numParameters;
+		return header;
+	}
+
+	/**
+	 * Return a little-endian buffer over the weights and biases of a model
+	 */
+	private static ByteBuffer data(ByteBuffer buffer, Header header)
+	{
+		ByteBuffer data = buffer.duplicate();
+		data.position(header.dataOffset);
+		return data.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Return the type ActivationFunction.create makes the given function with
+	 */
+	private static String getActivationType(ActivationFunction activationFunction) throws NetworkException
+	{
+		for (String type : ActivationFunction.getFunctionTypes()) {
+			if (ActivationFunction.create(type).getClass() == activationFunction.getClass()) {
+				return type;
+			}
+		}
+		throw new NetworkException("Cannot save activation function " + activationFunction.getClass().getName());
+	}
+
+	private static int align(int offset)
+	{
+		return (offset + Double.BYTES - 1) / Double.BYTES * Double.BYTES;
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package jnet.net;
+
+/**
+ * Reference backend using plain element-by-element loops through
+ * the Matrix and Vector accessors. Slow, but simple enough to
+ * check the other backends against
+ * @author nigelgray
+ *
+ */
+public class NaiveBackend implements LinearAlgebraBackend {
+
+	@Override
+	public String getName()
+	{
+		return "Naive";
+	}
+
+	@Override
+	public double dot(Vector x, Vector y)
+	{
+		assert (x.getSize() == y.getSize());
+		double sum = 0.0;
+		for (int i = 0; i < x.getSize(); ++i) {
+			sum = sum + x.getElement(i) * y.getElement(i);
+		}
+		return sum;
+	}
+
+	@Override
+	public Vector axpy(double alpha, Vector x, Vector y)
+	{
+		assert (x.getSize() == y.getSize());
+		for (int i = 0; i < y.getSize(); ++i) {
+			y.setElement(i, y.getElement(i) + alpha * x.getElement(i));
+		}
+		return y;
+	}
+
+	@Override
+	public Matrix axpy(double alpha, Matrix X, Matrix Y)
+	{
+		assert (X.getNumRows() == Y.getNumRows());
+		assert (X.getNumCols() == Y.getNumCols());
+		for (int i = 0; i < Y.getNumRows(); ++i) {
+			for (int j = 0; j < Y.getNumCols(); ++j) {
+				Y.setElement(i, j, Y.getElement(i, j) + alpha * X.getElement(i, j));
+			}
+		}
+		return Y;
+	}
+
+	@Override
+	public Vector gemv(double alpha, Matrix M, Vector x, double beta, Vector y)
+	{
+		assert (M.getNumCols() == x.getSize());
+		assert (M.getNumRows() == y.getSize());
+		for (int i = 0; i < M.getNumRows(); ++i) {
+			double sum = 0.0;
+			for (int j = 0; j < M.getNumCols(); ++j) {
+				sum = sum + M.getElement(i, j) * x.getElement(j);
+			}
+			y.setElement(i, beta == 0.0 ? alpha * sum : alpha * sum + beta * y.getElement(i));
+		}
+		return y;
+	}
+
+	@Override
+	public Vector gemvTransposed(double alpha, Matrix M, Vector x, double beta, Vector y)
+	{
+		assert (M.getNumRows() == x.getSize());
+		assert (M.getNumCols() == y.getSize());
+		for (int j = 0; j < M.getNumCols(); ++j) {
+			double sum = 0.0;
+			for (int i = 0; i < M.getNumRows(); ++i) {
+				sum = sum + M.getElement(i, j) * x.getElement(i);
+			}
+			y.setElement(j, beta == 0.0 ? alpha * sum : alpha * sum + beta * y.getElement(j));
+		}
+		return y;
+	}
+
+	@Override
+	public Matrix ger(double alpha, Vector x, Vector y, Matrix A)
+	{
+		assert (A.getNumRows() == x.getSize());
+		assert (A.getNumCols() == y.getSize());
+		for (int i = 0; i < A.getNumRows(); ++i) {
+			for (int j = 0; j < A.getNumCols(); ++j) {
+				A.setElement(i, j, A.getElement(i, j) + alpha * x.getElement(i) * y.getElement(j));
+			}
+		}
+		return A;
+	}
+
+	@Override
+	public Matrix gemm(double alpha, Matrix A, boolean transposeA, Matrix B, boolean transposeB, double beta, Matrix C)
+	{
+		int k = transposeA ? A.getNumRows() : A.getNumCols();
+		assert (k == (transposeB ? B.getNumCols() : B.getNumRows()));
+		for (int i = 0; i < C.getNumRows(); ++i) {
+			for (int j = 0; j < C.getNumCols(); ++j) {
+				double sum = 0.0;
+				for (int p = 0; p < k; ++p) {
+					double a = transposeA ? A.getElement(p, i) : A.getElement(i, p);
+					double b = transposeB ? B.getElement(j, p) : B.getElement(p, j);
+					sum = sum + a * b;
+				}
+				C.setElement(i, j, beta == 0.0 ? alpha * sum : alpha * sum + beta * C.getElement(i, j));
+			}
+		}
+		return C;
+	}
+}
@@ -3,6 +3,7 @@ package jnet.net;
 import jnet.algorithm.LearningAlgorithm;
 import jnet.data.DataInstance;
 import jnet.data.DataSet;
+import jnet.data.InstanceSource;
 import jnet.data.Statistics;
 
 /**
@@ -25,13 +26,13 @@ public interface Network {
 		
 	/**
 	 * Call this method to validate or test a trained or partially trained 
-	 * neural network
+	 * neural network, on a DataSet or any other source of instances
 	 * @param dataSet
 	 * @param costFunction
 	 * @return statistics measuring the validation results
-	 * @throws NetworkException 
+	 * @throws NetworkException if the instances cannot be read or evaluated
 	 */
-	public Statistics validateOrTest(DataSet dataSet, CostFunction costFunction) throws NetworkException;
+	public Statistics validateOrTest(InstanceSource dataSet, CostFunction costFunction) throws NetworkException;
 	
 	/**
 	 * Call this method to apply the trained or partially trained neural network
@@ -42,6 +43,62 @@ public interface Network {
 	 */
 	public Vector evaluate(DataInstance instance) throws NetworkException;
 	
+	/**
+	 * Call this method to apply the network to every data instance of
+	 * a mini-batch at once
+	 * @param batch
+	 * @return a (batch x outputs) matrix with the output for each data instance
+	 * in its row, in the order of the batch
+	 * @throws NetworkException
+	 */
+	public Matrix evaluateBatch(DataSet batch) throws NetworkException;
+	
+	/**
+	 * Call this method to apply the network to a mini-batch whose inputs are
+	 * already packed one data instance per row, as by a BatchPipeline
+	 * @param inputs a (batch x inputs) matrix
+	 * @return a (batch x outputs) matrix with the output for each row of inputs
+	 * @throws NetworkException
+	 */
+	public Matrix evaluateBatch(Matrix inputs) throws NetworkException;
+	
+	/**
+	 * Call this method to create the per-thread buffers needed to evaluate
+	 * the network with evaluate(DataInstance, InferenceContext)
+	 * @return a new InferenceContext for this network
+	 */
+	public InferenceContext createInferenceContext();
+	
+	/**
+	 * Call this method to apply the network to the chosen data instance
+	 * without modifying the network, so that threads each holding their
+	 * own context can evaluate one network concurrently
+	 * @param instance
+	 * @param context a context created by this network's createInferenceContext
+	 * @return the output of the neural network, owned by context and overwritten
+	 * by its next evaluation
+	 * @throws NetworkException
+	 */
+	public Vector evaluate(DataInstance instance, InferenceContext context) throws NetworkException;
+	
+	/**
+	 * Call this method to create a network which shares this network's
+	 * weights and biases but has its own activation and error buffers, so
+	 * that the two can be evaluated and back-propagated on different threads.
+	 * Changes to the weights and biases of either are seen by both
+	 * @return the replica
+	 */
+	public Network createReplica();
+	
+	/**
+	 * Call this method to create a network with this network's layers and a
+	 * copy of its current weights and biases. Later changes to either network's
+	 * weights and biases are not seen by the other; copying the parameters
+	 * of this network into the snapshot's getParameters brings it up to date
+	 * @return the snapshot
+	 */
+	public Network createSnapshot();
+	
 	/**
 	 * Call this method to return a reference to the network's input layer
 	 * @return Layer
@@ -53,6 +110,47 @@ public interface Network {
 	 * @return Layer
 	 */
 	public Layer getOutputLayer();
+	
+	/**
+	 * Call this method to return the layer at the given position,
+	 * counting from the input layer at 0
+	 * @param index
+	 * @return Layer
+	 */
+	public Layer getLayer(int index);
+	
+	/**
+	 * Call this method to return the number of layers, including the input layer
+	 * @return
+	 */
+	public int getNumLayers();
+	
+	/**
+	 * Call this method to return every weight and bias of the network in one
+	 * contiguous Vector, layer by layer from the first hidden layer, each
+	 * layer's weights row by row followed by its biases. The layers' weight
+	 * matrices and bias vectors are views of it, so whole-model operations -
+	 * norms, clipping, copies, optimizer steps - are single passes over it
+	 * @return Vector
+	 */
+	public Vector getParameters();
+	
+	/**
+	 * Call this method to return the sums of the weight and bias gradients
+	 * over the current mini-batch, laid out as getParameters. Each layer's
+	 * getWeightGradientSum and getBiasGradientSum are views of it. A replica
+	 * has a gradient buffer of its own
+	 * @return Vector
+	 */
+	public Vector getGradients();
+	
+	/**
+	 * Call this method to return the linear algebra backend the network
+	 * was constructed with. Learning algorithms should use it for their
+	 * own kernels so the whole training run uses one implementation
+	 * @return LinearAlgebraBackend
+	 */
+	public LinearAlgebraBackend getBackend();
 
 	
 }
@@ -11,5 +11,10 @@ public class NetworkException extends Exception {
 	{
 		super(msg);
 	}
+	
+	public NetworkException(String msg, Throwable cause)
+	{
+		super(msg, cause);
+	}
 
 }
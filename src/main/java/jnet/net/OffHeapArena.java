@@ -0,0 +1,144 @@
+package jnet.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Owner of Matrix and Vector storage which lives outside the Java heap.
+ * Everything allocated from an arena is released together when the arena
+ * is closed, so the parameters and training buffers of a large network
+ * never enter the old generation and never need a full GC to reclaim.
+ * Off-heap storage always holds doubles, and products over it give the
+ * same results as over heap storage.
+ * The arena must not be closed while anything allocated from it is still
+ * in use - the matrices and vectors then throw IllegalStateException
+ * @author nigelgray
+ *
+ */
+public final class OffHeapArena implements AutoCloseable {
+
+	private final List<OffHeapStorage> allocated = new ArrayList<>();
+
+	private long bytesAllocated;
+
+	private boolean closed;
+
+	/**
+	 * Allocate a zero-initialized matrix
+	 * @param numRows
+	 * @param numCols
+	 * @return
+	 */
+	public Matrix allocateMatrix(int numRows, int numCols)
+	{
+		return new Matrix(numRows, numCols, allocate(numRows * numCols));
+	}
+
+	/**
+	 * Allocate a matrix whose elements have a Gaussian distribution
+	 * @param numRows
+	 * @param numCols
+	 * @param random
+	 * @return
+	 */
+	public Matrix allocateMatrix(int numRows, int numCols, Random random)
+	{
+		Matrix matrix = allocateMatrix(numRows, numCols);
+		for (int i = 0; i < numRows; ++i) {
+			for (int j = 0; j < numCols; ++j) {
+				matrix.setElement(i, j, random.nextGaussian());
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * Allocate a zero-initialized vector
+	 * @param size
+	 * @return
+	 */
+	public Vector allocateVector(int size)
+	{
+		return new Vector(allocate(size));
+	}
+
+	/**
+	 * Allocate a vector whose elements have a Gaussian distribution
+	 * @param size
+	 * @param random
+	 * @return
+	 */
+	public Vector allocateVector(int size, Random random)
+	{
+		Vector vector = allocateVector(size);
+		for (int i = 0; i < size; ++i) {
+			vector.setElement(i, random.nextGaussian());
+		}
+		return vector;
+	}
+
+	/**
+	 * Return the number of bytes of native memory held by the arena
+	 * @return
+	 */
+	public synchronized long getBytesAllocated()
+	{
+		return bytesAllocated;
+	}
+
+	/**
+	 * Return true once the arena has been closed
+	 * @return
+	 */
+	public synchronized boolean isClosed()
+	{
+		return closed;
+	}
+
+	/**
+	 * Release all the memory allocated from this arena
+	 */
+	@Override
+	public synchronized void close()
+	{
+		for (OffHeapStorage storage : allocated) {
+			storage.release();
+		}
+		allocated.clear();
+		bytesAllocated = 0;
+		closed = true;
+	}
+
+	/**
+	 * Return a vector over size doubles of an existing direct buffer, such
+	 * as a mapped file, starting at byte offset. The vector reads and writes
+	 * the buffer directly; it is released with the rest of the arena but not
+	 * counted in getBytesAllocated
+	 * @param memory
+	 * @param offset
+	 * @param size
+	 * @return
+	 */
+	synchronized Vector wrap(ByteBuffer memory, int offset, int size)
+	{
+		if (closed) {
+			throw new IllegalStateException("Allocation from a closed OffHeapArena");
+		}
+		OffHeapStorage storage = new OffHeapStorage(memory, offset, size, this);
+		allocated.add(storage);
+		return new Vector(storage);
+	}
+
+	synchronized OffHeapStorage allocate(int size)
+	{
+		if (closed) {
+			throw new IllegalStateException("Allocation from a closed OffHeapArena");
+		}
+		OffHeapStorage storage = new OffHeapStorage(size, this);
+		allocated.add(storage);
+		bytesAllocated += (long)size * Double.BYTES;
+		return storage;
+	}
+}
@@ -0,0 +1,217 @@
+package jnet.net;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * Storage backed by native memory outside the Java heap, owned by an
+ * OffHeapArena, or a view of a range of such storage. Holds doubles in
+ * the platform's byte order.
+ * Once the arena is closed the memory is released and any further
+ * access throws IllegalStateException
+ * @author nigelgray
+ *
+ */
+final class OffHeapStorage extends Storage {
+
+	/**
+	 * sun.misc.Unsafe.invokeCleaner, which frees a direct buffer immediately.
+	 * Null on Java 8, where the memory is freed when the buffer is collected
+	 */
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			unsafe = null;
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private final OffHeapArena arena;
+
+	/**
+	 * The storage allocated from the arena that a view shares memory with,
+	 * or null if this is that storage
+	 */
+	private final OffHeapStorage root;
+
+	/**
+	 * Index of the first element in the root's memory
+	 */
+	private final int start;
+
+	private final int size;
+
+	private ByteBuffer memory;
+
+	private DoubleBuffer data;
+
+	OffHeapStorage(int size, OffHeapArena arena)
+	{
+		assert (size <= Integer.MAX_VALUE / Double.BYTES);
+		this.arena = arena;
+		this.root = null;
+		this.start = 0;
+		this.size = size;
+		this.memory = ByteBuffer.allocateDirect(size * Double.BYTES).order(ByteOrder.nativeOrder());
+		this.data = memory.asDoubleBuffer();
+	}
+
+	/**
+	 * Storage over size doubles of an existing direct buffer, such as a
+	 * mapped file, starting at byte offset. The buffer is released with
+	 * the arena like allocated memory
+	 * @param memory
+	 * @param offset
+	 * @param size
+	 * @param arena
+	 */
+	OffHeapStorage(ByteBuffer memory, int offset, int size, OffHeapArena arena)
+	{
+		assert (memory.isDirect());
+		assert (offset % Double.BYTES == 0);
+		assert (offset + (long)size * Double.BYTES <= memory.capacity());
+		this.arena = arena;
+		this.root = null;
+		this.start = 0;
+		this.size = size;
+		this.memory = memory;
+		ByteBuffer bytes = memory.duplicate();
+		bytes.position(offset);
+		bytes.limit(offset + size * Double.BYTES);
+		this.data = bytes.slice().order(ByteOrder.nativeOrder()).asDoubleBuffer();
+	}
+
+	private OffHeapStorage(OffHeapStorage root, int start, int size)
+	{
+		this.arena = root.arena;
+		this.root = root;
+		this.start = start;
+		this.size = size;
+		this.memory = null;
+		DoubleBuffer buffer = root.data().duplicate();
+		buffer.position(start);
+		buffer.limit(start + size);
+		this.data = buffer.slice();
+	}
+
+	/**
+	 * Return the backing buffer
+	 * @return
+	 * @throws IllegalStateException if the owning arena has been closed
+	 */
+	DoubleBuffer data()
+	{
+		DoubleBuffer buffer = data;
+		if (buffer == null || (root != null && root.data == null)) {
+			throw new IllegalStateException("Off-heap storage used after its arena was closed");
+		}
+		return buffer;
+	}
+
+	/**
+	 * Release the native memory. Called by the owning arena
+	 */
+	void release()
+	{
+		ByteBuffer released = memory;
+		data = null;
+		memory = null;
+		if (released != null && INVOKE_CLEANER != null) {
+			try {
+				INVOKE_CLEANER.invoke(UNSAFE, released);
+			} catch (ReflectiveOperationException e) {
+				// left to the garbage collector
+			}
+		}
+	}
+
+	@Override
+	Precision getPrecision()
+	{
+		return Precision.DOUBLE;
+	}
+
+	@Override
+	int size()
+	{
+		return size;
+	}
+
+	@Override
+	double get(int i)
+	{
+		return data().get(i);
+	}
+
+	@Override
+	void set(int i, double value)
+	{
+		data().put(i, value);
+	}
+
+	@Override
+	Storage view(int start, int size)
+	{
+		assert (start + size <= this.size);
+		// views of views are taken from the root, which owns the memory
+		return new OffHeapStorage(root == null ? this : root, this.start + start, size);
+	}
+
+	@Override
+	Storage allocateLike(int size)
+	{
+		return arena.allocate(size);
+	}
+
+	@Override
+	void fill(double value)
+	{
+		DoubleBuffer buffer = data();
+		for (int i = 0; i < size; ++i) {
+			buffer.put(i, value);
+		}
+	}
+
+	@Override
+	void scale(double value)
+	{
+		DoubleBuffer buffer = data();
+		for (int i = 0; i < size; ++i) {
+			buffer.put(i, buffer.get(i) * value);
+		}
+	}
+
+	@Override
+	void copyFrom(Storage source)
+	{
+		double[] array = Storage.doubles(source);
+		if (array != null) {
+			DoubleBuffer buffer = data().duplicate();
+			buffer.clear();
+			buffer.put(array, Storage.offset(source), size);
+		} else if (source instanceof OffHeapStorage) {
+			DoubleBuffer buffer = data().duplicate();
+			DoubleBuffer from = ((OffHeapStorage)source).data().duplicate();
+			buffer.clear();
+			from.clear();
+			buffer.put(from);
+		} else {
+			super.copyFrom(source);
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package jnet.net;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Backend which partitions wide products by row and computes the
+ * partitions on a shared ForkJoinPool. Products with fewer multiply-adds
+ * than the threshold run on the calling thread with the blocked kernels,
+ * as do products whose operands differ in precision or mix heap and
+ * off-heap storage. Partitions are
+ * aligned to the kernels' unrolling, so the results are identical to
+ * those of the blocked backend.
+ * The system property jnet.parallel.threshold overrides the threshold
+ * @author nigelgray
+ *
+ */
+public class ParallelBackend extends BlockedBackend {
+
+	/**
+	 * Number of multiply-adds below which a product, or a partition
+	 * of one, is not split any further
+	 */
+	public final static int DEFAULT_THRESHOLD = 1 << 15;
+
+	/**
+	 * Partitions are kept to multiples of this many rows, matching the
+	 * four-row blocking of the gemv kernel
+	 */
+	private final static int ROW_ALIGNMENT = 4;
+
+	private final ForkJoinPool pool;
+
+	private final int threshold;
+
+	/**
+	 * Construct a backend which runs on the common pool
+	 */
+	public ParallelBackend()
+	{
+		this(ForkJoinPool.commonPool(), Integer.getInteger("jnet.parallel.threshold", DEFAULT_THRESHOLD));
+	}
+
+	/**
+	 * Construct a backend which runs on the given pool
+	 * @param pool
+	 * @param threshold number of multiply-adds below which work is not split
+	 */
+	public ParallelBackend(ForkJoinPool pool, int threshold)
+	{
+		this.pool = pool;
+		this.threshold = threshold;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "Parallel";
+	}
+
+	/**
+	 * Return the number of multiply-adds below which work is not split
+	 * @return
+	 */
+	public int getThreshold()
+	{
+		return threshold;
+	}
+
+	@Override
+	public Vector gemv(double alpha, Matrix M, Vector x, double beta, Vector y)
+	{
+		assert (M.getNumCols() == x.getSize());
+		assert (M.getNumRows() == y.getSize());
+
+		long workPerRow = numColumnsRead(x);
+		if (!isWide(M.getNumRows(), workPerRow) || !compatible(M, x, y)) {
+			return super.gemv(alpha, M, x, beta, y);
+		}
+		forEachRange(M.getNumRows(), workPerRow, (start, end) -> Matrix.gemvRows(alpha, M, x, beta, y, start, end));
+		return y;
+	}
+
+	/**
+	 * Partitioned by column of y, so that each partition walks every row
+	 * of M but writes only its own elements of y
+	 */
+	@Override
+	public Vector gemvTransposed(double alpha, Matrix M, Vector x, double beta, Vector y)
+	{
+		assert (M.getNumRows() == x.getSize());
+		assert (M.getNumCols() == y.getSize());
+
+		if (!isWide(M.getNumCols(), M.getNumRows()) || !compatible(M, x, y)) {
+			return super.gemvTransposed(alpha, M, x, beta, y);
+		}
+		if (beta == 0.0) {
+			y.fill(0.0);
+		} else if (beta != 1.0) {
+			y.scaleInPlace(beta);
+		}
+		forEachRange(M.getNumCols(), M.getNumRows(), (start, end) -> Matrix.gemvTransposedColumns(alpha, M, x, y, start, end));
+		return y;
+	}
+
+	@Override
+	public Matrix ger(double alpha, Vector x, Vector y, Matrix A)
+	{
+		assert (A.getNumRows() == x.getSize());
+		assert (A.getNumCols() == y.getSize());
+
+		long workPerRow = numColumnsRead(y);
+		if (!isWide(A.getNumRows(), workPerRow) || !compatible(A, x, y)) {
+			return super.ger(alpha, x, y, A);
+		}
+		forEachRange(A.getNumRows(), workPerRow, (start, end) -> Matrix.gerRows(alpha, x, y, A, start, end));
+		return A;
+	}
+
+	@Override
+	public Matrix gemm(double alpha, Matrix A, boolean transposeA, Matrix B, boolean transposeB, double beta, Matrix C)
+	{
+		int m = C.getNumRows();
+		long workPerRow = (long)C.getNumCols() * (transposeA ? A.getNumRows() : A.getNumCols());
+
+		if ((transposeA && transposeB) || !isWide(m, workPerRow)
+				|| !compatible(A, B, C)) {
+			return super.gemm(alpha, A, transposeA, B, transposeB, beta, C);
+		}
+		assert (m == (transposeA ? A.getNumCols() : A.getNumRows()));
+		assert (C.getNumCols() == (transposeB ? B.getNumRows() : B.getNumCols()));
+
+		if (beta == 0.0) {
+			C.fill(0.0);
+		} else if (beta != 1.0) {
+			C.scaleInPlace(beta);
+		}
+		forEachRange(m, workPerRow, (start, end) -> Matrix.gemmRows(alpha, A, transposeA, B, transposeB, C, start, end));
+		return C;
+	}
+
+	private boolean isWide(int count, long workPerItem)
+	{
+		return count > ROW_ALIGNMENT && count * workPerItem > threshold;
+	}
+
+	/**
+	 * The number of columns a row of the product touches for this
+	 * operand - only its non-zeros if it is sparse
+	 */
+	private static long numColumnsRead(Vector v)
+	{
+		return v instanceof SparseVector ? ((SparseVector)v).getNumNonZeros() : v.getSize();
+	}
+
+	/**
+	 * True if the operands share a precision and are all on the heap or all
+	 * off it - the combinations the range kernels of Matrix handle
+	 */
+	private static boolean compatible(Matrix M, Vector x, Vector y)
+	{
+		return M.getPrecision() == x.getPrecision() && x.getPrecision() == y.getPrecision()
+				&& M.isOffHeap() == x.isOffHeap() && x.isOffHeap() == y.isOffHeap();
+	}
+
+	private static boolean compatible(Matrix A, Matrix B, Matrix C)
+	{
+		return A.getPrecision() == B.getPrecision() && B.getPrecision() == C.getPrecision()
+				&& A.isOffHeap() == B.isOffHeap() && B.isOffHeap() == C.isOffHeap();
+	}
+
+	private void forEachRange(int count, long workPerItem, RangeOperation operation)
+	{
+		pool.invoke(new RangeTask(0, count, workPerItem, operation));
+	}
+
+	/**
+	 * An operation on the half-open range [start, end) which writes
+	 * nothing outside that range
+	 */
+	private interface RangeOperation {
+		void apply(int start, int end);
+	}
+
+	/**
+	 * Halves its range until each piece is below the threshold,
+	 * then applies the operation to the pieces
+	 */
+	private class RangeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int start;
+
+		private final int end;
+
+		private final long workPerItem;
+
+		private final RangeOperation operation;
+
+		RangeTask(int start, int end, long workPerItem, RangeOperation operation)
+		{
+			this.start = start;
+			this.end = end;
+			this.workPerItem = workPerItem;
+			this.operation = operation;
+		}
+
+		@Override
+		protected void compute()
+		{
+			int middle = start + ((end - start) / 2 / ROW_ALIGNMENT) * ROW_ALIGNMENT;
+			if (middle == start || (end - start) * workPerItem <= threshold) {
+				operation.apply(start, end);
+				return;
+			}
+			invokeAll(new RangeTask(start, middle, workPerItem, operation), new RangeTask(middle, end, workPerItem, operation));
+		}
+	}
+}
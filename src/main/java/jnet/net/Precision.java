@@ -0,0 +1,13 @@
+package jnet.net;
+
+/**
+ * Numeric precision used to store the elements of a Matrix or Vector
+ * FLOAT halves the memory (and memory bandwidth) of DOUBLE at the cost
+ * of about seven significant digits, which is plenty for network weights
+ * @author nigelgray
+ *
+ */
+public enum Precision {
+	DOUBLE,
+	FLOAT
+}
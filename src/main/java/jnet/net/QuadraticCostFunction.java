@@ -19,5 +19,17 @@ public class QuadraticCostFunction implements CostFunction {
 	{
 		return Vector.add(output, Vector.multiply(-1.0, expectedOutput));
 	}
+	
+	@Override
+	public Vector costPrimeInto(Vector output, Vector expectedOutput, Vector result)
+	{
+		return Vector.axpy(-1.0, expectedOutput, result.copyFrom(output));
+	}
+	
+	@Override
+	public Matrix costPrimeInto(Matrix outputs, Matrix expectedOutputs, Matrix result)
+	{
+		return Matrix.axpy(-1.0, expectedOutputs, result.copyFrom(outputs));
+	}
 
 }
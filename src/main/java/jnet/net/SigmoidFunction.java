@@ -1,7 +1,5 @@
 package jnet.net;
 
-import java.util.ArrayList;
-
 public class SigmoidFunction implements ActivationFunction {
 
 	@Override
@@ -11,25 +9,18 @@ public class SigmoidFunction implements ActivationFunction {
 
 	@Override
 	public double firstDerivative(double weightedInput) {
-		return evaluate(weightedInput) * (1 - evaluate(weightedInput));
+		double sigmoid = evaluate(weightedInput);
+		return sigmoid * (1 - sigmoid);
 	}
 
 	@Override
 	public Vector evaluate(Vector weightedInputs) {
-		ArrayList<Double> result = new ArrayList<Double>();
-		for (int i = 0; i < weightedInputs.getSize(); ++i) {
-			result.add(i, evaluate(weightedInputs.getElement(i)));
-		}
-		return new Vector(result);
+		return evaluateInto(weightedInputs, new Vector(weightedInputs.getSize()));
 	}
 
 	@Override
 	public Vector firstDerivative(Vector weightedInputs) {
-		ArrayList<Double> result = new ArrayList<Double>();
-		for (int i = 0; i < weightedInputs.getSize(); ++i) {
-			result.add(i, firstDerivative(weightedInputs.getElement(i)));
-		}
-		return new Vector(result);
+		return firstDerivativeInto(weightedInputs, new Vector(weightedInputs.getSize()));
 	}
 
 }
@@ -0,0 +1,95 @@
+package jnet.net;
+
+import java.util.Arrays;
+
+/**
+ * Storage holding only the non-zero elements of a vector, as a sorted
+ * array of indices and a dense store of the matching values.
+ * Elements which are not stored read as zero and may only be set to zero
+ * @author nigelgray
+ *
+ */
+final class SparseStorage extends Storage {
+
+	final int size;
+
+	final int[] indices;
+
+	final Storage values;
+
+	/**
+	 * indices must be strictly increasing and less than size.
+	 * The arrays are not copied
+	 * @param size
+	 * @param indices
+	 * @param values
+	 */
+	SparseStorage(int size, int[] indices, Storage values)
+	{
+		assert (indices.length == values.size());
+		assert (isStrictlyIncreasing(indices, size));
+		this.size = size;
+		this.indices = indices;
+		this.values = values;
+	}
+
+	@Override
+	Precision getPrecision()
+	{
+		return values.getPrecision();
+	}
+
+	@Override
+	int size()
+	{
+		return size;
+	}
+
+	int numNonZeros()
+	{
+		return indices.length;
+	}
+
+	@Override
+	double get(int i)
+	{
+		int p = Arrays.binarySearch(indices, i);
+		return p < 0 ? 0.0 : values.get(p);
+	}
+
+	@Override
+	void set(int i, double value)
+	{
+		int p = Arrays.binarySearch(indices, i);
+		if (p >= 0) {
+			values.set(p, value);
+		} else if (value != 0.0) {
+			throw new UnsupportedOperationException("Sparse vector has no stored element at index " + i);
+		}
+	}
+
+	@Override
+	void fill(double value)
+	{
+		if (value != 0.0 && indices.length != size) {
+			throw new UnsupportedOperationException("Cannot fill a sparse vector with a non-zero value");
+		}
+		values.fill(value);
+	}
+
+	@Override
+	void scale(double value)
+	{
+		values.scale(value);
+	}
+
+	private static boolean isStrictlyIncreasing(int[] indices, int size)
+	{
+		for (int p = 0; p < indices.length; ++p) {
+			if (indices[p] < 0 || indices[p] >= size || (p > 0 && indices[p] <= indices[p - 1])) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
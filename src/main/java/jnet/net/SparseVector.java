@@ -0,0 +1,120 @@
+package jnet.net;
+
+/**
+ * A Vector which stores only its non-zero elements, in compressed
+ * (index, value) form. Intended for the inputs of high-dimensional,
+ * mostly-zero data such as pixel intensities or bag-of-words counts:
+ * products with a dense weight matrix read only the columns matching
+ * a non-zero element.
+ * Elements which are not stored read as zero and cannot be set to
+ * anything else
+ * @author nigelgray
+ *
+ */
+public class SparseVector extends Vector {
+
+	private final SparseStorage sparseElements;
+
+	/**
+	 * Construct a sparse vector of the given size from its non-zero elements.
+	 * indices must be strictly increasing. The arrays are not copied
+	 * @param size
+	 * @param indices
+	 * @param values
+	 */
+	public SparseVector(int size, int[] indices, double[] values)
+	{
+		this(size, indices, values, Precision.DOUBLE);
+	}
+
+	/**
+	 * Construct a sparse vector of the given size from its non-zero elements,
+	 * storing the values with the given precision. indices must be strictly
+	 * increasing and is not copied
+	 * @param size
+	 * @param indices
+	 * @param values
+	 * @param precision
+	 */
+	public SparseVector(int size, int[] indices, double[] values, Precision precision)
+	{
+		this(new SparseStorage(size, indices, new Vector(values, precision).getStorage()));
+	}
+
+	private SparseVector(SparseStorage elements)
+	{
+		super(elements);
+		this.sparseElements = elements;
+	}
+
+	/**
+	 * Return a sparse vector holding the non-zero elements of the array
+	 * @param elements
+	 * @param precision
+	 * @return
+	 */
+	public static SparseVector fromDense(double[] elements, Precision precision)
+	{
+		int numNonZeros = 0;
+		for (double element : elements) {
+			if (element != 0.0) {
+				++numNonZeros;
+			}
+		}
+		int[] indices = new int[numNonZeros];
+		double[] values = new double[numNonZeros];
+		int p = 0;
+		for (int i = 0; i < elements.length; ++i) {
+			if (elements[i] != 0.0) {
+				indices[p] = i;
+				values[p] = elements[i];
+				++p;
+			}
+		}
+		return new SparseVector(elements.length, indices, values, precision);
+	}
+
+	/**
+	 * Return a sparse vector holding the non-zero elements of vector,
+	 * with the same precision
+	 * @param vector
+	 * @return
+	 */
+	public static SparseVector fromDense(Vector vector)
+	{
+		double[] elements = new double[vector.getSize()];
+		for (int i = 0; i < elements.length; ++i) {
+			elements[i] = vector.getElement(i);
+		}
+		return fromDense(elements, vector.getPrecision());
+	}
+
+	/**
+	 * Get the number of stored (non-zero) elements
+	 * @return
+	 */
+	public int getNumNonZeros()
+	{
+		return sparseElements.numNonZeros();
+	}
+
+	/**
+	 * Get the index of the pth stored element
+	 * @param p
+	 * @return
+	 */
+	public int getIndex(int p)
+	{
+		return sparseElements.indices[p];
+	}
+
+	/**
+	 * Get the value of the pth stored element
+	 * @param p
+	 * @return
+	 */
+	public double getValue(int p)
+	{
+		return sparseElements.values.get(p);
+	}
+}
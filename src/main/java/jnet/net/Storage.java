@@ -0,0 +1,140 @@
+package jnet.net;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Backing store for the elements of a Matrix or Vector
+ * The kernels in Matrix and Vector look through to the primitive array
+ * or off-heap buffer of the concrete subclasses for their fast paths;
+ * anything else goes through get and set
+ * @author nigelgray
+ *
+ */
+abstract class Storage {
+
+	/**
+	 * Allocate zero-initialized storage for size elements
+	 * @param size
+	 * @param precision
+	 * @return
+	 */
+	static Storage allocate(int size, Precision precision)
+	{
+		switch (precision) {
+		case FLOAT:
+			return new FloatStorage(size);
+		default:
+			return new DoubleStorage(size);
+		}
+	}
+
+	/**
+	 * Return the backing array if storage holds doubles, otherwise null
+	 * @param storage
+	 * @return
+	 */
+	static double[] doubles(Storage storage)
+	{
+		return storage instanceof DoubleStorage ? ((DoubleStorage)storage).data : null;
+	}
+
+	/**
+	 * Return the backing array if storage holds floats, otherwise null
+	 * @param storage
+	 * @return
+	 */
+	static float[] floats(Storage storage)
+	{
+		return storage instanceof FloatStorage ? ((FloatStorage)storage).data : null;
+	}
+
+	/**
+	 * Return the index of the first element of storage in the array
+	 * returned by doubles or floats
+	 * @param storage
+	 * @return
+	 */
+	static int offset(Storage storage)
+	{
+		if (storage instanceof DoubleStorage) {
+			return ((DoubleStorage)storage).offset;
+		}
+		if (storage instanceof FloatStorage) {
+			return ((FloatStorage)storage).offset;
+		}
+		return 0;
+	}
+
+	/**
+	 * Return the backing buffer if storage is off-heap, otherwise null
+	 * @param storage
+	 * @return
+	 */
+	static DoubleBuffer buffer(Storage storage)
+	{
+		return storage instanceof OffHeapStorage ? ((OffHeapStorage)storage).data() : null;
+	}
+
+	/**
+	 * Return storage as sparse storage if it is, otherwise null
+	 * @param storage
+	 * @return
+	 */
+	static SparseStorage sparse(Storage storage)
+	{
+		return storage instanceof SparseStorage ? (SparseStorage)storage : null;
+	}
+
+	abstract Precision getPrecision();
+
+	abstract int size();
+
+	abstract double get(int i);
+
+	abstract void set(int i, double value);
+
+	/**
+	 * Allocate zero-initialized storage for size elements of the same
+	 * precision, in the same place (heap or off-heap) as this storage
+	 * @param size
+	 * @return
+	 */
+	Storage allocateLike(int size)
+	{
+		return allocate(size, getPrecision());
+	}
+
+	/**
+	 * Return storage for size elements starting at start, which shares
+	 * this storage's memory
+	 * @param start
+	 * @param size
+	 * @return
+	 */
+	Storage view(int start, int size)
+	{
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support views");
+	}
+
+	void fill(double value)
+	{
+		for (int i = 0; i < size(); ++i) {
+			set(i, value);
+		}
+	}
+
+	void scale(double value)
+	{
+		for (int i = 0; i < size(); ++i) {
+			set(i, get(i) * value);
+		}
+	}
+
+	void copyFrom(Storage source)
+	{
+		assert (source.size() == size());
+		for (int i = 0; i < size(); ++i) {
+			set(i, source.get(i));
+		}
+	}
+}
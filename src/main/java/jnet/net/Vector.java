@@ -1,5 +1,7 @@
 package jnet.net;
 
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -14,7 +16,7 @@ public class Vector {
 	/**
 	 * The elements of the vector
 	 */
-	private final double[] elements;
+	private final Storage elements;
 	
 	/**
 	 * The number of elements in the vector (its dimension)
@@ -27,13 +29,12 @@ public class Vector {
 	 */
 	public Vector(List<Double> elements) 
 	{
-		this.elements = new double[elements.size()];
+		this(elements.size());
 		int i = 0;
 		for (Double element : elements) {
-			this.elements[i] = element;
+			this.elements.set(i, element);
 			++i;
 		}
-		this.size = elements.size();
 	}
 	
 	/**
@@ -42,23 +43,49 @@ public class Vector {
 	 */
 	public Vector(double[] elements) 
 	{
-		this.size = elements.length;
-		this.elements = new double[this.size];
+		this(elements, Precision.DOUBLE);
+	}
+	
+	/**
+	 * Construct a vector from the array of doubles, stored
+	 * with the given precision
+	 * @param elements
+	 * @param precision
+	 */
+	public Vector(double[] elements, Precision precision) 
+	{
+		this(elements.length, precision);
 		for (int i = 0; i < elements.length; ++i) {
-			this.elements[i] = elements[i];
+			this.elements.set(i, elements[i]);
 		}
 	}
 	
+	/**
+	 * Construct a copy of the specified vector with the same precision
+	 * @param other
+	 */
+	public Vector(Vector other)
+	{
+		this(other.getSize(), other.getPrecision());
+		elements.copyFrom(other.elements);
+	}
+	
 	/**
 	 * Construct a zero-initialized vector of the specified size
 	 * @param size
 	 */
 	public Vector(int size) {
-		this.size = size;
-		this.elements = new double[size];
-		for (int i = 0; i < size; ++i) {
-			this.elements[i] = 0.0;
-		}
+		this(size, Precision.DOUBLE);
+	}
+	
+	/**
+	 * Construct a zero-initialized vector of the specified size
+	 * whose elements are stored with the given precision
+	 * @param size
+	 * @param precision
+	 */
+	public Vector(int size, Precision precision) {
+		this(Storage.allocate(size, precision));
 	}
 	
 	/**
@@ -68,10 +95,20 @@ public class Vector {
 	 * @param random
 	 */
 	public Vector(int size, Random random) {
-		this.size = size;
-		this.elements = new double[size];
+		this(size, random, Precision.DOUBLE);
+	}
+	
+	/**
+	 * Construct a randomly initialized vector of the specified size
+	 * and precision. Random values have a Guassian distribution
+	 * @param size
+	 * @param random
+	 * @param precision
+	 */
+	public Vector(int size, Random random, Precision precision) {
+		this(size, precision);
 		for (int i = 0; i < size; ++i) {
-			this.elements[i] = random.nextGaussian();
+			this.elements.set(i, random.nextGaussian());
 		}
 	}
 		
@@ -82,11 +119,33 @@ public class Vector {
 	 * @param value
 	 */
 	public Vector(int size, double value) {
-		this.size = size;
-		this.elements = new double[size];
-		for (int i = 0; i < size; ++i) {
-			this.elements[i] = value;
-		}
+		this(size);
+		this.elements.fill(value);
+	}
+	
+	/**
+	 * Construct a vector over existing storage
+	 * @param elements
+	 */
+	Vector(Storage elements) {
+		this.size = elements.size();
+		this.elements = elements;
+	}
+
+	/**
+	 * Get the precision the elements are stored with
+	 * @return
+	 */
+	public Precision getPrecision() {
+		return elements.getPrecision();
+	}
+	
+	/**
+	 * Return true if the elements are stored outside the Java heap
+	 * @return
+	 */
+	public boolean isOffHeap() {
+		return elements instanceof OffHeapStorage;
 	}
 
 	/**
@@ -105,7 +164,7 @@ public class Vector {
 	 */
 	public double getElement(int i) {
 		assert(i < getSize());
-		return elements[i];
+		return elements.get(i);
 	}
 	
 	/**
@@ -117,7 +176,7 @@ public class Vector {
 	public void setElement(int i, double value)
 	{
 		assert(i < getSize());
-		elements[i] = value;
+		elements.set(i, value);
 	}
 	
 	@Override
@@ -142,7 +201,7 @@ public class Vector {
 	{
 		String str = "(";
 		for (int i = 0; i < getSize(); ++i) {
-			str += String.format("%f", elements[i]);
+			str += String.format("%f", getElement(i));
 			if (i < getSize() - 1) {
 				str += ",";
 			}
@@ -161,16 +220,331 @@ public class Vector {
 	 */
 	public Vector add(Vector right) {
 		assert (this.getSize() == right.getSize());
-		int i = 0;
-		
-		int size = this.getSize();
-		while (i < size) {
-			elements[i] = this.getElement(i) + right.getElement(i);
-			++i;
+		return add(this, right, this);
+	}
+	
+	/**
+	 * Multiply this Vector by the scalar value in place
+	 * @param scalarValue
+	 * @return this
+	 */
+	public Vector scaleInPlace(double scalarValue)
+	{
+		elements.scale(scalarValue);
+		return this;
+	}
+	
+	/**
+	 * Replace this Vector with its schur product with right.
+	 * Vectors must be the same size
+	 * @param right
+	 * @return this
+	 */
+	public Vector schurInPlace(Vector right)
+	{
+		assert (this.getSize() == right.getSize());
+		double[] ds = Storage.doubles(elements);
+		double[] rs = Storage.doubles(right.elements);
+		if (ds != null && rs != null) {
+			int dOffset = Storage.offset(elements);
+			int rOffset = Storage.offset(right.elements);
+			for (int i = 0; i < size; ++i) {
+				ds[dOffset + i] *= rs[rOffset + i];
+			}
+			return this;
+		}
+		float[] df = Storage.floats(elements);
+		float[] rf = Storage.floats(right.elements);
+		if (df != null && rf != null) {
+			int dOffset = Storage.offset(elements);
+			int rOffset = Storage.offset(right.elements);
+			for (int i = 0; i < size; ++i) {
+				df[dOffset + i] *= rf[rOffset + i];
+			}
+			return this;
+		}
+		for (int i = 0; i < size; ++i) {
+			setElement(i, getElement(i) * right.getElement(i));
 		}
 		return this;
 	}
 	
+	/**
+	 * Copy the elements of source into this Vector.
+	 * Vectors must be the same size
+	 * @param source
+	 * @return this
+	 */
+	public Vector copyFrom(Vector source)
+	{
+		assert (this.getSize() == source.getSize());
+		elements.copyFrom(source.elements);
+		return this;
+	}
+
+	/**
+	 * Copy getSize() values from source, from its position on, into this
+	 * Vector, advancing the position past them. A heap Vector of doubles
+	 * is filled in one bulk transfer
+	 * @param source
+	 * @return this
+	 */
+	public Vector copyFrom(DoubleBuffer source)
+	{
+		double[] doubles = Storage.doubles(elements);
+		if (doubles != null) {
+			source.get(doubles, Storage.offset(elements), size);
+			return this;
+		}
+		for (int i = 0; i < size; ++i) {
+			elements.set(i, source.get());
+		}
+		return this;
+	}
+
+	/**
+	 * As copyFrom a DoubleBuffer, for a heap Vector of floats in one bulk
+	 * transfer
+	 * @param source
+	 * @return this
+	 */
+	public Vector copyFrom(FloatBuffer source)
+	{
+		float[] floats = Storage.floats(elements);
+		if (floats != null) {
+			source.get(floats, Storage.offset(elements), size);
+			return this;
+		}
+		for (int i = 0; i < size; ++i) {
+			elements.set(i, source.get());
+		}
+		return this;
+	}
+
+	/**
+	 * Copy the elements of this Vector into target from its position on,
+	 * advancing the position past them
+	 * @param target
+	 */
+	public void copyTo(DoubleBuffer target)
+	{
+		double[] doubles = Storage.doubles(elements);
+		if (doubles != null) {
+			target.put(doubles, Storage.offset(elements), size);
+			return;
+		}
+		for (int i = 0; i < size; ++i) {
+			target.put(elements.get(i));
+		}
+	}
+
+	/**
+	 * Copy the elements of this Vector into target from its position on,
+	 * rounded to floats, advancing the position past them
+	 * @param target
+	 */
+	public void copyTo(FloatBuffer target)
+	{
+		float[] floats = Storage.floats(elements);
+		if (floats != null) {
+			target.put(floats, Storage.offset(elements), size);
+			return;
+		}
+		for (int i = 0; i < size; ++i) {
+			target.put((float)elements.get(i));
+		}
+	}
+
+	/**
+	 * Set every element of this Vector to value
+	 * @param value
+	 * @return this
+	 */
+	public Vector fill(double value)
+	{
+		elements.fill(value);
+		return this;
+	}
+
+	/**
+	 * Return the Euclidean norm of this Vector
+	 * @return
+	 */
+	public double norm()
+	{
+		return Math.sqrt(dotProduct(this, this));
+	}
+
+	/**
+	 * Return a Vector of size elements of this Vector, starting at start.
+	 * The view shares this Vector's storage, so changes to either
+	 * are seen by both
+	 * @param start
+	 * @param size
+	 * @return
+	 */
+	public Vector view(int start, int size)
+	{
+		assert (start >= 0 && start + size <= this.size);
+		return new Vector(elements.view(start, size));
+	}
+
+	/**
+	 * Return a numRows x numCols Matrix of the elements of this Vector from
+	 * start on, in row-major order. Like view, the Matrix shares this
+	 * Vector's storage
+	 * @param start
+	 * @param numRows
+	 * @param numCols
+	 * @return
+	 */
+	public Matrix viewAsMatrix(int start, int numRows, int numCols)
+	{
+		assert (start >= 0 && start + numRows * numCols <= this.size);
+		return new Matrix(numRows, numCols, elements.view(start, numRows * numCols));
+	}
+	
+	/**
+	 * Compute y = alpha * x + y in place, without allocating.
+	 * x and y must be the same size
+	 * @param alpha
+	 * @param x
+	 * @param y
+	 * @return y
+	 */
+	public static Vector axpy(double alpha, Vector x, Vector y)
+	{
+		assert (x.getSize() == y.getSize());
+		double[] xs = Storage.doubles(x.elements);
+		double[] ys = Storage.doubles(y.elements);
+		if (xs != null && ys != null) {
+			Kernels.axpy(alpha, xs, Storage.offset(x.elements), ys, Storage.offset(y.elements), y.size);
+			return y;
+		}
+		float[] xf = Storage.floats(x.elements);
+		float[] yf = Storage.floats(y.elements);
+		if (xf != null && yf != null) {
+			Kernels.axpy((float)alpha, xf, Storage.offset(x.elements), yf, Storage.offset(y.elements), y.size);
+			return y;
+		}
+		DoubleBuffer xb = Storage.buffer(x.elements);
+		DoubleBuffer yb = Storage.buffer(y.elements);
+		if (xb != null && yb != null) {
+			BufferKernels.axpy(alpha, xb, 0, yb, 0, y.size);
+			return y;
+		}
+		for (int i = 0; i < y.size; ++i) {
+			y.setElement(i, y.getElement(i) + alpha * x.getElement(i));
+		}
+		return y;
+	}
+	
+	/**
+	 * Take one Nesterov momentum step in place, without allocating:
+	 * velocity = momentum * velocity - rate * sumOfGradients / batchSize,
+	 * then parameters += momentum * velocity - rate * sumOfGradients / batchSize.
+	 * Vectors must be the same size
+	 * @param momentum
+	 * @param rate
+	 * @param sumOfGradients
+	 * @param batchSize
+	 * @param velocity
+	 * @param parameters
+	 */
+	public static void nesterovStep(double momentum, double rate, Vector sumOfGradients, int batchSize, Vector velocity, Vector parameters)
+	{
+		assert (sumOfGradients.size == parameters.size && velocity.size == parameters.size);
+		Storage g = sumOfGradients.elements, v = velocity.elements, p = parameters.elements;
+		if (Storage.doubles(g) != null && Storage.doubles(v) != null && Storage.doubles(p) != null) {
+			Kernels.nesterov(momentum, rate, batchSize, Storage.doubles(g), Storage.offset(g), Storage.doubles(v), Storage.offset(v), Storage.doubles(p), Storage.offset(p), parameters.size);
+			return;
+		}
+		if (Storage.floats(g) != null && Storage.floats(v) != null && Storage.floats(p) != null) {
+			Kernels.nesterov(momentum, rate, batchSize, Storage.floats(g), Storage.offset(g), Storage.floats(v), Storage.offset(v), Storage.floats(p), Storage.offset(p), parameters.size);
+			return;
+		}
+		for (int i = 0; i < parameters.size; ++i) {
+			double step = rate * g.get(i) / batchSize;
+			double vi = momentum * v.get(i) - step;
+			v.set(i, vi);
+			p.set(i, p.get(i) + momentum * vi - step);
+		}
+	}
+	
+	/**
+	 * Take one step scaled by a running sum of squared gradients in place,
+	 * as AdaGrad and RMSProp do. With m the mean gradient,
+	 * sumOfSquares = decay * sumOfSquares + weight * m * m, then
+	 * parameters -= rate * m / (sqrt(sumOfSquares) + epsilon).
+	 * Vectors must be the same size
+	 * @param rate
+	 * @param epsilon
+	 * @param decay
+	 * @param weight
+	 * @param sumOfGradients
+	 * @param batchSize
+	 * @param sumOfSquares
+	 * @param parameters
+	 */
+	public static void rootMeanSquareStep(double rate, double epsilon, double decay, double weight, Vector sumOfGradients, int batchSize, Vector sumOfSquares, Vector parameters)
+	{
+		assert (sumOfGradients.size == parameters.size && sumOfSquares.size == parameters.size);
+		Storage g = sumOfGradients.elements, s = sumOfSquares.elements, p = parameters.elements;
+		if (Storage.doubles(g) != null && Storage.doubles(s) != null && Storage.doubles(p) != null) {
+			Kernels.rootMeanSquare(rate, epsilon, decay, weight, batchSize, Storage.doubles(g), Storage.offset(g), Storage.doubles(s), Storage.offset(s), Storage.doubles(p), Storage.offset(p), parameters.size);
+			return;
+		}
+		if (Storage.floats(g) != null && Storage.floats(s) != null && Storage.floats(p) != null) {
+			Kernels.rootMeanSquare(rate, epsilon, decay, weight, batchSize, Storage.floats(g), Storage.offset(g), Storage.floats(s), Storage.offset(s), Storage.floats(p), Storage.offset(p), parameters.size);
+			return;
+		}
+		for (int i = 0; i < parameters.size; ++i) {
+			double m = g.get(i) / batchSize;
+			double si = decay * s.get(i) + weight * m * m;
+			s.set(i, si);
+			p.set(i, p.get(i) - rate * m / (Math.sqrt(si) + epsilon));
+		}
+	}
+	
+	/**
+	 * Take one Adam step in place. With m the mean gradient,
+	 * mean = beta1 * mean + (1 - beta1) * m and
+	 * meanSquare = beta2 * meanSquare + (1 - beta2) * m * m, then
+	 * parameters -= rate * mean / (sqrt(meanSquare) + epsilon).
+	 * Bias correction is left to the caller, through rate and epsilon.
+	 * Vectors must be the same size
+	 * @param rate
+	 * @param epsilon
+	 * @param beta1
+	 * @param beta2
+	 * @param sumOfGradients
+	 * @param batchSize
+	 * @param mean
+	 * @param meanSquare
+	 * @param parameters
+	 */
+	public static void adamStep(double rate, double epsilon, double beta1, double beta2, Vector sumOfGradients, int batchSize, Vector mean, Vector meanSquare, Vector parameters)
+	{
+		assert (sumOfGradients.size == parameters.size && mean.size == parameters.size && meanSquare.size == parameters.size);
+		Storage g = sumOfGradients.elements, u = mean.elements, v = meanSquare.elements, p = parameters.elements;
+		if (Storage.doubles(g) != null && Storage.doubles(u) != null && Storage.doubles(v) != null && Storage.doubles(p) != null) {
+			Kernels.adam(rate, epsilon, beta1, beta2, batchSize, Storage.doubles(g), Storage.offset(g), Storage.doubles(u), Storage.offset(u), Storage.doubles(v), Storage.offset(v), Storage.doubles(p), Storage.offset(p), parameters.size);
+			return;
+		}
+		if (Storage.floats(g) != null && Storage.floats(u) != null && Storage.floats(v) != null && Storage.floats(p) != null) {
+			Kernels.adam(rate, epsilon, beta1, beta2, batchSize, Storage.floats(g), Storage.offset(g), Storage.floats(u), Storage.offset(u), Storage.floats(v), Storage.offset(v), Storage.floats(p), Storage.offset(p), parameters.size);
+			return;
+		}
+		for (int i = 0; i < parameters.size; ++i) {
+			double m = g.get(i) / batchSize;
+			double ui = beta1 * u.get(i) + (1.0 - beta1) * m;
+			double vi = beta2 * v.get(i) + (1.0 - beta2) * m * m;
+			u.set(i, ui);
+			v.set(i, vi);
+			p.set(i, p.get(i) - rate * ui / (Math.sqrt(vi) + epsilon));
+		}
+	}
+	
 	/**
 	 * Return a new vector which is the sum of left and right.
 	 * Left and right must be the same size
@@ -180,13 +554,30 @@ public class Vector {
 	 */
 	public static Vector add(Vector left, Vector right) {
 		assert (left.getSize() == right.getSize());
-		int i = 0;
-		
-		int size = left.getSize();
-		Vector result = new Vector(size);
-		while (i < size) {
+		return add(left, right, new Vector(left.getSize(), left.getPrecision()));
+	}
+	
+	/**
+	 * Write the sum of left and right into result, which may be
+	 * either operand
+	 */
+	private static Vector add(Vector left, Vector right, Vector result) {
+		double[] ls = Storage.doubles(left.elements);
+		double[] rs = Storage.doubles(right.elements);
+		double[] results = Storage.doubles(result.elements);
+		if (ls != null && rs != null && results != null) {
+			Kernels.add(ls, Storage.offset(left.elements), rs, Storage.offset(right.elements), results, Storage.offset(result.elements), result.size);
+			return result;
+		}
+		float[] lf = Storage.floats(left.elements);
+		float[] rf = Storage.floats(right.elements);
+		float[] resultf = Storage.floats(result.elements);
+		if (lf != null && rf != null && resultf != null) {
+			Kernels.add(lf, Storage.offset(left.elements), rf, Storage.offset(right.elements), resultf, Storage.offset(result.elements), result.size);
+			return result;
+		}
+		for (int i = 0; i < result.size; ++i) {
 			result.setElement(i, left.getElement(i) + right.getElement(i));
-			++i;
 		}
 		return result;
 	}
@@ -202,7 +593,7 @@ public class Vector {
 		int i = 0;
 		
 		int size = vector.getSize();
-		Vector result = new Vector(size);
+		Vector result = new Vector(size, vector.getPrecision());
 		while (i < size) {
 			result.setElement(i, vector.getElement(i) * scalarValue);
 			++i;
@@ -218,13 +609,24 @@ public class Vector {
 	 */
 	public static double dotProduct(Vector left, Vector right) {
 		assert (left.getSize() == right.getSize());
-		int i = 0;
-		
-		int size = left.getSize();
-		double result = 0;
-		while (i < size) {
+		double[] ls = Storage.doubles(left.elements);
+		double[] rs = Storage.doubles(right.elements);
+		if (ls != null && rs != null) {
+			return Kernels.dot(ls, Storage.offset(left.elements), rs, Storage.offset(right.elements), left.getSize());
+		}
+		float[] lf = Storage.floats(left.elements);
+		float[] rf = Storage.floats(right.elements);
+		if (lf != null && rf != null) {
+			return Kernels.dot(lf, Storage.offset(left.elements), rf, Storage.offset(right.elements), left.getSize());
+		}
+		DoubleBuffer lb = Storage.buffer(left.elements);
+		DoubleBuffer rb = Storage.buffer(right.elements);
+		if (lb != null && rb != null) {
+			return BufferKernels.dot(lb, 0, rb, 0, left.getSize());
+		}
+		double result = 0.0;
+		for (int i = 0; i < left.getSize(); ++i) {
 			result = result + left.getElement(i) * right.getElement(i);
-			++i;
 		}
 		return result;
 	}
@@ -240,7 +642,7 @@ public class Vector {
 		int i = 0;
 		
 		int size = left.getSize();
-		Vector result = new Vector(size);
+		Vector result = new Vector(size, left.getPrecision());
 		while (i < size) {
 			result.setElement(i, left.getElement(i) * right.getElement(i));
 			++i;
@@ -248,6 +650,17 @@ public class Vector {
 		return result;
 	}
 	
+	/**
+	 * Return a new zero Vector with the size and precision of template,
+	 * stored in the same place - off-heap vectors are allocated from
+	 * the same arena
+	 * @param template
+	 * @return
+	 */
+	public static Vector zerosLike(Vector template) {
+		return new Vector(template.elements.allocateLike(template.size));
+	}
+	
 	/**
 	 * Return the dyadic product of the two vectors
 	 * @param left
@@ -255,12 +668,15 @@ public class Vector {
 	 * @return
 	 */
 	public static Matrix dyadicProduct(Vector left, Vector right) {
-		Matrix dyad = new Matrix(left.getSize(), right.getSize());
-		for (int i = 0; i < left.getSize(); ++i) {
-			for (int j = 0; j < right.getSize(); ++j) {
-				dyad.setElement(i, j, left.getElement(i) * right.getElement(j));
-			}
-		}
-		return dyad;
+		return Matrix.ger(1.0, left, right, new Matrix(left.getSize(), right.getSize(), left.getPrecision()));
+	}
+	
+	/**
+	 * Direct access to the backing storage for the kernels in this package
+	 * @return
+	 */
+	Storage getStorage()
+	{
+		return elements;
 	}
 }
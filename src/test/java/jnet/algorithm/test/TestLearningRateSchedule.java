@@ -0,0 +1,41 @@
+package jnet.algorithm.test;
+
+import junit.framework.TestCase;
+import jnet.algorithm.LearningRateSchedule;
+
+public class TestLearningRateSchedule extends TestCase {
+
+	public void testConstant() {
+		assert (LearningRateSchedule.constant().getLearningRate(0.1, 50) == 0.1);
+	}
+	
+	public void testStep() {
+		LearningRateSchedule schedule = LearningRateSchedule.step(10, 0.5);
+		assert (schedule.getLearningRate(1.0, 0) == 1.0);
+		assert (schedule.getLearningRate(1.0, 9) == 1.0);
+		assert (schedule.getLearningRate(1.0, 10) == 0.5);
+		assert (schedule.getLearningRate(1.0, 25) == 0.25);
+	}
+	
+	public void testExponential() {
+		LearningRateSchedule schedule = LearningRateSchedule.exponential(0.9);
+		assert (schedule.getLearningRate(1.0, 0) == 1.0);
+		assert (Math.abs(schedule.getLearningRate(1.0, 2) - 0.81) < 1e-12);
+	}
+	
+	public void testCosine() {
+		LearningRateSchedule schedule = LearningRateSchedule.cosine(100, 0.01);
+		assert (schedule.getLearningRate(1.0, 0) == 1.0);
+		assert (Math.abs(schedule.getLearningRate(1.0, 50) - 0.505) < 1e-12);
+		assert (Math.abs(schedule.getLearningRate(1.0, 100) - 0.01) < 1e-12);
+		assert (Math.abs(schedule.getLearningRate(1.0, 200) - 0.01) < 1e-12);
+	}
+	
+	public void testWarmup() {
+		LearningRateSchedule schedule = LearningRateSchedule.warmup(3, LearningRateSchedule.exponential(0.5));
+		assert (schedule.getLearningRate(1.0, 0) == 0.25);
+		assert (schedule.getLearningRate(1.0, 2) == 0.75);
+		assert (schedule.getLearningRate(1.0, 3) == 1.0);
+		assert (schedule.getLearningRate(1.0, 4) == 0.5);
+	}
+}
@@ -0,0 +1,91 @@
+package jnet.algorithm.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import jnet.algorithm.AdaGradOptimizer;
+import jnet.algorithm.AdamOptimizer;
+import jnet.algorithm.MomentumOptimizer;
+import jnet.algorithm.NesterovOptimizer;
+import jnet.algorithm.Optimizer;
+import jnet.algorithm.RMSPropOptimizer;
+import jnet.net.Matrix;
+import jnet.net.Vector;
+
+public class TestOptimizer extends TestCase {
+
+	public void testMomentum() {
+		Optimizer optimizer = new MomentumOptimizer(0.5, 0.9);
+		Vector biases = new Vector(new double[] {1.0, 2.0});
+		Vector sumOfGradients = new Vector(new double[] {2.0, -4.0});
+		
+		// mean gradient (1, -2): delta = (-0.5, 1.0)
+		optimizer.update(biases, sumOfGradients, 2);
+		assert (biases.equals(new Vector(new double[] {0.5, 3.0})));
+		// delta = 0.9 * (-0.5, 1.0) + (-0.5, 1.0)
+		optimizer.update(biases, sumOfGradients, 2);
+		assert (Math.abs(biases.getElement(0) - (0.5 - 0.95)) < 1e-12);
+		assert (Math.abs(biases.getElement(1) - (3.0 + 1.9)) < 1e-12);
+	}
+	
+	public void testAdamFirstStep() {
+		// the first Adam step moves every parameter by the learning rate
+		// against the sign of its gradient
+		Optimizer optimizer = new AdamOptimizer(0.01);
+		Matrix weights = new Matrix(new double[][] {{1.0, 2.0}, {3.0, 4.0}});
+		Matrix sumOfGradients = new Matrix(new double[][] {{0.5, -3.0}, {-0.001, 7.0}});
+		optimizer.update(weights.asVector(), sumOfGradients.asVector(), 5);
+		assert (Math.abs(weights.getElement(0, 0) - 0.99) < 1e-6);
+		assert (Math.abs(weights.getElement(0, 1) - 2.01) < 1e-6);
+		assert (Math.abs(weights.getElement(1, 0) - 3.01) < 1e-6);
+		assert (Math.abs(weights.getElement(1, 1) - 3.99) < 1e-6);
+	}
+	
+	public void testOptimizersDescend() {
+		// minimize 0.5 * |x|^2, whose gradient is x
+		Optimizer[] optimizers = new Optimizer[] {
+				new MomentumOptimizer(0.1, 0.9),
+				new NesterovOptimizer(0.1, 0.9),
+				new AdaGradOptimizer(0.5),
+				new RMSPropOptimizer(0.01),
+				new AdamOptimizer(0.05)
+		};
+		for (Optimizer optimizer : optimizers) {
+			Vector x = new Vector(new double[] {1.0, -2.0, 3.0});
+			for (int i = 0; i < 500; ++i) {
+				optimizer.update(x, new Vector(x), 1);
+			}
+			assert (Vector.dotProduct(x, x) < 0.01) : optimizer.getClass().getSimpleName();
+		}
+	}
+	
+	public void testLearningRate() {
+		Optimizer optimizer = new RMSPropOptimizer(0.01);
+		optimizer.setLearningRate(0.5);
+		assert (optimizer.getLearningRate() == 0.5);
+	}
+	
+	public void testSaveAndLoadState() throws IOException {
+		// an optimizer restored from saved state takes the same steps as the original
+		Optimizer original = new AdamOptimizer(0.05);
+		Vector x = new Vector(new double[] {1.0, -2.0, 3.0});
+		for (int i = 0; i < 10; ++i) {
+			original.update(x, new Vector(x), 1);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		original.saveState(x, new DataOutputStream(bytes));
+		
+		Optimizer restored = new AdamOptimizer(0.05);
+		Vector y = new Vector(x);
+		restored.loadState(y, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		for (int i = 0; i < 10; ++i) {
+			original.update(x, new Vector(x), 1);
+			restored.update(y, new Vector(y), 1);
+		}
+		assert (x.equals(y));
+	}
+}
@@ -1,6 +1,19 @@
 package jnet.data.test;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import junit.framework.TestCase;
+import jnet.data.BatchPipeline;
+import jnet.data.DataInstance;
+import jnet.data.DataSet;
+import jnet.data.MiniBatch;
+import jnet.net.Matrix;
+import jnet.net.Precision;
+import jnet.net.SparseVector;
+import jnet.net.Vector;
 
 public class TestDataSet extends TestCase {
 
@@ -20,8 +33,125 @@ public class TestDataSet extends TestCase {
 		fail("Not yet implemented");
 	}
 
+	public void testSplit() {
+		DataSet dataSet = DataSet.create();
+		for (int i = 0; i < 10; ++i) {
+			dataSet.addInstance(new DataInstance(new Vector(new double[] {i}), new Vector(new double[] {0.0})));
+		}
+		List<DataSet> parts = dataSet.split(4);
+		assert (parts.size() == 4);
+		int next = 0;
+		for (DataSet part : parts) {
+			assert (part.getNumInstances() == 2 || part.getNumInstances() == 3);
+			for (DataInstance instance : part.getDataInstances()) {
+				assert (instance.getInputs().getElement(0) == next++);
+			}
+		}
+		assert (next == 10);
+		assert (dataSet.split(20).size() == 10);
+	}
+
+	public void testPackedRows() throws Exception {
+		DataSet dataSet = DataSet.create(0.6, 0.2);
+		for (int i = 0; i < 20; ++i) {
+			dataSet.addInstance(new DataInstance(new Vector(new double[] {i, 2 * i}), new Vector(new double[] {-i})));
+		}
+		DataSet training = dataSet.getTrainingSubset();
+		assert (training.getNumInstances() == 12);
+		// subsets share the rows, and shuffling reorders only the subset's own range
+		training.shuffle();
+		Set<Integer> seen = new HashSet<>();
+		for (DataInstance instance : training.getDataInstances()) {
+			int i = (int)instance.getInputs().getElement(0);
+			assert (i < 12 && seen.add(i));
+			assert (instance.getInputs().getElement(1) == 2 * i);
+			assert (instance.getExpectedOutputs().getElement(0) == -i);
+		}
+		assert (dataSet.getValidationSubset().getDataInstances().get(0).getInputs().getElement(0) == 12);
+		// instances are views of the rows
+		training.getDataInstances().get(0).getInputs().setElement(1, 100.0);
+		int first = (int)training.getDataInstances().get(0).getInputs().getElement(0);
+		assert (dataSet.getDataInstances().stream().anyMatch((instance) -> instance.getInputs().getElement(0) == first
+				&& instance.getInputs().getElement(1) == 100.0));
+		
+		dataSet.normalize();
+		assert (dataSet.getValidationSubset().getDataInstances().get(0).getInputs().getElement(0) == 12.0 / 19.0);
+		
+		// a sparse instance unpacks the rows without losing any
+		dataSet.addInstance(new DataInstance(SparseVector.fromDense(new double[] {0.0, 1.0}, Precision.DOUBLE), new Vector(new double[] {1.0})));
+		assert (dataSet.getNumInstances() == 21);
+		assert (dataSet.getDataInstances().get(20).getInputs() instanceof SparseVector);
+		assert (dataSet.getValidationSubset().getDataInstances().get(0).getInputs().getElement(0) == 12.0 / 19.0);
+	}
+
+	public void testCopyInstances() {
+		DataSet dataSet = DataSet.create();
+		for (int i = 0; i < 6; ++i) {
+			dataSet.addInstance(new DataInstance(new Vector(new double[] {i, -i}), new Vector(new double[] {2 * i})));
+		}
+		DataSet training = dataSet.getTrainingSubset();
+		Matrix inputs = new Matrix(training.getNumInstances(), 2);
+		Matrix expectedOutputs = new Matrix(training.getNumInstances(), 1);
+		training.copyInstances(inputs, expectedOutputs);
+		for (int row = 0; row < training.getNumInstances(); ++row) {
+			assert (inputs.getElement(row, 0) == row && inputs.getElement(row, 1) == -row);
+			assert (expectedOutputs.getElement(row, 0) == 2 * row);
+		}
+		
+		// in the given order, from start on, also once the rows are unpacked
+		dataSet.addInstance(new DataInstance(SparseVector.fromDense(new double[] {0.0, 6.0}, Precision.DOUBLE), new Vector(new double[] {12.0})));
+		Matrix batchInputs = new Matrix(2, 2);
+		Matrix batchExpectedOutputs = new Matrix(2, 1);
+		dataSet.copyInstances(new int[] {5, 6, 1, 0}, 1, batchInputs, batchExpectedOutputs);
+		assert (batchInputs.getElement(0, 1) == 6.0 && batchExpectedOutputs.getElement(0, 0) == 12.0);
+		assert (batchInputs.getElement(1, 0) == 1.0 && batchExpectedOutputs.getElement(1, 0) == 2.0);
+	}
+
 	public void testGetNumInstances() {
 		fail("Not yet implemented");
 	}
 
+
+	public void testBatchPipeline() throws Exception {
+		DataSet dataSet = DataSet.create();
+		for (int i = 0; i < 10; ++i) {
+			dataSet.addInstance(new DataInstance(new Vector(new double[] {i, -i}), new Vector(new double[] {2 * i})));
+		}
+		try (BatchPipeline pipeline = new BatchPipeline(dataSet, 3, 2, Precision.DOUBLE)) {
+			for (int epoch = 0; epoch < 4; ++epoch) {
+				Set<Integer> seen = new HashSet<>();
+				int numBatches = 0;
+				for (MiniBatch batch = pipeline.next(); batch != null; batch = pipeline.next()) {
+					assert (batch.getNumInstances() == 3);
+					for (int row = 0; row < 3; ++row) {
+						int i = (int)batch.getInputs().getElement(row, 0);
+						assert (batch.getInputs().getElement(row, 1) == -i);
+						assert (batch.getExpectedOutputs().getElement(row, 0) == 2 * i);
+						assert (seen.add(i));
+					}
+					++numBatches;
+				}
+				// the tenth instance of each epoch's order is left over
+				assert (numBatches == 3);
+			}
+		}
+		// the data set itself is not reordered
+		assert (dataSet.getDataInstances().get(4).getInputs().getElement(0) == 4);
+	}
+
+	public void testMiniBatchSplit() {
+		List<DataInstance> instances = new ArrayList<>();
+		for (int i = 0; i < 5; ++i) {
+			instances.add(new DataInstance(new Vector(new double[] {i}), new Vector(new double[] {i, i})));
+		}
+		MiniBatch batch = MiniBatch.pack(instances, Precision.FLOAT);
+		List<MiniBatch> parts = batch.split(2);
+		assert (parts.size() == 2);
+		assert (parts.get(0).getNumInstances() == 3 && parts.get(1).getNumInstances() == 2);
+		assert (parts.get(1).getInputs().getElement(0, 0) == 3.0);
+		assert (parts.get(1).getExpectedOutputs().getElement(1, 1) == 4.0);
+		// the parts are views of the batch
+		parts.get(1).getInputs().setElement(1, 0, 7.0);
+		assert (batch.getInputs().getElement(4, 0) == 7.0);
+	}
 }
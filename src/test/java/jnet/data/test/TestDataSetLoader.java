@@ -4,12 +4,30 @@
 package jnet.data.test;
 
 import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Test;
 
+import jnet.data.BatchPipeline;
 import jnet.data.DataException;
 import jnet.data.DataInstance;
 import jnet.data.DataSet;
+import jnet.data.DataSetCache;
 import jnet.data.DataSetLoader;
+import jnet.data.InstanceSource;
+import jnet.data.MiniBatch;
+import jnet.data.StreamingDataSet;
+import jnet.net.Precision;
+import jnet.net.Vector;
 
 /**
  * @author nigelgray
@@ -82,6 +100,199 @@ public class TestDataSetLoader {
 	}
 	
 	
+	/**
+	 * Test method for {@link jnet.data.DataSetLoader#loadFromInputStream(java.io.InputStream, java.lang.String, int, double, double)}.
+	 * with numbers in every form the parser handles
+	 * @throws DataException 
+	 */
+	@Test
+	public void testLoadFromInputStream() throws DataException {
+		String csv = "2,0,255,-7\r\n0, 1.25 ,-0.5,3e2\n\n1,0.1,12345678901234567890,-0\n9,.5,1.,+4";
+		DataSet dataSet = DataSetLoader.loadFromInputStream(new ByteArrayInputStream(csv.getBytes(StandardCharsets.US_ASCII)), fileFormat, 10, 1.0, 0.0);
+		assertEquals(4, dataSet.getNumInstances());
+		double[][] inputs = {{0, 255, -7}, {1.25, -0.5, 300}, {0.1, 12345678901234567890.0, -0.0}, {0.5, 1, 4}};
+		int[] labels = {2, 0, 1, 9};
+		for (int i = 0; i < inputs.length; ++i) {
+			DataInstance instance = dataSet.getDataInstances().get(i);
+			for (int j = 0; j < inputs[i].length; ++j) {
+				assertEquals(Double.doubleToLongBits(inputs[i][j]), Double.doubleToLongBits(instance.getInputs().getElement(j)));
+			}
+			assertEquals(1.0, instance.getExpectedOutputs().getElement(labels[i]), 0.0);
+		}
+	}
+	
+	/**
+	 * Test method for {@link jnet.data.DataSetLoader#loadFromInputStream(java.io.InputStream, java.lang.String, int, double, double)}.
+	 * when a field is not a number
+	 * @throws DataException 
+	 */
+	@Test
+	public void testLoadFromFileInParts() throws DataException {
+		DataSet serial = DataSetLoader.loadFromFile(fileName, fileFormat, lineFormat, Precision.DOUBLE, false, 1, true);
+		DataSet ordered = DataSetLoader.loadFromFile(fileName, fileFormat, lineFormat, Precision.DOUBLE, false, 4, true);
+		DataSet unordered = DataSetLoader.loadFromFile(fileName, fileFormat, lineFormat, Precision.DOUBLE, false, 4, false);
+		assertEquals(serial.getNumInstances(), ordered.getNumInstances());
+		assertEquals(serial.getNumInstances(), unordered.getNumInstances());
+		List<String> serialRows = new ArrayList<>();
+		List<String> unorderedRows = new ArrayList<>();
+		for (int i = 0; i < serial.getNumInstances(); ++i) {
+			serialRows.add(toString(serial.getDataInstances().get(i)));
+			assertEquals(serialRows.get(i), toString(ordered.getDataInstances().get(i)));
+			unorderedRows.add(toString(unordered.getDataInstances().get(i)));
+		}
+		Collections.sort(serialRows);
+		Collections.sort(unorderedRows);
+		assertEquals(serialRows, unorderedRows);
+	}
+	
+	@Test
+	public void testLoadFromFileCached() throws Exception {
+		Path source = Files.createTempFile("jnet", ".csv");
+		Path cache = Files.createTempFile("jnet", ".cache");
+		try {
+			// whole numbers spanning 255 and less than 255 are exact even when
+			// quantised to a byte
+			for (String rows : new String[] {"2,0,255,-7\n0,255,0,3\n1,17,128,3\n", "2,0,254,-7\n0,254,1,3\n1,17,128,3\n"}) {
+				Files.write(source, rows.getBytes(StandardCharsets.US_ASCII));
+				DataSet parsed = DataSetLoader.loadFromFile(source.toString(), fileFormat, 3, 2.0/3.0, 1.0/3.0);
+				for (DataSetCache.Encoding encoding : DataSetCache.Encoding.values()) {
+					assertFalse(DataSetCache.isCurrent(cache, source, encoding));
+					DataSet cached = DataSetLoader.loadFromFile(source.toString(), fileFormat, 3, 2.0/3.0, 1.0/3.0, Precision.DOUBLE, cache.toString(), encoding);
+					assertTrue(DataSetCache.isCurrent(cache, source, encoding));
+					assertEquals(parsed.getNumInstances(), cached.getNumInstances());
+					assertEquals(parsed.getTrainingSubset().getNumInstances(), cached.getTrainingSubset().getNumInstances());
+					for (int i = 0; i < parsed.getNumInstances(); ++i) {
+						assertEquals(toString(parsed.getDataInstances().get(i)), toString(cached.getDataInstances().get(i)));
+					}
+				}
+				Files.delete(cache);
+			}
+			
+			// any other column is spread over the byte's levels, to within half a level
+			Files.write(source, "2,0.5,300,-7\n0,0.25,0,3\n1,0.125,17,3\n".getBytes(StandardCharsets.US_ASCII));
+			DataSet parsed = DataSetLoader.loadFromFile(source.toString(), fileFormat, 3, 2.0/3.0, 1.0/3.0);
+			DataSet quantised = DataSetLoader.loadFromFile(source.toString(), fileFormat, 3, 2.0/3.0, 1.0/3.0, Precision.DOUBLE, cache.toString(), DataSetCache.Encoding.BYTE);
+			for (int i = 0; i < parsed.getNumInstances(); ++i) {
+				Vector expected = parsed.getDataInstances().get(i).getInputs();
+				Vector actual = quantised.getDataInstances().get(i).getInputs();
+				assertEquals(expected.getElement(0), actual.getElement(0), 0.5 * 0.375 / 255);
+				assertEquals(expected.getElement(1), actual.getElement(1), 0.5 * 300 / 255);
+				assertEquals(expected.getElement(2), actual.getElement(2), 0.0);
+			}
+			
+			Files.write(source, "2,0,255,-7\n".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+			assertFalse(DataSetCache.isCurrent(cache, source, DataSetCache.Encoding.BYTE));
+			DataSet reloaded = DataSetLoader.loadFromFile(source.toString(), fileFormat, 3, 2.0/3.0, 1.0/3.0, Precision.DOUBLE, cache.toString(), DataSetCache.Encoding.BYTE);
+			assertEquals(parsed.getNumInstances() + 1, reloaded.getNumInstances());
+			
+			Files.write(cache, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+			try {
+				DataSetCache.load(cache);
+				fail("Loaded a corrupted cache");
+			} catch (DataException e) {
+			}
+		} finally {
+			Files.deleteIfExists(source);
+			Files.deleteIfExists(cache);
+		}
+	}
+	
+	@Test
+	public void testStreamFromFile() throws DataException {
+		DataSet loaded = DataSetLoader.loadFromFile(fileName, fileFormat, lineFormat);
+		// blocks of a few lines each
+		StreamingDataSet streamingSet = DataSetLoader.streamFromFile(fileName, fileFormat, lineFormat, Precision.DOUBLE, 16, 256);
+		assertEquals(loaded.getNumInstances(), streamingSet.getNumInstances());
+		assertEquals(13, streamingSet.getNumInputs());
+		assertEquals(3, streamingSet.getNumExpectedOutputs());
+		assertEquals(loaded.getTrainingSubset().getNumInstances(), streamingSet.getTrainingSubset().getNumInstances());
+		assertEquals(loaded.getValidationSubset().getNumInstances(), streamingSet.getValidationSubset().getNumInstances());
+		assertEquals(loaded.getTestSubset().getNumInstances(), streamingSet.getTestSubset().getNumInstances());
+		
+		// without a random number generator, a pass reads the file in order
+		loaded.normalize();
+		streamingSet.normalize();
+		List<String> rows = new ArrayList<>();
+		int i = 0;
+		for (InstanceSource.Pass pass = streamingSet.startPass(null); pass.next(); ) {
+			rows.add(toString(pass.get()));
+			assertEquals(toString(loaded.getDataInstances().get(i++)), rows.get(rows.size() - 1));
+		}
+		assertEquals(loaded.getNumInstances(), i);
+		
+		List<String> shuffledRows = new ArrayList<>();
+		for (InstanceSource.Pass pass = streamingSet.startPass(new Random(1)); pass.next(); ) {
+			shuffledRows.add(toString(pass.get()));
+		}
+		assertNotEquals(rows, shuffledRows);
+		Collections.sort(rows);
+		Collections.sort(shuffledRows);
+		assertEquals(rows, shuffledRows);
+		
+		// every epoch of a pipeline is a pass, in whole batches
+		try (BatchPipeline pipeline = new BatchPipeline(streamingSet, 10, 2, Precision.DOUBLE)) {
+			for (int epoch = 0; epoch < 2; ++epoch) {
+				int numBatches = 0;
+				for (MiniBatch batch = pipeline.next(); batch != null; batch = pipeline.next()) {
+					StringBuilder row = new StringBuilder();
+					for (int j = 0; j < 13; ++j) {
+						row.append(batch.getInputs().getElement(0, j)).append(',');
+					}
+					for (int j = 0; j < 3; ++j) {
+						row.append(batch.getExpectedOutputs().getElement(0, j)).append(',');
+					}
+					assertTrue(Collections.binarySearch(rows, row.toString()) >= 0);
+					++numBatches;
+				}
+				assertEquals(loaded.getNumInstances() / 10, numBatches);
+			}
+		}
+	}
+	
+	@Test
+	public void testStreamNormalizeAfterSubsets() throws DataException {
+		DataSet loaded = DataSetLoader.loadFromFile(fileName, fileFormat, lineFormat);
+		loaded.normalize();
+		
+		// subsets taken before the set is normalized are normalized with it
+		StreamingDataSet streamingSet = DataSetLoader.streamFromFile(fileName, fileFormat, lineFormat, Precision.DOUBLE, 16, 256);
+		StreamingDataSet trainingSet = streamingSet.getTrainingSubset();
+		streamingSet.normalize();
+		assertNormalizedAsLoaded(loaded, trainingSet, 0);
+		
+		// and normalizing a subset normalizes the whole file over its ranges
+		streamingSet = DataSetLoader.streamFromFile(fileName, fileFormat, lineFormat, Precision.DOUBLE, 16, 256);
+		trainingSet = streamingSet.getTrainingSubset();
+		streamingSet.getValidationSubset().normalize();
+		assertNormalizedAsLoaded(loaded, trainingSet, 0);
+		assertNormalizedAsLoaded(loaded, streamingSet.getValidationSubset(), trainingSet.getNumInstances());
+	}
+	
+	private static void assertNormalizedAsLoaded(DataSet loaded, StreamingDataSet subset, int firstRow) throws DataException {
+		int i = firstRow;
+		for (InstanceSource.Pass pass = subset.startPass(null); pass.next(); ) {
+			assertEquals(toString(loaded.getDataInstances().get(i++)), toString(pass.get()));
+		}
+		assertEquals(firstRow + subset.getNumInstances(), i);
+	}
+	
+	private static String toString(DataInstance instance) {
+		StringBuilder row = new StringBuilder();
+		for (int i = 0; i < instance.getInputs().getSize(); ++i) {
+			row.append(instance.getInputs().getElement(i)).append(',');
+		}
+		for (int i = 0; i < instance.getExpectedOutputs().getSize(); ++i) {
+			row.append(instance.getExpectedOutputs().getElement(i)).append(',');
+		}
+		return row.toString();
+	}
+	
+	@Test(expected = DataException.class)
+	public void testLoadFromInputStreamNotANumber() throws DataException {
+		String csv = "1,2,3\n1,2,x\n";
+		DataSetLoader.loadFromInputStream(new ByteArrayInputStream(csv.getBytes(StandardCharsets.US_ASCII)), fileFormat, 10, 1.0, 0.0);
+	}
+	
 	/**
 	 * Test method for {@link jnet.data.DataSetLoader#checkFileFormat(java.lang.String)}.
 	 */
@@ -1,5 +1,13 @@
 package jnet.net.test;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import junit.framework.TestCase;
 import jnet.net.CostFunction;
 import jnet.net.QuadraticCostFunction;
@@ -9,6 +17,14 @@ import jnet.algorithm.StochasticGradientDescent;
 import jnet.data.DataInstance;
 import jnet.data.DataSet;
 import jnet.net.FeedForwardNetwork;
+import jnet.net.InferenceContext;
+import jnet.net.Layer;
+import jnet.net.LinearAlgebraBackend;
+import jnet.net.Matrix;
+import jnet.net.ModelFormat;
+import jnet.net.Network;
+import jnet.net.OffHeapArena;
+import jnet.net.Precision;
 import jnet.net.Vector;
 
 public class TestFeedForwardNetwork extends TestCase {
@@ -37,6 +53,22 @@ public class TestFeedForwardNetwork extends TestCase {
 		}
 	}
 	
+	public void testTrainerReusedAcrossShapes() throws NetworkException {
+		// one trainer holds no per-network buffers, so it can train networks of any shape
+		StochasticGradientDescent sgd = new StochasticGradientDescent(2, 4, 0.1, 0);
+		CostFunction costFunction = new QuadraticCostFunction();
+		for (int numOutputs = 2; numOutputs <= 3; ++numOutputs) {
+			FeedForwardNetwork network = new FeedForwardNetwork(new int[]{2,3,numOutputs}, new SigmoidFunction());
+			DataSet dataSet = DataSet.create();
+			for (int i = 0; i < 10; ++i) {
+				Vector expectedOutput = new Vector(numOutputs);
+				expectedOutput.setElement(i % numOutputs, 1.0);
+				dataSet.addInstance(new DataInstance(new Vector(new double[] {i, 1.0}), expectedOutput));
+			}
+			network.train(dataSet.getTrainingSubset(), dataSet.getValidationSubset(), sgd, costFunction);
+		}
+	}
+	
 	public void testValidateOrTest() {
 		fail("Not yet implemented");
 		
@@ -58,6 +90,119 @@ public class TestFeedForwardNetwork extends TestCase {
 	
 	}
 
+	public void testEvaluateWithInferenceContext() throws Exception {
+		FeedForwardNetwork network = new FeedForwardNetwork(new int[]{3,10,3}, new SigmoidFunction());
+		DataInstance instance = new DataInstance(new Vector(new double[] {1.0,2.0,1.0}), new Vector(new double[] {0.0,1.0,0.0}));
+		Vector expected = new Vector(network.evaluate(instance));
+		
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (int t = 0; t < 8; ++t) {
+				results.add(executor.submit(() -> {
+					InferenceContext context = network.createInferenceContext();
+					for (int i = 0; i < 1000; ++i) {
+						if (!network.evaluate(instance, context).equals(expected)) {
+							return false;
+						}
+					}
+					return true;
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assert (result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		
+		try {
+			network.evaluate(instance, new FeedForwardNetwork(new int[]{3,10,3}, new SigmoidFunction()).createInferenceContext());
+			assertTrue("Test failed", false);
+		} catch (NetworkException e) {
+		}
+	}
+
+	public void testFlatParameters() throws Exception {
+		FeedForwardNetwork network = new FeedForwardNetwork(new int[]{3,4,2}, new SigmoidFunction());
+		assert (network.getNumLayers() == 3);
+		assert (network.getParameters().getSize() == 4 * 3 + 4 + 2 * 4 + 2);
+		assert (network.getGradients().getSize() == network.getParameters().getSize());
+		
+		Layer hidden = network.getLayer(1);
+		Layer output = network.getLayer(2);
+		assert (network.getParameters().getElement(0) == hidden.getWeights().getElement(0, 0));
+		assert (network.getParameters().getElement(12) == hidden.getBiases().getElement(0));
+		assert (network.getParameters().getElement(16) == output.getWeights().getElement(0, 0));
+		
+		output.setBiases(new Vector(new double[]{0.5, -0.5}));
+		assert (network.getParameters().getElement(24) == 0.5 && network.getParameters().getElement(25) == -0.5);
+		network.getParameters().fill(0.25);
+		assert (hidden.getWeights().getElement(3, 2) == 0.25);
+		
+		output.getWeightGradientSum().setElement(1, 3, 2.0);
+		assert (network.getGradients().getElement(23) == 2.0);
+		
+		Network replica = network.createReplica();
+		assert (replica.getParameters() == network.getParameters());
+		assert (replica.getGradients() != network.getGradients());
+		assert (replica.getGradients().getElement(23) == 0.0);
+		
+		try {
+			hidden.setWeights(new Matrix(4, 2));
+			assertTrue("Test failed", false);
+		} catch (NetworkException e) {
+		}
+	}
+	
+	public void testSaveAndLoad() throws Exception {
+		DataInstance instance = new DataInstance(new Vector(new double[] {1.0,2.0,1.0}), new Vector(new double[] {0.0,1.0,0.0}));
+		Path file = Files.createTempFile("jnet", ".model");
+		try {
+			for (Precision precision : Precision.values()) {
+				FeedForwardNetwork network = new FeedForwardNetwork(new int[]{3,10,3}, new SigmoidFunction(), precision);
+				ModelFormat.save(network, file);
+				
+				FeedForwardNetwork loaded = ModelFormat.load(file);
+				assert (loaded.getPrecision() == precision);
+				assert (loaded.getNumLayers() == 3 && loaded.getLayer(1).getNumNeurons() == 10);
+				assert (loaded.getParameters().equals(network.getParameters()));
+				assert (loaded.evaluate(instance).equals(network.evaluate(instance)));
+				
+				try (OffHeapArena arena = new OffHeapArena()) {
+					FeedForwardNetwork mapped = ModelFormat.map(file, LinearAlgebraBackend.getDefault(), arena);
+					for (int i = 0; i < network.getParameters().getSize(); ++i) {
+						assert (mapped.getParameters().getElement(i) == network.getParameters().getElement(i));
+					}
+					Vector output = mapped.evaluate(instance);
+					for (int i = 0; i < output.getSize(); ++i) {
+						assert (Math.abs(output.getElement(i) - network.evaluate(instance).getElement(i)) < 1e-6);
+					}
+					
+					// saving over a mapped model leaves the mapping intact
+					FeedForwardNetwork other = new FeedForwardNetwork(new int[]{3,10,3}, new SigmoidFunction(), precision);
+					ModelFormat.save(other, file);
+					assert (mapped.evaluate(instance).equals(output));
+					assert (ModelFormat.load(file).getParameters().equals(other.getParameters()));
+				}
+			}
+			
+			// larger than one write block
+			FeedForwardNetwork wide = new FeedForwardNetwork(new int[]{100,100,3}, new SigmoidFunction(), Precision.DOUBLE);
+			ModelFormat.save(wide, file);
+			assert (ModelFormat.load(file).getParameters().equals(wide.getParameters()));
+			
+			Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+			try {
+				ModelFormat.load(file);
+				assertTrue("Test failed", false);
+			} catch (NetworkException e) {
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+	
 	/* Move to tests for StochasticGradientDescent
 	public void testBackPropagate() {
 		//fail("Not yet implemented");
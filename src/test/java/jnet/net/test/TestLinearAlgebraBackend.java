@@ -0,0 +1,111 @@
+package jnet.net.test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import jnet.net.LinearAlgebraBackend;
+import jnet.net.Matrix;
+import jnet.net.NetworkException;
+import jnet.net.ParallelBackend;
+import jnet.net.Precision;
+import jnet.net.Vector;
+import junit.framework.TestCase;
+
+public class TestLinearAlgebraBackend extends TestCase {
+
+	public void testCreate() throws NetworkException {
+		assert (LinearAlgebraBackend.getBackendTypes().contains("Naive"));
+		assert (LinearAlgebraBackend.getBackendTypes().contains("Blocked"));
+		assert (LinearAlgebraBackend.create("Blocked").getName().equals("Blocked"));
+		assert (LinearAlgebraBackend.create("Parallel").getName().equals("Parallel"));
+		assert (LinearAlgebraBackend.getDefault() != null);
+		assert (LinearAlgebraBackend.create("Naive") == LinearAlgebraBackend.create("Naive"));
+		try {
+			LinearAlgebraBackend.getBackendTypes().remove("Naive");
+			fail("Expected UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+	
+	public void testCreateUnknown() {
+		try {
+			LinearAlgebraBackend.create("blah");
+			fail("Expected NetworkException");
+		} catch (NetworkException e) {
+		}
+	}
+	
+	public void testBackendsAgree() throws NetworkException {
+		LinearAlgebraBackend reference = LinearAlgebraBackend.create("Naive");
+		for (String backendType : LinearAlgebraBackend.getBackendTypes()) {
+			LinearAlgebraBackend backend = LinearAlgebraBackend.create(backendType);
+			Random random = new Random(7);
+			Matrix M = new Matrix(37, 19, random);
+			Vector x = new Vector(19, random);
+			Vector v = new Vector(37, random);
+			
+			assertClose(reference.gemv(2.0, M, x, 0.0, new Vector(37)), backend.gemv(2.0, M, x, 0.0, new Vector(37)));
+			assertClose(reference.gemvTransposed(1.0, M, v, 0.5, new Vector(19, 1.0)), backend.gemvTransposed(1.0, M, v, 0.5, new Vector(19, 1.0)));
+			assert (Math.abs(reference.dot(x, x) - backend.dot(x, x)) < 1e-9);
+			
+			Matrix expected = reference.ger(0.5, v, x, new Matrix(37, 19));
+			Matrix actual = backend.ger(0.5, v, x, new Matrix(37, 19));
+			assertClose(expected, actual);
+			
+			Matrix A = new Matrix(70, 37, random);
+			Matrix B = new Matrix(37, 66, random);
+			Matrix Bt = Matrix.transpose(B);
+			Matrix At = Matrix.transpose(A);
+			assertClose(reference.gemm(1.0, A, false, B, false, 0.0, new Matrix(70, 66)),
+					backend.gemm(1.0, A, false, B, false, 0.0, new Matrix(70, 66)));
+			assertClose(reference.gemm(2.0, At, true, B, false, 0.0, new Matrix(70, 66)),
+					backend.gemm(2.0, At, true, B, false, 0.0, new Matrix(70, 66)));
+			assertClose(reference.gemm(1.0, A, false, Bt, true, 0.0, new Matrix(70, 66)),
+					backend.gemm(1.0, A, false, Bt, true, 0.0, new Matrix(70, 66)));
+			assertClose(reference.gemm(1.0, At, true, Bt, true, 0.0, new Matrix(70, 66)),
+					backend.gemm(1.0, At, true, Bt, true, 0.0, new Matrix(70, 66)));
+		}
+	}
+	
+	public void testParallelMatchesBlocked() throws NetworkException {
+		LinearAlgebraBackend blocked = LinearAlgebraBackend.create("Blocked");
+		LinearAlgebraBackend parallel = new ParallelBackend(new ForkJoinPool(4), 256);
+		for (Precision precision : Precision.values()) {
+			Random random = new Random(11);
+			Matrix M = new Matrix(203, 151, random, precision);
+			Vector x = new Vector(151, random, precision);
+			Vector v = new Vector(203, random, precision);
+			
+			assert (blocked.gemv(1.0, M, x, 0.0, new Vector(203, precision)).equals(parallel.gemv(1.0, M, x, 0.0, new Vector(203, precision))));
+			assert (blocked.gemvTransposed(1.0, M, v, 0.5, new Vector(151, precision).fill(1.0))
+					.equals(parallel.gemvTransposed(1.0, M, v, 0.5, new Vector(151, precision).fill(1.0))));
+			assert (blocked.ger(0.5, v, x, new Matrix(203, 151, precision)).equals(parallel.ger(0.5, v, x, new Matrix(203, 151, precision))));
+			
+			Matrix A = new Matrix(130, 151, random, precision);
+			Matrix N = new Matrix(130, 203, random, precision);
+			assert (blocked.gemm(1.0, A, false, M, true, 0.0, new Matrix(130, 203, precision))
+					.equals(parallel.gemm(1.0, A, false, M, true, 0.0, new Matrix(130, 203, precision))));
+			assert (blocked.gemm(1.0, N, false, M, false, 0.0, new Matrix(130, 151, precision))
+					.equals(parallel.gemm(1.0, N, false, M, false, 0.0, new Matrix(130, 151, precision))));
+			assert (blocked.gemm(1.0, N, true, A, false, 0.0, new Matrix(203, 151, precision))
+					.equals(parallel.gemm(1.0, N, true, A, false, 0.0, new Matrix(203, 151, precision))));
+		}
+	}
+	
+	private void assertClose(Vector expected, Vector actual) {
+		assert (expected.getSize() == actual.getSize());
+		for (int i = 0; i < expected.getSize(); ++i) {
+			assert (Math.abs(expected.getElement(i) - actual.getElement(i)) < 1e-9);
+		}
+	}
+	
+	private void assertClose(Matrix expected, Matrix actual) {
+		assert (expected.getNumRows() == actual.getNumRows());
+		assert (expected.getNumCols() == actual.getNumCols());
+		for (int i = 0; i < expected.getNumRows(); ++i) {
+			for (int j = 0; j < expected.getNumCols(); ++j) {
+				assert (Math.abs(expected.getElement(i, j) - actual.getElement(i, j)) < 1e-9);
+			}
+		}
+	}
+}
@@ -1,6 +1,11 @@
 package jnet.net.test;
 
+import java.util.Random;
+
 import jnet.net.Matrix;
+import jnet.net.OffHeapArena;
+import jnet.net.Precision;
+import jnet.net.SparseVector;
 import jnet.net.Vector;
 import junit.framework.TestCase;
 
@@ -60,4 +65,264 @@ public class TestMatrix extends TestCase {
 		assert (Matrix.multiply(M, v).equals(product));
 	}
 
+	public void testMultiplyMatrix() {
+		Matrix lhs = new Matrix(new double[][] {
+			{1.0,2.0,3.0},
+			{4.0,5.0,6.0}
+		});
+		Matrix rhs = new Matrix(new double[][] {
+			{1.0, 4.0},
+			{2.0, 5.0},
+			{3.0, 6.0}
+		});
+		Matrix product = new Matrix(new double[][] {
+			{14.0, 32.0},
+			{32.0, 77.0}
+		});
+		assert (Matrix.multiply(lhs, rhs).equals(product));
+	}
+	
+	public void testMultiplyMatrixBlocked() {
+		// sizes straddle the block size so the partial tiles are exercised
+		Random random = new Random(17);
+		Matrix lhs = new Matrix(67, 131, random);
+		Matrix rhs = new Matrix(131, 70, random);
+		assertClose(naiveProduct(lhs, rhs), Matrix.multiply(lhs, rhs));
+	}
+	
+	public void testMultiplyTransposedLeft() {
+		Random random = new Random(23);
+		Matrix lhs = new Matrix(131, 67, random);
+		Matrix rhs = new Matrix(131, 70, random);
+		assertClose(naiveProduct(Matrix.transpose(lhs), rhs), Matrix.multiplyTransposedLeft(lhs, rhs));
+	}
+	
+	public void testMultiplyTransposedRight() {
+		Random random = new Random(29);
+		Matrix lhs = new Matrix(67, 131, random);
+		Matrix rhs = new Matrix(71, 131, random);
+		assertClose(naiveProduct(lhs, Matrix.transpose(rhs)), Matrix.multiplyTransposedRight(lhs, rhs));
+	}
+	
+	public void testMultiplyInto() {
+		Matrix M = new Matrix(new double[][] {
+			{1.0,2.0,3.0},
+			{4.0,5.0,6.0}
+		});
+		Vector v = new Vector(new double[] {4.0, 5.0, 6.0});
+		Vector result = new Vector(2, 99.0);
+		assert (Matrix.multiplyInto(M, v, result) == result);
+		assert (result.equals(new Vector(new double[] {32.0, 77.0})));
+	}
+	
+	public void testGemv() {
+		Matrix M = new Matrix(new double[][] {
+			{1.0,2.0,3.0},
+			{4.0,5.0,6.0}
+		});
+		Vector x = new Vector(new double[] {4.0, 5.0, 6.0});
+		Vector y = new Vector(new double[] {1.0, 2.0});
+		Matrix.gemv(2.0, M, x, -1.0, y);
+		assert (y.equals(new Vector(new double[] {63.0, 152.0})));
+	}
+	
+	public void testMultiplyUnrolled() {
+		// row and column counts that are not multiples of the unroll factor
+		Random random = new Random(31);
+		Matrix M = new Matrix(11, 7, random);
+		Vector v = new Vector(7, random);
+		Vector product = Matrix.multiply(M, v);
+		for (int i = 0; i < M.getNumRows(); ++i) {
+			double sum = 0.0;
+			for (int j = 0; j < M.getNumCols(); ++j) {
+				sum += M.getElement(i, j) * v.getElement(j);
+			}
+			assert (Math.abs(sum - product.getElement(i)) < 1e-12);
+		}
+	}
+	
+	public void testMultiplyTransposed() {
+		Matrix M = new Matrix(new double[][] {
+			{1.0,2.0,3.0},
+			{4.0,5.0,6.0}
+		});
+		Vector v = new Vector(new double[] {1.0, 2.0});
+		Vector product = new Vector(new double[] {9.0, 12.0, 15.0});
+		assert (Matrix.multiplyTransposed(M, v).equals(product));
+		assert (Matrix.multiplyTransposed(M, v).equals(Matrix.multiply(Matrix.transpose(M), v)));
+		
+		Vector y = new Vector(new double[] {1.0, 1.0, 1.0});
+		Matrix.gemvTransposed(1.0, M, v, 2.0, y);
+		assert (y.equals(new Vector(new double[] {11.0, 14.0, 17.0})));
+	}
+	
+	public void testGer() {
+		Matrix A = new Matrix(new double[][] {
+			{1.0, 1.0, 1.0},
+			{1.0, 1.0, 1.0}
+		});
+		Vector x = new Vector(new double[] {1.0, 2.0});
+		Vector y = new Vector(new double[] {1.0, 2.0, 3.0});
+		Matrix expected = new Matrix(new double[][] {
+			{3.0, 5.0, 7.0},
+			{5.0, 9.0, 13.0}
+		});
+		assert (Matrix.ger(2.0, x, y, A).equals(expected));
+	}
+	
+	public void testAxpyAndScaleInPlace() {
+		Matrix X = new Matrix(new double[][] { {1.0, 2.0}, {3.0, 4.0} });
+		Matrix Y = new Matrix(new double[][] { {1.0, 1.0}, {1.0, 1.0} });
+		Matrix.axpy(-1.0, X, Y);
+		assert (Y.equals(new Matrix(new double[][] { {0.0, -1.0}, {-2.0, -3.0} })));
+		Y.scaleInPlace(2.0);
+		assert (Y.equals(new Matrix(new double[][] { {0.0, -2.0}, {-4.0, -6.0} })));
+	}
+	
+	public void testFloatPrecision() {
+		Random random = new Random(37);
+		Matrix M = new Matrix(67, 131, random);
+		Matrix N = new Matrix(131, 70, random);
+		Vector v = new Vector(131, random);
+		Matrix floatM = new Matrix(67, 131, Precision.FLOAT);
+		Matrix floatN = new Matrix(131, 70, Precision.FLOAT);
+		floatM.copyFrom(M);
+		floatN.copyFrom(N);
+		Vector floatV = new Vector(131, Precision.FLOAT).copyFrom(v);
+		
+		Vector product = Matrix.multiply(floatM, floatV);
+		assert (product.getPrecision() == Precision.FLOAT);
+		Vector expected = Matrix.multiply(M, v);
+		for (int i = 0; i < expected.getSize(); ++i) {
+			assert (Math.abs(expected.getElement(i) - product.getElement(i)) < 1e-3);
+		}
+		
+		Matrix matrixProduct = Matrix.multiply(floatM, floatN);
+		assert (matrixProduct.getPrecision() == Precision.FLOAT);
+		Matrix expectedProduct = Matrix.multiply(M, N);
+		for (int i = 0; i < expectedProduct.getNumRows(); ++i) {
+			for (int j = 0; j < expectedProduct.getNumCols(); ++j) {
+				assert (Math.abs(expectedProduct.getElement(i, j) - matrixProduct.getElement(i, j)) < 1e-3);
+			}
+		}
+		
+		// mixed precision operands fall back to the accessor loops
+		Vector mixed = Matrix.multiply(floatM, v);
+		for (int i = 0; i < expected.getSize(); ++i) {
+			assert (Math.abs(expected.getElement(i) - mixed.getElement(i)) < 1e-3);
+		}
+	}
+	
+	public void testSparseProducts() {
+		for (Precision precision : Precision.values()) {
+			Random random = new Random(41);
+			Matrix M = new Matrix(37, 200, random, precision);
+			Vector error = new Vector(37, random, precision);
+			double[] elements = new double[200];
+			for (int i = 0; i < elements.length; i += 7) {
+				elements[i] = random.nextGaussian();
+			}
+			SparseVector sparse = SparseVector.fromDense(elements, precision);
+			Vector dense = new Vector(elements, precision);
+			assert (sparse.getNumNonZeros() == 29);
+			
+			Vector product = Matrix.multiply(M, sparse);
+			Vector expected = Matrix.multiply(M, dense);
+			for (int i = 0; i < expected.getSize(); ++i) {
+				assert (Math.abs(expected.getElement(i) - product.getElement(i)) < 1e-4);
+			}
+			
+			Matrix gradient = Matrix.ger(1.0, error, sparse, new Matrix(37, 200, precision));
+			assert (gradient.equals(Matrix.ger(1.0, error, dense, new Matrix(37, 200, precision))));
+		}
+	}
+	
+	public void testOffHeap() {
+		Random random = new Random(43);
+		Matrix M = new Matrix(67, 131, random);
+		Matrix N = new Matrix(131, 70, random);
+		Vector v = new Vector(131, random);
+		Vector w = new Vector(67, random);
+		OffHeapArena arena = new OffHeapArena();
+		Matrix offHeapM = arena.allocateMatrix(67, 131);
+		Matrix offHeapN = arena.allocateMatrix(131, 70);
+		offHeapM.copyFrom(M);
+		offHeapN.copyFrom(N);
+		Vector offHeapV = arena.allocateVector(131).copyFrom(v);
+		Vector offHeapW = arena.allocateVector(67).copyFrom(w);
+		assert (offHeapM.isOffHeap() && !M.isOffHeap());
+		assert (Matrix.zerosLike(offHeapM).isOffHeap());
+		assert (arena.getBytesAllocated() > (67 * 131 + 131 * 70) * 8);
+		
+		// the off-heap kernels perform the same operations in the same order
+		assert (Matrix.multiplyInto(offHeapM, offHeapV, arena.allocateVector(67)).equals(Matrix.multiply(M, v)));
+		assert (Matrix.multiplyTransposedInto(offHeapM, offHeapW, arena.allocateVector(131)).equals(Matrix.multiplyTransposed(M, w)));
+		assert (Matrix.ger(0.5, offHeapW, offHeapV, Matrix.zerosLike(offHeapM)).equals(Matrix.ger(0.5, w, v, new Matrix(67, 131))));
+		assert (Matrix.gemm(1.0, offHeapM, false, offHeapN, false, 0.0, arena.allocateMatrix(67, 70)).equals(Matrix.multiply(M, N)));
+		assert (Matrix.gemm(1.0, offHeapM, true, offHeapM, false, 0.0, arena.allocateMatrix(131, 131)).equals(Matrix.multiplyTransposedLeft(M, M)));
+		assert (Matrix.gemm(1.0, offHeapN, false, offHeapN, true, 0.0, arena.allocateMatrix(131, 131)).equals(Matrix.multiplyTransposedRight(N, N)));
+		
+		arena.close();
+		assert (arena.isClosed());
+		try {
+			offHeapM.getElement(0, 0);
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+		}
+	}
+	
+	public void testViews() {
+		Random random = new Random(44);
+		Matrix M = new Matrix(37, 23, random);
+		Matrix N = new Matrix(23, 19, random);
+		Vector v = new Vector(23, random);
+		Vector w = new Vector(37, random);
+		OffHeapArena arena = new OffHeapArena();
+		for (int k = 0; k < 3; ++k) {
+			// views at awkward offsets into one shared buffer, as the layers of a network are
+			Vector buffer = k == 2 ? arena.allocateVector(3000) : new Vector(3000, k == 0 ? Precision.DOUBLE : Precision.FLOAT);
+			Matrix viewM = buffer.viewAsMatrix(3, 37, 23).copyFrom(M);
+			Matrix viewN = buffer.viewAsMatrix(3 + 37 * 23, 23, 19).copyFrom(N);
+			Vector viewV = buffer.view(1500, 23).copyFrom(v);
+			Vector viewW = buffer.view(1523, 37).copyFrom(w);
+			Matrix copyM = Matrix.zerosLike(viewM).copyFrom(viewM);
+			Matrix copyN = Matrix.zerosLike(viewN).copyFrom(viewN);
+			Vector copyV = Vector.zerosLike(viewV).copyFrom(viewV);
+			Vector copyW = Vector.zerosLike(viewW).copyFrom(viewW);
+			
+			assert (Matrix.gemv(1.0, viewM, viewV, 0.0, buffer.view(1600, 37)).equals(Matrix.gemv(1.0, copyM, copyV, 0.0, Vector.zerosLike(copyW))));
+			assert (Matrix.gemvTransposed(1.0, viewM, viewW, 0.0, buffer.view(1700, 23)).equals(Matrix.gemvTransposed(1.0, copyM, copyW, 0.0, Vector.zerosLike(copyV))));
+			assert (Matrix.gemm(1.0, viewM, false, viewN, false, 0.0, buffer.viewAsMatrix(1800, 37, 19)).equals(Matrix.gemm(1.0, copyM, false, copyN, false, 0.0, Matrix.zerosLike(buffer.viewAsMatrix(0, 37, 19)))));
+			Matrix.ger(0.5, viewW, viewV, viewM);
+			assert (viewM.equals(Matrix.ger(0.5, copyW, copyV, copyM)));
+			// nothing outside the views was written
+			assert (buffer.getElement(0) == 0.0 && buffer.getElement(2) == 0.0 && buffer.getElement(1499) == 0.0);
+		}
+		arena.close();
+	}
+	
+	private Matrix naiveProduct(Matrix lhs, Matrix rhs) {
+		Matrix result = new Matrix(lhs.getNumRows(), rhs.getNumCols());
+		for (int i = 0; i < lhs.getNumRows(); ++i) {
+			for (int j = 0; j < rhs.getNumCols(); ++j) {
+				double sum = 0.0;
+				for (int k = 0; k < lhs.getNumCols(); ++k) {
+					sum += lhs.getElement(i, k) * rhs.getElement(k, j);
+				}
+				result.setElement(i, j, sum);
+			}
+		}
+		return result;
+	}
+	
+	private void assertClose(Matrix expected, Matrix actual) {
+		assert (expected.getNumRows() == actual.getNumRows());
+		assert (expected.getNumCols() == actual.getNumCols());
+		for (int i = 0; i < expected.getNumRows(); ++i) {
+			for (int j = 0; j < expected.getNumCols(); ++j) {
+				assert (Math.abs(expected.getElement(i, j) - actual.getElement(i, j)) < 1e-9);
+			}
+		}
+	}
+
 }
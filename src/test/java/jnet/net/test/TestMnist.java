@@ -2,7 +2,9 @@ package jnet.net.test;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -12,32 +14,42 @@ import org.junit.Test;
 
 import jnet.algorithm.LearningAlgorithm;
 import jnet.algorithm.StochasticGradientDescent;
+import jnet.data.DataException;
 import jnet.data.DataSet;
+import jnet.data.DataSetCache;
 import jnet.data.DataSetLoader;
 import jnet.net.CostFunction;
 import jnet.net.FeedForwardNetwork;
 import jnet.net.QuadraticCostFunction;
 import jnet.net.SigmoidFunction;
 import jnet.net.NetworkException;
+import jnet.net.Precision;
 
 public class TestMnist {
 
 	private String trainingSetZip = "./src/test/resources/mnist_train.csv.zip";
 	private String trainingSetFileName = "mnist_train.csv";
 	private String testSetFileName = "./src/test/resources/mnist_test.csv";
+	private String trainingSetCache = "./target/mnist_train.cache";
+	private String testSetCache = "./target/mnist_test.cache";
 	private DataSet trainingSet;
 	private DataSet testSet;
 	
 	@Before
 	public void setUp() throws Exception {
-		try (ZipFile zipFile = new ZipFile(trainingSetZip)) {
-			ZipEntry entry = zipFile.getEntry(trainingSetFileName);
-			InputStream stream = zipFile.getInputStream(entry);
-			trainingSet = DataSetLoader.loadFromInputStream(stream, "csv", 10, 5.0/6.0, 1.0/6.0);
-			trainingSet.normalize();
-			testSet = DataSetLoader.loadFromFile(testSetFileName, "csv", 10, 1.0, 0.0);
-			testSet.normalize();
-		}
+		// parsed once, then read from the caches until the sources change
+		trainingSet = DataSetCache.load(Paths.get(trainingSetCache), Paths.get(trainingSetZip), DataSetCache.Encoding.BYTE, () -> {
+			try (ZipFile zipFile = new ZipFile(trainingSetZip)) {
+				ZipEntry entry = zipFile.getEntry(trainingSetFileName);
+				InputStream stream = zipFile.getInputStream(entry);
+				return DataSetLoader.loadFromInputStream(stream, "csv", 10, 5.0/6.0, 1.0/6.0);
+			} catch (IOException e) {
+				throw new DataException(e);
+			}
+		});
+		trainingSet.normalize();
+		testSet = DataSetLoader.loadFromFile(testSetFileName, "csv", 10, 1.0, 0.0, Precision.DOUBLE, testSetCache, DataSetCache.Encoding.BYTE);
+		testSet.normalize();
 	}
 
 	@After
@@ -3,6 +3,7 @@ package jnet.net.test;
 import java.util.ArrayList;
 
 import jnet.net.Matrix;
+import jnet.net.SparseVector;
 import jnet.net.Vector;
 import junit.framework.TestCase;
 
@@ -88,6 +89,12 @@ public class TestVector extends TestCase {
 		assert (Vector.dotProduct(left, right) == expectedResult);
 	}
 
+	public void testDotProductUnrolled() {
+		double[] values = new double[] {1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0};
+		Vector v = new Vector(values);
+		assert (Vector.dotProduct(v, v) == 140.0);
+	}
+
 	public void testSchurProduct() {
 		//fail("Not yet implemented");
 		Vector left = new Vector(new double[]{1.0, 2.0, 3.0});
@@ -109,4 +116,66 @@ public class TestVector extends TestCase {
 		Matrix result = new Matrix(prod);
 		assert (Vector.dyadicProduct(left, right).equals(result));
 	}
-}
\ No newline at end of file
+	
+	public void testAxpy() {
+		Vector x = new Vector(new double[]{1.0, 2.0, 3.0});
+		Vector y = new Vector(new double[]{2.0, 3.0, 4.0});
+		Vector result = Vector.axpy(2.0, x, y);
+		assert (result == y);
+		assert (y.equals(new Vector(new double[]{4.0, 7.0, 10.0})));
+	}
+	
+	public void testScaleInPlace() {
+		Vector v = new Vector(new double[]{1.0, 2.0, 3.0});
+		assert (v.scaleInPlace(-2.0) == v);
+		assert (v.equals(new Vector(new double[]{-2.0, -4.0, -6.0})));
+	}
+	
+	public void testSchurInPlace() {
+		Vector left = new Vector(new double[]{1.0, 2.0, 3.0});
+		Vector right = new Vector(new double[]{2.0,3.0,4.0});
+		assert (left.schurInPlace(right) == left);
+		assert (left.equals(new Vector(new double[]{2.0, 6.0, 12.0})));
+	}
+	
+	public void testCopyFromAndFill() {
+		Vector v = new Vector(3);
+		v.copyFrom(new Vector(new double[]{1.0, 2.0, 3.0}));
+		assert (v.equals(new Vector(new double[]{1.0, 2.0, 3.0})));
+		v.fill(0.5);
+		assert (v.equals(new Vector(3, 0.5)));
+	}
+	
+	public void testViews() {
+		Vector v = new Vector(new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0});
+		Vector view = v.view(4, 3);
+		assert (view.equals(new Vector(new double[]{5.0, 6.0, 7.0})));
+		view.scaleInPlace(2.0);
+		assert (v.getElement(4) == 10.0 && v.getElement(3) == 4.0);
+		
+		Matrix m = v.viewAsMatrix(1, 2, 2);
+		assert (m.equals(new Matrix(new double[][]{{2.0, 3.0}, {4.0, 10.0}})));
+		Vector.axpy(1.0, new Vector(new double[]{1.0, 1.0}), v.view(1, 2));
+		assert (m.getElement(0, 0) == 3.0 && m.getElement(0, 1) == 4.0);
+		assert (Matrix.gemv(1.0, m, new Vector(new double[]{1.0, 1.0}), 0.0, new Vector(2)).equals(new Vector(new double[]{7.0, 14.0})));
+		
+		assert (new Vector(new double[]{3.0, 4.0}).norm() == 5.0);
+	}
+	
+	public void testSparseVector() {
+		SparseVector v = new SparseVector(5, new int[]{1, 3}, new double[]{2.0, -1.0});
+		assert (v.getSize() == 5);
+		assert (v.getNumNonZeros() == 2);
+		assert (v.equals(new Vector(new double[]{0.0, 2.0, 0.0, -1.0, 0.0})));
+		assert (SparseVector.fromDense(new Vector(new double[]{0.0, 2.0, 0.0, -1.0, 0.0})).equals(v));
+		
+		v.setElement(3, 4.0);
+		v.setElement(0, 0.0);
+		assert (v.getElement(3) == 4.0 && v.getElement(0) == 0.0);
+		try {
+			v.setElement(0, 1.0);
+			fail("Expected UnsupportedOperationException");
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+}
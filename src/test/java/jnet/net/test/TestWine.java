@@ -1,15 +1,43 @@
 package jnet.net.test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
 import junit.framework.TestCase;
 import jnet.net.CostFunction;
 import jnet.net.QuadraticCostFunction;
 import jnet.net.SigmoidFunction;
 import jnet.net.NetworkException;
+import jnet.algorithm.AdamOptimizer;
+import jnet.algorithm.BackPropagation;
+import jnet.algorithm.EarlyStopping;
+import jnet.algorithm.HogwildGradientDescent;
 import jnet.algorithm.LearningAlgorithm;
+import jnet.algorithm.LearningRateSchedule;
+import jnet.algorithm.MomentumOptimizer;
 import jnet.algorithm.StochasticGradientDescent;
+import jnet.data.BatchPipeline;
+import jnet.data.DataException;
+import jnet.data.DataInstance;
 import jnet.data.DataSet;
 import jnet.data.DataSetLoader;
+import jnet.data.InstanceSource;
+import jnet.data.MiniBatch;
+import jnet.data.StreamingDataSet;
 import jnet.net.FeedForwardNetwork;
+import jnet.net.Layer;
+import jnet.net.LinearAlgebraBackend;
+import jnet.net.Matrix;
+import jnet.net.OffHeapArena;
+import jnet.net.Precision;
+import jnet.net.SparseVector;
+import jnet.net.Vector;
 
 public class TestWine extends TestCase {
 
@@ -26,6 +54,23 @@ public class TestWine extends TestCase {
 		super.tearDown();
 	}
 	
+	/**
+	 * Create a 13-6-3 network whose weights and biases are drawn from a
+	 * fixed seed. The validation subset holds only the last class of the
+	 * file, so from some random starting points training does not lower
+	 * the error on it
+	 * @return
+	 */
+	private static FeedForwardNetwork createSeededNetwork()
+	{
+		FeedForwardNetwork network = new FeedForwardNetwork(new int[] {13, 6, 3}, new SigmoidFunction());
+		Random random = new Random(1);
+		for (int i = 0; i < network.getParameters().getSize(); ++i) {
+			network.getParameters().setElement(i, random.nextGaussian());
+		}
+		return network;
+	}
+	
 	public void testWine() {
 		//fail("Not yet implemented");
 		FeedForwardNetwork network = new FeedForwardNetwork(new int[] {13, 6, 3}, new SigmoidFunction());
@@ -45,5 +90,434 @@ public class TestWine extends TestCase {
 			e.printStackTrace();
 		}
 	}
+	
+	public void testWineFloat() {
+		FeedForwardNetwork network = new FeedForwardNetwork(new int[] {13, 6, 3}, new SigmoidFunction(), Precision.FLOAT);
+		CostFunction costFunction = new QuadraticCostFunction();
+		LearningAlgorithm sgd = new StochasticGradientDescent(500, 5, 0.25, 0);
+		
+		try {
+			DataSet floatDataSet = DataSetLoader.loadFromFile(dataFileName, "csv", "EEEIIIIIIIIIIIII", Precision.FLOAT);
+			floatDataSet.normalize();
+			network.train(floatDataSet.getTrainingSubset(), floatDataSet.getValidationSubset(), sgd, costFunction);
+			assert (network.getOutputLayer().getWeights().getPrecision() == Precision.FLOAT);
+			assert (network.evaluate(floatDataSet.getIterator().next()).getPrecision() == Precision.FLOAT);
+		} catch (DataException e) {
+			assertTrue("Test failed", false);
+		} catch (NetworkException e) {
+			assertTrue("Test failed", false);
+		}
+	}
+	
+	public void testWineSparse() {
+		FeedForwardNetwork network = createSeededNetwork();
+		CostFunction costFunction = new QuadraticCostFunction();
+		LearningAlgorithm sgd = new StochasticGradientDescent(500, 5, 0.25, 0);
+		
+		try {
+			DataSet sparseDataSet = DataSetLoader.loadFromFile(dataFileName, "csv", "EEEIIIIIIIIIIIII", Precision.DOUBLE, true);
+			sparseDataSet.normalize();
+			assert (sparseDataSet.getIterator().next().getInputs() instanceof SparseVector);
+			double initialError = network.validateOrTest(sparseDataSet.getValidationSubset(), costFunction).getMeanError();
+			network.train(sparseDataSet.getTrainingSubset(), sparseDataSet.getValidationSubset(), sgd, costFunction);
+			assert (network.validateOrTest(sparseDataSet.getValidationSubset(), costFunction).getMeanError() < initialError);
+		} catch (DataException e) {
+			assertTrue("Test failed", false);
+		} catch (NetworkException e) {
+			assertTrue("Test failed", false);
+		}
+	}
+	
+	public void testWineOffHeap() {
+		CostFunction costFunction = new QuadraticCostFunction();
+		LearningAlgorithm sgd = new StochasticGradientDescent(500, 5, 0.25, 0);
+		
+		try (OffHeapArena arena = new OffHeapArena()) {
+			FeedForwardNetwork network = new FeedForwardNetwork(new int[] {13, 6, 3}, new SigmoidFunction(), LinearAlgebraBackend.getDefault(), arena);
+			network.train(dataSet.getTrainingSubset(), dataSet.getValidationSubset(), sgd, costFunction);
+			assert (network.getOutputLayer().getWeights().isOffHeap());
+			assert (network.evaluate(dataSet.getIterator().next()).isOffHeap());
+		} catch (NetworkException e) {
+			assertTrue("Test failed", false);
+		}
+	}
+
+	public void testWineOffHeapMatchesHeap() {
+		CostFunction costFunction = new QuadraticCostFunction();
+		StochasticGradientDescent sgd = new StochasticGradientDescent(1, 5, 0.25, 0);
+		
+		try (OffHeapArena arena = new OffHeapArena()) {
+			FeedForwardNetwork heap = createSeededNetwork();
+			FeedForwardNetwork offHeap = new FeedForwardNetwork(new int[] {13, 6, 3}, new SigmoidFunction(), LinearAlgebraBackend.getDefault(), arena);
+			offHeap.getParameters().copyFrom(heap.getParameters());
+			assert (offHeap.getParameters().isOffHeap());
+			AdamOptimizer heapOptimizer = new AdamOptimizer(0.01);
+			AdamOptimizer offHeapOptimizer = new AdamOptimizer(0.01);
+			
+			// the same batches in the same order, by instance and batched
+			for (int epoch = 0; epoch < 10; ++epoch) {
+				for (DataSet batch : dataSet.getTrainingSubset().getMiniBatches(5)) {
+					for (FeedForwardNetwork network : new FeedForwardNetwork[] {heap, offHeap}) {
+						if (epoch % 2 == 0) {
+							sgd.calculateAndCaptureBatchGradient(network, batch, costFunction);
+						} else {
+							for (DataInstance instance : batch.getDataInstances()) {
+								sgd.calculateAndCaptureGradient(network, instance, costFunction);
+							}
+						}
+					}
+					heapOptimizer.update(heap.getParameters(), heap.getGradients(), 5);
+					offHeapOptimizer.update(offHeap.getParameters(), offHeap.getGradients(), 5);
+					heap.getGradients().fill(0.0);
+					offHeap.getGradients().fill(0.0);
+				}
+			}
+			
+			// the off-heap kernels give bit-for-bit the weights of the heap ones
+			assert (!offHeap.getParameters().equals(createSeededNetwork().getParameters()));
+			assert (offHeap.getParameters().equals(heap.getParameters()));
+		}
+	}
+	
+	public void testWineDataParallel() {
+		CostFunction costFunction = new QuadraticCostFunction();
+		DataSet trainingSet = dataSet.getTrainingSubset();
+		
+		// batches that split evenly and unevenly, across numbers of threads
+		// whose pairwise reduction does and does not come out even
+		for (int numThreads : new int[] {2, 3, 4}) {
+			for (int batchSize : new int[] {8, 11}) {
+				FeedForwardNetwork network = createSeededNetwork();
+				StochasticGradientDescent sgd = new StochasticGradientDescent(1, batchSize, 0.25, 0, numThreads);
+				MiniBatch batch = new MiniBatch(new Matrix(batchSize, 13), new Matrix(batchSize, 3));
+				trainingSet.getMiniBatches(batchSize).get(0).copyInstances(batch.getInputs(), batch.getExpectedOutputs());
+				
+				sgd.calculateAndCaptureBatchGradient(network, batch, costFunction);
+				Vector serial = new Vector(network.getGradients());
+				network.getGradients().fill(0.0);
+				sgd.calculateAndCaptureBatchGradientInParallel(network, batch, costFunction);
+				for (int i = 0; i < serial.getSize(); ++i) {
+					assert (Math.abs(serial.getElement(i) - network.getGradients().getElement(i)) < 1e-12);
+				}
+				
+				// the workers' sums were cleared for the next batch
+				network.getGradients().fill(0.0);
+				sgd.calculateAndCaptureBatchGradientInParallel(network, batch, costFunction);
+				for (int i = 0; i < serial.getSize(); ++i) {
+					assert (Math.abs(serial.getElement(i) - network.getGradients().getElement(i)) < 1e-12);
+				}
+			}
+		}
+	}
+	
+	public void testWinePrefetch() throws DataException {
+		DataSet trainingSet = dataSet.getTrainingSubset();
+		int batchSize = 8;
+		int numBatches = trainingSet.getNumInstances() / batchSize;
+		Random passRandom = new Random(7);
+		
+		// each epoch's batches hold, in order, the rows of a pass shuffled by
+		// the pipeline's generator, less the part-filled last batch
+		try (BatchPipeline pipeline = new BatchPipeline(trainingSet, batchSize, 4, Precision.DOUBLE, new Random(7))) {
+			for (int epoch = 0; epoch < 3; ++epoch) {
+				InstanceSource.Pass pass = trainingSet.startPass(passRandom);
+				int batchNo = 0;
+				for (MiniBatch batch = pipeline.next(); batch != null; batch = pipeline.next()) {
+					for (int row = 0; row < batchSize; ++row) {
+						assert (pass.next());
+						DataInstance instance = pass.get();
+						for (int j = 0; j < 13; ++j) {
+							assert (batch.getInputs().getElement(row, j) == instance.getInputs().getElement(j));
+						}
+						for (int j = 0; j < 3; ++j) {
+							assert (batch.getExpectedOutputs().getElement(row, j) == instance.getExpectedOutputs().getElement(j));
+						}
+					}
+					++batchNo;
+				}
+				assert (batchNo == numBatches);
+			}
+		}
+	}
+	
+	public void testWineStreaming() throws DataException {
+		// small blocks, so each shuffled pass reads the file in a shuffled order of blocks
+		StreamingDataSet streamingSet = DataSetLoader.streamFromFile(dataFileName, "csv", "EEEIIIIIIIIIIIII", Precision.DOUBLE, 32, 1024);
+		streamingSet.normalize();
+		List<String> trainingRows = toRows(streamingSet.getTrainingSubset().startPass(null));
+		List<String> validationRows = toRows(streamingSet.getValidationSubset().startPass(null));
+		assert (trainingRows.size() == dataSet.getTrainingSubset().getNumInstances());
+		
+		Random random = new Random(3);
+		for (int epoch = 0; epoch < 3; ++epoch) {
+			List<String> shuffledRows = toRows(streamingSet.getTrainingSubset().startPass(random));
+			assert (!shuffledRows.equals(trainingRows));
+			// never a validation row
+			for (String row : shuffledRows) {
+				assert (!validationRows.contains(row));
+			}
+			// and every training row exactly once
+			Collections.sort(shuffledRows);
+			List<String> sortedRows = new ArrayList<>(trainingRows);
+			Collections.sort(sortedRows);
+			assert (shuffledRows.equals(sortedRows));
+		}
+	}
+	
+	private static List<String> toRows(InstanceSource.Pass pass) throws DataException {
+		List<String> rows = new ArrayList<>();
+		while (pass.next()) {
+			DataInstance instance = pass.get();
+			StringBuilder row = new StringBuilder();
+			for (int i = 0; i < instance.getInputs().getSize(); ++i) {
+				row.append(instance.getInputs().getElement(i)).append(',');
+			}
+			for (int i = 0; i < instance.getExpectedOutputs().getSize(); ++i) {
+				row.append(instance.getExpectedOutputs().getElement(i)).append(',');
+			}
+			rows.add(row.toString());
+		}
+		return rows;
+	}
+	
+	public void testWineHogwild() {
+		FeedForwardNetwork network = createSeededNetwork();
+		CostFunction costFunction = new QuadraticCostFunction();
+		LearningAlgorithm hogwild = new HogwildGradientDescent(200, 0.05, 4);
+		
+		try {
+			double initialError = network.validateOrTest(dataSet.getValidationSubset(), costFunction).getMeanError();
+			network.train(dataSet.getTrainingSubset(), dataSet.getValidationSubset(), hogwild, costFunction);
+			assert (network.validateOrTest(dataSet.getValidationSubset(), costFunction).getMeanError() < initialError);
+		} catch (NetworkException e) {
+			assertTrue("Test failed", false);
+		}
+	}
+	
+	public void testWineAdam() {
+		FeedForwardNetwork network = createSeededNetwork();
+		CostFunction costFunction = new QuadraticCostFunction();
+		LearningAlgorithm sgd = new StochasticGradientDescent(100, 5, new AdamOptimizer(0.01));
+		
+		try {
+			double initialError = network.validateOrTest(dataSet.getValidationSubset(), costFunction).getMeanError();
+			network.train(dataSet.getTrainingSubset(), dataSet.getValidationSubset(), sgd, costFunction);
+			assert (network.validateOrTest(dataSet.getValidationSubset(), costFunction).getMeanError() < initialError);
+		} catch (NetworkException e) {
+			assertTrue("Test failed", false);
+		}
+	}
+	
+	public void testWineAsyncValidation() {
+		FeedForwardNetwork network = new FeedForwardNetwork(new int[] {13, 6, 3}, new SigmoidFunction());
+		CostFunction costFunction = new QuadraticCostFunction();
+		StochasticGradientDescent sgd = new StochasticGradientDescent(200, 5, 0.25, 0);
+		EarlyStopping earlyStopping = new EarlyStopping(5, 1e-3, true);
+		sgd.setEarlyStopping(earlyStopping);
+		sgd.setAsyncValidation(true);
+		List<Integer> epochs = Collections.synchronizedList(new ArrayList<>());
+		sgd.setValidationListener((epoch, stats) -> epochs.add(epoch));
+		
+		try {
+			network.train(dataSet.getTrainingSubset(), dataSet.getValidationSubset(), sgd, costFunction);
+			// every epoch trained was validated, in order
+			assert (epochs.size() == sgd.getNumEpochsTrained());
+			for (int i = 0; i < epochs.size(); ++i) {
+				assert (epochs.get(i) == i);
+			}
+			assert (network.validateOrTest(dataSet.getValidationSubset(), costFunction).getMeanError() == earlyStopping.getBestError());
+		} catch (NetworkException e) {
+			assertTrue("Test failed", false);
+		}
+	}
+	
+	public void testWineEarlyStopping() {
+		FeedForwardNetwork network = new FeedForwardNetwork(new int[] {13, 6, 3}, new SigmoidFunction());
+		CostFunction costFunction = new QuadraticCostFunction();
+		StochasticGradientDescent sgd = new StochasticGradientDescent(500, 5, 0.25, 0);
+		EarlyStopping earlyStopping = new EarlyStopping(5, 1e-3, true);
+		sgd.setEarlyStopping(earlyStopping);
+		sgd.setLearningRateSchedule(LearningRateSchedule.warmup(2, LearningRateSchedule.cosine(100, 0.01)));
+		
+		try {
+			network.train(dataSet.getTrainingSubset(), dataSet.getValidationSubset(), sgd, costFunction);
+			assert (sgd.getNumEpochsTrained() <= 500);
+			assert (sgd.getNumEpochsTrained() > earlyStopping.getBestEpoch());
+			assert (sgd.getOptimizer().getLearningRate() == 0.25);
+			// the weights of the best epoch were restored
+			assert (network.validateOrTest(dataSet.getValidationSubset(), costFunction).getMeanError() == earlyStopping.getBestError());
+		} catch (NetworkException e) {
+			assertTrue("Test failed", false);
+		}
+	}
+	
+	public void testWineCheckpoint() throws IOException {
+		FeedForwardNetwork network = new FeedForwardNetwork(new int[] {13, 6, 3}, new SigmoidFunction());
+		CostFunction costFunction = new QuadraticCostFunction();
+		Path checkpoint = Files.createTempFile("jnet", ".checkpoint");
+		
+		try {
+			StochasticGradientDescent sgd = new StochasticGradientDescent(20, 5, new AdamOptimizer(0.01));
+			sgd.setCheckpointing(checkpoint, 10);
+			network.train(dataSet.getTrainingSubset(), dataSet.getValidationSubset(), sgd, costFunction);
+			
+			// a fresh network and trainer carry on from the last checkpoint
+			FeedForwardNetwork resumed = new FeedForwardNetwork(new int[] {13, 6, 3}, new SigmoidFunction());
+			StochasticGradientDescent resumedSgd = new StochasticGradientDescent(30, 5, new AdamOptimizer(0.01));
+			resumedSgd.resume(resumed, checkpoint);
+			assert (resumed.getParameters().equals(network.getParameters()));
+			resumed.train(dataSet.getTrainingSubset(), dataSet.getValidationSubset(), resumedSgd, costFunction);
+			assert (resumedSgd.getNumEpochsTrained() == 30);
+		} catch (NetworkException e) {
+			assertTrue("Test failed", false);
+		} finally {
+			Files.deleteIfExists(checkpoint);
+		}
+	}
+	
+	public void testWineCheckpointExactResume() throws IOException {
+		CostFunction costFunction = new QuadraticCostFunction();
+		Path checkpoint = Files.createTempFile("jnet", ".checkpoint");
+		
+		try {
+			// a straight run, checkpointed after ten of its fifteen epochs
+			FeedForwardNetwork network = createSeededNetwork();
+			StochasticGradientDescent sgd = new StochasticGradientDescent(15, 5, new AdamOptimizer(0.01));
+			EarlyStopping earlyStopping = new EarlyStopping(100, 0, true);
+			sgd.setEarlyStopping(earlyStopping);
+			sgd.setCheckpointing(checkpoint, 10);
+			network.train(dataSet.getTrainingSubset(), dataSet.getValidationSubset(), sgd, costFunction);
+			
+			// a fresh network and trainer carry on from the checkpoint to the same end
+			FeedForwardNetwork resumed = new FeedForwardNetwork(new int[] {13, 6, 3}, new SigmoidFunction());
+			StochasticGradientDescent resumedSgd = new StochasticGradientDescent(15, 5, new AdamOptimizer(0.01));
+			EarlyStopping resumedStopping = new EarlyStopping(100, 0, true);
+			resumedSgd.setEarlyStopping(resumedStopping);
+			resumedSgd.resume(resumed, checkpoint);
+			resumed.train(dataSet.getTrainingSubset(), dataSet.getValidationSubset(), resumedSgd, costFunction);
+			
+			assert (resumedStopping.getBestEpoch() == earlyStopping.getBestEpoch());
+			assert (resumedStopping.getBestError() == earlyStopping.getBestError());
+			assert (resumed.getParameters().equals(network.getParameters()));
+		} catch (NetworkException e) {
+			assertTrue("Test failed", false);
+		} finally {
+			Files.deleteIfExists(checkpoint);
+		}
+	}
+	
+	public void testWineCheckpointMismatch() throws IOException {
+		FeedForwardNetwork network = new FeedForwardNetwork(new int[] {13, 6, 3}, new SigmoidFunction());
+		CostFunction costFunction = new QuadraticCostFunction();
+		Path checkpoint = Files.createTempFile("jnet", ".checkpoint");
+		
+		try {
+			StochasticGradientDescent sgd = new StochasticGradientDescent(10, 5, new AdamOptimizer(0.01));
+			sgd.setCheckpointing(checkpoint, 10);
+			network.train(dataSet.getTrainingSubset(), dataSet.getValidationSubset(), sgd, costFunction);
+			
+			// a checkpoint of another optimizer is rejected before anything is restored
+			FeedForwardNetwork other = new FeedForwardNetwork(new int[] {13, 6, 3}, new SigmoidFunction());
+			Vector parameters = new Vector(other.getParameters());
+			try {
+				new StochasticGradientDescent(10, 5, new MomentumOptimizer(0.1, 0.9)).resume(other, checkpoint);
+				assertTrue("Test failed", false);
+			} catch (NetworkException e) {
+			}
+			assert (other.getParameters().equals(parameters));
+			
+			// and a checkpoint of a network of another shape
+			FeedForwardNetwork narrower = new FeedForwardNetwork(new int[] {13, 4, 3}, new SigmoidFunction());
+			Vector narrowerParameters = new Vector(narrower.getParameters());
+			try {
+				new StochasticGradientDescent(10, 5, new AdamOptimizer(0.01)).resume(narrower, checkpoint);
+				assertTrue("Test failed", false);
+			} catch (NetworkException e) {
+			}
+			assert (narrower.getParameters().equals(narrowerParameters));
+			
+			// or with another activation function
+			FeedForwardNetwork relabelled = new FeedForwardNetwork(new int[] {13, 6, 3}, new SigmoidFunction() {});
+			try {
+				new StochasticGradientDescent(10, 5, new AdamOptimizer(0.01)).resume(relabelled, checkpoint);
+				assertTrue("Test failed", false);
+			} catch (NetworkException e) {
+			}
+			
+			// or by a trainer which stops early when the run checkpointed did not
+			StochasticGradientDescent stopping = new StochasticGradientDescent(10, 5, new AdamOptimizer(0.01));
+			stopping.setEarlyStopping(new EarlyStopping(5, 0, true));
+			try {
+				stopping.resume(other, checkpoint);
+				assertTrue("Test failed", false);
+			} catch (NetworkException e) {
+			}
+			assert (other.getParameters().equals(parameters));
+			
+			// as is a checkpoint cut short in the optimizer state
+			byte[] bytes = Files.readAllBytes(checkpoint);
+			Files.write(checkpoint, Arrays.copyOf(bytes, bytes.length - 8));
+			try {
+				new StochasticGradientDescent(10, 5, new AdamOptimizer(0.01)).resume(other, checkpoint);
+				assertTrue("Test failed", false);
+			} catch (NetworkException e) {
+			}
+			assert (other.getParameters().equals(parameters));
+		} catch (NetworkException e) {
+			assertTrue("Test failed", false);
+		} finally {
+			Files.deleteIfExists(checkpoint);
+		}
+	}
+	
+	public void testEvaluateBatch() {
+		FeedForwardNetwork network = new FeedForwardNetwork(new int[] {13, 6, 3}, new SigmoidFunction());
+		DataSet batch = dataSet.getMiniBatches(7).get(0);
+		
+		try {
+			Matrix outputs = network.evaluateBatch(batch);
+			assert (outputs.getNumRows() == 7);
+			int row = 0;
+			for (DataInstance instance : batch.getDataInstances()) {
+				Vector output = network.evaluate(instance);
+				for (int j = 0; j < output.getSize(); ++j) {
+					assert (Math.abs(outputs.getElement(row, j) - output.getElement(j)) < 1e-12);
+				}
+				++row;
+			}
+		} catch (NetworkException e) {
+			assertTrue("Test failed", false);
+		}
+	}
+	
+	public void testBatchBackPropagation() {
+		FeedForwardNetwork network = new FeedForwardNetwork(new int[] {13, 6, 3}, new SigmoidFunction());
+		CostFunction costFunction = new QuadraticCostFunction();
+		DataSet batch = dataSet.getMiniBatches(10).get(0);
+		BackPropagation backPropagation = new BackPropagation();
+		
+		try {
+			Layer layer = network.getOutputLayer().getPrevious();
+			Matrix weightGradient = Matrix.zerosLike(layer.getWeights());
+			Vector biasGradient = Vector.zerosLike(layer.getBiases());
+			for (DataInstance instance : batch.getDataInstances()) {
+				backPropagation.execute(instance, network, costFunction);
+				weightGradient.add(layer.getWeightGradient());
+				Vector.axpy(1.0, layer.getBiasGradient(), biasGradient);
+			}
+			
+			backPropagation.executeBatch(batch, network, costFunction);
+			Matrix batchWeightGradient = layer.addWeightGradientBatch(Matrix.zerosLike(layer.getWeights()));
+			Vector batchBiasGradient = layer.addBiasGradientBatch(Vector.zerosLike(layer.getBiases()));
+			for (int i = 0; i < weightGradient.getNumRows(); ++i) {
+				for (int j = 0; j < weightGradient.getNumCols(); ++j) {
+					assert (Math.abs(weightGradient.getElement(i, j) - batchWeightGradient.getElement(i, j)) < 1e-12);
+				}
+				assert (Math.abs(biasGradient.getElement(i) - batchBiasGradient.getElement(i)) < 1e-12);
+			}
+		} catch (NetworkException e) {
+			assertTrue("Test failed", false);
+		}
+	}
 
 }